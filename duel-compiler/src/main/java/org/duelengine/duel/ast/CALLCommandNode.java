@@ -65,7 +65,9 @@ public class CALLCommandNode extends CommandNode {
 			!name.equalsIgnoreCase(INDEX) &&
 			!name.equalsIgnoreCase(COUNT) &&
 			!name.equalsIgnoreCase(KEY) &&
-			!name.equalsIgnoreCase(IFCommandNode.IF_ATTR)) {
+			!name.equalsIgnoreCase(IFCommandNode.IF_ATTR) &&
+			!name.equalsIgnoreCase(CACHE_KEY) &&
+			!name.equalsIgnoreCase(CACHE_TTL)) {
 
 			throw new InvalidNodeException("Attribute invalid on CALL command: "+name, value);
 		}
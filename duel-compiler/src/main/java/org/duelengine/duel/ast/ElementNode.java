@@ -14,6 +14,16 @@ public class ElementNode extends ContainerNode {
 	private static final String EXT_LOAD = "load";
 	private static final String CMD_LOAD = "$load";
 
+	/**
+	 * Marks the subtree as cacheable by the given key
+	 */
+	public static final String CACHE_KEY = "cache-key";
+
+	/**
+	 * Optional lifetime in seconds of a cached subtree
+	 */
+	public static final String CACHE_TTL = "cache-ttl";
+
 	private static final String CONFIG_RESOURCE = "org.duelengine.duel.ast.HTMLTags";
 	private static final Set<String> voidTags;
 	private static final Set<String> linkTags;
@@ -24,6 +34,8 @@ public class ElementNode extends ContainerNode {
 	private final boolean isVoid;
 	private final boolean isLinkableTag;
 	private final Map<String, DuelNode> attributes = new LinkedHashMap<String, DuelNode>();
+	private DuelNode cacheKey;
+	private DuelNode cacheTTL;
 
 	static {
 		// definitions maintained in HTMLTags.properties
@@ -152,6 +164,30 @@ public class ElementNode extends ContainerNode {
 		attributes.clear();
 	}
 
+	/**
+	 * Gets the key which identifies cached output of this subtree
+	 * @return null if not cacheable
+	 */
+	public DuelNode getCacheKey() {
+		return cacheKey;
+	}
+
+	public void setCacheKey(DuelNode value) {
+		cacheKey = value;
+	}
+
+	/**
+	 * Gets the lifetime in seconds of cached output of this subtree
+	 * @return null if cached until evicted
+	 */
+	public DuelNode getCacheTTL() {
+		return cacheTTL;
+	}
+
+	public void setCacheTTL(DuelNode value) {
+		cacheTTL = value;
+	}
+
 	public boolean isSelf(String tag) {
 		return (tagName == null) ? (tag == null) : tagName.equalsIgnoreCase(tag);
 	}
@@ -203,6 +239,13 @@ public class ElementNode extends ContainerNode {
 				.append('"');
 		}
 
+		if (cacheKey != null) {
+			buffer.append(' ').append(CACHE_KEY).append("=\"").append(cacheKey).append('"');
+		}
+		if (cacheTTL != null) {
+			buffer.append(' ').append(CACHE_TTL).append("=\"").append(cacheTTL).append('"');
+		}
+
 		if (hasChildren()) {
 			buffer.append('>');
 			super.toString(buffer).append("</").append(tagName);
@@ -238,6 +281,13 @@ public class ElementNode extends ContainerNode {
 			}
 		}
 
+		if (cacheKey == null ? that.cacheKey != null : !cacheKey.equals(that.cacheKey)) {
+			return false;
+		}
+		if (cacheTTL == null ? that.cacheTTL != null : !cacheTTL.equals(that.cacheTTL)) {
+			return false;
+		}
+
 		return super.equals(that);
 	}
 
@@ -8,6 +8,7 @@ public class VIEWCommandNode extends CommandNode {
 	private static final String NAME = "$view";
 	private static final CommandName CMD = CommandName.VIEW;
 	private String name;
+	private String model;
 	private boolean clientOnly;
 	private boolean serverOnly;
 
@@ -27,6 +28,22 @@ public class VIEWCommandNode extends CommandNode {
 		name = value;
 	}
 
+	/**
+	 * Gets the fully qualified name of the Java type bound to the view data
+	 * @return
+	 */
+	public String getModel() {
+		return model;
+	}
+
+	/**
+	 * Sets the fully qualified name of the Java type bound to the view data
+	 * @param value
+	 */
+	public void setModel(String value) {
+		model = value;
+	}
+
 	public boolean isClientOnly() {
 		return clientOnly;
 	}
@@ -72,6 +89,14 @@ public class VIEWCommandNode extends CommandNode {
 
 			name = (attrValue == null ? null : ((LiteralNode)attrValue).getValue());
 
+		} else if ("model".equalsIgnoreCase(attrName)) {
+			if (attrValue != null && !(attrValue instanceof LiteralNode)) {
+				// Syntax error
+				throw new InvalidNodeException("VIEW model must be a string literal: "+attrValue.getClass(), attrValue);
+			}
+
+			model = (attrValue == null ? null : ((LiteralNode)attrValue).getValue());
+
 		} else if ("client-only".equalsIgnoreCase(attrName)) {
 			clientOnly = true;
 
@@ -96,6 +121,13 @@ public class VIEWCommandNode extends CommandNode {
 				.append('"');
 		}
 
+		if (model != null && !model.isEmpty()) {
+			buffer
+				.append(" model=\"")
+				.append(model)
+				.append('"');
+		}
+
 		if (clientOnly) {
 			buffer.append(" client-only");
 		}
@@ -45,8 +45,14 @@ public class CodeBinaryOperatorExpression extends CodeExpression {
 	public Class<?> getResultType() {
 		switch (operator) {
 			case ADD:
+				// anything but numbers and booleans is concatenated
+				if (left != null && isConcatenated(left.getResultType()) ||
+					right != null && isConcatenated(right.getResultType())) {
+					return String.class;
+				}
+				return Number.class;
+
 			case ADD_ASSIGN:
-				// TODO: ADD is ambiguous
 			case SUBTRACT:
 			case SUBTRACT_ASSIGN:
 			case MULTIPLY:
@@ -102,6 +108,10 @@ public class CodeBinaryOperatorExpression extends CodeExpression {
 		}
 	}
 
+	private static boolean isConcatenated(Class<?> exprType) {
+		return !DuelData.isNumber(exprType) && !DuelData.isBoolean(exprType);
+	}
+
 	@Override
 	public void visit(CodeVisitor visitor) {
 		if (visitor.visit(this)) {
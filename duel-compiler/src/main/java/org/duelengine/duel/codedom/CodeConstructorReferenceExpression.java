@@ -0,0 +1,56 @@
+package org.duelengine.duel.codedom;
+
+import java.util.function.Supplier;
+
+/**
+ * Represents a reference to the default constructor of a type
+ */
+public class CodeConstructorReferenceExpression extends CodeExpression {
+
+	private String typeName;
+
+	public CodeConstructorReferenceExpression() {
+	}
+
+	public CodeConstructorReferenceExpression(String typeName) {
+		this.typeName = typeName;
+	}
+
+	public String getTypeName() {
+		return typeName;
+	}
+
+	public void setTypeName(String value) {
+		typeName = value;
+	}
+
+	@Override
+	public Class<?> getResultType() {
+		return Supplier.class;
+	}
+
+	@Override
+	public boolean equals(Object arg) {
+		if (!(arg instanceof CodeConstructorReferenceExpression)) {
+			// includes null
+			return false;
+		}
+
+		CodeConstructorReferenceExpression that = (CodeConstructorReferenceExpression)arg;
+		if (this.typeName == null ? that.typeName != null : !this.typeName.equals(that.typeName)) {
+			return false;
+		}
+		return super.equals(arg);
+	}
+
+	@Override
+	public int hashCode() {
+		final int HASH_PRIME = 1000003;
+
+		int hash = super.hashCode();
+		if (typeName != null) {
+			hash = hash * HASH_PRIME + typeName.hashCode();
+		}
+		return hash;
+	}
+}
@@ -1,12 +1,14 @@
 package org.duelengine.duel.codedom;
 
 /**
- * Represents an instance field
+ * Represents a field
  */
 public class CodeField extends CodeMember {
 
 	private Class<?> type = Object.class;
 	private CodeExpression initExpression;
+	private boolean isStatic;
+	private boolean isFinal;
 
 	public CodeField() {
 	}
@@ -39,6 +41,22 @@ public class CodeField extends CodeMember {
 		initExpression = value;
 	}
 
+	public boolean isStatic() {
+		return isStatic;
+	}
+
+	public void setStatic(boolean value) {
+		isStatic = value;
+	}
+
+	public boolean isFinal() {
+		return isFinal;
+	}
+
+	public void setFinal(boolean value) {
+		isFinal = value;
+	}
+
 	@Override
 	public void visit(CodeVisitor visitor) {
 		if (visitor.visit(this)) {
@@ -62,6 +80,9 @@ public class CodeField extends CodeMember {
 		if (this.initExpression == null ? that.initExpression != null : !this.initExpression.equals(that.initExpression)) {
 			return false;
 		}
+		if (this.isStatic != that.isStatic || this.isFinal != that.isFinal) {
+			return false;
+		}
 
 		return super.equals(that);
 	}
@@ -0,0 +1,2964 @@
+package org.duelengine.duel.codegen;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.TypeVariable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.duelengine.duel.DuelContext;
+import org.duelengine.duel.DuelData;
+import org.duelengine.duel.DuelPart;
+import org.duelengine.duel.DuelView;
+import org.duelengine.duel.JSUtility;
+import org.duelengine.duel.ast.VIEWCommandNode;
+import org.duelengine.duel.codedom.AccessModifierType;
+import org.duelengine.duel.codedom.CodeArrayCreateExpression;
+import org.duelengine.duel.codedom.CodeBinaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeBinaryOperatorType;
+import org.duelengine.duel.codedom.CodeCastExpression;
+import org.duelengine.duel.codedom.CodeCommentStatement;
+import org.duelengine.duel.codedom.CodeConditionStatement;
+import org.duelengine.duel.codedom.CodeConstructor;
+import org.duelengine.duel.codedom.CodeConstructorReferenceExpression;
+import org.duelengine.duel.codedom.CodeExpression;
+import org.duelengine.duel.codedom.CodeExpressionStatement;
+import org.duelengine.duel.codedom.CodeField;
+import org.duelengine.duel.codedom.CodeFieldReferenceExpression;
+import org.duelengine.duel.codedom.CodeIterationStatement;
+import org.duelengine.duel.codedom.CodeMember;
+import org.duelengine.duel.codedom.CodeMethod;
+import org.duelengine.duel.codedom.CodeMethodInvokeExpression;
+import org.duelengine.duel.codedom.CodeMethodReturnStatement;
+import org.duelengine.duel.codedom.CodeObjectCreateExpression;
+import org.duelengine.duel.codedom.CodeParameterDeclarationExpression;
+import org.duelengine.duel.codedom.CodePrimitiveExpression;
+import org.duelengine.duel.codedom.CodePropertyReferenceExpression;
+import org.duelengine.duel.codedom.CodeStatement;
+import org.duelengine.duel.codedom.CodeTernaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeThisReferenceExpression;
+import org.duelengine.duel.codedom.CodeTypeDeclaration;
+import org.duelengine.duel.codedom.CodeTypeReferenceExpression;
+import org.duelengine.duel.codedom.CodeUnaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeUnaryOperatorType;
+import org.duelengine.duel.codedom.CodeVariableCompoundDeclarationStatement;
+import org.duelengine.duel.codedom.CodeVariableDeclarationStatement;
+import org.duelengine.duel.codedom.CodeVariableReferenceExpression;
+import org.duelengine.duel.codedom.ScriptExpression;
+import org.duelengine.duel.codedom.ScriptVariableReferenceExpression;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Code generator which emits JVM class files directly from CodeDOM classes,
+ * skipping the javac step needed by JavaCodeGen.
+ * Lowers the CodeDOM exactly as JavaCodeGen does and then follows the Java
+ * language rules for typing, overload resolution and conversions so both
+ * backends produce views which behave the same.
+ * Parts are emitted as static nested classes since they never use their enclosing view.
+ * Inherently thread-safe as contains no mutable instance data.
+ */
+public class BytecodeGen implements CodeGenerator {
+
+	private static final int CLASS_VERSION = Opcodes.V1_8;
+	private static final String CLASS_EXT = ".class";
+	private static final String CTOR_NAME = "<init>";
+	private static final String STATIC_INIT_NAME = "<clinit>";
+	private static final String OBJECT_NAME = "java/lang/Object";
+
+	private static final Handle LAMBDA_BOOTSTRAP = new Handle(
+		Opcodes.H_INVOKESTATIC,
+		"java/lang/invoke/LambdaMetafactory",
+		"metafactory",
+		"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;");
+
+	private static final Map<Class<?>, Class<?>> BOXES = new HashMap<Class<?>, Class<?>>();
+	private static final Map<Class<?>, Class<?>> UNBOXES = new HashMap<Class<?>, Class<?>>();
+	static {
+		BOXES.put(boolean.class, Boolean.class);
+		BOXES.put(byte.class, Byte.class);
+		BOXES.put(char.class, Character.class);
+		BOXES.put(short.class, Short.class);
+		BOXES.put(int.class, Integer.class);
+		BOXES.put(long.class, Long.class);
+		BOXES.put(float.class, Float.class);
+		BOXES.put(double.class, Double.class);
+
+		for (Map.Entry<Class<?>, Class<?>> box : BOXES.entrySet()) {
+			UNBOXES.put(box.getValue(), box.getKey());
+		}
+	}
+
+	private final CodeGenSettings settings;
+	private final ClassLoader classLoader;
+
+	public BytecodeGen() {
+		this(null, null);
+	}
+
+	public BytecodeGen(CodeGenSettings codeGenSettings) {
+		this(codeGenSettings, null);
+	}
+
+	/**
+	 * @param codeGenSettings
+	 * @param classLoader used to inspect referenced classes which are not part of the compilation (default: context class loader)
+	 */
+	public BytecodeGen(CodeGenSettings codeGenSettings, ClassLoader classLoader) {
+		settings = (codeGenSettings != null) ? codeGenSettings : new CodeGenSettings();
+		if (classLoader == null) {
+			classLoader = Thread.currentThread().getContextClassLoader();
+		}
+		this.classLoader = (classLoader != null) ? classLoader : BytecodeGen.class.getClassLoader();
+	}
+
+	@Override
+	public String getFileExtension() {
+		return CLASS_EXT;
+	}
+
+	/**
+	 * Class files are binary so cannot be written as text
+	 * @throws UnsupportedOperationException always; use {@link #compile(Iterable)}
+	 */
+	@Override
+	public void write(Appendable output, VIEWCommandNode... views)
+		throws IOException {
+
+		throw new UnsupportedOperationException("Class files are binary, use compile(views) instead");
+	}
+
+	/**
+	 * Class files are binary so cannot be written as text
+	 * @throws UnsupportedOperationException always; use {@link #compile(Iterable)}
+	 */
+	@Override
+	public void write(Appendable output, Iterable<VIEWCommandNode> views)
+		throws IOException {
+
+		throw new UnsupportedOperationException("Class files are binary, use compile(views) instead");
+	}
+
+	/**
+	 * Generates server-side classes for the given views
+	 * @param views
+	 * @return class file bytes keyed by binary class name, including nested classes
+	 * @throws IOException
+	 */
+	public Map<String, byte[]> compile(VIEWCommandNode... views)
+		throws IOException {
+
+		return compile(views != null ? Arrays.asList(views) : null);
+	}
+
+	/**
+	 * Generates server-side classes for the given views
+	 * @param views
+	 * @return class file bytes keyed by binary class name, including nested classes
+	 * @throws IOException
+	 */
+	public Map<String, byte[]> compile(Iterable<VIEWCommandNode> views)
+		throws IOException {
+
+
+		if (views == null) {
+			throw new NullPointerException("views");
+		}
+
+		List<CodeTypeDeclaration> viewTypes = new ArrayList<CodeTypeDeclaration>();
+		CallInliner inliner = settings.getInlineCalls() ? new CallInliner(settings) : null;
+		for (VIEWCommandNode view : views) {
+			if (view == null || view.isClientOnly()) {
+				continue;
+			}
+
+			CodeTypeDeclaration viewType = new CodeDOMBuilder(settings).buildView(view);
+			if (inliner != null) {
+				inliner.inline(viewType);
+			}
+			if (settings.getOptimizer() != null) {
+				settings.getOptimizer().optimize(viewType);
+			}
+			if (settings.getPreEncodeLiterals()) {
+				new LiteralEncoder(viewType).encode();
+			}
+			viewTypes.add(viewType);
+		}
+
+		return compileCode(viewTypes);
+	}
+
+	/**
+	 * Generates a registry of the server-side views
+	 * @param views
+	 * @return class file bytes keyed by binary class name
+	 */
+	public Map<String, byte[]> compileRegistry(Iterable<VIEWCommandNode> views) {
+		if (views == null) {
+			throw new NullPointerException("views");
+		}
+
+		List<String> viewNames = new ArrayList<String>();
+		for (VIEWCommandNode view : views) {
+			if (view == null || view.isClientOnly()) {
+				continue;
+			}
+			viewNames.add(view.getName());
+		}
+
+		return compileCode(new CodeDOMBuilder(settings).buildRegistry(viewNames));
+	}
+
+	/**
+	 * Generates classes for the given types.
+	 * Types compiled together may reference each other.
+	 * @param types
+	 * @return class file bytes keyed by binary class name, including nested classes
+	 */
+	public Map<String, byte[]> compileCode(CodeTypeDeclaration... types) {
+		return compileCode(types != null ? Arrays.asList(types) : null);
+	}
+
+	/**
+	 * Generates classes for the given types.
+	 * Types compiled together may reference each other.
+	 * @param types
+	 * @return class file bytes keyed by binary class name, including nested classes
+	 */
+	public Map<String, byte[]> compileCode(Iterable<CodeTypeDeclaration> types) {
+		if (types == null) {
+			throw new NullPointerException("types");
+		}
+
+		Compilation unit = new Compilation();
+		for (CodeTypeDeclaration type : types) {
+			if (type != null) {
+				unit.declare(type, null);
+			}
+		}
+
+		Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+		for (TypeInfo type : unit.types.values()) {
+			classes.put(type.binaryName, new ClassEmitter(unit, type).emit());
+		}
+		return classes;
+	}
+
+	/**
+	 * Gets the relative path of the class file for a binary class name
+	 * @param className
+	 * @return
+	 */
+	public static String getClassPath(String className) {
+		return className.replace('.', '/')+CLASS_EXT;
+	}
+
+	/**
+	 * A generated type along with its position in the type hierarchy
+	 */
+	private static final class TypeInfo {
+		final CodeTypeDeclaration decl;
+		final TypeInfo outer;
+		final String internalName;
+		final String binaryName;
+		final Class<?> baseType;
+		final List<TypeInfo> nested = new ArrayList<TypeInfo>();
+		final JType type;
+
+		TypeInfo(CodeTypeDeclaration decl, TypeInfo outer) {
+			this.decl = decl;
+			this.outer = outer;
+
+			if (outer != null) {
+				internalName = outer.internalName+'$'+decl.getTypeName();
+			} else {
+				String ns = decl.getNamespace();
+				internalName = (ns == null || ns.isEmpty()) ?
+					decl.getTypeName() :
+					ns.replace('.', '/')+'/'+decl.getTypeName();
+			}
+			binaryName = internalName.replace('/', '.');
+			baseType = (decl.getBaseType() != null) ? decl.getBaseType() : Object.class;
+			type = new JType(null, internalName, baseType, this);
+		}
+
+		int getInnerAccess() {
+			return accessFlags(decl.getAccess()) | Opcodes.ACC_STATIC;
+		}
+	}
+
+	/**
+	 * The static type of a value: a loaded class, a generated type or null
+	 */
+	private static final class JType {
+		static final JType VOID = new JType(void.class, null, null, null);
+		static final JType NULL = new JType(null, OBJECT_NAME, Object.class, null);
+		static final JType OBJECT = new JType(Object.class);
+		static final JType STRING = new JType(String.class);
+		static final JType BOOLEAN = new JType(boolean.class);
+		static final JType INT = new JType(int.class);
+
+		/**
+		 * the exact class if known
+		 */
+		final Class<?> cls;
+		final String internalName;
+
+		/**
+		 * the nearest known ancestor
+		 */
+		final Class<?> base;
+		final TypeInfo gen;
+
+		JType(Class<?> cls) {
+			this(cls, cls.isPrimitive() ? null : Type.getInternalName(cls), cls, null);
+		}
+
+		JType(Class<?> cls, String internalName, Class<?> base, TypeInfo gen) {
+			this.cls = cls;
+			this.internalName = internalName;
+			this.base = base;
+			this.gen = gen;
+		}
+
+		static JType of(Class<?> cls) {
+			if (cls == null || cls == Void.class || cls == void.class) {
+				return VOID;
+			}
+			return new JType(cls);
+		}
+
+		boolean isPrimitive() {
+			return (cls != null) && cls.isPrimitive();
+		}
+
+		boolean isNull() {
+			return (this == NULL);
+		}
+
+		boolean is(Class<?> type) {
+			return (cls == type);
+		}
+
+		Type asm() {
+			return (cls != null) ? Type.getType(cls) : Type.getObjectType(internalName);
+		}
+
+		String getDescriptor() {
+			return asm().getDescriptor();
+		}
+
+		int getSize() {
+			return (this == VOID) ? 0 : asm().getSize();
+		}
+
+		@Override
+		public String toString() {
+			return (cls != null) ? cls.getName() : (isNull() ? "null" : internalName.replace('/', '.'));
+		}
+	}
+
+	/**
+	 * A method or constructor which may be invoked
+	 */
+	private static final class Member {
+		final String owner;
+		final String name;
+		final String desc;
+		final JType[] params;
+		final boolean varArgs;
+		final JType returnType;
+		final boolean isStatic;
+		final boolean isPrivate;
+		final boolean isInterface;
+
+		/**
+		 * returns a type variable of the method itself which the caller narrows
+		 */
+		final boolean genericReturn;
+
+		Member(String owner, String name, JType[] params, boolean varArgs, JType returnType,
+			boolean isStatic, boolean isPrivate, boolean isInterface, boolean genericReturn) {
+
+			this.owner = owner;
+			this.name = name;
+			this.params = params;
+			this.varArgs = varArgs;
+			this.returnType = returnType;
+			this.isStatic = isStatic;
+			this.isPrivate = isPrivate;
+			this.isInterface = isInterface;
+			this.genericReturn = genericReturn;
+
+			Type[] argTypes = new Type[params.length];
+			for (int i=0; i<params.length; i++) {
+				argTypes[i] = params[i].asm();
+			}
+			desc = Type.getMethodDescriptor(returnType.asm(), argTypes);
+		}
+	}
+
+	/**
+	 * The member chosen for a particular call
+	 */
+	private static final class Invocation {
+		final Member member;
+		final boolean varArgsCall;
+
+		Invocation(Member member, boolean varArgsCall) {
+			this.member = member;
+			this.varArgsCall = varArgsCall;
+		}
+	}
+
+	/**
+	 * A field which may be read or assigned
+	 */
+	private static final class FieldInfo {
+		final String owner;
+		final String name;
+		final JType type;
+		final boolean isStatic;
+
+		FieldInfo(String owner, String name, JType type, boolean isStatic) {
+			this.owner = owner;
+			this.name = name;
+			this.type = type;
+			this.isStatic = isStatic;
+		}
+	}
+
+	/**
+	 * A local variable slot
+	 */
+	private static final class Local {
+		final int index;
+		final JType type;
+
+		Local(int index, JType type) {
+			this.index = index;
+			this.type = type;
+		}
+	}
+
+	/**
+	 * The storage location of an assignment
+	 */
+	private static final class Target {
+		final Local local;
+		final FieldInfo field;
+
+		/**
+		 * the object holding an instance field, or null for this
+		 */
+		final CodeExpression instance;
+
+		Target(Local local) {
+			this.local = local;
+			this.field = null;
+			this.instance = null;
+		}
+
+		Target(FieldInfo field, CodeExpression instance) {
+			this.local = null;
+			this.field = field;
+			this.instance = instance;
+		}
+
+		JType getType() {
+			return (local != null) ? local.type : field.type;
+		}
+
+		boolean hasInstance() {
+			return (field != null) && !field.isStatic;
+		}
+	}
+
+	/**
+	 * A binary operator with Java semantics, i.e. after the JavaCodeGen rewrites
+	 */
+	private static final class JavaBinary extends CodeExpression {
+		final CodeBinaryOperatorType operator;
+		final CodeExpression left;
+		final CodeExpression right;
+
+		JavaBinary(CodeBinaryOperatorType operator, CodeExpression left, CodeExpression right) {
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public Class<?> getResultType() {
+			return Object.class;
+		}
+	}
+
+	/**
+	 * A unary operator with Java semantics, i.e. after the JavaCodeGen rewrites
+	 */
+	private static final class JavaUnary extends CodeExpression {
+		final CodeUnaryOperatorType operator;
+		final CodeExpression expression;
+
+		JavaUnary(CodeUnaryOperatorType operator, CodeExpression expression) {
+			this.operator = operator;
+			this.expression = expression;
+		}
+
+		@Override
+		public Class<?> getResultType() {
+			return Object.class;
+		}
+	}
+
+	/**
+	 * The set of types being compiled together
+	 */
+	private final class Compilation {
+		final Map<String, TypeInfo> types = new LinkedHashMap<String, TypeInfo>();
+
+		TypeInfo declare(CodeTypeDeclaration decl, TypeInfo outer) {
+			TypeInfo type = new TypeInfo(decl, outer);
+			types.put(type.binaryName, type);
+
+			for (CodeMember member : decl.getMembers()) {
+				if (member instanceof CodeTypeDeclaration) {
+					type.nested.add(declare((CodeTypeDeclaration)member, type));
+				}
+			}
+			return type;
+		}
+
+		/**
+		 * Resolves a type name the way it would be from within the scope
+		 * @param typeName simple name of a nested type or fully qualified name
+		 * @param scope
+		 * @return
+		 */
+		JType resolveType(String typeName, TypeInfo scope) {
+			for (TypeInfo outer = scope; outer != null; outer = outer.outer) {
+				for (TypeInfo nested : outer.nested) {
+					if (nested.decl.getTypeName().equals(typeName)) {
+						return nested.type;
+					}
+				}
+			}
+
+			TypeInfo type = types.get(typeName);
+			if (type != null) {
+				return type.type;
+			}
+
+			Class<?> cls = loadClass(typeName);
+			if (cls != null) {
+				return new JType(cls);
+			}
+
+			// views compiled separately follow the generated view conventions
+			return new JType(null, typeName.replace('.', '/'), DuelView.class, null);
+		}
+
+		/**
+		 * @param internalName
+		 * @return the internal name of the super class or null if unknown
+		 */
+		String getSuperName(String internalName) {
+			TypeInfo type = types.get(internalName.replace('/', '.'));
+			if (type != null) {
+				return Type.getInternalName(type.baseType);
+			}
+
+			Class<?> cls = loadClass(internalName.replace('/', '.'));
+			if (cls == null || cls.isInterface() || cls.getSuperclass() == null) {
+				return null;
+			}
+			return Type.getInternalName(cls.getSuperclass());
+		}
+
+		boolean isInterface(String internalName) {
+			if (types.containsKey(internalName.replace('/', '.'))) {
+				return false;
+			}
+
+			Class<?> cls = loadClass(internalName.replace('/', '.'));
+			return (cls != null) && cls.isInterface();
+		}
+	}
+
+	private Class<?> loadClass(String className) {
+		try {
+			return Class.forName(className, false, classLoader);
+
+		} catch (ClassNotFoundException ex) {
+			return null;
+
+		} catch (LinkageError ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Computes stack map frames without loading the classes being generated
+	 */
+	private static final class FrameWriter extends ClassWriter {
+		private final Compilation unit;
+
+		FrameWriter(Compilation unit) {
+			super(ClassWriter.COMPUTE_FRAMES);
+			this.unit = unit;
+		}
+
+		@Override
+		protected String getCommonSuperClass(String type1, String type2) {
+			if (type1.equals(type2)) {
+				return type1;
+			}
+			if (unit.isInterface(type1) || unit.isInterface(type2)) {
+				return OBJECT_NAME;
+			}
+
+			List<String> ancestors = new ArrayList<String>();
+			for (String type = type1; type != null; type = unit.getSuperName(type)) {
+				ancestors.add(type);
+			}
+			for (String type = type2; type != null; type = unit.getSuperName(type)) {
+				if (ancestors.contains(type)) {
+					return type;
+				}
+			}
+			return OBJECT_NAME;
+		}
+	}
+
+	/**
+	 * Emits a single class
+	 */
+	private final class ClassEmitter {
+		private final Compilation unit;
+		private final TypeInfo type;
+		private final ClassWriter writer;
+
+		ClassEmitter(Compilation unit, TypeInfo type) {
+			this.unit = unit;
+			this.type = type;
+			this.writer = new FrameWriter(unit);
+		}
+
+		byte[] emit() {
+			CodeTypeDeclaration decl = type.decl;
+
+			// nested access is recorded in the InnerClasses attribute
+			int access = Opcodes.ACC_SUPER;
+			if (decl.getAccess() == AccessModifierType.PUBLIC) {
+				access |= Opcodes.ACC_PUBLIC;
+			}
+			writer.visit(CLASS_VERSION, access, type.internalName, null, Type.getInternalName(type.baseType), null);
+
+			if (type.outer != null) {
+				writer.visitInnerClass(type.internalName, type.outer.internalName, decl.getTypeName(), type.getInnerAccess());
+			}
+			for (TypeInfo nested : type.nested) {
+				writer.visitInnerClass(nested.internalName, type.internalName, nested.decl.getTypeName(), nested.getInnerAccess());
+			}
+
+			List<CodeField> instanceFields = new ArrayList<CodeField>();
+			List<CodeField> staticFields = new ArrayList<CodeField>();
+			boolean hasCtor = false;
+
+			for (CodeMember member : decl.getMembers()) {
+				if (member instanceof CodeField) {
+					CodeField field = (CodeField)member;
+					emitField(field);
+					if (field.getInitExpression() != null) {
+						(field.isStatic() ? staticFields : instanceFields).add(field);
+					}
+
+				} else if (member instanceof CodeConstructor) {
+					hasCtor = true;
+				}
+			}
+
+			for (CodeMember member : decl.getMembers()) {
+				if (member instanceof CodeConstructor) {
+					new MethodEmitter(unit, type, writer, (CodeConstructor)member).emitConstructor(instanceFields);
+
+				} else if (member instanceof CodeMethod) {
+					new MethodEmitter(unit, type, writer, (CodeMethod)member).emitMethod();
+
+				} else if (member != null && !(member instanceof CodeField) && !(member instanceof CodeTypeDeclaration)) {
+					throw new UnsupportedOperationException("Not implemented: "+member.getClass());
+				}
+			}
+
+			if (!hasCtor) {
+				CodeConstructor ctor = new CodeConstructor();
+				ctor.setAccess(decl.getAccess());
+				new MethodEmitter(unit, type, writer, ctor).emitConstructor(instanceFields);
+			}
+
+			if (!staticFields.isEmpty()) {
+				CodeMethod init = new CodeMethod(AccessModifierType.DEFAULT, Void.class, STATIC_INIT_NAME, null);
+				new MethodEmitter(unit, type, writer, init).emitStaticInit(staticFields);
+			}
+
+			writer.visitEnd();
+			return writer.toByteArray();
+		}
+
+		private void emitField(CodeField field) {
+			int access = accessFlags(field.getAccess());
+			if (field.isStatic()) {
+				// widened so nested parts may share the constants without synthetic accessors
+				access = (access & ~Opcodes.ACC_PRIVATE) | Opcodes.ACC_STATIC;
+			}
+			if (field.isFinal()) {
+				access |= Opcodes.ACC_FINAL;
+			}
+
+			writer.visitField(access, field.getName(), JType.of(field.getType()).getDescriptor(), null, null).visitEnd();
+		}
+	}
+
+	/**
+	 * Emits the body of a single method
+	 */
+	private final class MethodEmitter {
+		private final Compilation unit;
+		private final TypeInfo type;
+		private final ClassWriter writer;
+		private final CodeMethod method;
+		private final Deque<Map<String, Local>> scopes = new ArrayDeque<Map<String, Local>>();
+		private final Map<CodeExpression, JType> types = new IdentityHashMap<CodeExpression, JType>();
+		private final Map<CodeExpression, Invocation> invocations = new IdentityHashMap<CodeExpression, Invocation>();
+		private MethodVisitor mv;
+		private JType returnType;
+		private int nextLocal;
+
+		MethodEmitter(Compilation unit, TypeInfo type, ClassWriter writer, CodeMethod method) {
+			this.unit = unit;
+			this.type = type;
+			this.writer = writer;
+			this.method = method;
+		}
+
+		void emitMethod() {
+			boolean isStatic = STATIC_INIT_NAME.equals(method.getName());
+			int access = accessFlags(method.getAccess());
+			begin(access, method.getName(), isStatic);
+
+			emitStatements(method.getStatements());
+			end();
+		}
+
+		void emitConstructor(List<CodeField> instanceFields) {
+			CodeConstructor ctor = (CodeConstructor)method;
+
+			int access = accessFlags(ctor.getAccess());
+			if (type.outer != null && (access & Opcodes.ACC_PRIVATE) != 0) {
+				// the enclosing type must be able to create its parts
+				access &= ~Opcodes.ACC_PRIVATE;
+			}
+			begin(access, CTOR_NAME, false);
+
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			List<CodeExpression> chainedArgs = ctor.getChainedCtorArgs();
+			if (!chainedArgs.isEmpty()) {
+				// this(...) leaves field initialization to the chained constructor
+				List<CodeExpression> args = lowerAll(chainedArgs);
+				Invocation ctorRef = resolve(getConstructors(type.type), args, "constructor of "+type.binaryName);
+				emitArguments(ctorRef, args);
+				mv.visitMethodInsn(Opcodes.INVOKESPECIAL, type.internalName, CTOR_NAME, ctorRef.member.desc, false);
+
+			} else {
+				List<CodeExpression> args = lowerAll(ctor.getBaseCtorArgs());
+				Invocation ctorRef = resolve(getConstructors(JType.of(type.baseType)), args, "constructor of "+type.baseType.getName());
+				emitArguments(ctorRef, args);
+				mv.visitMethodInsn(Opcodes.INVOKESPECIAL, Type.getInternalName(type.baseType), CTOR_NAME, ctorRef.member.desc, false);
+
+				for (CodeField field : instanceFields) {
+					mv.visitVarInsn(Opcodes.ALOAD, 0);
+					JType fieldType = JType.of(field.getType());
+					coerce(emit(lower(field.getInitExpression())), fieldType);
+					mv.visitFieldInsn(Opcodes.PUTFIELD, type.internalName, field.getName(), fieldType.getDescriptor());
+				}
+			}
+
+			emitStatements(ctor.getStatements());
+			end();
+		}
+
+		void emitStaticInit(List<CodeField> staticFields) {
+			begin(Opcodes.ACC_STATIC, STATIC_INIT_NAME, true);
+
+			for (CodeField field : staticFields) {
+				JType fieldType = JType.of(field.getType());
+				coerce(emit(lower(field.getInitExpression())), fieldType);
+				mv.visitFieldInsn(Opcodes.PUTSTATIC, type.internalName, field.getName(), fieldType.getDescriptor());
+			}
+			end();
+		}
+
+		private void begin(int access, String name, boolean isStatic) {
+			returnType = JType.of(method.getReturnType());
+
+			List<CodeParameterDeclarationExpression> params = method.getParameters();
+			Type[] argTypes = new Type[params.size()];
+			Map<String, Local> scope = new HashMap<String, Local>();
+			nextLocal = isStatic ? 0 : 1;
+
+			for (int i=0; i<argTypes.length; i++) {
+				CodeParameterDeclarationExpression param = params.get(i);
+				JType paramType = getParameterType(param);
+				argTypes[i] = paramType.asm();
+				scope.put(param.getName(), new Local(nextLocal, paramType));
+				nextLocal += paramType.getSize();
+
+				if (param.isVarArgs()) {
+					access |= Opcodes.ACC_VARARGS;
+				}
+			}
+			scopes.push(scope);
+
+			List<Class<?>> throwTypes = method.getThrows();
+			String[] exceptions = null;
+			if (!throwTypes.isEmpty()) {
+				exceptions = new String[throwTypes.size()];
+				for (int i=0; i<exceptions.length; i++) {
+					exceptions[i] = Type.getInternalName(throwTypes.get(i));
+				}
+			}
+
+			if (isStatic) {
+				access |= Opcodes.ACC_STATIC;
+			}
+			mv = writer.visitMethod(access, name, Type.getMethodDescriptor(returnType.asm(), argTypes), null, exceptions);
+			mv.visitCode();
+		}
+
+		private void end() {
+			// a trailing return is unreachable when every path already returned
+			// and is then stripped out when frames are computed
+			if (returnType == JType.VOID) {
+				mv.visitInsn(Opcodes.RETURN);
+			} else {
+				pushDefault(returnType);
+				mv.visitInsn(returnType.asm().getOpcode(Opcodes.IRETURN));
+			}
+
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+
+		/* Statements ---------------------------------------- */
+
+		private void emitStatements(Collection<CodeStatement> statements) {
+			for (CodeStatement statement : statements) {
+				emitStatement(statement);
+			}
+		}
+
+		private void emitStatement(CodeStatement statement) {
+			if (statement == null || statement instanceof CodeCommentStatement) {
+				return;
+			}
+
+			if (statement instanceof CodeExpressionStatement) {
+				emitDiscarded(lower(((CodeExpressionStatement)statement).getExpression()));
+
+			} else if (statement instanceof CodeConditionStatement) {
+				emitCondition((CodeConditionStatement)statement);
+
+			} else if (statement instanceof CodeVariableDeclarationStatement) {
+				emitVariableDeclaration((CodeVariableDeclarationStatement)statement);
+
+			} else if (statement instanceof CodeIterationStatement) {
+				emitIteration((CodeIterationStatement)statement);
+
+			} else if (statement instanceof CodeVariableCompoundDeclarationStatement) {
+				for (CodeVariableDeclarationStatement variable : ((CodeVariableCompoundDeclarationStatement)statement).getVars()) {
+					emitVariableDeclaration(variable);
+				}
+
+			} else if (statement instanceof CodeMethodReturnStatement) {
+				emitReturn((CodeMethodReturnStatement)statement);
+
+			} else {
+				throw new UnsupportedOperationException("Statement not yet supported: "+statement.getClass());
+			}
+		}
+
+		private void emitDiscarded(CodeExpression expression) {
+			if (expression instanceof JavaBinary && isAssignment(((JavaBinary)expression).operator)) {
+				emitAssignment((JavaBinary)expression, false);
+				return;
+			}
+
+			if (expression instanceof JavaUnary && isIncrement(((JavaUnary)expression).operator)) {
+				emitIncrement((JavaUnary)expression, false);
+				return;
+			}
+
+			pop(emit(expression));
+		}
+
+		private void emitCondition(CodeConditionStatement statement) {
+			Label falseLabel = new Label();
+			emitBranch(lower(CodeDOMUtility.ensureBoolean(statement.getCondition())), false, falseLabel);
+
+			scopes.push(new HashMap<String, Local>());
+			emitStatements(statement.getTrueStatements());
+			scopes.pop();
+
+			if (statement.getFalseStatements().isEmpty()) {
+				mv.visitLabel(falseLabel);
+				return;
+			}
+
+			Label endLabel = new Label();
+			mv.visitJumpInsn(Opcodes.GOTO, endLabel);
+			mv.visitLabel(falseLabel);
+
+			scopes.push(new HashMap<String, Local>());
+			emitStatements(statement.getFalseStatements());
+			scopes.pop();
+
+			mv.visitLabel(endLabel);
+		}
+
+		private void emitIteration(CodeIterationStatement statement) {
+			scopes.push(new HashMap<String, Local>());
+			emitStatement(statement.getInitStatement());
+
+			Label testLabel = new Label();
+			Label endLabel = new Label();
+			mv.visitLabel(testLabel);
+			if (statement.getTestExpression() != null) {
+				emitBranch(lower(CodeDOMUtility.ensureBoolean(statement.getTestExpression())), false, endLabel);
+			}
+
+			scopes.push(new HashMap<String, Local>());
+			emitStatements(statement.getStatements());
+			scopes.pop();
+
+			emitStatement(statement.getIncrementStatement());
+			mv.visitJumpInsn(Opcodes.GOTO, testLabel);
+			mv.visitLabel(endLabel);
+			scopes.pop();
+		}
+
+		private void emitVariableDeclaration(CodeVariableDeclarationStatement statement) {
+			JType varType = JType.of(statement.getType());
+			CodeExpression initExpr = statement.getInitExpression();
+
+			// initializer is evaluated before the variable comes into scope
+			if (initExpr != null) {
+				coerce(emit(lower(initExpr)), varType);
+			}
+
+			Local local = new Local(nextLocal, varType);
+			nextLocal += varType.getSize();
+			scopes.peek().put(statement.getName(), local);
+
+			if (initExpr != null) {
+				mv.visitVarInsn(varType.asm().getOpcode(Opcodes.ISTORE), local.index);
+			}
+		}
+
+		private void emitReturn(CodeMethodReturnStatement statement) {
+			CodeExpression expr = statement.getExpression();
+			if (expr != null) {
+				coerce(emit(lower(expr)), returnType);
+			}
+
+			if (returnType == JType.VOID) {
+				mv.visitInsn(Opcodes.RETURN);
+			} else {
+				mv.visitInsn(returnType.asm().getOpcode(Opcodes.IRETURN));
+			}
+		}
+
+		/* Lowering ---------------------------------------- */
+
+		private List<CodeExpression> lowerAll(List<CodeExpression> expressions) {
+			List<CodeExpression> lowered = new ArrayList<CodeExpression>(expressions.size());
+			for (CodeExpression expression : expressions) {
+				lowered.add(lower(expression));
+			}
+			return lowered;
+		}
+
+		/**
+		 * Rewrites the CodeDOM into plain Java expressions, exactly as JavaCodeGen writes them
+		 * @param expression
+		 * @return
+		 */
+		private CodeExpression lower(CodeExpression expression) {
+			if (expression == null) {
+				return null;
+			}
+
+			if (expression instanceof CodePrimitiveExpression) {
+				return lowerPrimitive(((CodePrimitiveExpression)expression).getValue());
+
+			} else if (expression instanceof CodeVariableReferenceExpression ||
+				expression instanceof CodeThisReferenceExpression ||
+				expression instanceof CodeTypeReferenceExpression ||
+				expression instanceof CodeConstructorReferenceExpression ||
+				expression instanceof JavaBinary ||
+				expression instanceof JavaUnary) {
+				return expression;
+
+			} else if (expression instanceof CodeBinaryOperatorExpression) {
+				return lowerBinaryOperator((CodeBinaryOperatorExpression)expression);
+
+			} else if (expression instanceof CodeUnaryOperatorExpression) {
+				return lowerUnaryOperator((CodeUnaryOperatorExpression)expression);
+
+			} else if (expression instanceof CodePropertyReferenceExpression) {
+				// translate into dynamic helper method call
+				CodePropertyReferenceExpression propRef = (CodePropertyReferenceExpression)expression;
+				return lower(new CodeMethodInvokeExpression(
+					propRef.getResultType(),
+					new CodeThisReferenceExpression(),
+					"getProperty",
+					propRef.getTarget(),
+					propRef.getPropertyName()));
+
+			} else if (expression instanceof CodeTernaryOperatorExpression) {
+				CodeTernaryOperatorExpression ternary = (CodeTernaryOperatorExpression)expression;
+				return new CodeTernaryOperatorExpression(
+					lower(CodeDOMUtility.ensureBoolean(ternary.getTestExpression())),
+					lower(ternary.getTrueExpression()),
+					lower(ternary.getFalseExpression()));
+
+			} else if (expression instanceof CodeArrayCreateExpression) {
+				CodeArrayCreateExpression array = (CodeArrayCreateExpression)expression;
+				if (array.getInitializers().isEmpty()) {
+					return array;
+				}
+				List<CodeExpression> items = lowerAll(array.getInitializers());
+				return new CodeArrayCreateExpression(array.getType(), items.toArray(new CodeExpression[items.size()]));
+
+			} else if (expression instanceof CodeMethodInvokeExpression) {
+				CodeMethodInvokeExpression invoke = (CodeMethodInvokeExpression)expression;
+				List<CodeExpression> args = lowerAll(invoke.getArguments());
+				return new CodeMethodInvokeExpression(
+					invoke.getResultType(),
+					lower(invoke.getTarget()),
+					invoke.getMethodName(),
+					args.toArray(new CodeExpression[args.size()]));
+
+			} else if (expression instanceof CodeFieldReferenceExpression) {
+				CodeFieldReferenceExpression fieldRef = (CodeFieldReferenceExpression)expression;
+				return new CodeFieldReferenceExpression(
+					lower(fieldRef.getTarget()),
+					fieldRef.getResultType(),
+					fieldRef.getFieldName());
+
+			} else if (expression instanceof CodeObjectCreateExpression) {
+				CodeObjectCreateExpression create = (CodeObjectCreateExpression)expression;
+				List<CodeExpression> args = lowerAll(create.getArguments());
+				return new CodeObjectCreateExpression(create.getTypeName(), args.toArray(new CodeExpression[args.size()]));
+
+			} else if (expression instanceof CodeCastExpression) {
+				CodeCastExpression cast = (CodeCastExpression)expression;
+				return new CodeCastExpression(cast.getResultType(), lower(cast.getExpression()));
+
+			} else if (expression instanceof ScriptVariableReferenceExpression) {
+				return lower(CodeDOMUtility.lookupExtraVar(((ScriptVariableReferenceExpression)expression).getIdent()));
+			}
+
+			throw new UnsupportedOperationException("Unexpected expression: "+expression.getClass());
+		}
+
+		/**
+		 * Produces the literal javac would read back from the generated source
+		 * @param value
+		 * @return
+		 */
+		private CodeExpression lowerPrimitive(Object value) {
+			if (value == null) {
+				return CodePrimitiveExpression.NULL;
+			}
+			if (value == JSUtility.UNDEFINED) {
+				return ScriptExpression.UNDEFINED;
+			}
+
+			Class<?> valueType = value.getClass();
+			if (String.class.equals(valueType)) {
+				return new CodePrimitiveExpression(normalizeString((String)value));
+			}
+
+			if (DuelData.isNumber(valueType)) {
+				double number = ((Number)value).doubleValue();
+				if (Double.isNaN(number) || Double.isInfinite(number)) {
+					return new CodePrimitiveExpression(number);
+				}
+				return new CodePrimitiveExpression(parseNumber(String.valueOf(value)));
+			}
+
+			if (Character.class.equals(valueType)) {
+				char ch = (Character)value;
+				if (ch == '\t' && settings.getConvertLineEndings() && !"\t".equals(settings.getIndent())) {
+					return new CodePrimitiveExpression(normalizeString(settings.getIndent()));
+				}
+				if (ch == '\n' && settings.getConvertLineEndings() && !"\n".equals(settings.getNewline())) {
+					return new CodePrimitiveExpression(normalizeString(settings.getNewline()));
+				}
+			}
+
+			return new CodePrimitiveExpression(value);
+		}
+
+		private CodeExpression lowerBinaryOperator(CodeBinaryOperatorExpression expression) {
+			boolean asNumber = true,
+				asString = false,
+				isAssign = false;
+
+			CodeExpression left = expression.getLeft();
+			CodeExpression right = expression.getRight();
+
+			boolean leftIsPropertyRef = (left instanceof CodePropertyReferenceExpression);
+			boolean leftIsExtraRef = (left instanceof ScriptVariableReferenceExpression);
+
+			CodeBinaryOperatorType operator = expression.getOperator();
+			CodeBinaryOperatorType compound = null;
+			switch (operator) {
+				case IDENTITY_EQUALITY:
+				case VALUE_EQUALITY:
+					if (CodeDOMUtility.isPrimitiveComparison(left, right)) {
+						// statically typed so no boxing or coercion needed
+						return new JavaBinary(CodeBinaryOperatorType.IDENTITY_EQUALITY, lower(left), lower(right));
+					}
+					if (operator == CodeBinaryOperatorType.VALUE_EQUALITY) {
+						return lower(CodeDOMUtility.coerceEqual(left, right));
+					}
+					if (!CodePrimitiveExpression.NULL.equals(left) &&
+						!CodePrimitiveExpression.NULL.equals(right) &&
+						!ScriptExpression.UNDEFINED.equals(left) &&
+						!ScriptExpression.UNDEFINED.equals(right)) {
+						return lower(CodeDOMUtility.equal(left, right));
+					}
+					asNumber = false;
+					break;
+				case IDENTITY_INEQUALITY:
+				case VALUE_INEQUALITY:
+					if (CodeDOMUtility.isPrimitiveComparison(left, right)) {
+						return new JavaBinary(CodeBinaryOperatorType.IDENTITY_INEQUALITY, lower(left), lower(right));
+					}
+					if (operator == CodeBinaryOperatorType.VALUE_INEQUALITY) {
+						return lower(CodeDOMUtility.coerceNotEqual(left, right));
+					}
+					if (!CodePrimitiveExpression.NULL.equals(left) &&
+						!CodePrimitiveExpression.NULL.equals(right) &&
+						!ScriptExpression.UNDEFINED.equals(left) &&
+						!ScriptExpression.UNDEFINED.equals(right)) {
+						return lower(CodeDOMUtility.notEqual(left, right));
+					}
+					asNumber = false;
+					break;
+				case GREATER_THAN:
+				case GREATER_THAN_OR_EQUAL:
+				case LESS_THAN:
+				case LESS_THAN_OR_EQUAL:
+				case SUBTRACT:
+				case MULTIPLY:
+				case DIVIDE:
+				case MODULUS:
+				case BITWISE_AND:
+				case BITWISE_OR:
+				case BITWISE_XOR:
+				case SHIFT_LEFT:
+				case SHIFT_RIGHT:
+				case USHIFT_RIGHT:
+					break;
+				case ASSIGN:
+					isAssign = true;
+					break;
+				case ADD:
+					Class<?> leftType = CodeDOMUtility.toPrimitive(left.getResultType());
+					Class<?> rightType = CodeDOMUtility.toPrimitive(right.getResultType());
+
+					// asString trumps asNumber
+					asString = DuelData.isString(leftType) || DuelData.isString(rightType);
+					asNumber = !asString;
+					break;
+				case ADD_ASSIGN:
+					// asString trumps asNumber
+					asString = DuelData.isString(CodeDOMUtility.toPrimitive(left.getResultType()));
+					return lower(CodeDOMUtility.asAssignment(CodeBinaryOperatorType.ADD, left,
+						asString ? CodeDOMUtility.ensureString(left) : CodeDOMUtility.ensureNumber(left),
+						asString ? CodeDOMUtility.ensureString(right) : CodeDOMUtility.ensureNumber(right)));
+				case SUBTRACT_ASSIGN:
+					compound = CodeBinaryOperatorType.SUBTRACT;
+					break;
+				case MULTIPLY_ASSIGN:
+					compound = CodeBinaryOperatorType.MULTIPLY;
+					break;
+				case DIVIDE_ASSIGN:
+					compound = CodeBinaryOperatorType.DIVIDE;
+					break;
+				case MODULUS_ASSIGN:
+					compound = CodeBinaryOperatorType.MODULUS;
+					break;
+				case BITWISE_AND_ASSIGN:
+					compound = CodeBinaryOperatorType.BITWISE_AND;
+					break;
+				case BITWISE_OR_ASSIGN:
+					compound = CodeBinaryOperatorType.BITWISE_OR;
+					break;
+				case BITWISE_XOR_ASSIGN:
+					compound = CodeBinaryOperatorType.BITWISE_XOR;
+					break;
+				case SHIFT_LEFT_ASSIGN:
+					compound = CodeBinaryOperatorType.SHIFT_LEFT;
+					break;
+				case SHIFT_RIGHT_ASSIGN:
+					compound = CodeBinaryOperatorType.SHIFT_RIGHT;
+					break;
+				case USHIFT_RIGHT_ASSIGN:
+					compound = CodeBinaryOperatorType.USHIFT_RIGHT;
+					break;
+				case BOOLEAN_AND:
+					if (!DuelData.isBoolean(left.getResultType()) || !DuelData.isBoolean(right.getResultType())) {
+						// convert to JavaScript semantics for boolean AND
+						return lower(new CodeMethodInvokeExpression(
+							Object.class,
+							new CodeThisReferenceExpression(),
+							"LogicalAND",
+							left,
+							right));
+					}
+					asNumber = false;
+					break;
+				case BOOLEAN_OR:
+					if (!DuelData.isBoolean(left.getResultType()) || !DuelData.isBoolean(right.getResultType())) {
+						// convert to JavaScript semantics for boolean OR
+						return lower(new CodeMethodInvokeExpression(
+							Object.class,
+							new CodeThisReferenceExpression(),
+							"LogicalOR",
+							left,
+							right));
+					}
+					asNumber = false;
+					break;
+				default:
+					throw new UnsupportedOperationException("Unknown binary operator: "+operator);
+			}
+
+			if (compound != null) {
+				if (leftIsPropertyRef || leftIsExtraRef || !CodeDOMUtility.isNumber(left)) {
+					return lower(CodeDOMUtility.asAssignment(compound,
+						left, CodeDOMUtility.ensureNumber(left), CodeDOMUtility.ensureNumber(right)));
+				}
+				isAssign = true;
+			}
+
+			if (isAssign) {
+				if (leftIsPropertyRef) {
+					// translate into dynamic helper method call
+					CodePropertyReferenceExpression leftPropRef = (CodePropertyReferenceExpression)left;
+					return lower(new CodeMethodInvokeExpression(
+						expression.getResultType(),
+						new CodeThisReferenceExpression(),
+						"setProperty",
+						leftPropRef.getTarget(),
+						leftPropRef.getPropertyName(),
+						right));
+
+				} else if (leftIsExtraRef) {
+					// translate into dynamic helper method call
+					ScriptVariableReferenceExpression leftVarRef = (ScriptVariableReferenceExpression)left;
+					return lower(new CodeMethodInvokeExpression(
+						expression.getResultType(),
+						new CodeThisReferenceExpression(),
+						"putExtra",
+						new CodeVariableReferenceExpression(DuelContext.class, "context"),
+						new CodePrimitiveExpression(leftVarRef.getIdent()),
+						right));
+				}
+
+				return new JavaBinary(operator, lower(left), lower(CodeDOMUtility.ensureType(left.getResultType(), right)));
+			}
+
+			if (asString) {
+				return new JavaBinary(operator, lower(CodeDOMUtility.ensureString(left)), lower(CodeDOMUtility.ensureString(right)));
+			}
+			if (asNumber) {
+				return new JavaBinary(operator, lower(CodeDOMUtility.ensureNumber(left)), lower(CodeDOMUtility.ensureNumber(right)));
+			}
+			return new JavaBinary(operator, lower(left), lower(right));
+		}
+
+		private CodeExpression lowerUnaryOperator(CodeUnaryOperatorExpression expression) {
+			CodeExpression expr = expression.getExpression();
+
+			CodeUnaryOperatorType operator = expression.getOperator();
+			switch (operator) {
+				case LOGICAL_NEGATION:
+					return new JavaUnary(operator, lower(CodeDOMUtility.ensureBoolean(expr)));
+				case BITWISE_NEGATION:
+				case NEGATION:
+				case POSITIVE:
+					return new JavaUnary(operator, lower(CodeDOMUtility.ensureNumber(expr)));
+				case POST_DECREMENT:
+					if (!CodeDOMUtility.isNumber(expr)) {
+						// data-- => echo(asNumber(data), (data = asNumber(data)-1))
+						return lower(CodeDOMUtility.safePostDecrement(expr));
+					}
+					break;
+				case POST_INCREMENT:
+					if (!CodeDOMUtility.isNumber(expr)) {
+						// data++ => echo(asNumber(data), (data = asNumber(data)+1))
+						return lower(CodeDOMUtility.safePostIncrement(expr));
+					}
+					break;
+				case PRE_DECREMENT:
+					if (!CodeDOMUtility.isNumber(expr)) {
+						// --data => (data = (asNumber(data)-1))
+						return lower(CodeDOMUtility.safePreDecrement(expr));
+					}
+					break;
+				case PRE_INCREMENT:
+					if (!CodeDOMUtility.isNumber(expr)) {
+						// ++data => (data = (asNumber(data)+1))
+						return lower(CodeDOMUtility.safePreIncrement(expr));
+					}
+					break;
+				default:
+					throw new UnsupportedOperationException("Unary operator not yet supported: "+operator);
+			}
+
+			// statically type safe
+			return new JavaUnary(operator, lower(expr));
+		}
+
+		/* Typing ---------------------------------------- */
+
+		/**
+		 * Determines the static type of a lowered expression using the Java language rules
+		 * @param expression
+		 * @return
+		 */
+		private JType typeOf(CodeExpression expression) {
+			JType exprType = types.get(expression);
+			if (exprType == null) {
+				exprType = computeType(expression);
+				types.put(expression, exprType);
+			}
+			return exprType;
+		}
+
+		private JType computeType(CodeExpression expression) {
+			if (expression instanceof CodePrimitiveExpression) {
+				Object value = ((CodePrimitiveExpression)expression).getValue();
+				if (value == null) {
+					return JType.NULL;
+				}
+				Class<?> unboxed = UNBOXES.get(value.getClass());
+				return JType.of(unboxed != null ? unboxed : value.getClass());
+
+			} else if (expression instanceof CodeVariableReferenceExpression) {
+				return resolveVariable(((CodeVariableReferenceExpression)expression).getIdent()).getType();
+
+			} else if (expression instanceof CodeThisReferenceExpression) {
+				return type.type;
+
+			} else if (expression instanceof CodeFieldReferenceExpression) {
+				CodeFieldReferenceExpression fieldRef = (CodeFieldReferenceExpression)expression;
+				if (isClassLiteral(fieldRef)) {
+					return JType.of(Class.class);
+				}
+				return resolveField(fieldRef).type;
+
+			} else if (expression instanceof CodeMethodInvokeExpression) {
+				CodeMethodInvokeExpression invoke = (CodeMethodInvokeExpression)expression;
+				Member member = resolveInvoke(invoke).member;
+				if (member.genericReturn && narrowsGenericReturn(invoke)) {
+					return JType.of(invoke.getResultType());
+				}
+				return member.returnType;
+
+			} else if (expression instanceof CodeObjectCreateExpression) {
+				return unit.resolveType(((CodeObjectCreateExpression)expression).getTypeName(), type);
+
+			} else if (expression instanceof CodeArrayCreateExpression) {
+				return JType.of(((CodeArrayCreateExpression)expression).getInitializers().isEmpty() ? ArrayList.class : List.class);
+
+			} else if (expression instanceof CodeCastExpression) {
+				return JType.of(expression.getResultType());
+
+			} else if (expression instanceof CodeTernaryOperatorExpression) {
+				CodeTernaryOperatorExpression ternary = (CodeTernaryOperatorExpression)expression;
+				return conditionalType(typeOf(ternary.getTrueExpression()), typeOf(ternary.getFalseExpression()));
+
+			} else if (expression instanceof CodeConstructorReferenceExpression) {
+				return JType.of(Supplier.class);
+
+			} else if (expression instanceof JavaUnary) {
+				JavaUnary unary = (JavaUnary)expression;
+				switch (unary.operator) {
+					case LOGICAL_NEGATION:
+						return JType.BOOLEAN;
+					case PRE_INCREMENT:
+					case PRE_DECREMENT:
+						return typeOf(unary.expression);
+					case POST_INCREMENT:
+					case POST_DECREMENT:
+						return JType.of(numericType(typeOf(unary.expression), unary.operator));
+					default:
+						return JType.of(promote(numericType(typeOf(unary.expression), unary.operator)));
+				}
+
+			} else if (expression instanceof JavaBinary) {
+				JavaBinary binary = (JavaBinary)expression;
+				switch (binary.operator) {
+					case IDENTITY_EQUALITY:
+					case IDENTITY_INEQUALITY:
+					case GREATER_THAN:
+					case GREATER_THAN_OR_EQUAL:
+					case LESS_THAN:
+					case LESS_THAN_OR_EQUAL:
+					case BOOLEAN_AND:
+					case BOOLEAN_OR:
+						return JType.BOOLEAN;
+					case SHIFT_LEFT:
+					case SHIFT_RIGHT:
+					case USHIFT_RIGHT:
+						return JType.of(promote(numericType(typeOf(binary.left), binary.operator)));
+					default:
+						if (isAssignment(binary.operator)) {
+							return typeOf(binary.left);
+						}
+						JType leftType = typeOf(binary.left);
+						JType rightType = typeOf(binary.right);
+						if (binary.operator == CodeBinaryOperatorType.ADD && (leftType.is(String.class) || rightType.is(String.class))) {
+							return JType.STRING;
+						}
+						if (isLogical(binary.operator) && isBooleanType(leftType) && isBooleanType(rightType)) {
+							return JType.BOOLEAN;
+						}
+						return JType.of(promote(
+							numericType(leftType, binary.operator),
+							numericType(rightType, binary.operator)));
+				}
+			}
+
+			throw new UnsupportedOperationException("Unexpected expression: "+expression.getClass());
+		}
+
+		/**
+		 * Types a conditional expression following JLS 15.25 closely enough for generated code
+		 */
+		private JType conditionalType(JType trueType, JType falseType) {
+			if (sameType(trueType, falseType)) {
+				return trueType;
+			}
+			if (trueType.isNull()) {
+				return falseType.isPrimitive() ? JType.of(BOXES.get(falseType.cls)) : falseType;
+			}
+			if (falseType.isNull()) {
+				return trueType.isPrimitive() ? JType.of(BOXES.get(trueType.cls)) : trueType;
+			}
+
+			Class<?> trueUnboxed = unboxed(trueType);
+			Class<?> falseUnboxed = unboxed(falseType);
+			if (trueUnboxed == boolean.class && falseUnboxed == boolean.class) {
+				return JType.BOOLEAN;
+			}
+			if (isNumeric(trueUnboxed) && isNumeric(falseUnboxed)) {
+				if (trueUnboxed == falseUnboxed) {
+					return JType.of(trueUnboxed);
+				}
+				return JType.of(promote(trueUnboxed, falseUnboxed));
+			}
+
+			JType trueRef = trueType.isPrimitive() ? JType.of(BOXES.get(trueType.cls)) : trueType;
+			JType falseRef = falseType.isPrimitive() ? JType.of(BOXES.get(falseType.cls)) : falseType;
+			if (isAssignable(trueRef, falseRef)) {
+				return falseRef;
+			}
+			if (isAssignable(falseRef, trueRef)) {
+				return trueRef;
+			}
+			return JType.OBJECT;
+		}
+
+		private boolean narrowsGenericReturn(CodeMethodInvokeExpression invoke) {
+			Class<?> resultType = invoke.getResultType();
+			return (resultType != null) && !resultType.isPrimitive() &&
+				(resultType != Object.class) && (resultType != Void.class);
+		}
+
+		private Class<?> numericType(JType exprType, Object operator) {
+			Class<?> unboxed = unboxed(exprType);
+			if (!isNumeric(unboxed)) {
+				throw new UnsupportedOperationException("Bad operand type "+exprType+" for operator "+operator);
+			}
+			return unboxed;
+		}
+
+		/* Emission ---------------------------------------- */
+
+		/**
+		 * Emits a lowered expression
+		 * @param expression
+		 * @return the type of the value left on the stack
+		 */
+		private JType emit(CodeExpression expression) {
+			if (expression instanceof CodePrimitiveExpression) {
+				emitPrimitive(((CodePrimitiveExpression)expression).getValue());
+
+			} else if (expression instanceof CodeVariableReferenceExpression) {
+				emitLoad(resolveVariable(((CodeVariableReferenceExpression)expression).getIdent()));
+
+			} else if (expression instanceof CodeThisReferenceExpression) {
+				mv.visitVarInsn(Opcodes.ALOAD, 0);
+
+			} else if (expression instanceof CodeFieldReferenceExpression) {
+				emitFieldReference((CodeFieldReferenceExpression)expression);
+
+			} else if (expression instanceof CodeMethodInvokeExpression) {
+				emitMethodInvoke((CodeMethodInvokeExpression)expression);
+
+			} else if (expression instanceof CodeObjectCreateExpression) {
+				emitObjectCreate((CodeObjectCreateExpression)expression);
+
+			} else if (expression instanceof CodeArrayCreateExpression) {
+				emitArrayCreate((CodeArrayCreateExpression)expression);
+
+			} else if (expression instanceof CodeCastExpression) {
+				CodeCastExpression cast = (CodeCastExpression)expression;
+				coerce(emit(cast.getExpression()), JType.of(cast.getResultType()));
+
+			} else if (expression instanceof CodeTernaryOperatorExpression) {
+				emitTernary((CodeTernaryOperatorExpression)expression);
+
+			} else if (expression instanceof CodeConstructorReferenceExpression) {
+				emitConstructorReference((CodeConstructorReferenceExpression)expression);
+
+			} else if (expression instanceof JavaUnary) {
+				JavaUnary unary = (JavaUnary)expression;
+				if (isIncrement(unary.operator)) {
+					return emitIncrement(unary, true);
+				}
+				emitUnary(unary);
+
+			} else if (expression instanceof JavaBinary) {
+				JavaBinary binary = (JavaBinary)expression;
+				if (isAssignment(binary.operator)) {
+					return emitAssignment(binary, true);
+				}
+				emitBinary(binary);
+
+			} else if (expression instanceof CodeTypeReferenceExpression) {
+				throw new UnsupportedOperationException("Type is not a value: "+expression.getResultType());
+
+			} else {
+				throw new UnsupportedOperationException("Unexpected expression: "+(expression != null ? expression.getClass() : null));
+			}
+
+			return typeOf(expression);
+		}
+
+		private void emitPrimitive(Object value) {
+			if (value == null) {
+				mv.visitInsn(Opcodes.ACONST_NULL);
+
+			} else if (value instanceof String) {
+				mv.visitLdcInsn(value);
+
+			} else if (value instanceof Boolean) {
+				mv.visitInsn(((Boolean)value) ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+
+			} else if (value instanceof Character) {
+				pushInt((Character)value);
+
+			} else if (value instanceof Integer) {
+				pushInt((Integer)value);
+
+			} else if (value instanceof Long) {
+				long number = (Long)value;
+				if (number == 0L || number == 1L) {
+					mv.visitInsn(Opcodes.LCONST_0+(int)number);
+				} else {
+					mv.visitLdcInsn(number);
+				}
+
+			} else if (value instanceof Double) {
+				double number = (Double)value;
+				if (Double.doubleToLongBits(number) == 0L || number == 1.0) {
+					mv.visitInsn(Opcodes.DCONST_0+(int)number);
+				} else {
+					mv.visitLdcInsn(number);
+				}
+
+			} else {
+				throw new UnsupportedOperationException("Unexpected literal: "+value.getClass());
+			}
+		}
+
+		private void emitFieldReference(CodeFieldReferenceExpression expression) {
+			if (isClassLiteral(expression)) {
+				Class<?> literal = expression.getTarget().getResultType();
+				if (literal.isPrimitive()) {
+					mv.visitFieldInsn(Opcodes.GETSTATIC, Type.getInternalName(BOXES.get(literal)), "TYPE", "Ljava/lang/Class;");
+				} else {
+					mv.visitLdcInsn(Type.getType(literal));
+				}
+				return;
+			}
+
+			FieldInfo field = resolveField(expression);
+			CodeExpression target = expression.getTarget();
+			if (field.isStatic) {
+				if (!(target instanceof CodeTypeReferenceExpression)) {
+					pop(emit(target));
+				}
+				mv.visitFieldInsn(Opcodes.GETSTATIC, field.owner, field.name, field.type.getDescriptor());
+
+			} else {
+				emit(target);
+				mv.visitFieldInsn(Opcodes.GETFIELD, field.owner, field.name, field.type.getDescriptor());
+			}
+		}
+
+		private void emitMethodInvoke(CodeMethodInvokeExpression expression) {
+			Invocation invocation = resolveInvoke(expression);
+			Member member = invocation.member;
+			CodeExpression target = expression.getTarget();
+
+			int opcode;
+			if (member.isStatic) {
+				if (target != null && !(target instanceof CodeTypeReferenceExpression)) {
+					// receiver is evaluated for side-effects only
+					pop(emit(target));
+				}
+				opcode = Opcodes.INVOKESTATIC;
+
+			} else {
+				if (target != null) {
+					emit(target);
+				} else {
+					mv.visitVarInsn(Opcodes.ALOAD, 0);
+				}
+				if (member.isInterface) {
+					opcode = Opcodes.INVOKEINTERFACE;
+				} else if (member.isPrivate) {
+					opcode = Opcodes.INVOKESPECIAL;
+				} else {
+					opcode = Opcodes.INVOKEVIRTUAL;
+				}
+			}
+
+			emitArguments(invocation, expression.getArguments());
+			mv.visitMethodInsn(opcode, member.owner, member.name, member.desc, member.isInterface);
+
+			if (member.genericReturn && narrowsGenericReturn(expression)) {
+				mv.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(expression.getResultType()));
+			}
+		}
+
+		private void emitArguments(Invocation invocation, List<CodeExpression> args) {
+			JType[] params = invocation.member.params;
+			if (!invocation.varArgsCall) {
+				for (int i=0; i<params.length; i++) {
+					coerce(emit(args.get(i)), params[i]);
+				}
+				return;
+			}
+
+			int fixed = params.length-1;
+			for (int i=0; i<fixed; i++) {
+				coerce(emit(args.get(i)), params[i]);
+			}
+
+			Class<?> componentClass = params[fixed].cls.getComponentType();
+			JType component = JType.of(componentClass);
+			pushInt(args.size()-fixed);
+			if (componentClass.isPrimitive()) {
+				mv.visitIntInsn(Opcodes.NEWARRAY, newArrayType(componentClass));
+			} else {
+				mv.visitTypeInsn(Opcodes.ANEWARRAY, component.internalName);
+			}
+			for (int i=fixed; i<args.size(); i++) {
+				mv.visitInsn(Opcodes.DUP);
+				pushInt(i-fixed);
+				coerce(emit(args.get(i)), component);
+				mv.visitInsn(component.asm().getOpcode(Opcodes.IASTORE));
+			}
+		}
+
+		private void emitObjectCreate(CodeObjectCreateExpression expression) {
+			JType createType = typeOf(expression);
+			List<CodeExpression> args = expression.getArguments();
+			Invocation ctor = resolve(getConstructors(createType), args, "constructor of "+createType);
+
+			mv.visitTypeInsn(Opcodes.NEW, createType.internalName);
+			mv.visitInsn(Opcodes.DUP);
+			emitArguments(ctor, args);
+			mv.visitMethodInsn(Opcodes.INVOKESPECIAL, createType.internalName, CTOR_NAME, ctor.member.desc, false);
+		}
+
+		private void emitArrayCreate(CodeArrayCreateExpression expression) {
+			List<CodeExpression> items = expression.getInitializers();
+			if (items.isEmpty()) {
+				// new java.util.ArrayList<T>(size)
+				String listName = Type.getInternalName(ArrayList.class);
+				mv.visitTypeInsn(Opcodes.NEW, listName);
+				mv.visitInsn(Opcodes.DUP);
+				if (expression.getSize() > 0) {
+					pushInt(expression.getSize());
+					mv.visitMethodInsn(Opcodes.INVOKESPECIAL, listName, CTOR_NAME, "(I)V", false);
+				} else {
+					mv.visitMethodInsn(Opcodes.INVOKESPECIAL, listName, CTOR_NAME, "()V", false);
+				}
+				return;
+			}
+
+			// java.util.Arrays.asList(items...)
+			pushInt(items.size());
+			mv.visitTypeInsn(Opcodes.ANEWARRAY, OBJECT_NAME);
+			for (int i=0; i<items.size(); i++) {
+				mv.visitInsn(Opcodes.DUP);
+				pushInt(i);
+				coerce(emit(items.get(i)), JType.OBJECT);
+				mv.visitInsn(Opcodes.AASTORE);
+			}
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Arrays.class), "asList", "([Ljava/lang/Object;)Ljava/util/List;", false);
+		}
+
+		private void emitTernary(CodeTernaryOperatorExpression expression) {
+			JType resultType = typeOf(expression);
+			Label falseLabel = new Label();
+			Label endLabel = new Label();
+
+			emitBranch(expression.getTestExpression(), false, falseLabel);
+			coerce(emit(expression.getTrueExpression()), resultType);
+			mv.visitJumpInsn(Opcodes.GOTO, endLabel);
+			mv.visitLabel(falseLabel);
+			coerce(emit(expression.getFalseExpression()), resultType);
+			mv.visitLabel(endLabel);
+		}
+
+		private void emitConstructorReference(CodeConstructorReferenceExpression expression) {
+			JType viewType = unit.resolveType(expression.getTypeName(), type);
+			Invocation ctor = resolve(getConstructors(viewType), Collections.<CodeExpression>emptyList(), "constructor of "+viewType);
+
+			// TypeName::new as Supplier
+			mv.visitInvokeDynamicInsn(
+				"get",
+				"()Ljava/util/function/Supplier;",
+				LAMBDA_BOOTSTRAP,
+				Type.getType("()Ljava/lang/Object;"),
+				new Handle(Opcodes.H_NEWINVOKESPECIAL, viewType.internalName, CTOR_NAME, ctor.member.desc),
+				Type.getMethodType(viewType.asm()));
+		}
+
+		private void emitUnary(JavaUnary expression) {
+			switch (expression.operator) {
+				case LOGICAL_NEGATION:
+					emitBooleanValue(expression);
+					break;
+				case POSITIVE:
+				case NEGATION:
+				case BITWISE_NEGATION:
+					JType resultType = typeOf(expression);
+					coerce(emit(expression.expression), resultType);
+					if (expression.operator == CodeUnaryOperatorType.NEGATION) {
+						mv.visitInsn(resultType.asm().getOpcode(Opcodes.INEG));
+
+					} else if (expression.operator == CodeUnaryOperatorType.BITWISE_NEGATION) {
+						if (resultType.is(int.class)) {
+							mv.visitInsn(Opcodes.ICONST_M1);
+							mv.visitInsn(Opcodes.IXOR);
+						} else if (resultType.is(long.class)) {
+							mv.visitLdcInsn(-1L);
+							mv.visitInsn(Opcodes.LXOR);
+						} else {
+							throw new UnsupportedOperationException("Bad operand type "+resultType+" for operator ~");
+						}
+					}
+					break;
+				default:
+					throw new UnsupportedOperationException("Unary operator not yet supported: "+expression.operator);
+			}
+		}
+
+		private void emitBinary(JavaBinary expression) {
+			switch (expression.operator) {
+				case IDENTITY_EQUALITY:
+				case IDENTITY_INEQUALITY:
+				case GREATER_THAN:
+				case GREATER_THAN_OR_EQUAL:
+				case LESS_THAN:
+				case LESS_THAN_OR_EQUAL:
+				case BOOLEAN_AND:
+				case BOOLEAN_OR:
+					emitBooleanValue(expression);
+					return;
+				default:
+					break;
+			}
+
+			JType resultType = typeOf(expression);
+			if (resultType.is(String.class)) {
+				// string concatenation
+				String builderName = Type.getInternalName(StringBuilder.class);
+				mv.visitTypeInsn(Opcodes.NEW, builderName);
+				mv.visitInsn(Opcodes.DUP);
+				mv.visitMethodInsn(Opcodes.INVOKESPECIAL, builderName, CTOR_NAME, "()V", false);
+				emitAppend(expression.left);
+				emitAppend(expression.right);
+				mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, builderName, "toString", "()Ljava/lang/String;", false);
+				return;
+			}
+
+			if (isShift(expression.operator)) {
+				coerce(emit(expression.left), resultType);
+				JType countType = JType.of(promote(numericType(typeOf(expression.right), expression.operator)));
+				coerce(emit(expression.right), countType);
+				if (countType.is(long.class)) {
+					mv.visitInsn(Opcodes.L2I);
+				}
+
+			} else {
+				if (isLogical(expression.operator) && !resultType.is(boolean.class) && !isIntegral(resultType.cls)) {
+					throw new UnsupportedOperationException("Bad operand types for operator "+expression.operator);
+				}
+				coerce(emit(expression.left), resultType);
+				coerce(emit(expression.right), resultType);
+			}
+
+			mv.visitInsn(resultType.asm().getOpcode(arithmeticOpcode(expression.operator)));
+		}
+
+		private void emitAppend(CodeExpression expression) {
+			JType valueType = emit(expression);
+
+			String desc;
+			if (valueType.is(String.class)) {
+				desc = "Ljava/lang/String;";
+			} else if (valueType.isPrimitive()) {
+				desc = (valueType.is(byte.class) || valueType.is(short.class)) ? "I" : valueType.getDescriptor();
+			} else {
+				desc = "Ljava/lang/Object;";
+			}
+			mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(StringBuilder.class), "append", "("+desc+")Ljava/lang/StringBuilder;", false);
+		}
+
+		/**
+		 * Evaluates a boolean expression into a 0/1 value
+		 * @param expression
+		 */
+		private void emitBooleanValue(CodeExpression expression) {
+			Label trueLabel = new Label();
+			Label endLabel = new Label();
+			emitBranch(expression, true, trueLabel);
+			mv.visitInsn(Opcodes.ICONST_0);
+			mv.visitJumpInsn(Opcodes.GOTO, endLabel);
+			mv.visitLabel(trueLabel);
+			mv.visitInsn(Opcodes.ICONST_1);
+			mv.visitLabel(endLabel);
+		}
+
+		/**
+		 * Jumps to the label when the boolean expression has the expected outcome
+		 * @param expression
+		 * @param jumpWhen
+		 * @param label
+		 */
+		private void emitBranch(CodeExpression expression, boolean jumpWhen, Label label) {
+			if (expression instanceof JavaUnary && ((JavaUnary)expression).operator == CodeUnaryOperatorType.LOGICAL_NEGATION) {
+				emitBranch(((JavaUnary)expression).expression, !jumpWhen, label);
+				return;
+			}
+
+			if (expression instanceof CodePrimitiveExpression && ((CodePrimitiveExpression)expression).getValue() instanceof Boolean) {
+				if (((Boolean)((CodePrimitiveExpression)expression).getValue()) == jumpWhen) {
+					mv.visitJumpInsn(Opcodes.GOTO, label);
+				}
+				return;
+			}
+
+			if (expression instanceof JavaBinary) {
+				JavaBinary binary = (JavaBinary)expression;
+				Label skip;
+				switch (binary.operator) {
+					case BOOLEAN_AND:
+						if (jumpWhen) {
+							skip = new Label();
+							emitBranch(binary.left, false, skip);
+							emitBranch(binary.right, true, label);
+							mv.visitLabel(skip);
+						} else {
+							emitBranch(binary.left, false, label);
+							emitBranch(binary.right, false, label);
+						}
+						return;
+					case BOOLEAN_OR:
+						if (jumpWhen) {
+							emitBranch(binary.left, true, label);
+							emitBranch(binary.right, true, label);
+						} else {
+							skip = new Label();
+							emitBranch(binary.left, true, skip);
+							emitBranch(binary.right, false, label);
+							mv.visitLabel(skip);
+						}
+						return;
+					case IDENTITY_EQUALITY:
+					case IDENTITY_INEQUALITY:
+					case GREATER_THAN:
+					case GREATER_THAN_OR_EQUAL:
+					case LESS_THAN:
+					case LESS_THAN_OR_EQUAL:
+						emitComparison(binary, jumpWhen, label);
+						return;
+					default:
+						break;
+				}
+			}
+
+			coerce(emit(expression), JType.BOOLEAN);
+			mv.visitJumpInsn(jumpWhen ? Opcodes.IFNE : Opcodes.IFEQ, label);
+		}
+
+		private void emitComparison(JavaBinary expression, boolean jumpWhen, Label label) {
+			// conditions in the same order as IFEQ..IFLE and IF_ICMPEQ..IF_ICMPLE
+			int condition;
+			switch (expression.operator) {
+				case IDENTITY_EQUALITY:
+					condition = 0;
+					break;
+				case IDENTITY_INEQUALITY:
+					condition = 1;
+					break;
+				case LESS_THAN:
+					condition = 2;
+					break;
+				case GREATER_THAN_OR_EQUAL:
+					condition = 3;
+					break;
+				case GREATER_THAN:
+					condition = 4;
+					break;
+				default:
+					condition = 5;
+					break;
+			}
+			boolean isEquality = (condition < 2);
+			if (!jumpWhen) {
+				// EQ/NE, LT/GE and GT/LE are pairwise complements
+				condition ^= 1;
+			}
+
+			JType leftType = typeOf(expression.left);
+			JType rightType = typeOf(expression.right);
+			Class<?> leftUnboxed = unboxed(leftType);
+			Class<?> rightUnboxed = unboxed(rightType);
+			boolean hasPrimitive = leftType.isPrimitive() || rightType.isPrimitive();
+
+			if (isNumeric(leftUnboxed) && isNumeric(rightUnboxed) && (hasPrimitive || !isEquality)) {
+				JType compareType = JType.of(promote(leftUnboxed, rightUnboxed));
+				coerce(emit(expression.left), compareType);
+				coerce(emit(expression.right), compareType);
+
+				if (compareType.is(int.class)) {
+					mv.visitJumpInsn(Opcodes.IF_ICMPEQ+condition, label);
+					return;
+				}
+
+				if (compareType.is(long.class)) {
+					mv.visitInsn(Opcodes.LCMP);
+				} else {
+					// NaN must fail every comparison
+					boolean isLess = (expression.operator == CodeBinaryOperatorType.LESS_THAN ||
+						expression.operator == CodeBinaryOperatorType.LESS_THAN_OR_EQUAL);
+					if (compareType.is(float.class)) {
+						mv.visitInsn(isLess ? Opcodes.FCMPG : Opcodes.FCMPL);
+					} else {
+						mv.visitInsn(isLess ? Opcodes.DCMPG : Opcodes.DCMPL);
+					}
+				}
+				mv.visitJumpInsn(Opcodes.IFEQ+condition, label);
+				return;
+			}
+
+			if (!isEquality) {
+				throw new UnsupportedOperationException("Bad operand types "+leftType+", "+rightType+" for operator "+expression.operator);
+			}
+
+			if (leftUnboxed == boolean.class && rightUnboxed == boolean.class && hasPrimitive) {
+				coerce(emit(expression.left), JType.BOOLEAN);
+				coerce(emit(expression.right), JType.BOOLEAN);
+				mv.visitJumpInsn(Opcodes.IF_ICMPEQ+condition, label);
+				return;
+			}
+
+			if (leftType.isNull() || rightType.isNull()) {
+				CodeExpression operand = leftType.isNull() ? expression.right : expression.left;
+				coerce(emit(operand), JType.OBJECT);
+				mv.visitJumpInsn((condition == 0) ? Opcodes.IFNULL : Opcodes.IFNONNULL, label);
+				return;
+			}
+
+			coerce(emit(expression.left), JType.OBJECT);
+			coerce(emit(expression.right), JType.OBJECT);
+			mv.visitJumpInsn((condition == 0) ? Opcodes.IF_ACMPEQ : Opcodes.IF_ACMPNE, label);
+		}
+
+		/**
+		 * Emits simple and compound assignment
+		 * @param expression
+		 * @param needsValue
+		 * @return the type of the value left on the stack
+		 */
+		private JType emitAssignment(JavaBinary expression, boolean needsValue) {
+			Target target = resolveTarget(expression.left);
+			JType targetType = target.getType();
+			emitTargetInstance(target);
+
+			if (expression.operator == CodeBinaryOperatorType.ASSIGN) {
+				coerce(emit(expression.right), targetType);
+
+			} else {
+				// x op= y => x = (T)(x op y)
+				if (target.hasInstance()) {
+					mv.visitInsn(Opcodes.DUP);
+				}
+				emitTargetLoad(target);
+
+				CodeBinaryOperatorType operator = compoundOperator(expression.operator);
+				JType operandType;
+				if (isShift(operator)) {
+					operandType = JType.of(promote(numericType(targetType, operator)));
+					coerce(targetType, operandType);
+					JType countType = JType.of(promote(numericType(typeOf(expression.right), operator)));
+					coerce(emit(expression.right), countType);
+					if (countType.is(long.class)) {
+						mv.visitInsn(Opcodes.L2I);
+					}
+
+				} else {
+					JType rightType = typeOf(expression.right);
+					if (isLogical(operator) && isBooleanType(targetType) && isBooleanType(rightType)) {
+						operandType = JType.BOOLEAN;
+					} else {
+						operandType = JType.of(promote(numericType(targetType, operator), numericType(rightType, operator)));
+					}
+					coerce(targetType, operandType);
+					coerce(emit(expression.right), operandType);
+				}
+				mv.visitInsn(operandType.asm().getOpcode(arithmeticOpcode(operator)));
+				coerce(operandType, targetType);
+			}
+
+			if (needsValue) {
+				dup(targetType, target.hasInstance());
+			}
+			emitTargetStore(target);
+			return needsValue ? targetType : JType.VOID;
+		}
+
+		/**
+		 * Emits statically typed increment and decrement
+		 * @param expression
+		 * @param needsValue
+		 * @return the type of the value left on the stack
+		 */
+		private JType emitIncrement(JavaUnary expression, boolean needsValue) {
+			Target target = resolveTarget(expression.expression);
+			JType targetType = target.getType();
+			boolean isPost = (expression.operator == CodeUnaryOperatorType.POST_INCREMENT ||
+				expression.operator == CodeUnaryOperatorType.POST_DECREMENT);
+			boolean isDecrement = (expression.operator == CodeUnaryOperatorType.POST_DECREMENT ||
+				expression.operator == CodeUnaryOperatorType.PRE_DECREMENT);
+
+			if (target.local != null && targetType.is(int.class)) {
+				if (needsValue && isPost) {
+					mv.visitVarInsn(Opcodes.ILOAD, target.local.index);
+				}
+				mv.visitIincInsn(target.local.index, isDecrement ? -1 : 1);
+				if (needsValue && !isPost) {
+					mv.visitVarInsn(Opcodes.ILOAD, target.local.index);
+				}
+				return needsValue ? JType.INT : JType.VOID;
+			}
+
+			emitTargetInstance(target);
+			if (target.hasInstance()) {
+				mv.visitInsn(Opcodes.DUP);
+			}
+			emitTargetLoad(target);
+
+			JType valueType = JType.of(numericType(targetType, expression.operator));
+			coerce(targetType, valueType);
+			if (needsValue && isPost) {
+				dup(valueType, target.hasInstance());
+			}
+
+			JType operandType = JType.of(promote(valueType.cls));
+			coerce(valueType, operandType);
+			emitPrimitive(operandType.is(int.class) ? (Object)1 : (operandType.is(long.class) ? (Object)1L : (Object)1.0));
+			if (operandType.is(float.class)) {
+				mv.visitInsn(Opcodes.D2F);
+			}
+			mv.visitInsn(operandType.asm().getOpcode(isDecrement ? Opcodes.ISUB : Opcodes.IADD));
+			coerce(operandType, targetType);
+
+			if (needsValue && !isPost) {
+				dup(targetType, target.hasInstance());
+			}
+			emitTargetStore(target);
+
+			if (!needsValue) {
+				return JType.VOID;
+			}
+			return isPost ? valueType : targetType;
+		}
+
+		private void emitTargetInstance(Target target) {
+			if (!target.hasInstance()) {
+				return;
+			}
+			if (target.instance != null) {
+				emit(target.instance);
+			} else {
+				mv.visitVarInsn(Opcodes.ALOAD, 0);
+			}
+		}
+
+		private void emitTargetLoad(Target target) {
+			if (target.local != null) {
+				mv.visitVarInsn(target.local.type.asm().getOpcode(Opcodes.ILOAD), target.local.index);
+			} else {
+				FieldInfo field = target.field;
+				mv.visitFieldInsn(field.isStatic ? Opcodes.GETSTATIC : Opcodes.GETFIELD, field.owner, field.name, field.type.getDescriptor());
+			}
+		}
+
+		private void emitTargetStore(Target target) {
+			if (target.local != null) {
+				mv.visitVarInsn(target.local.type.asm().getOpcode(Opcodes.ISTORE), target.local.index);
+			} else {
+				FieldInfo field = target.field;
+				mv.visitFieldInsn(field.isStatic ? Opcodes.PUTSTATIC : Opcodes.PUTFIELD, field.owner, field.name, field.type.getDescriptor());
+			}
+		}
+
+		private void emitLoad(Target variable) {
+			emitTargetInstance(variable);
+			emitTargetLoad(variable);
+		}
+
+		/* Conversions ---------------------------------------- */
+
+		/**
+		 * Converts the value on the stack.
+		 * Follows assignment and casting conversions, but also allows any
+		 * Number to be converted to a primitive where javac would have
+		 * required an explicit cast.
+		 * @param from
+		 * @param to
+		 */
+		private void coerce(JType from, JType to) {
+			if (to == JType.VOID) {
+				pop(from);
+				return;
+			}
+			if (from == JType.VOID) {
+				throw new UnsupportedOperationException("Void method used as a value of type "+to);
+			}
+
+			if (to.isPrimitive()) {
+				if (from.isNull()) {
+					throw new UnsupportedOperationException("Cannot convert null to "+to);
+				}
+
+				Class<?> unboxed = unboxed(from);
+				if (unboxed != null) {
+					if (!from.isPrimitive()) {
+						unbox(from.cls);
+					}
+					convertPrimitive(unboxed, to.cls);
+
+				} else if (to.is(boolean.class)) {
+					mv.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(Boolean.class));
+					unbox(Boolean.class);
+
+				} else {
+					String numberName = Type.getInternalName(Number.class);
+					if (from.cls == null || !Number.class.isAssignableFrom(from.cls)) {
+						mv.visitTypeInsn(Opcodes.CHECKCAST, numberName);
+					}
+					Class<?> valueType = to.is(char.class) ? int.class : to.cls;
+					mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, numberName, valueType.getName()+"Value", "()"+Type.getDescriptor(valueType), false);
+					convertPrimitive(valueType, to.cls);
+				}
+				return;
+			}
+
+			if (from.isPrimitive()) {
+				Class<?> primitive = from.cls;
+				Class<?> targetPrimitive = UNBOXES.get(to.cls);
+				if (targetPrimitive != null && targetPrimitive != primitive) {
+					convertPrimitive(primitive, targetPrimitive);
+					primitive = targetPrimitive;
+				}
+
+				Class<?> boxed = BOXES.get(primitive);
+				mv.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(boxed), "valueOf",
+					"("+Type.getDescriptor(primitive)+")"+Type.getDescriptor(boxed), false);
+				if (!isAssignable(JType.of(boxed), to)) {
+					mv.visitTypeInsn(Opcodes.CHECKCAST, to.internalName);
+				}
+				return;
+			}
+
+			if (!from.isNull() && !isAssignable(from, to)) {
+				mv.visitTypeInsn(Opcodes.CHECKCAST, to.asm().getInternalName());
+			}
+		}
+
+		private void convertPrimitive(Class<?> from, Class<?> to) {
+			if (from == to) {
+				return;
+			}
+			if (from == boolean.class || to == boolean.class) {
+				throw new UnsupportedOperationException("Cannot convert "+from+" to "+to);
+			}
+
+			Type fromType = Type.getType(isIntegral(from) && from != long.class ? int.class : from);
+			Type toType = Type.getType(isIntegral(to) && to != long.class ? int.class : to);
+			if (!fromType.equals(toType)) {
+				mv.visitInsn(conversionOpcode(fromType.getSort(), toType.getSort()));
+			}
+
+			// narrow within int
+			if (to == byte.class) {
+				mv.visitInsn(Opcodes.I2B);
+			} else if (to == short.class && from != byte.class) {
+				mv.visitInsn(Opcodes.I2S);
+			} else if (to == char.class) {
+				mv.visitInsn(Opcodes.I2C);
+			}
+		}
+
+		private void unbox(Class<?> boxed) {
+			Class<?> primitive = UNBOXES.get(boxed);
+			mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(boxed), primitive.getName()+"Value",
+				"()"+Type.getDescriptor(primitive), false);
+		}
+
+		private void pop(JType valueType) {
+			int size = valueType.getSize();
+			if (size == 1) {
+				mv.visitInsn(Opcodes.POP);
+			} else if (size == 2) {
+				mv.visitInsn(Opcodes.POP2);
+			}
+		}
+
+		private void dup(JType valueType, boolean underInstance) {
+			if (valueType.getSize() == 2) {
+				mv.visitInsn(underInstance ? Opcodes.DUP2_X1 : Opcodes.DUP2);
+			} else {
+				mv.visitInsn(underInstance ? Opcodes.DUP_X1 : Opcodes.DUP);
+			}
+		}
+
+		private void pushInt(int value) {
+			if (value >= -1 && value <= 5) {
+				mv.visitInsn(Opcodes.ICONST_0+value);
+			} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				mv.visitIntInsn(Opcodes.BIPUSH, value);
+			} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				mv.visitIntInsn(Opcodes.SIPUSH, value);
+			} else {
+				mv.visitLdcInsn(value);
+			}
+		}
+
+		private void pushDefault(JType valueType) {
+			if (!valueType.isPrimitive()) {
+				mv.visitInsn(Opcodes.ACONST_NULL);
+			} else if (valueType.is(long.class)) {
+				mv.visitInsn(Opcodes.LCONST_0);
+			} else if (valueType.is(float.class)) {
+				mv.visitInsn(Opcodes.FCONST_0);
+			} else if (valueType.is(double.class)) {
+				mv.visitInsn(Opcodes.DCONST_0);
+			} else {
+				mv.visitInsn(Opcodes.ICONST_0);
+			}
+		}
+
+		/* Resolution ---------------------------------------- */
+
+		private JType getParameterType(CodeParameterDeclarationExpression param) {
+			Class<?> paramType = param.getType();
+			if (param.isVarArgs()) {
+				paramType = java.lang.reflect.Array.newInstance(paramType, 0).getClass();
+			}
+			return JType.of(paramType);
+		}
+
+		/**
+		 * Resolves a simple name to a local, a field of this type or a static field of an enclosing type
+		 * @param ident
+		 * @return
+		 */
+		private Target resolveVariable(String ident) {
+			for (Map<String, Local> scope : scopes) {
+				Local local = scope.get(ident);
+				if (local != null) {
+					return new Target(local);
+				}
+			}
+
+			FieldInfo field = findField(type.type, ident);
+			if (field != null) {
+				return new Target(field, null);
+			}
+
+			for (TypeInfo outer = type.outer; outer != null; outer = outer.outer) {
+				field = findField(outer.type, ident);
+				if (field != null && field.isStatic) {
+					return new Target(field, null);
+				}
+			}
+
+			throw new UnsupportedOperationException("Cannot resolve symbol "+ident+" in "+type.binaryName);
+		}
+
+		private Target resolveTarget(CodeExpression expression) {
+			if (expression instanceof CodeVariableReferenceExpression) {
+				return resolveVariable(((CodeVariableReferenceExpression)expression).getIdent());
+			}
+
+			if (expression instanceof CodeFieldReferenceExpression) {
+				FieldInfo field = resolveField((CodeFieldReferenceExpression)expression);
+				CodeExpression instance = ((CodeFieldReferenceExpression)expression).getTarget();
+				return new Target(field, field.isStatic ? null : instance);
+			}
+
+			throw new UnsupportedOperationException("Cannot assign to "+(expression != null ? expression.getClass() : null));
+		}
+
+		private boolean isClassLiteral(CodeFieldReferenceExpression expression) {
+			return "class".equals(expression.getFieldName()) && (expression.getTarget() instanceof CodeTypeReferenceExpression);
+		}
+
+		private FieldInfo resolveField(CodeFieldReferenceExpression expression) {
+			CodeExpression target = expression.getTarget();
+			JType ownerType = (target instanceof CodeTypeReferenceExpression) ?
+				JType.of(target.getResultType()) :
+				typeOf(target);
+
+			FieldInfo field = findField(ownerType, expression.getFieldName());
+			if (field == null) {
+				throw new UnsupportedOperationException("Cannot resolve field "+expression.getFieldName()+" in "+ownerType);
+			}
+			return field;
+		}
+
+		private FieldInfo findField(JType ownerType, String name) {
+			if (ownerType.isPrimitive() || ownerType.isNull()) {
+				return null;
+			}
+
+			if (ownerType.gen != null) {
+				for (CodeMember member : ownerType.gen.decl.getMembers()) {
+					if (member instanceof CodeField && name.equals(member.getName())) {
+						CodeField field = (CodeField)member;
+						return new FieldInfo(ownerType.internalName, name, JType.of(field.getType()), field.isStatic());
+					}
+				}
+			}
+
+			Deque<Class<?>> pending = new ArrayDeque<Class<?>>();
+			pending.add(ownerType.base);
+			Set<Class<?>> visited = new HashSet<Class<?>>();
+			while (!pending.isEmpty()) {
+				Class<?> cls = pending.poll();
+				if (!visited.add(cls)) {
+					continue;
+				}
+
+				for (Field field : cls.getDeclaredFields()) {
+					if (name.equals(field.getName()) && isAccessible(field.getModifiers())) {
+						boolean isStatic = Modifier.isStatic(field.getModifiers());
+						String owner = isStatic ? Type.getInternalName(cls) : ownerType.internalName;
+						return new FieldInfo(owner, name, JType.of(field.getType()), isStatic);
+					}
+				}
+
+				if (cls.getSuperclass() != null) {
+					pending.add(cls.getSuperclass());
+				}
+				pending.addAll(Arrays.asList(cls.getInterfaces()));
+			}
+			return null;
+		}
+
+		private Invocation resolveInvoke(CodeMethodInvokeExpression expression) {
+			Invocation invocation = invocations.get(expression);
+			if (invocation != null) {
+				return invocation;
+			}
+
+			CodeExpression target = expression.getTarget();
+			boolean staticOnly = (target instanceof CodeTypeReferenceExpression);
+			JType ownerType;
+			if (staticOnly) {
+				ownerType = JType.of(target.getResultType());
+			} else if (target != null) {
+				ownerType = typeOf(target);
+			} else {
+				ownerType = type.type;
+			}
+
+			List<Member> candidates = getMethods(ownerType, expression.getMethodName(), staticOnly);
+			invocation = resolve(candidates, expression.getArguments(), ownerType+"."+expression.getMethodName());
+			invocations.put(expression, invocation);
+			return invocation;
+		}
+
+		private List<Member> getMethods(JType ownerType, String name, boolean staticOnly) {
+			List<Member> methods = new ArrayList<Member>();
+			if (ownerType.isPrimitive() || ownerType.isNull() || ownerType == JType.VOID) {
+				throw new UnsupportedOperationException("Cannot invoke "+name+" on "+ownerType);
+			}
+
+			Set<String> seen = new HashSet<String>();
+			if (ownerType.gen != null) {
+				for (CodeMember member : ownerType.gen.decl.getMembers()) {
+					if (!(member instanceof CodeMethod) || member instanceof CodeConstructor || !name.equals(member.getName())) {
+						continue;
+					}
+
+					CodeMethod method = (CodeMethod)member;
+					List<CodeParameterDeclarationExpression> params = method.getParameters();
+					JType[] paramTypes = new JType[params.size()];
+					boolean varArgs = false;
+					for (int i=0; i<paramTypes.length; i++) {
+						paramTypes[i] = getParameterType(params.get(i));
+						varArgs = params.get(i).isVarArgs();
+					}
+
+					Member candidate = new Member(ownerType.internalName, name, paramTypes, varArgs, JType.of(method.getReturnType()),
+						false, method.getAccess() == AccessModifierType.PRIVATE, false, false);
+					if (seen.add(candidate.desc)) {
+						methods.add(candidate);
+					}
+				}
+			}
+
+			boolean isInterface = (ownerType.cls != null) && ownerType.cls.isInterface();
+			Deque<Class<?>> pending = new ArrayDeque<Class<?>>();
+			pending.add(ownerType.base);
+			if (isInterface) {
+				pending.add(Object.class);
+			}
+			Set<Class<?>> visited = new HashSet<Class<?>>();
+			while (!pending.isEmpty()) {
+				Class<?> cls = pending.poll();
+				if (!visited.add(cls)) {
+					continue;
+				}
+
+				for (Method method : cls.getDeclaredMethods()) {
+					int modifiers = method.getModifiers();
+					if (!name.equals(method.getName()) || method.isBridge() || method.isSynthetic() || !isAccessible(modifiers)) {
+						continue;
+					}
+
+					boolean isStatic = Modifier.isStatic(modifiers);
+					if (staticOnly && !isStatic) {
+						continue;
+					}
+
+					Class<?>[] params = method.getParameterTypes();
+					JType[] paramTypes = new JType[params.length];
+					for (int i=0; i<params.length; i++) {
+						paramTypes[i] = JType.of(params[i]);
+					}
+
+					String owner = (isStatic && !staticOnly) ? Type.getInternalName(cls) : ownerType.internalName;
+					boolean ownerIsInterface = (isStatic && !staticOnly) ? cls.isInterface() : isInterface;
+					Member candidate = new Member(owner, name, paramTypes, method.isVarArgs(), JType.of(method.getReturnType()),
+						isStatic, false, ownerIsInterface, isMethodTypeVariable(method));
+					if (seen.add(candidate.desc)) {
+						methods.add(candidate);
+					}
+				}
+
+				if (cls.getSuperclass() != null) {
+					pending.add(cls.getSuperclass());
+				}
+				pending.addAll(Arrays.asList(cls.getInterfaces()));
+			}
+
+			return methods;
+		}
+
+		private List<Member> getConstructors(JType ownerType) {
+			List<Member> ctors = new ArrayList<Member>();
+
+			if (ownerType.gen != null) {
+				for (CodeMember member : ownerType.gen.decl.getMembers()) {
+					if (!(member instanceof CodeConstructor)) {
+						continue;
+					}
+
+					List<CodeParameterDeclarationExpression> params = ((CodeConstructor)member).getParameters();
+					JType[] paramTypes = new JType[params.size()];
+					boolean varArgs = false;
+					for (int i=0; i<paramTypes.length; i++) {
+						paramTypes[i] = getParameterType(params.get(i));
+						varArgs = params.get(i).isVarArgs();
+					}
+					ctors.add(new Member(ownerType.internalName, CTOR_NAME, paramTypes, varArgs, JType.VOID, false, false, false, false));
+				}
+
+				if (ctors.isEmpty()) {
+					// default constructor
+					ctors.add(new Member(ownerType.internalName, CTOR_NAME, new JType[0], false, JType.VOID, false, false, false, false));
+				}
+				return ctors;
+			}
+
+			if (ownerType.cls == null) {
+				// views compiled separately: View() and View(DuelPart... parts)
+				ctors.add(new Member(ownerType.internalName, CTOR_NAME, new JType[0], false, JType.VOID, false, false, false, false));
+				ctors.add(new Member(ownerType.internalName, CTOR_NAME, new JType[] { JType.of(DuelPart[].class) }, true, JType.VOID, false, false, false, false));
+				return ctors;
+			}
+
+			for (Constructor<?> ctor : ownerType.cls.getDeclaredConstructors()) {
+				if (ctor.isSynthetic() || !isAccessible(ctor.getModifiers())) {
+					continue;
+				}
+
+				Class<?>[] params = ctor.getParameterTypes();
+				JType[] paramTypes = new JType[params.length];
+				for (int i=0; i<params.length; i++) {
+					paramTypes[i] = JType.of(params[i]);
+				}
+				ctors.add(new Member(ownerType.internalName, CTOR_NAME, paramTypes, ctor.isVarArgs(), JType.VOID, false, false, false, false));
+			}
+			return ctors;
+		}
+
+		/**
+		 * Chooses the most specific applicable member in the three phases of JLS 15.12.2:
+		 * without boxing, with boxing, and finally with variable arity.
+		 * @param candidates
+		 * @param args
+		 * @param description
+		 * @return
+		 */
+		private Invocation resolve(List<Member> candidates, List<CodeExpression> args, String description) {
+			JType[] argTypes = new JType[args.size()];
+			for (int i=0; i<argTypes.length; i++) {
+				argTypes[i] = typeOf(args.get(i));
+			}
+
+			for (int phase=1; phase<=3; phase++) {
+				Member best = null;
+				for (Member candidate : candidates) {
+					if (!isApplicable(candidate, argTypes, phase)) {
+						continue;
+					}
+					if (best == null || isMoreSpecific(candidate, best)) {
+						best = candidate;
+					}
+				}
+
+				if (best != null) {
+					return new Invocation(best, phase == 3);
+				}
+			}
+
+			throw new UnsupportedOperationException("No applicable "+description+" for arguments "+Arrays.toString(argTypes));
+		}
+
+		private boolean isApplicable(Member candidate, JType[] argTypes, int phase) {
+			JType[] params = candidate.params;
+			boolean allowBoxing = (phase > 1);
+
+			if (phase < 3) {
+				if (params.length != argTypes.length) {
+					return false;
+				}
+				for (int i=0; i<params.length; i++) {
+					if (!isConvertible(argTypes[i], params[i], allowBoxing)) {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			if (!candidate.varArgs || argTypes.length < params.length-1) {
+				return false;
+			}
+
+			int fixed = params.length-1;
+			for (int i=0; i<fixed; i++) {
+				if (!isConvertible(argTypes[i], params[i], true)) {
+					return false;
+				}
+			}
+
+			JType component = JType.of(params[fixed].cls.getComponentType());
+			for (int i=fixed; i<argTypes.length; i++) {
+				if (!isConvertible(argTypes[i], component, true)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private boolean isMoreSpecific(Member a, Member b) {
+			if (a.params.length != b.params.length) {
+				return false;
+			}
+			for (int i=0; i<a.params.length; i++) {
+				if (!isConvertible(a.params[i], b.params[i], false)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private boolean isConvertible(JType from, JType to, boolean allowBoxing) {
+			if (from == JType.VOID) {
+				return false;
+			}
+
+			if (to.isPrimitive()) {
+				if (from.isPrimitive()) {
+					return isWidening(from.cls, to.cls);
+				}
+				Class<?> unboxed = allowBoxing ? UNBOXES.get(from.cls) : null;
+				return (unboxed != null) && isWidening(unboxed, to.cls);
+			}
+
+			if (from.isPrimitive()) {
+				return allowBoxing && isAssignable(JType.of(BOXES.get(from.cls)), to);
+			}
+			return isAssignable(from, to);
+		}
+	}
+
+	/* Type rules ---------------------------------------- */
+
+	/**
+	 * Reference widening between known and generated types
+	 */
+	private static boolean isAssignable(JType from, JType to) {
+		if (from.isNull()) {
+			return !to.isPrimitive();
+		}
+		if (from.isPrimitive() || to.isPrimitive()) {
+			return sameType(from, to);
+		}
+		if (to.is(Object.class) || from.internalName.equals(to.internalName)) {
+			return true;
+		}
+		// generated types only ever extend known classes
+		return (to.cls != null) && to.cls.isAssignableFrom(from.base);
+	}
+
+	private static boolean sameType(JType a, JType b) {
+		if (a.cls != null || b.cls != null) {
+			return a.cls == b.cls;
+		}
+		return (a.internalName != null) && a.internalName.equals(b.internalName);
+	}
+
+	private static Class<?> unboxed(JType type) {
+		if (type.isPrimitive()) {
+			return type.cls;
+		}
+		return (type.cls != null) ? UNBOXES.get(type.cls) : null;
+	}
+
+	private static boolean isBooleanType(JType type) {
+		return unboxed(type) == boolean.class;
+	}
+
+	private static boolean isNumeric(Class<?> type) {
+		return (type != null) && type.isPrimitive() && type != boolean.class && type != void.class;
+	}
+
+	private static boolean isIntegral(Class<?> type) {
+		return type == int.class || type == long.class || type == short.class || type == byte.class || type == char.class;
+	}
+
+	private static boolean isWidening(Class<?> from, Class<?> to) {
+		if (from == to) {
+			return true;
+		}
+		if (from == boolean.class || to == boolean.class || to == char.class) {
+			return false;
+		}
+		if (from == byte.class) {
+			return to != byte.class;
+		}
+		if (from == short.class || from == char.class) {
+			return to == int.class || to == long.class || to == float.class || to == double.class;
+		}
+		if (from == int.class) {
+			return to == long.class || to == float.class || to == double.class;
+		}
+		if (from == long.class) {
+			return to == float.class || to == double.class;
+		}
+		if (from == float.class) {
+			return to == double.class;
+		}
+		return false;
+	}
+
+	/**
+	 * Unary numeric promotion
+	 */
+	private static Class<?> promote(Class<?> type) {
+		if (type == long.class || type == float.class || type == double.class) {
+			return type;
+		}
+		return int.class;
+	}
+
+	/**
+	 * Binary numeric promotion
+	 */
+	private static Class<?> promote(Class<?> a, Class<?> b) {
+		if (a == boolean.class || b == boolean.class) {
+			return boolean.class;
+		}
+		if (a == double.class || b == double.class) {
+			return double.class;
+		}
+		if (a == float.class || b == float.class) {
+			return float.class;
+		}
+		if (a == long.class || b == long.class) {
+			return long.class;
+		}
+		return int.class;
+	}
+
+	private static boolean isAssignment(CodeBinaryOperatorType operator) {
+		return (operator == CodeBinaryOperatorType.ASSIGN) || (compoundOperator(operator) != null);
+	}
+
+	private static boolean isIncrement(CodeUnaryOperatorType operator) {
+		switch (operator) {
+			case PRE_INCREMENT:
+			case PRE_DECREMENT:
+			case POST_INCREMENT:
+			case POST_DECREMENT:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private static boolean isShift(CodeBinaryOperatorType operator) {
+		return operator == CodeBinaryOperatorType.SHIFT_LEFT ||
+			operator == CodeBinaryOperatorType.SHIFT_RIGHT ||
+			operator == CodeBinaryOperatorType.USHIFT_RIGHT;
+	}
+
+	private static boolean isLogical(CodeBinaryOperatorType operator) {
+		return operator == CodeBinaryOperatorType.BITWISE_AND ||
+			operator == CodeBinaryOperatorType.BITWISE_OR ||
+			operator == CodeBinaryOperatorType.BITWISE_XOR;
+	}
+
+	private static CodeBinaryOperatorType compoundOperator(CodeBinaryOperatorType operator) {
+		switch (operator) {
+			case ADD_ASSIGN:
+				return CodeBinaryOperatorType.ADD;
+			case SUBTRACT_ASSIGN:
+				return CodeBinaryOperatorType.SUBTRACT;
+			case MULTIPLY_ASSIGN:
+				return CodeBinaryOperatorType.MULTIPLY;
+			case DIVIDE_ASSIGN:
+				return CodeBinaryOperatorType.DIVIDE;
+			case MODULUS_ASSIGN:
+				return CodeBinaryOperatorType.MODULUS;
+			case BITWISE_AND_ASSIGN:
+				return CodeBinaryOperatorType.BITWISE_AND;
+			case BITWISE_OR_ASSIGN:
+				return CodeBinaryOperatorType.BITWISE_OR;
+			case BITWISE_XOR_ASSIGN:
+				return CodeBinaryOperatorType.BITWISE_XOR;
+			case SHIFT_LEFT_ASSIGN:
+				return CodeBinaryOperatorType.SHIFT_LEFT;
+			case SHIFT_RIGHT_ASSIGN:
+				return CodeBinaryOperatorType.SHIFT_RIGHT;
+			case USHIFT_RIGHT_ASSIGN:
+				return CodeBinaryOperatorType.USHIFT_RIGHT;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * @return the int form of the opcode, to be adjusted via Type.getOpcode
+	 */
+	private static int arithmeticOpcode(CodeBinaryOperatorType operator) {
+		switch (operator) {
+			case ADD:
+				return Opcodes.IADD;
+			case SUBTRACT:
+				return Opcodes.ISUB;
+			case MULTIPLY:
+				return Opcodes.IMUL;
+			case DIVIDE:
+				return Opcodes.IDIV;
+			case MODULUS:
+				return Opcodes.IREM;
+			case BITWISE_AND:
+				return Opcodes.IAND;
+			case BITWISE_OR:
+				return Opcodes.IOR;
+			case BITWISE_XOR:
+				return Opcodes.IXOR;
+			case SHIFT_LEFT:
+				return Opcodes.ISHL;
+			case SHIFT_RIGHT:
+				return Opcodes.ISHR;
+			case USHIFT_RIGHT:
+				return Opcodes.IUSHR;
+			default:
+				throw new UnsupportedOperationException("Unknown binary operator: "+operator);
+		}
+	}
+
+	private static int conversionOpcode(int fromSort, int toSort) {
+		switch (fromSort) {
+			case Type.INT:
+				return (toSort == Type.LONG) ? Opcodes.I2L : (toSort == Type.FLOAT) ? Opcodes.I2F : Opcodes.I2D;
+			case Type.LONG:
+				return (toSort == Type.INT) ? Opcodes.L2I : (toSort == Type.FLOAT) ? Opcodes.L2F : Opcodes.L2D;
+			case Type.FLOAT:
+				return (toSort == Type.INT) ? Opcodes.F2I : (toSort == Type.LONG) ? Opcodes.F2L : Opcodes.F2D;
+			default:
+				return (toSort == Type.INT) ? Opcodes.D2I : (toSort == Type.LONG) ? Opcodes.D2L : Opcodes.D2F;
+		}
+	}
+
+	private static int newArrayType(Class<?> component) {
+		if (component == boolean.class) {
+			return Opcodes.T_BOOLEAN;
+		} else if (component == char.class) {
+			return Opcodes.T_CHAR;
+		} else if (component == byte.class) {
+			return Opcodes.T_BYTE;
+		} else if (component == short.class) {
+			return Opcodes.T_SHORT;
+		} else if (component == int.class) {
+			return Opcodes.T_INT;
+		} else if (component == long.class) {
+			return Opcodes.T_LONG;
+		} else if (component == float.class) {
+			return Opcodes.T_FLOAT;
+		}
+		return Opcodes.T_DOUBLE;
+	}
+
+	private static int accessFlags(AccessModifierType access) {
+		switch (access) {
+			case PRIVATE:
+				return Opcodes.ACC_PRIVATE;
+			case PROTECTED:
+				return Opcodes.ACC_PROTECTED;
+			case PUBLIC:
+				return Opcodes.ACC_PUBLIC;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Generated classes live outside the runtime package so only see public and protected members
+	 */
+	private static boolean isAccessible(int modifiers) {
+		return Modifier.isPublic(modifiers) || Modifier.isProtected(modifiers);
+	}
+
+	private static boolean isMethodTypeVariable(Method method) {
+		java.lang.reflect.Type returnType = method.getGenericReturnType();
+		if (!(returnType instanceof TypeVariable)) {
+			return false;
+		}
+		return Arrays.asList(method.getTypeParameters()).contains(returnType);
+	}
+
+	/**
+	 * Reads back a number the same way javac reads the literal JavaCodeGen writes
+	 * @param literal
+	 * @return
+	 */
+	private static Object parseNumber(String literal) {
+		if (literal.indexOf('.') < 0 && literal.indexOf('e') < 0 && literal.indexOf('E') < 0) {
+			try {
+				long number = Long.parseLong(literal);
+				if (number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE) {
+					return (int)number;
+				}
+				return number;
+
+			} catch (NumberFormatException ex) {
+				// fall through to double
+			}
+		}
+		return Double.valueOf(literal);
+	}
+
+	/**
+	 * Applies the same line ending and indent normalization as JavaCodeGen string literals
+	 * @param value
+	 * @return
+	 */
+	private String normalizeString(String value) {
+		if (settings.getConvertLineEndings()) {
+			if (!"\t".equals(settings.getIndent())) {
+				value = value.replace("\t", settings.getIndent());
+			}
+			// if the source came via the DuelLexer then CRLF have been
+			// compressed to single LF and these will not be present
+			value = value.replace("\r\n", "\n").replace("\r", "\n");
+			if (!"\n".equals(settings.getNewline())) {
+				value = value.replace("\n", settings.getNewline());
+			}
+		}
+		return value;
+	}
+}
@@ -0,0 +1,655 @@
+package org.duelengine.duel.codegen;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.duelengine.duel.ast.VIEWCommandNode;
+import org.duelengine.duel.codedom.AccessModifierType;
+import org.duelengine.duel.codedom.CodeBinaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeBinaryOperatorType;
+import org.duelengine.duel.codedom.CodeConditionStatement;
+import org.duelengine.duel.codedom.CodeConstructor;
+import org.duelengine.duel.codedom.CodeExpression;
+import org.duelengine.duel.codedom.CodeExpressionStatement;
+import org.duelengine.duel.codedom.CodeField;
+import org.duelengine.duel.codedom.CodeFieldReferenceExpression;
+import org.duelengine.duel.codedom.CodeIterationStatement;
+import org.duelengine.duel.codedom.CodeMember;
+import org.duelengine.duel.codedom.CodeMethod;
+import org.duelengine.duel.codedom.CodeMethodInvokeExpression;
+import org.duelengine.duel.codedom.CodeMethodReturnStatement;
+import org.duelengine.duel.codedom.CodeObject;
+import org.duelengine.duel.codedom.CodeObjectCreateExpression;
+import org.duelengine.duel.codedom.CodeParameterDeclarationExpression;
+import org.duelengine.duel.codedom.CodePrimitiveExpression;
+import org.duelengine.duel.codedom.CodeStatement;
+import org.duelengine.duel.codedom.CodeStatementCollection;
+import org.duelengine.duel.codedom.CodeThisReferenceExpression;
+import org.duelengine.duel.codedom.CodeTypeDeclaration;
+import org.duelengine.duel.codedom.CodeVariableDeclarationStatement;
+import org.duelengine.duel.codedom.CodeVariableReferenceExpression;
+import org.duelengine.duel.codedom.CodeVisitor;
+
+/**
+ * Inlines calls to small views which are known at compile time.
+ * A call otherwise constructs the callee (and each part passed to it) in init()
+ * and dispatches through renderView, with each part looked up by name while rendering.
+ * Here the body of the callee is spliced in at the call site, its helper methods are
+ * copied into the caller, and each part is resolved to the one found at runtime.
+ * The callee is rebuilt from its template for each call site so that no tree is shared.
+ */
+class CallInliner {
+
+	/**
+	 * Largest estimated size of a callee along with its parts
+	 */
+	static final int MAX_INLINE_SIZE = 1500;
+
+	private final CodeGenSettings settings;
+	private final Set<String> inlining = new HashSet<String>();
+
+	/**
+	 * A call to renderView or renderPart found within a method
+	 */
+	private static class Site {
+		final CodeMethod method;
+		final CodeStatementCollection statements;
+		final CodeMethodInvokeExpression invoke;
+
+		Site(CodeMethod method, CodeStatementCollection statements, CodeMethodInvokeExpression invoke) {
+			this.method = method;
+			this.statements = statements;
+			this.invoke = invoke;
+		}
+
+		/**
+		 * Finds the statement by identity since statements compare by value
+		 */
+		int index() {
+			for (int i=0, length=statements.size(); i<length; i++) {
+				CodeStatement statement = statements.get(i);
+				if (statement instanceof CodeExpressionStatement &&
+					((CodeExpressionStatement)statement).getExpression() == invoke) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+
+	public CallInliner(CodeGenSettings settings) {
+		if (settings == null) {
+			throw new NullPointerException("settings");
+		}
+
+		this.settings = settings;
+	}
+
+	/**
+	 * Inlines each eligible call within the view
+	 * @param viewType
+	 * @throws IOException
+	 */
+	public void inline(CodeTypeDeclaration viewType)
+		throws IOException {
+
+		String viewName = fullName(viewType);
+		inlining.add(viewName);
+		try {
+			inlineCalls(viewType);
+
+		} finally {
+			inlining.remove(viewName);
+		}
+	}
+
+	private void inlineCalls(CodeTypeDeclaration type)
+		throws IOException {
+
+		// parts first so that calls within them are resolved before checking them
+		for (CodeMember member : new ArrayList<CodeMember>(type.getMembers())) {
+			if (member instanceof CodeTypeDeclaration) {
+				inlineCalls((CodeTypeDeclaration)member);
+			}
+		}
+
+		CodeMethod init = findMethod(type, "init");
+		if (init == null) {
+			return;
+		}
+
+		CodeStatementCollection statements = init.getStatements();
+		for (int i=0; i<statements.size(); i++) {
+			CodeStatement statement = statements.get(i);
+			// this.view_N = new Callee(new part_N(), ...);
+			if (!(statement instanceof CodeExpressionStatement) ||
+				!(((CodeExpressionStatement)statement).getExpression() instanceof CodeBinaryOperatorExpression)) {
+				continue;
+			}
+
+			CodeBinaryOperatorExpression assign = (CodeBinaryOperatorExpression)((CodeExpressionStatement)statement).getExpression();
+			if (assign.getOperator() == CodeBinaryOperatorType.ASSIGN &&
+				isThisField(assign.getLeft()) &&
+				assign.getRight() instanceof CodeObjectCreateExpression &&
+				inlineCall(type, ((CodeFieldReferenceExpression)assign.getLeft()).getFieldName(), (CodeObjectCreateExpression)assign.getRight())) {
+
+				statements.remove(i--);
+			}
+		}
+
+		if (statements.isEmpty()) {
+			removeMember(type, init);
+		}
+	}
+
+	/**
+	 * Inlines the single call made through a view field
+	 * @return true if inlined
+	 */
+	private boolean inlineCall(CodeTypeDeclaration type, String fieldName, CodeObjectCreateExpression create)
+		throws IOException {
+
+		VIEWCommandNode calleeNode = settings.getInlineView(create.getTypeName());
+		if (calleeNode == null || inlining.contains(create.getTypeName())) {
+			// unknown at compile time or recursive
+			return false;
+		}
+
+		List<Site> sites = findCalls(type, "renderView", fieldName);
+		if (sites.size() != 1) {
+			return false;
+		}
+		Site site = sites.get(0);
+
+		// parts passed by the caller replace any default of the same name
+		Map<String, CodeTypeDeclaration> parts = new HashMap<String, CodeTypeDeclaration>();
+		List<CodeTypeDeclaration> passedParts = new ArrayList<CodeTypeDeclaration>();
+		for (CodeExpression arg : create.getArguments()) {
+			CodeTypeDeclaration part = findPart(type, arg);
+			if (part == null) {
+				return false;
+			}
+			passedParts.add(part);
+		}
+
+		CodeTypeDeclaration callee = new CodeDOMBuilder(settings).buildView(calleeNode);
+		inline(callee);
+
+		Map<String, CodeTypeDeclaration> defaultParts = defaultParts(callee);
+		if (defaultParts == null || !isInlinable(callee)) {
+			return false;
+		}
+		parts.putAll(defaultParts);
+		for (CodeTypeDeclaration part : passedParts) {
+			parts.put(partName(part), part);
+		}
+
+		int size = 0;
+		for (CodeMember member : callee.getMembers()) {
+			if (member instanceof CodeMethod && !(member instanceof CodeConstructor)) {
+				size += MethodSplitter.estimate(((CodeMethod)member).getStatements());
+			}
+		}
+		for (CodeTypeDeclaration part : parts.values()) {
+			for (CodeMember member : part.getMembers()) {
+				size += MethodSplitter.estimate(((CodeMethod)member).getStatements());
+			}
+		}
+		if (size > MAX_INLINE_SIZE) {
+			return false;
+		}
+
+		CodeMethod render = graft(callee, type);
+		resolveParts(callee, render, type, parts);
+
+		// this.renderView(context, this.view_N, data, index, count, key);
+		List<CodeExpression> args = new ArrayList<CodeExpression>(site.invoke.getArguments());
+		args.remove(1);
+		splice(render, args, site);
+
+		removeMember(type, findField(type, fieldName));
+		for (CodeTypeDeclaration part : passedParts) {
+			removeMember(type, part);
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces each renderPart in the inlined methods with the part it would find
+	 */
+	private void resolveParts(CodeTypeDeclaration callee, CodeMethod render, CodeTypeDeclaration type, Map<String, CodeTypeDeclaration> parts) {
+		List<CodeMethod> methods = new ArrayList<CodeMethod>();
+		methods.add(render);
+		for (CodeMember member : callee.getMembers()) {
+			if (member instanceof CodeMethod && isGrafted(member)) {
+				methods.add((CodeMethod)member);
+			}
+		}
+
+		Map<String, List<Site>> sitesByPart = new LinkedHashMap<String, List<Site>>();
+		for (CodeMethod method : methods) {
+			for (Site site : findCalls(method, "renderPart", null)) {
+				String partName = (String)((CodePrimitiveExpression)site.invoke.getArguments().get(1)).getValue();
+				if (!sitesByPart.containsKey(partName)) {
+					sitesByPart.put(partName, new ArrayList<Site>());
+				}
+				sitesByPart.get(partName).add(site);
+			}
+		}
+
+		for (Map.Entry<String, List<Site>> entry : sitesByPart.entrySet()) {
+			CodeTypeDeclaration part = parts.get(entry.getKey());
+			if (part == null) {
+				// renderPart outputs nothing for an unknown part
+				for (Site site : entry.getValue()) {
+					site.statements.remove(site.index());
+				}
+				continue;
+			}
+
+			CodeMethod partRender = graft(part, type);
+			if (entry.getValue().size() > 1) {
+				// rendered more than once so called rather than spliced
+				partRender.setName(type.nextIdent("render_"));
+				partRender.setAccess(AccessModifierType.PRIVATE);
+				partRender.setOverride(false);
+				type.add(partRender);
+			}
+
+			for (Site site : entry.getValue()) {
+				// this.renderPart(context, "name", data, index, count, key);
+				List<CodeExpression> args = new ArrayList<CodeExpression>(site.invoke.getArguments());
+				args.remove(1);
+
+				if (entry.getValue().size() > 1) {
+					CodeMethodInvokeExpression call = new CodeMethodInvokeExpression(
+						Void.class,
+						new CodeThisReferenceExpression(),
+						partRender.getName(),
+						args.toArray(new CodeExpression[args.size()]));
+					site.statements.set(site.index(), new CodeExpressionStatement(call));
+
+				} else {
+					splice(partRender, args, site);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies the helper methods of a view or part into the target type under new names
+	 * @return the render method, with calls renamed but not yet added to the target
+	 */
+	private CodeMethod graft(CodeTypeDeclaration source, CodeTypeDeclaration target) {
+		CodeMethod render = null;
+		final Map<String, String> names = new HashMap<String, String>();
+		List<CodeMethod> helpers = new ArrayList<CodeMethod>();
+
+		for (CodeMember member : source.getMembers()) {
+			if (!(member instanceof CodeMethod) || member instanceof CodeConstructor) {
+				continue;
+			}
+
+			CodeMethod method = (CodeMethod)member;
+			if ("render".equals(method.getName())) {
+				render = method;
+
+			} else if (isGrafted(method)) {
+				// render_N, code_N, model_N
+				String prefix = method.getName();
+				prefix = (prefix.lastIndexOf('_') > 0) ? prefix.substring(0, prefix.lastIndexOf('_')+1) : prefix+'_';
+				String name = target.nextIdent(prefix);
+				names.put(method.getName(), name);
+				helpers.add(method);
+			}
+		}
+
+		CodeVisitor renamer = new CodeVisitor() {
+			@Override
+			public boolean visit(CodeObject node) {
+				if (node instanceof CodeMethodInvokeExpression) {
+					CodeMethodInvokeExpression invoke = (CodeMethodInvokeExpression)node;
+					if (invoke.getTarget() instanceof CodeThisReferenceExpression &&
+						names.containsKey(invoke.getMethodName())) {
+						invoke.setMethodName(names.get(invoke.getMethodName()));
+					}
+				}
+				return true;
+			}
+		};
+
+		render.visit(renamer);
+		for (CodeMethod helper : helpers) {
+			helper.visit(renamer);
+			helper.setName(names.get(helper.getName()));
+			target.add(helper);
+		}
+		return render;
+	}
+
+	/**
+	 * Replaces a call with the body of the method it calls
+	 * @param source the method being inlined
+	 * @param args evaluated once each, in order
+	 * @param site the call being replaced
+	 */
+	private void splice(CodeMethod source, List<CodeExpression> args, Site site) {
+		final Set<String> taken = identsOf(site.method);
+		Set<String> mutated = MethodSplitter.mutatedLocals(source);
+		final Map<String, String> names = new HashMap<String, String>();
+		List<CodeStatement> statements = new ArrayList<CodeStatement>();
+
+		for (int i=0, length=args.size(); i<length; i++) {
+			CodeParameterDeclarationExpression param = source.getParameters().get(i);
+			CodeExpression arg = args.get(i);
+
+			if (arg instanceof CodeVariableReferenceExpression && !mutated.contains(param.getName())) {
+				// read the argument in place
+				names.put(param.getName(), ((CodeVariableReferenceExpression)arg).getIdent());
+				continue;
+			}
+
+			// Object data_N = arg;
+			String ident = uniqueIdent(param.getName(), taken);
+			names.put(param.getName(), ident);
+			statements.add(new CodeVariableDeclarationStatement(param.getType(), ident, arg));
+		}
+
+		// locals are renamed so as not to collide with those of the caller
+		source.visit(new CodeVisitor() {
+			@Override
+			public boolean visit(CodeObject node) {
+				if (node instanceof CodeVariableDeclarationStatement) {
+					CodeVariableDeclarationStatement varDecl = (CodeVariableDeclarationStatement)node;
+					String ident = uniqueIdent(varDecl.getName(), taken);
+					names.put(varDecl.getName(), ident);
+					varDecl.setName(ident);
+				}
+				return true;
+			}
+		});
+
+		new ExpressionRewriter() {
+			@Override
+			protected CodeExpression replace(CodeExpression expression, boolean isAssignTarget) {
+				if (expression instanceof CodeVariableReferenceExpression) {
+					CodeVariableReferenceExpression varRef = (CodeVariableReferenceExpression)expression;
+					if (names.containsKey(varRef.getIdent())) {
+						varRef.setIdent(names.get(varRef.getIdent()));
+					}
+					return varRef;
+				}
+				return null;
+			}
+		}.rewrite(source);
+
+		statements.addAll(source.getStatements());
+
+		int index = site.index();
+		site.statements.remove(index);
+		site.statements.addAll(index, statements);
+	}
+
+	/**
+	 * Gets the parts a callee adds in init(), or null if init does anything else
+	 */
+	private Map<String, CodeTypeDeclaration> defaultParts(CodeTypeDeclaration callee) {
+		Map<String, CodeTypeDeclaration> parts = new HashMap<String, CodeTypeDeclaration>();
+
+		CodeMethod init = findMethod(callee, "init");
+		if (init == null) {
+			return parts;
+		}
+
+		for (CodeStatement statement : init.getStatements()) {
+			// this.addPart(new part_N());
+			if (!(statement instanceof CodeExpressionStatement) ||
+				!(((CodeExpressionStatement)statement).getExpression() instanceof CodeMethodInvokeExpression)) {
+				return null;
+			}
+
+			CodeMethodInvokeExpression invoke = (CodeMethodInvokeExpression)((CodeExpressionStatement)statement).getExpression();
+			if (!"addPart".equals(invoke.getMethodName()) ||
+				!(invoke.getTarget() instanceof CodeThisReferenceExpression) ||
+				invoke.getArguments().size() != 1) {
+				return null;
+			}
+
+			CodeTypeDeclaration part = findPart(callee, invoke.getArguments().get(0));
+			if (part == null) {
+				return null;
+			}
+			parts.put(partName(part), part);
+		}
+		return parts;
+	}
+
+	/**
+	 * Checks that a callee holds no state and only uses this to call methods
+	 */
+	private static boolean isInlinable(CodeTypeDeclaration callee) {
+		for (CodeMember member : callee.getMembers()) {
+			if (member instanceof CodeField) {
+				// a call which could not be inlined
+				return false;
+			}
+			if (member instanceof CodeMethod && !(member instanceof CodeConstructor) &&
+				!"init".equals(member.getName()) && !isStateless(member)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks that a part holds no state and only renders
+	 * @return the part type or null if not inlinable
+	 */
+	private static CodeTypeDeclaration findPart(CodeTypeDeclaration type, CodeExpression create) {
+		if (!(create instanceof CodeObjectCreateExpression) ||
+			!((CodeObjectCreateExpression)create).getArguments().isEmpty()) {
+			return null;
+		}
+
+		String typeName = ((CodeObjectCreateExpression)create).getTypeName();
+		for (CodeMember member : type.getMembers()) {
+			if (!(member instanceof CodeTypeDeclaration) ||
+				!typeName.equals(((CodeTypeDeclaration)member).getTypeName())) {
+				continue;
+			}
+
+			CodeTypeDeclaration part = (CodeTypeDeclaration)member;
+			if (partName(part) == null) {
+				return null;
+			}
+			for (CodeMember partMember : part.getMembers()) {
+				if (!(partMember instanceof CodeMethod) ||
+					partMember instanceof CodeConstructor ||
+					"init".equals(partMember.getName()) ||
+					!isStateless(partMember)) {
+					return null;
+				}
+			}
+			return part;
+		}
+		return null;
+	}
+
+	private static String partName(CodeTypeDeclaration part) {
+		CodeMethod getPartName = findMethod(part, "getPartName");
+		if (getPartName == null || getPartName.getStatements().size() != 1 ||
+			!(getPartName.getStatements().get(0) instanceof CodeMethodReturnStatement)) {
+			return null;
+		}
+
+		CodeExpression value = ((CodeMethodReturnStatement)getPartName.getStatements().get(0)).getExpression();
+		if (!(value instanceof CodePrimitiveExpression) ||
+			!(((CodePrimitiveExpression)value).getValue() instanceof String)) {
+			return null;
+		}
+		return (String)((CodePrimitiveExpression)value).getValue();
+	}
+
+	/**
+	 * Checks that this is only used as the target of method calls,
+	 * so the code behaves the same within another view
+	 */
+	private static boolean isStateless(CodeObject code) {
+		final int[] count = new int[2];
+		code.visit(new CodeVisitor() {
+			@Override
+			public boolean visit(CodeObject node) {
+				if (node instanceof CodeThisReferenceExpression) {
+					count[0]++;
+
+				} else if (node instanceof CodeMethodInvokeExpression &&
+					((CodeMethodInvokeExpression)node).getTarget() instanceof CodeThisReferenceExpression) {
+					count[1]++;
+				}
+				return true;
+			}
+		});
+		return count[0] == count[1];
+	}
+
+	private static boolean isGrafted(CodeMember member) {
+		return (member instanceof CodeMethod) &&
+			!(member instanceof CodeConstructor) &&
+			!"render".equals(member.getName()) &&
+			!"init".equals(member.getName()) &&
+			!"getPartName".equals(member.getName());
+	}
+
+	private static boolean isThisField(CodeExpression expression) {
+		return (expression instanceof CodeFieldReferenceExpression) &&
+			(((CodeFieldReferenceExpression)expression).getTarget() instanceof CodeThisReferenceExpression);
+	}
+
+	/**
+	 * Finds each statement calling a DuelView method
+	 * @param fieldName if not null, the view field passed as the second argument
+	 */
+	private static List<Site> findCalls(CodeTypeDeclaration type, String methodName, String fieldName) {
+		List<Site> sites = new ArrayList<Site>();
+		for (CodeMember member : type.getMembers()) {
+			if (member instanceof CodeMethod) {
+				sites.addAll(findCalls((CodeMethod)member, methodName, fieldName));
+			}
+		}
+		return sites;
+	}
+
+	private static List<Site> findCalls(CodeMethod method, String methodName, String fieldName) {
+		List<Site> sites = new ArrayList<Site>();
+		findCalls(method, method.getStatements(), methodName, fieldName, sites);
+		return sites;
+	}
+
+	private static void findCalls(CodeMethod method, CodeStatementCollection statements, String methodName, String fieldName, List<Site> sites) {
+		for (CodeStatement statement : statements) {
+			if (statement instanceof CodeConditionStatement) {
+				findCalls(method, ((CodeConditionStatement)statement).getTrueStatements(), methodName, fieldName, sites);
+				findCalls(method, ((CodeConditionStatement)statement).getFalseStatements(), methodName, fieldName, sites);
+				continue;
+			}
+			if (statement instanceof CodeIterationStatement) {
+				findCalls(method, ((CodeIterationStatement)statement).getStatements(), methodName, fieldName, sites);
+				continue;
+			}
+			if (!(statement instanceof CodeExpressionStatement) ||
+				!(((CodeExpressionStatement)statement).getExpression() instanceof CodeMethodInvokeExpression)) {
+				continue;
+			}
+
+			CodeMethodInvokeExpression invoke = (CodeMethodInvokeExpression)((CodeExpressionStatement)statement).getExpression();
+			if (!methodName.equals(invoke.getMethodName()) ||
+				!(invoke.getTarget() instanceof CodeThisReferenceExpression) ||
+				invoke.getArguments().size() != 6) {
+				continue;
+			}
+
+			CodeExpression arg = invoke.getArguments().get(1);
+			if (fieldName != null ?
+				!isThisField(arg) || !fieldName.equals(((CodeFieldReferenceExpression)arg).getFieldName()) :
+				!(arg instanceof CodePrimitiveExpression) || !(((CodePrimitiveExpression)arg).getValue() instanceof String)) {
+				continue;
+			}
+
+			sites.add(new Site(method, statements, invoke));
+		}
+	}
+
+	private static CodeMethod findMethod(CodeTypeDeclaration type, String name) {
+		for (CodeMember member : type.getMembers()) {
+			if (member instanceof CodeMethod && name.equals(member.getName())) {
+				return (CodeMethod)member;
+			}
+		}
+		return null;
+	}
+
+	private static CodeField findField(CodeTypeDeclaration type, String name) {
+		for (CodeMember member : type.getMembers()) {
+			if (member instanceof CodeField && name.equals(member.getName())) {
+				return (CodeField)member;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes by identity since members compare by value
+	 */
+	private static void removeMember(CodeTypeDeclaration type, CodeMember member) {
+		for (Iterator<CodeMember> it = type.getMembers().iterator(); it.hasNext();) {
+			if (it.next() == member) {
+				it.remove();
+				return;
+			}
+		}
+	}
+
+	private static String fullName(CodeTypeDeclaration viewType) {
+		String ns = viewType.getNamespace();
+		return (ns == null || ns.isEmpty()) ? viewType.getTypeName() : ns+'.'+viewType.getTypeName();
+	}
+
+	/**
+	 * Collects every parameter and local name used within a method
+	 */
+	private static Set<String> identsOf(CodeMethod method) {
+		final Set<String> idents = new HashSet<String>();
+		method.visit(new CodeVisitor() {
+			@Override
+			public boolean visit(CodeObject node) {
+				if (node instanceof CodeParameterDeclarationExpression) {
+					idents.add(((CodeParameterDeclarationExpression)node).getName());
+
+				} else if (node instanceof CodeVariableDeclarationStatement) {
+					idents.add(((CodeVariableDeclarationStatement)node).getName());
+
+				} else if (node instanceof CodeVariableReferenceExpression) {
+					idents.add(((CodeVariableReferenceExpression)node).getIdent());
+				}
+				return true;
+			}
+		});
+		return idents;
+	}
+
+	private static String uniqueIdent(String ident, Set<String> taken) {
+		String unique = ident;
+		for (int i=1; taken.contains(unique); i++) {
+			unique = ident+'_'+i;
+		}
+		taken.add(unique);
+		return unique;
+	}
+}
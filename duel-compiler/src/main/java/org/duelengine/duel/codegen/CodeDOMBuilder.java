@@ -15,6 +15,7 @@ import org.duelengine.duel.DataEncoder;
 import org.duelengine.duel.DuelContext;
 import org.duelengine.duel.DuelView;
 import org.duelengine.duel.HTMLFormatter;
+import org.duelengine.duel.ViewRegistry;
 import org.duelengine.duel.ast.AttributePair;
 import org.duelengine.duel.ast.CALLCommandNode;
 import org.duelengine.duel.ast.CodeBlockNode;
@@ -40,6 +41,8 @@ import org.duelengine.duel.codedom.CodeBinaryOperatorType;
 import org.duelengine.duel.codedom.CodeCastExpression;
 import org.duelengine.duel.codedom.CodeCommentStatement;
 import org.duelengine.duel.codedom.CodeConditionStatement;
+import org.duelengine.duel.codedom.CodeConstructor;
+import org.duelengine.duel.codedom.CodeConstructorReferenceExpression;
 import org.duelengine.duel.codedom.CodeExpression;
 import org.duelengine.duel.codedom.CodeExpressionStatement;
 import org.duelengine.duel.codedom.CodeField;
@@ -98,6 +101,9 @@ public class CodeDOMBuilder {
 	private final StringBuilder buffer;
 	private final Stack<CodeStatementCollection> scopeStack = new Stack<CodeStatementCollection>();
 	private CodeTypeDeclaration viewType;
+	private String viewName;
+	private int fragmentCount;
+	private TypedDataBinder dataBinder;
 	private TagMode tagMode;
 	private boolean needsExtrasEmitted;
 	private boolean hasScripts;
@@ -125,8 +131,13 @@ public class CodeDOMBuilder {
 			tagMode = TagMode.NORMAL;
 			hasScripts = false;
 			needsExtrasEmitted = true;
+			fragmentCount = 0;
+			viewName = fullName;
 			viewType = CodeDOMUtility.createViewType(ns, name);
 
+			Class<?> modelType = resolveModelType(viewNode);
+			dataBinder = (modelType != null) ? new TypedDataBinder(viewType, modelType) : null;
+
 			CodeMethod method = buildRenderMethod(viewNode.getChildren()).withOverride();
 
 			method.setName("render");
@@ -136,7 +147,97 @@ public class CodeDOMBuilder {
 
 		} finally {
 			viewType = null;
+			viewName = null;
+			dataBinder = null;
+		}
+	}
+
+	/**
+	 * Builds a registry type which maps each view name to its constructor
+	 * @param viewNames the view names without the server prefix
+	 * @return
+	 */
+	public CodeTypeDeclaration buildRegistry(Iterable<String> viewNames) {
+		String fullName = settings.getServerName(ViewRegistry.GENERATED_NAME);
+		int lastDot = fullName.lastIndexOf('.');
+		String name = fullName.substring(lastDot+1);
+		String ns = (lastDot > 0) ? fullName.substring(0, lastDot) : null;
+
+		CodeConstructor ctor = new CodeConstructor();
+		ctor.setAccess(AccessModifierType.PUBLIC);
+
+		for (String viewName : viewNames) {
+			// this.register("name", prefix.name::new);
+			ctor.getStatements().add(new CodeMethodInvokeExpression(
+				Void.class,
+				new CodeThisReferenceExpression(),
+				"register",
+				new CodePrimitiveExpression(viewName.trim()),
+				new CodeConstructorReferenceExpression(settings.getServerName(viewName))));
+		}
+
+		CodeTypeDeclaration registryType = new CodeTypeDeclaration(
+			AccessModifierType.PUBLIC,
+			ns,
+			name,
+			ViewRegistry.class);
+		registryType.add(ctor);
+
+		return registryType;
+	}
+
+	/**
+	 * Loads the Java type declared as the view model
+	 * @param viewNode
+	 * @return the model type or null if view data is dynamic
+	 * @throws InvalidNodeException if the model type cannot be loaded
+	 */
+	private Class<?> resolveModelType(VIEWCommandNode viewNode) {
+		String modelName = viewNode.getModel();
+		if (modelName == null || modelName.trim().isEmpty()) {
+			return null;
+		}
+
+		Class<?> modelType = loadModelType(modelName);
+		if (modelType == null) {
+			// a silent fallback would hide typos and generate different code once the type exists
+			throw new InvalidNodeException("VIEW model type not found on the compile classpath: "+modelName.trim(), viewNode);
+		}
+		return modelType;
+	}
+
+	/**
+	 * Loads a VIEW model type by name from the context class loader
+	 * @param modelName the type name, nested types may be in source form
+	 * @return the model type or null if not found
+	 */
+	public static Class<?> loadModelType(String modelName) {
+		modelName = modelName.trim();
+
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		if (loader == null) {
+			loader = CodeDOMBuilder.class.getClassLoader();
 		}
+
+		String binaryName = modelName;
+		while (true) {
+			try {
+				return Class.forName(binaryName, false, loader);
+
+			} catch (ClassNotFoundException ex) {
+				// allow nested types to be named in source form
+				int lastDot = binaryName.lastIndexOf('.');
+				if (lastDot < 0) {
+					break;
+				}
+				binaryName = binaryName.substring(0, lastDot)+'$'+binaryName.substring(lastDot+1);
+
+			} catch (LinkageError ex) {
+				break;
+			}
+		}
+
+		return null;
 	}
 
 	private CodeMethod buildRenderMethod(List<DuelNode> content)
@@ -168,7 +269,10 @@ public class CodeDOMBuilder {
 	}
 
 	private void buildNode(DuelNode node) throws IOException {
-		if (node instanceof LiteralNode) {
+		if (node instanceof ElementNode && ((ElementNode)node).getCacheKey() != null) {
+			buildFragment((ElementNode)node);
+
+		} else if (node instanceof LiteralNode) {
 			if (node instanceof UnknownNode) {
 				// IE conditional comments get parsed as an unknown literal
 				// this ensures if a script is within a conditional comment
@@ -240,6 +344,120 @@ public class CodeDOMBuilder {
 		}
 	}
 
+	/**
+	 * Wraps a cacheable subtree so that its output is captured on first render
+	 * and replayed from the context fragment cache thereafter
+	 * @param node
+	 * @throws IOException
+	 */
+	private void buildFragment(ElementNode node)
+		throws IOException {
+
+		DuelNode keyNode = node.getCacheKey();
+		DuelNode ttlNode = node.getCacheTTL();
+
+		CodeExpression keyExpr, ttlExpr;
+		try {
+			keyExpr = buildFragmentAttribute(keyNode, false);
+			ttlExpr = (ttlNode == null) ? new CodePrimitiveExpression(0.0) : buildFragmentAttribute(ttlNode, true);
+
+		} catch (InvalidNodeException ex) {
+			throw ex;
+
+		} catch (Exception ex) {
+			// output which depends upon client-side data cannot be cached
+			log.warn("Cache attributes must be executable on the server; rendering without cache. "+keyNode);
+			keyExpr = ttlExpr = null;
+		}
+
+		// render without caching
+		node.setCacheKey(null);
+		node.setCacheTTL(null);
+		try {
+			if (keyExpr == null || (node instanceof CALLCommandNode && ((CALLCommandNode)node).isDefer())) {
+				buildNode(node);
+				return;
+			}
+
+			flushBuffer();
+			CodeStatementCollection scope = scopeStack.peek();
+
+			// String frag_N = this.fragmentKey(context, "view#N", key);
+			CodeVariableDeclarationStatement keyDecl = new CodeVariableDeclarationStatement(
+				String.class,
+				viewType.nextIdent("frag_"),
+				new CodeMethodInvokeExpression(
+					String.class,
+					new CodeThisReferenceExpression(),
+					"fragmentKey",
+					new CodeVariableReferenceExpression(DuelContext.class, "context"),
+					new CodePrimitiveExpression(viewName+'#'+(++fragmentCount)),
+					keyExpr));
+			scope.add(keyDecl);
+
+			// if (!this.writeFragment(context, frag_N)) { ... }
+			CodeConditionStatement condition = new CodeConditionStatement();
+			condition.setCondition(
+				new CodeUnaryOperatorExpression(
+					CodeUnaryOperatorType.LOGICAL_NEGATION,
+					new CodeMethodInvokeExpression(
+						boolean.class,
+						new CodeThisReferenceExpression(),
+						"writeFragment",
+						new CodeVariableReferenceExpression(DuelContext.class, "context"),
+						new CodeVariableReferenceExpression(keyDecl))));
+			scope.add(condition);
+
+			CodeStatementCollection captureScope = condition.getTrueStatements();
+			captureScope.add(
+				new CodeMethodInvokeExpression(
+					Void.class,
+					new CodeThisReferenceExpression(),
+					"beginFragment",
+					new CodeVariableReferenceExpression(DuelContext.class, "context"),
+					new CodeVariableReferenceExpression(keyDecl)));
+
+			scopeStack.push(captureScope);
+			buildNode(node);
+			flushBuffer();
+			scopeStack.pop();
+
+			captureScope.add(
+				new CodeMethodInvokeExpression(
+					Void.class,
+					new CodeThisReferenceExpression(),
+					"endFragment",
+					new CodeVariableReferenceExpression(DuelContext.class, "context"),
+					new CodeVariableReferenceExpression(keyDecl),
+					ttlExpr));
+
+		} finally {
+			node.setCacheKey(keyNode);
+			node.setCacheTTL(ttlNode);
+		}
+	}
+
+	private CodeExpression buildFragmentAttribute(DuelNode attr, boolean isNumber) {
+		if (attr instanceof CodeBlockNode) {
+			CodeExpression expr = translateCodeBlock((CodeBlockNode)attr, false);
+			return isNumber ? CodeDOMUtility.ensureNumber(expr) : expr;
+		}
+
+		String value = (attr instanceof LiteralNode) ? ((LiteralNode)attr).getValue() : null;
+		if (!isNumber) {
+			return new CodePrimitiveExpression(value != null ? value : "");
+		}
+
+		try {
+			return new CodePrimitiveExpression((value != null) ? Double.parseDouble(value.trim()) : 0.0);
+
+		} catch (NumberFormatException ex) {
+			InvalidNodeException ex2 = new InvalidNodeException("Invalid "+ElementNode.CACHE_TTL+" value: "+value, attr);
+			log.error(ex2.getMessage(), ex2);
+			throw ex2;
+		}
+	}
+
 	private void buildCall(CALLCommandNode node)
 		throws IOException {
 
@@ -578,8 +796,11 @@ public class CodeDOMBuilder {
 		part.add(getNameMethod);
 
 		CodeTypeDeclaration parentView = viewType;
+		TypedDataBinder parentBinder = dataBinder;
 		try {
 			viewType = part;
+			// parts may be rendered with data of any type
+			dataBinder = null;
 
 			CodeMethod renderMethod = buildRenderMethod(node.getChildren()).withOverride();
 
@@ -588,6 +809,7 @@ public class CodeDOMBuilder {
 
 		} finally {
 			viewType = parentView;
+			dataBinder = parentBinder;
 		}
 
 		return new CodeObjectCreateExpression(part.getTypeName());
@@ -633,7 +855,16 @@ public class CodeDOMBuilder {
 		CodeStatementCollection scope = scopeStack.peek();
 
 		// build a helper method to hold the inner content
-		CodeMethod innerBind = buildRenderMethod(node.getChildren());
+		// data within the loop is the item rather than the model
+		TypedDataBinder parentBinder = dataBinder;
+		CodeMethod innerBind;
+		try {
+			dataBinder = null;
+			innerBind = buildRenderMethod(node.getChildren());
+
+		} finally {
+			dataBinder = parentBinder;
+		}
 
 		CodeExpression dataExpr;
 		DuelNode loopCount = node.getAttribute(FORCommandNode.COUNT);
@@ -956,6 +1187,11 @@ public class CodeDOMBuilder {
 			}
 
 			CodeMethod method = (CodeMethod)members.get(0);
+			if (dataBinder != null) {
+				// bind data properties directly to model getters
+				dataBinder.rewrite(method);
+			}
+
 			// attempt to extract single expression (inline the return expression)
 			CodeExpression expression = CodeDOMUtility.inlineMethod(method);
 			if (expression != null) {
@@ -275,6 +275,50 @@ final class CodeDOMUtility {
 			equal(a, b));
 	}
 
+	/**
+	 * Determines if both values are numbers or both are booleans
+	 * and so may be compared directly rather than boxed
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static boolean isPrimitiveComparison(CodeExpression a, CodeExpression b) {
+		if (!hasPrimitiveValue(a) || !hasPrimitiveValue(b)) {
+			return false;
+		}
+
+		return (isNumber(a) && isNumber(b)) || (isBoolean(a) && isBoolean(b));
+	}
+
+	private static boolean hasPrimitiveValue(CodeExpression expression) {
+		if (expression instanceof CodePrimitiveExpression) {
+			Object value = ((CodePrimitiveExpression)expression).getValue();
+			return (value instanceof Number) || (value instanceof Boolean);
+		}
+
+		if (expression instanceof CodeBinaryOperatorExpression) {
+			// operators produce primitives unless they assign or fall back to LogicalAND/OR
+			CodeBinaryOperatorExpression binary = (CodeBinaryOperatorExpression)expression;
+			return !ExpressionRewriter.isAssign(binary.getOperator()) &&
+				(isNumber(binary) || isBoolean(binary));
+		}
+
+		if (expression instanceof CodeUnaryOperatorExpression) {
+			switch (((CodeUnaryOperatorExpression)expression).getOperator()) {
+				case LOGICAL_NEGATION:
+				case POSITIVE:
+				case NEGATION:
+				case BITWISE_NEGATION:
+					return true;
+				default:
+					return false;
+			}
+		}
+
+		// boxed types may be null
+		return expression.getResultType().isPrimitive();
+	}
+
 	public static CodeExpression coerceEqual(CodeExpression a, CodeExpression b) {
 		return new CodeMethodInvokeExpression(
 			boolean.class,
@@ -304,7 +348,7 @@ final class CodeDOMUtility {
 			new CodeThisReferenceExpression(),
 			"echo",
 			ensureNumber(i),
-			asAssignment(CodeBinaryOperatorType.ADD, i, ensureNumber(i), CodePrimitiveExpression.ONE));
+			coerceAssignment(asAssignment(CodeBinaryOperatorType.ADD, i, ensureNumber(i), CodePrimitiveExpression.ONE)));
 	}
 
 	public static CodeExpression safePostDecrement(CodeExpression i) {
@@ -313,7 +357,16 @@ final class CodeDOMUtility {
 			new CodeThisReferenceExpression(),
 			"echo",
 			ensureNumber(i),
-			asAssignment(CodeBinaryOperatorType.SUBTRACT, i, ensureNumber(i), CodePrimitiveExpression.ONE));
+			coerceAssignment(asAssignment(CodeBinaryOperatorType.SUBTRACT, i, ensureNumber(i), CodePrimitiveExpression.ONE)));
+	}
+
+	private static CodeExpression coerceAssignment(CodeExpression assignment) {
+		// the assignment takes the type of an untyped variable, not the number
+		return new CodeMethodInvokeExpression(
+			double.class,
+			new CodeTypeReferenceExpression(DuelData.class),
+			"coerceNumber",
+			assignment);
 	}
 
 	public static CodeExpression asAssignment(CodeBinaryOperatorType op, CodeExpression assign, CodeExpression left, CodeExpression right) {
@@ -1,6 +1,10 @@
 package org.duelengine.duel.codegen;
 
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+
+import org.duelengine.duel.ast.VIEWCommandNode;
 
 /**
  * Settings which affect generated code
@@ -19,6 +23,9 @@ public class CodeGenSettings {
 	private boolean encodeNonASCII = true;
 	private boolean scriptTypeAttr;
 	private boolean lowercaseClientPaths = true;
+	private boolean preEncodeLiterals;
+	private CodeOptimizer optimizer;
+	private Map<String, VIEWCommandNode> inlineViews;
 
 	public void setClientNamePrefix(String value) {
 		clientPrefix = (value == null) ? null : value.trim();
@@ -174,6 +181,70 @@ public class CodeGenSettings {
 		lowercaseClientPaths = value;
 	}
 
+	/**
+	 * Gets if server-side literals are emitted as pre-encoded UTF-8 constants
+	 * @return
+	 */
+	public boolean getPreEncodeLiterals() {
+		return preEncodeLiterals;
+	}
+
+	/**
+	 * Sets if server-side literals are emitted as pre-encoded UTF-8 constants
+	 * @param value
+	 */
+	public void setPreEncodeLiterals(boolean value) {
+		preEncodeLiterals = value;
+	}
+
+	/**
+	 * Gets the passes run over server-side views before generating code
+	 * @return the optimizer or null if views are generated as built
+	 */
+	public CodeOptimizer getOptimizer() {
+		return optimizer;
+	}
+
+	/**
+	 * Sets the passes run over server-side views before generating code
+	 * @param value the optimizer or null to generate views as built
+	 */
+	public void setOptimizer(CodeOptimizer value) {
+		optimizer = value;
+	}
+
+	/**
+	 * Gets if calls to small views known at compile time are inlined
+	 * @return
+	 */
+	public boolean getInlineCalls() {
+		return (inlineViews != null) && !inlineViews.isEmpty();
+	}
+
+	/**
+	 * Sets the views known at compile time, whose small server-side views
+	 * may be inlined into their callers rather than called at runtime.
+	 * A caller must be compiled again whenever one of these views changes.
+	 * @param views the views or null to keep every call
+	 */
+	public void setInlineViews(Iterable<VIEWCommandNode> views) {
+		if (views == null) {
+			inlineViews = null;
+			return;
+		}
+
+		inlineViews = new HashMap<String, VIEWCommandNode>();
+		for (VIEWCommandNode view : views) {
+			if (view != null && !view.isClientOnly()) {
+				inlineViews.put(getServerName(view.getName()), view);
+			}
+		}
+	}
+
+	VIEWCommandNode getInlineView(String serverName) {
+		return (inlineViews != null) ? inlineViews.get(serverName) : null;
+	}
+
 	String getServerName(String viewName) {
 		viewName = (viewName != null) ? viewName.trim() : "";
 
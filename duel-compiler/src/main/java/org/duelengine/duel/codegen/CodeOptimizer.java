@@ -0,0 +1,68 @@
+package org.duelengine.duel.codegen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.duelengine.duel.codedom.CodeTypeDeclaration;
+
+/**
+ * Runs a sequence of optimization passes over each view between
+ * building its CodeDOM and generating code from it.
+ */
+public class CodeOptimizer {
+
+	private final List<OptimizerPass> passes;
+
+	/**
+	 * Creates the default pipeline
+	 */
+	public CodeOptimizer() {
+		// order matters: folding exposes dead branches, removing those exposes adjacent literals,
+		// and splitting comes last so that sizes are measured on the final statements
+		this(
+			new ConstantFolder(),
+			new DeadBranchEliminator(),
+			new LiteralWriteMerger(),
+			new PropertyChainHoister(),
+			new TypeInferrer(),
+			new PartSlotAssigner(),
+			new MethodSplitter());
+	}
+
+	/**
+	 * Creates a custom pipeline
+	 * @param passes run in order
+	 */
+	public CodeOptimizer(OptimizerPass... passes) {
+		this.passes = new ArrayList<OptimizerPass>(Arrays.asList(passes));
+	}
+
+	public List<OptimizerPass> getPasses() {
+		return Collections.unmodifiableList(passes);
+	}
+
+	public CodeOptimizer add(OptimizerPass pass) {
+		if (pass == null) {
+			throw new NullPointerException("pass");
+		}
+
+		passes.add(pass);
+		return this;
+	}
+
+	/**
+	 * Runs each pass over the view
+	 * @param viewType
+	 */
+	public void optimize(CodeTypeDeclaration viewType) {
+		if (viewType == null) {
+			throw new NullPointerException("viewType");
+		}
+
+		for (OptimizerPass pass : passes) {
+			pass.optimize(viewType);
+		}
+	}
+}
@@ -0,0 +1,434 @@
+package org.duelengine.duel.codegen;
+
+import org.duelengine.duel.DuelData;
+import org.duelengine.duel.JSUtility;
+import org.duelengine.duel.codedom.CodeBinaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeBinaryOperatorType;
+import org.duelengine.duel.codedom.CodeExpression;
+import org.duelengine.duel.codedom.CodeMember;
+import org.duelengine.duel.codedom.CodeMethod;
+import org.duelengine.duel.codedom.CodeMethodInvokeExpression;
+import org.duelengine.duel.codedom.CodePrimitiveExpression;
+import org.duelengine.duel.codedom.CodeTernaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeTypeDeclaration;
+import org.duelengine.duel.codedom.CodeTypeReferenceExpression;
+import org.duelengine.duel.codedom.CodeUnaryOperatorExpression;
+
+/**
+ * Evaluates operators and coercions whose operands are all literals.
+ * Results follow the semantics of the generated Java (e.g. integer division)
+ * rather than JavaScript so that folding never changes the output of a view.
+ * Anything which would throw or produce a non-finite number is left for runtime.
+ */
+class ConstantFolder extends ExpressionRewriter implements OptimizerPass {
+
+	@Override
+	public void optimize(CodeTypeDeclaration viewType) {
+		for (CodeMember member : viewType.getMembers()) {
+			if (member instanceof CodeMethod) {
+				rewrite((CodeMethod)member);
+
+			} else if (member instanceof CodeTypeDeclaration) {
+				optimize((CodeTypeDeclaration)member);
+			}
+		}
+	}
+
+	@Override
+	protected CodeExpression replace(CodeExpression expression, boolean isAssignTarget) {
+		// operands are folded first so that constants propagate upward
+		if (expression instanceof CodeBinaryOperatorExpression) {
+			CodeBinaryOperatorExpression binary = (CodeBinaryOperatorExpression)expression;
+			if (isAssign(binary.getOperator())) {
+				return null;
+			}
+
+			binary.setLeft(rewrite(binary.getLeft()));
+			binary.setRight(rewrite(binary.getRight()));
+			return orElse(foldBinary(binary), binary);
+		}
+
+		if (expression instanceof CodeUnaryOperatorExpression) {
+			CodeUnaryOperatorExpression unary = (CodeUnaryOperatorExpression)expression;
+			switch (unary.getOperator()) {
+				case LOGICAL_NEGATION:
+				case NEGATION:
+				case POSITIVE:
+				case BITWISE_NEGATION:
+					unary.setLeft(rewrite(unary.getExpression()));
+					return orElse(foldUnary(unary), unary);
+				default:
+					return null;
+			}
+		}
+
+		if (expression instanceof CodeTernaryOperatorExpression) {
+			CodeTernaryOperatorExpression ternary = (CodeTernaryOperatorExpression)expression;
+			ternary.setTestExpression(rewrite(ternary.getTestExpression()));
+			ternary.setTrueExpression(rewrite(ternary.getTrueExpression()));
+			ternary.setFalseExpression(rewrite(ternary.getFalseExpression()));
+			return orElse(foldTernary(ternary), ternary);
+		}
+
+		if (expression instanceof CodeMethodInvokeExpression) {
+			CodeMethodInvokeExpression invoke = (CodeMethodInvokeExpression)expression;
+			for (int i=0, length=invoke.getArguments().size(); i<length; i++) {
+				invoke.getArguments().set(i, rewrite(invoke.getArguments().get(i)));
+			}
+			invoke.setTarget(rewrite(invoke.getTarget()));
+			return orElse(foldCoercion(invoke), invoke);
+		}
+
+		return null;
+	}
+
+	private static CodeExpression orElse(CodeExpression folded, CodeExpression expression) {
+		if (folded == null) {
+			return expression;
+		}
+
+		if (folded != expression && expression.hasParens() && !(folded instanceof CodePrimitiveExpression)) {
+			// a surviving sub-expression keeps the grouping of what it replaced
+			folded.setParens(true);
+		}
+		return folded;
+	}
+
+	private CodeExpression foldBinary(CodeBinaryOperatorExpression binary) {
+		CodeExpression left = binary.getLeft();
+		CodeExpression right = binary.getRight();
+
+		switch (binary.getOperator()) {
+			case BOOLEAN_AND:
+			case BOOLEAN_OR:
+				return foldLogical(binary.getOperator() == CodeBinaryOperatorType.BOOLEAN_AND, left, right);
+			default:
+				break;
+		}
+
+		if (!isLiteral(left) || !isLiteral(right)) {
+			return null;
+		}
+
+		Object a = ((CodePrimitiveExpression)left).getValue();
+		Object b = ((CodePrimitiveExpression)right).getValue();
+
+		switch (binary.getOperator()) {
+			case ADD:
+				if (isJavaString(a) || isJavaString(b)) {
+					// matches DuelData.coerceString on each operand
+					return literal(DuelData.coerceString(a)+DuelData.coerceString(b));
+				}
+				return literal(arithmetic(binary, a, b));
+			case SUBTRACT:
+			case MULTIPLY:
+			case DIVIDE:
+			case MODULUS:
+				return literal(arithmetic(binary, a, b));
+			case BITWISE_AND:
+			case BITWISE_OR:
+			case BITWISE_XOR:
+			case SHIFT_LEFT:
+			case SHIFT_RIGHT:
+			case USHIFT_RIGHT:
+				return literal(bitwise(binary, a, b));
+			case LESS_THAN:
+			case LESS_THAN_OR_EQUAL:
+			case GREATER_THAN:
+			case GREATER_THAN_OR_EQUAL:
+				return literal(compare(binary, a, b));
+			case IDENTITY_EQUALITY:
+				// matches DuelView.equal
+				return literal((a == null) ? (b == null) : a.equals(b));
+			case IDENTITY_INEQUALITY:
+				return literal((a == null) ? (b != null) : !a.equals(b));
+			case VALUE_EQUALITY:
+				return literal(coerceEqual(a, b));
+			case VALUE_INEQUALITY:
+				return literal(!coerceEqual(a, b));
+			default:
+				return null;
+		}
+	}
+
+	private CodeExpression foldLogical(boolean isAnd, CodeExpression left, CodeExpression right) {
+		// only the statically boolean form avoids JavaScript value semantics
+		if (!isLiteral(left) || !CodeDOMUtility.isBoolean(left) || !CodeDOMUtility.isBoolean(right)) {
+			return null;
+		}
+
+		boolean test = DuelData.coerceBoolean(((CodePrimitiveExpression)left).getValue());
+		if (isAnd) {
+			return test ? right : literal(false);
+		}
+		return test ? literal(true) : right;
+	}
+
+	private CodeExpression foldUnary(CodeUnaryOperatorExpression unary) {
+		CodeExpression operand = unary.getExpression();
+		if (!isLiteral(operand)) {
+			return null;
+		}
+
+		Object value = ((CodePrimitiveExpression)operand).getValue();
+		switch (unary.getOperator()) {
+			case LOGICAL_NEGATION:
+				return literal(!DuelData.coerceBoolean(value));
+			case POSITIVE:
+				if (value instanceof Integer || value instanceof Long || value instanceof Double) {
+					return literal(value);
+				}
+				return literal(finite(DuelData.coerceNumber(value)));
+			case NEGATION:
+				if (value instanceof Integer) {
+					return literal(-((Integer)value).intValue());
+				}
+				if (value instanceof Long) {
+					return literal(-((Long)value).longValue());
+				}
+				if (value instanceof Double) {
+					return literal(finite(-((Double)value).doubleValue()));
+				}
+				return literal(finite(-DuelData.coerceNumber(value)));
+			case BITWISE_NEGATION:
+				if (value instanceof Integer) {
+					return literal(~((Integer)value).intValue());
+				}
+				if (value instanceof Long) {
+					return literal(~((Long)value).longValue());
+				}
+				return null;
+			default:
+				return null;
+		}
+	}
+
+	private CodeExpression foldTernary(CodeTernaryOperatorExpression ternary) {
+		CodeExpression test = ternary.getTestExpression();
+		CodeExpression trueExpr = ternary.getTrueExpression();
+		CodeExpression falseExpr = ternary.getFalseExpression();
+
+		if (!isLiteral(test) || trueExpr == null || falseExpr == null ||
+			!trueExpr.getResultType().equals(falseExpr.getResultType())) {
+			// mixed branches would change the static type seen by the consumer
+			return null;
+		}
+
+		return DuelData.coerceBoolean(((CodePrimitiveExpression)test).getValue()) ? trueExpr : falseExpr;
+	}
+
+	private CodeExpression foldCoercion(CodeMethodInvokeExpression invoke) {
+		if (!(invoke.getTarget() instanceof CodeTypeReferenceExpression) ||
+			!DuelData.class.equals(invoke.getTarget().getResultType()) ||
+			invoke.getArguments().size() != 1 ||
+			!isLiteral(invoke.getArguments().get(0))) {
+			return null;
+		}
+
+		Object value = ((CodePrimitiveExpression)invoke.getArguments().get(0)).getValue();
+		String methodName = invoke.getMethodName();
+		if ("coerceBoolean".equals(methodName)) {
+			return literal(DuelData.coerceBoolean(value));
+		}
+		if ("coerceNumber".equals(methodName)) {
+			return literal(finite(DuelData.coerceNumber(value)));
+		}
+		if ("coerceString".equals(methodName)) {
+			return literal(DuelData.coerceString(value));
+		}
+		return null;
+	}
+
+	/**
+	 * Applies Java binary numeric promotion to literal operands
+	 */
+	private static Object arithmetic(CodeBinaryOperatorExpression binary, Object a, Object b) {
+		if (!isJavaNumber(a) || !isJavaNumber(b)) {
+			return null;
+		}
+
+		if (a instanceof Double || b instanceof Double) {
+			double x = ((Number)a).doubleValue();
+			double y = ((Number)b).doubleValue();
+			switch (binary.getOperator()) {
+				case ADD:
+					return finite(x + y);
+				case SUBTRACT:
+					return finite(x - y);
+				case MULTIPLY:
+					return finite(x * y);
+				case DIVIDE:
+					return finite(x / y);
+				case MODULUS:
+					return finite(x % y);
+				default:
+					return null;
+			}
+		}
+
+		if (a instanceof Long || b instanceof Long) {
+			long x = ((Number)a).longValue();
+			long y = ((Number)b).longValue();
+			switch (binary.getOperator()) {
+				case ADD:
+					return x + y;
+				case SUBTRACT:
+					return x - y;
+				case MULTIPLY:
+					return x * y;
+				case DIVIDE:
+					return (y != 0L) ? (Object)(x / y) : null;
+				case MODULUS:
+					return (y != 0L) ? (Object)(x % y) : null;
+				default:
+					return null;
+			}
+		}
+
+		int x = ((Integer)a).intValue();
+		int y = ((Integer)b).intValue();
+		switch (binary.getOperator()) {
+			case ADD:
+				return x + y;
+			case SUBTRACT:
+				return x - y;
+			case MULTIPLY:
+				return x * y;
+			case DIVIDE:
+				return (y != 0) ? (Object)(x / y) : null;
+			case MODULUS:
+				return (y != 0) ? (Object)(x % y) : null;
+			default:
+				return null;
+		}
+	}
+
+	private static Object bitwise(CodeBinaryOperatorExpression binary, Object a, Object b) {
+		if (!(a instanceof Integer || a instanceof Long) || !(b instanceof Integer || b instanceof Long)) {
+			// shifts of doubles do not compile so leave them be
+			return null;
+		}
+
+		long y = ((Number)b).longValue();
+		switch (binary.getOperator()) {
+			case SHIFT_LEFT:
+				return (a instanceof Long) ? (Object)(((Long)a).longValue() << y) : (Object)(((Integer)a).intValue() << y);
+			case SHIFT_RIGHT:
+				return (a instanceof Long) ? (Object)(((Long)a).longValue() >> y) : (Object)(((Integer)a).intValue() >> y);
+			case USHIFT_RIGHT:
+				return (a instanceof Long) ? (Object)(((Long)a).longValue() >>> y) : (Object)(((Integer)a).intValue() >>> y);
+			default:
+				break;
+		}
+
+		if (a instanceof Long || b instanceof Long) {
+			long x = ((Number)a).longValue();
+			switch (binary.getOperator()) {
+				case BITWISE_AND:
+					return x & y;
+				case BITWISE_OR:
+					return x | y;
+				case BITWISE_XOR:
+					return x ^ y;
+				default:
+					return null;
+			}
+		}
+
+		int x = ((Integer)a).intValue();
+		switch (binary.getOperator()) {
+			case BITWISE_AND:
+				return x & (int)y;
+			case BITWISE_OR:
+				return x | (int)y;
+			case BITWISE_XOR:
+				return x ^ (int)y;
+			default:
+				return null;
+		}
+	}
+
+	private static Object compare(CodeBinaryOperatorExpression binary, Object a, Object b) {
+		if (!isJavaNumber(a) || !isJavaNumber(b)) {
+			return null;
+		}
+
+		int sign;
+		if (a instanceof Double || b instanceof Double) {
+			double x = ((Number)a).doubleValue();
+			double y = ((Number)b).doubleValue();
+			if (Double.isNaN(x) || Double.isNaN(y)) {
+				// every comparison with NaN is false
+				return false;
+			}
+			sign = (x < y) ? -1 : (x > y) ? 1 : 0;
+
+		} else {
+			long x = ((Number)a).longValue();
+			long y = ((Number)b).longValue();
+			sign = (x < y) ? -1 : (x > y) ? 1 : 0;
+		}
+
+		switch (binary.getOperator()) {
+			case LESS_THAN:
+				return sign < 0;
+			case LESS_THAN_OR_EQUAL:
+				return sign <= 0;
+			case GREATER_THAN:
+				return sign > 0;
+			case GREATER_THAN_OR_EQUAL:
+				return sign >= 0;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Matches DuelView.coerceEqual
+	 */
+	private static boolean coerceEqual(Object a, Object b) {
+		if (a == null) {
+			return (b == null);
+		}
+
+		Class<?> aType = a.getClass();
+		if (DuelData.isNumber(aType)) {
+			a = DuelData.coerceNumber(a);
+			b = DuelData.coerceNumber(b);
+
+		} else if (DuelData.isString(aType)) {
+			b = DuelData.coerceString(b);
+
+		} else if (DuelData.isBoolean(aType)) {
+			b = DuelData.coerceBoolean(b);
+		}
+
+		return a.equals(b);
+	}
+
+	private static boolean isLiteral(CodeExpression expression) {
+		if (!(expression instanceof CodePrimitiveExpression)) {
+			return false;
+		}
+
+		// undefined is emitted as a runtime reference
+		return (((CodePrimitiveExpression)expression).getValue() != JSUtility.UNDEFINED);
+	}
+
+	private static boolean isJavaString(Object value) {
+		return (value instanceof String);
+	}
+
+	private static boolean isJavaNumber(Object value) {
+		return (value instanceof Integer || value instanceof Long || value instanceof Double);
+	}
+
+	private static Double finite(double value) {
+		// NaN and -Infinity do not round-trip through generated source
+		return (Double.isNaN(value) || Double.isInfinite(value)) ? null : value;
+	}
+
+	private static CodeExpression literal(Object value) {
+		return (value != null) ? new CodePrimitiveExpression(value) : null;
+	}
+}
@@ -0,0 +1,133 @@
+package org.duelengine.duel.codegen;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.duelengine.duel.DuelData;
+import org.duelengine.duel.JSUtility;
+import org.duelengine.duel.codedom.AccessModifierType;
+import org.duelengine.duel.codedom.CodeConditionStatement;
+import org.duelengine.duel.codedom.CodeIterationStatement;
+import org.duelengine.duel.codedom.CodeMember;
+import org.duelengine.duel.codedom.CodeMethod;
+import org.duelengine.duel.codedom.CodeMethodInvokeExpression;
+import org.duelengine.duel.codedom.CodeObject;
+import org.duelengine.duel.codedom.CodePrimitiveExpression;
+import org.duelengine.duel.codedom.CodeStatement;
+import org.duelengine.duel.codedom.CodeStatementCollection;
+import org.duelengine.duel.codedom.CodeThisReferenceExpression;
+import org.duelengine.duel.codedom.CodeTypeDeclaration;
+import org.duelengine.duel.codedom.CodeVisitor;
+
+/**
+ * Replaces conditionals whose test is a literal with the branch which is taken,
+ * then drops any private methods (e.g. loop bodies) which are no longer called.
+ * Generated locals have unique names so splicing a branch into its parent is safe.
+ */
+class DeadBranchEliminator implements OptimizerPass {
+
+	@Override
+	public void optimize(CodeTypeDeclaration viewType) {
+		if (eliminate(viewType)) {
+			removeUncalled(viewType);
+		}
+	}
+
+	private boolean eliminate(CodeTypeDeclaration type) {
+		boolean changed = false;
+		for (CodeMember member : type.getMembers()) {
+			if (member instanceof CodeMethod) {
+				changed |= eliminate(((CodeMethod)member).getStatements());
+
+			} else if (member instanceof CodeTypeDeclaration) {
+				changed |= eliminate((CodeTypeDeclaration)member);
+			}
+		}
+		return changed;
+	}
+
+	private boolean eliminate(CodeStatementCollection statements) {
+		boolean changed = false;
+		for (int i=0; i<statements.size(); i++) {
+			CodeStatement statement = statements.get(i);
+
+			if (statement instanceof CodeConditionStatement) {
+				CodeConditionStatement condition = (CodeConditionStatement)statement;
+				if (isLiteral(condition)) {
+					CodeStatementCollection taken = DuelData.coerceBoolean(((CodePrimitiveExpression)condition.getCondition()).getValue()) ?
+						condition.getTrueStatements() : condition.getFalseStatements();
+
+					// splice in the taken branch and revisit it in place
+					statements.remove(i);
+					statements.addAll(i, taken);
+					i--;
+					changed = true;
+					continue;
+				}
+
+				changed |= eliminate(condition.getTrueStatements());
+				changed |= eliminate(condition.getFalseStatements());
+
+			} else if (statement instanceof CodeIterationStatement) {
+				changed |= eliminate(((CodeIterationStatement)statement).getStatements());
+			}
+		}
+		return changed;
+	}
+
+	private static boolean isLiteral(CodeConditionStatement condition) {
+		return (condition.getCondition() instanceof CodePrimitiveExpression) &&
+			(((CodePrimitiveExpression)condition.getCondition()).getValue() != JSUtility.UNDEFINED);
+	}
+
+	/**
+	 * Removes private methods which are no longer called, repeating since
+	 * a removed method may have been the only caller of another
+	 */
+	private void removeUncalled(CodeTypeDeclaration viewType) {
+		while (true) {
+			final Set<String> called = new HashSet<String>();
+			viewType.visit(new CodeVisitor() {
+				@Override
+				public boolean visit(CodeObject node) {
+					if (node instanceof CodeMethodInvokeExpression) {
+						CodeMethodInvokeExpression invoke = (CodeMethodInvokeExpression)node;
+						if (invoke.getTarget() instanceof CodeThisReferenceExpression) {
+							called.add(invoke.getMethodName());
+						}
+					}
+					return true;
+				}
+			});
+
+			List<CodeTypeDeclaration> types = new ArrayList<CodeTypeDeclaration>();
+			types.add(viewType);
+			for (CodeMember member : viewType.getMembers()) {
+				if (member instanceof CodeTypeDeclaration) {
+					types.add((CodeTypeDeclaration)member);
+				}
+			}
+
+			boolean removed = false;
+			for (CodeTypeDeclaration type : types) {
+				for (Iterator<CodeMember> it = type.getMembers().iterator(); it.hasNext();) {
+					CodeMember member = it.next();
+					if (member instanceof CodeMethod &&
+						member.getAccess() == AccessModifierType.PRIVATE &&
+						!called.contains(member.getName())) {
+
+						it.remove();
+						removed = true;
+					}
+				}
+			}
+
+			if (!removed) {
+				return;
+			}
+		}
+	}
+}
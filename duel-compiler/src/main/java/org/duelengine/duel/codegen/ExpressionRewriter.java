@@ -0,0 +1,179 @@
+package org.duelengine.duel.codegen;
+
+import java.util.List;
+
+import org.duelengine.duel.codedom.CodeArrayCreateExpression;
+import org.duelengine.duel.codedom.CodeBinaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeBinaryOperatorType;
+import org.duelengine.duel.codedom.CodeCastExpression;
+import org.duelengine.duel.codedom.CodeConditionStatement;
+import org.duelengine.duel.codedom.CodeExpression;
+import org.duelengine.duel.codedom.CodeExpressionStatement;
+import org.duelengine.duel.codedom.CodeFieldReferenceExpression;
+import org.duelengine.duel.codedom.CodeIterationStatement;
+import org.duelengine.duel.codedom.CodeMethod;
+import org.duelengine.duel.codedom.CodeMethodInvokeExpression;
+import org.duelengine.duel.codedom.CodeMethodReturnStatement;
+import org.duelengine.duel.codedom.CodeObjectCreateExpression;
+import org.duelengine.duel.codedom.CodePropertyReferenceExpression;
+import org.duelengine.duel.codedom.CodeStatement;
+import org.duelengine.duel.codedom.CodeTernaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeUnaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeVariableCompoundDeclarationStatement;
+import org.duelengine.duel.codedom.CodeVariableDeclarationStatement;
+
+/**
+ * Walks a CodeDOM tree replacing expressions in place.
+ * Subclasses are offered each expression before its children,
+ * so a replacement is able to consume an entire sub-tree.
+ */
+abstract class ExpressionRewriter {
+
+	/**
+	 * Offers an expression for replacement
+	 * @param expression
+	 * @param isAssignTarget true if the expression is written to rather than read
+	 * @return the replacement or null to continue into the children
+	 */
+	protected abstract CodeExpression replace(CodeExpression expression, boolean isAssignTarget);
+
+	public void rewrite(CodeMethod method) {
+		rewrite(method.getStatements());
+	}
+
+	public void rewrite(List<CodeStatement> statements) {
+		for (CodeStatement statement : statements) {
+			rewrite(statement);
+		}
+	}
+
+	public void rewrite(CodeStatement statement) {
+		if (statement instanceof CodeExpressionStatement) {
+			CodeExpressionStatement expressionStatement = (CodeExpressionStatement)statement;
+			expressionStatement.setIdent(rewrite(expressionStatement.getExpression()));
+
+		} else if (statement instanceof CodeMethodReturnStatement) {
+			CodeMethodReturnStatement returnStatement = (CodeMethodReturnStatement)statement;
+			returnStatement.setExpression(rewrite(returnStatement.getExpression()));
+
+		} else if (statement instanceof CodeVariableDeclarationStatement) {
+			CodeVariableDeclarationStatement varDecl = (CodeVariableDeclarationStatement)statement;
+			varDecl.setInitExpression(rewrite(varDecl.getInitExpression()));
+
+		} else if (statement instanceof CodeVariableCompoundDeclarationStatement) {
+			for (CodeVariableDeclarationStatement varDecl : ((CodeVariableCompoundDeclarationStatement)statement).getVars()) {
+				rewrite(varDecl);
+			}
+
+		} else if (statement instanceof CodeConditionStatement) {
+			CodeConditionStatement condition = (CodeConditionStatement)statement;
+			condition.setCondition(rewrite(condition.getCondition()));
+			rewrite(condition.getTrueStatements());
+			rewrite(condition.getFalseStatements());
+
+		} else if (statement instanceof CodeIterationStatement) {
+			CodeIterationStatement loop = (CodeIterationStatement)statement;
+			if (loop.getInitStatement() != null) {
+				rewrite(loop.getInitStatement());
+			}
+			loop.setTestExpression(rewrite(loop.getTestExpression()));
+			if (loop.getIncrementStatement() != null) {
+				rewrite(loop.getIncrementStatement());
+			}
+			rewrite(loop.getStatements());
+		}
+	}
+
+	public CodeExpression rewrite(CodeExpression expression) {
+		return rewrite(expression, false);
+	}
+
+	private CodeExpression rewrite(CodeExpression expression, boolean isAssignTarget) {
+		if (expression == null) {
+			return null;
+		}
+
+		CodeExpression replacement = replace(expression, isAssignTarget);
+		if (replacement != null) {
+			return replacement;
+		}
+
+		if (expression instanceof CodePropertyReferenceExpression) {
+			CodePropertyReferenceExpression propertyRef = (CodePropertyReferenceExpression)expression;
+			propertyRef.setTarget(rewrite(propertyRef.getTarget(), false));
+			propertyRef.setPropertyName(rewrite(propertyRef.getPropertyName(), false));
+
+		} else if (expression instanceof CodeBinaryOperatorExpression) {
+			CodeBinaryOperatorExpression binary = (CodeBinaryOperatorExpression)expression;
+			binary.setLeft(rewrite(binary.getLeft(), isAssign(binary.getOperator())));
+			binary.setRight(rewrite(binary.getRight(), false));
+
+		} else if (expression instanceof CodeUnaryOperatorExpression) {
+			CodeUnaryOperatorExpression unary = (CodeUnaryOperatorExpression)expression;
+			switch (unary.getOperator()) {
+				case PRE_INCREMENT:
+				case PRE_DECREMENT:
+				case POST_INCREMENT:
+				case POST_DECREMENT:
+					unary.setLeft(rewrite(unary.getExpression(), true));
+					break;
+				default:
+					unary.setLeft(rewrite(unary.getExpression(), false));
+					break;
+			}
+
+		} else if (expression instanceof CodeTernaryOperatorExpression) {
+			CodeTernaryOperatorExpression ternary = (CodeTernaryOperatorExpression)expression;
+			ternary.setTestExpression(rewrite(ternary.getTestExpression(), false));
+			ternary.setTrueExpression(rewrite(ternary.getTrueExpression(), false));
+			ternary.setFalseExpression(rewrite(ternary.getFalseExpression(), false));
+
+		} else if (expression instanceof CodeMethodInvokeExpression) {
+			CodeMethodInvokeExpression invoke = (CodeMethodInvokeExpression)expression;
+			invoke.setTarget(rewrite(invoke.getTarget(), false));
+			rewriteAll(invoke.getArguments());
+
+		} else if (expression instanceof CodeObjectCreateExpression) {
+			rewriteAll(((CodeObjectCreateExpression)expression).getArguments());
+
+		} else if (expression instanceof CodeArrayCreateExpression) {
+			rewriteAll(((CodeArrayCreateExpression)expression).getInitializers());
+
+		} else if (expression instanceof CodeCastExpression) {
+			CodeCastExpression cast = (CodeCastExpression)expression;
+			cast.setExpression(rewrite(cast.getExpression(), false));
+
+		} else if (expression instanceof CodeFieldReferenceExpression) {
+			CodeFieldReferenceExpression fieldRef = (CodeFieldReferenceExpression)expression;
+			fieldRef.setTarget(rewrite(fieldRef.getTarget(), false));
+		}
+
+		return expression;
+	}
+
+	private void rewriteAll(List<CodeExpression> expressions) {
+		for (int i=0, length=expressions.size(); i<length; i++) {
+			expressions.set(i, rewrite(expressions.get(i), false));
+		}
+	}
+
+	static boolean isAssign(CodeBinaryOperatorType op) {
+		switch (op) {
+			case ASSIGN:
+			case ADD_ASSIGN:
+			case SUBTRACT_ASSIGN:
+			case MULTIPLY_ASSIGN:
+			case DIVIDE_ASSIGN:
+			case MODULUS_ASSIGN:
+			case BITWISE_OR_ASSIGN:
+			case BITWISE_AND_ASSIGN:
+			case BITWISE_XOR_ASSIGN:
+			case SHIFT_LEFT_ASSIGN:
+			case SHIFT_RIGHT_ASSIGN:
+			case USHIFT_RIGHT_ASSIGN:
+				return true;
+			default:
+				return false;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package org.duelengine.duel.codegen;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
@@ -10,6 +11,7 @@ import java.util.Map;
 import org.duelengine.duel.DuelContext;
 import org.duelengine.duel.DuelData;
 import org.duelengine.duel.DuelView;
+import org.duelengine.duel.ViewRegistry;
 import org.duelengine.duel.ast.VIEWCommandNode;
 import org.duelengine.duel.codedom.AccessModifierType;
 import org.duelengine.duel.codedom.CodeArrayCreateExpression;
@@ -19,6 +21,7 @@ import org.duelengine.duel.codedom.CodeCastExpression;
 import org.duelengine.duel.codedom.CodeCommentStatement;
 import org.duelengine.duel.codedom.CodeConditionStatement;
 import org.duelengine.duel.codedom.CodeConstructor;
+import org.duelengine.duel.codedom.CodeConstructorReferenceExpression;
 import org.duelengine.duel.codedom.CodeExpression;
 import org.duelengine.duel.codedom.CodeExpressionStatement;
 import org.duelengine.duel.codedom.CodeField;
@@ -105,12 +108,22 @@ public class JavaCodeGen implements CodeGenerator {
 		}
 
 		boolean importsWritten = false;
+		CallInliner inliner = settings.getInlineCalls() ? new CallInliner(settings) : null;
 		for (VIEWCommandNode view : views) {
 			if (view == null || view.isClientOnly()) {
 				continue;
 			}
 
 			CodeTypeDeclaration viewType = new CodeDOMBuilder(settings).buildView(view);
+			if (inliner != null) {
+				inliner.inline(viewType);
+			}
+			if (settings.getOptimizer() != null) {
+				settings.getOptimizer().optimize(viewType);
+			}
+			if (settings.getPreEncodeLiterals()) {
+				new LiteralEncoder(viewType).encode();
+			}
 
 			if (importsWritten) {
 				writeln(output, 0);
@@ -124,6 +137,41 @@ public class JavaCodeGen implements CodeGenerator {
 		}
 	}
 
+	/**
+	 * Generates a registry of the server-side views
+	 * @param output
+	 * @param views
+	 * @throws IOException
+	 */
+	public void writeRegistry(Appendable output, Iterable<VIEWCommandNode> views)
+		throws IOException {
+
+		if (output == null) {
+			throw new NullPointerException("output");
+		}
+		if (views == null) {
+			throw new NullPointerException("views");
+		}
+
+		List<String> viewNames = new ArrayList<String>();
+		for (VIEWCommandNode view : views) {
+			if (view == null || view.isClientOnly()) {
+				continue;
+			}
+			viewNames.add(view.getName());
+		}
+
+		writeCode(output, new CodeDOMBuilder(settings).buildRegistry(viewNames));
+	}
+
+	/**
+	 * Gets the server-side path of the generated view registry
+	 * @return
+	 */
+	public String getRegistryPath() {
+		return settings.getServerPath(ViewRegistry.GENERATED_NAME, this);
+	}
+
 	public void writeCode(Appendable output, CodeObject code)
 		throws IOException {
 
@@ -303,6 +351,12 @@ public class JavaCodeGen implements CodeGenerator {
 		throws IOException {
 
 		writeAccessModifier(output, field.getAccess());
+		if (field.isStatic()) {
+			output.append("static ");
+		}
+		if (field.isFinal()) {
+			output.append("final ");
+		}
 		writeTypeName(output, field.getType());
 		output.append(' ').append(field.getName());
 		
@@ -481,6 +535,9 @@ public class JavaCodeGen implements CodeGenerator {
 		} else if (expression instanceof CodeObjectCreateExpression) {
 			writeObjectCreate(output, (CodeObjectCreateExpression)expression);
 
+		} else if (expression instanceof CodeConstructorReferenceExpression) {
+			output.append(((CodeConstructorReferenceExpression)expression).getTypeName()).append("::new");
+
 		} else if (expression instanceof CodeCastExpression) {
 			if (needsParens) {
 				output.append('(');
@@ -535,6 +592,17 @@ public class JavaCodeGen implements CodeGenerator {
 		String operator;
 		switch (expression.getOperator()) {
 			case IDENTITY_EQUALITY:
+			case VALUE_EQUALITY:
+				if (CodeDOMUtility.isPrimitiveComparison(left, right)) {
+					// statically typed so no boxing or coercion needed
+					operator = " == ";
+					asNumber = false;
+					break;
+				}
+				if (expression.getOperator() == CodeBinaryOperatorType.VALUE_EQUALITY) {
+					writeExpression(output, CodeDOMUtility.coerceEqual(left, right));
+					return;
+				}
 				if (!CodePrimitiveExpression.NULL.equals(left) &&
 					!CodePrimitiveExpression.NULL.equals(right) &&
 					!ScriptExpression.UNDEFINED.equals(left) &&
@@ -546,6 +614,16 @@ public class JavaCodeGen implements CodeGenerator {
 				asNumber = false;
 				break;
 			case IDENTITY_INEQUALITY:
+			case VALUE_INEQUALITY:
+				if (CodeDOMUtility.isPrimitiveComparison(left, right)) {
+					operator = " != ";
+					asNumber = false;
+					break;
+				}
+				if (expression.getOperator() == CodeBinaryOperatorType.VALUE_INEQUALITY) {
+					writeExpression(output, CodeDOMUtility.coerceNotEqual(left, right));
+					return;
+				}
 				if (!CodePrimitiveExpression.NULL.equals(left) &&
 					!CodePrimitiveExpression.NULL.equals(right) &&
 					!ScriptExpression.UNDEFINED.equals(left) &&
@@ -556,12 +634,6 @@ public class JavaCodeGen implements CodeGenerator {
 				operator = " != ";
 				asNumber = false;
 				break;
-			case VALUE_EQUALITY:
-				writeExpression(output, CodeDOMUtility.coerceEqual(left, right));
-				return;
-			case VALUE_INEQUALITY:
-				writeExpression(output, CodeDOMUtility.coerceNotEqual(left, right));
-				return;
 			case GREATER_THAN:
 				operator = " > ";
 				break;
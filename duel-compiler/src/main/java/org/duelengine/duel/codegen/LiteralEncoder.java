@@ -0,0 +1,113 @@
+package org.duelengine.duel.codegen;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.duelengine.duel.DuelView;
+import org.duelengine.duel.codedom.AccessModifierType;
+import org.duelengine.duel.codedom.CodeExpression;
+import org.duelengine.duel.codedom.CodeField;
+import org.duelengine.duel.codedom.CodeMember;
+import org.duelengine.duel.codedom.CodeMethod;
+import org.duelengine.duel.codedom.CodeMethodInvokeExpression;
+import org.duelengine.duel.codedom.CodePrimitiveExpression;
+import org.duelengine.duel.codedom.CodeThisReferenceExpression;
+import org.duelengine.duel.codedom.CodeTypeDeclaration;
+import org.duelengine.duel.codedom.CodeTypeReferenceExpression;
+import org.duelengine.duel.codedom.CodeVariableReferenceExpression;
+
+/**
+ * Hoists literal markup into UTF-8 byte constants which are encoded once per class
+ * so that byte-oriented outputs may copy them without per-request encoding.
+ * Constants are declared on the outermost type since inner classes may not hold static fields.
+ */
+class LiteralEncoder extends ExpressionRewriter {
+
+	/**
+	 * Shorter literals are cheaper to append than to dispatch
+	 */
+	static final int MIN_LENGTH = 32;
+
+	private final CodeTypeDeclaration viewType;
+	private final Map<String, CodeField> constants = new HashMap<String, CodeField>();
+
+	public LiteralEncoder(CodeTypeDeclaration viewType) {
+		if (viewType == null) {
+			throw new NullPointerException("viewType");
+		}
+
+		this.viewType = viewType;
+	}
+
+	/**
+	 * Replaces literal writes throughout the view and its nested types
+	 */
+	public void encode() {
+		encode(viewType);
+	}
+
+	private void encode(CodeTypeDeclaration type) {
+		// constants are appended to the view while iterating
+		CodeMember[] members = type.getMembers().toArray(new CodeMember[type.getMembers().size()]);
+		for (CodeMember member : members) {
+			if (member instanceof CodeMethod) {
+				rewrite((CodeMethod)member);
+
+			} else if (member instanceof CodeTypeDeclaration) {
+				encode((CodeTypeDeclaration)member);
+			}
+		}
+	}
+
+	@Override
+	protected CodeExpression replace(CodeExpression expression, boolean isAssignTarget) {
+		if (!(expression instanceof CodeMethodInvokeExpression)) {
+			return null;
+		}
+
+		CodeMethodInvokeExpression invoke = (CodeMethodInvokeExpression)expression;
+		List<CodeExpression> args = invoke.getArguments();
+		if (!"write".equals(invoke.getMethodName()) ||
+			!(invoke.getTarget() instanceof CodeThisReferenceExpression) ||
+			args.size() != 2 ||
+			!(args.get(1) instanceof CodePrimitiveExpression)) {
+			return null;
+		}
+
+		Object value = ((CodePrimitiveExpression)args.get(1)).getValue();
+		if (!(value instanceof String) || ((String)value).length() < MIN_LENGTH) {
+			return expression;
+		}
+
+		// this.write(context, "literal", lit_N);
+		CodeField constant = ensureConstant((String)value);
+		args.add(new CodeVariableReferenceExpression(byte[].class, constant.getName()));
+		return expression;
+	}
+
+	private CodeField ensureConstant(String literal) {
+		CodeField constant = constants.get(literal);
+		if (constant != null) {
+			return constant;
+		}
+
+		// private static final byte[] lit_N = DuelView.encodeUTF8("literal");
+		constant = new CodeField(
+			AccessModifierType.PRIVATE,
+			byte[].class,
+			viewType.nextIdent("lit_"),
+			new CodeMethodInvokeExpression(
+				byte[].class,
+				new CodeTypeReferenceExpression(DuelView.class),
+				"encodeUTF8",
+				new CodePrimitiveExpression(literal)));
+		constant.setStatic(true);
+		constant.setFinal(true);
+
+		// declare constants ahead of the other members
+		viewType.getMembers().add(constants.size(), constant);
+		constants.put(literal, constant);
+		return constant;
+	}
+}
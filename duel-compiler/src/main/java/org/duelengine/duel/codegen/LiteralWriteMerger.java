@@ -0,0 +1,129 @@
+package org.duelengine.duel.codegen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.duelengine.duel.DuelData;
+import org.duelengine.duel.JSUtility;
+import org.duelengine.duel.codedom.CodeCommentStatement;
+import org.duelengine.duel.codedom.CodeConditionStatement;
+import org.duelengine.duel.codedom.CodeExpression;
+import org.duelengine.duel.codedom.CodeExpressionStatement;
+import org.duelengine.duel.codedom.CodeIterationStatement;
+import org.duelengine.duel.codedom.CodeMember;
+import org.duelengine.duel.codedom.CodeMethod;
+import org.duelengine.duel.codedom.CodeMethodInvokeExpression;
+import org.duelengine.duel.codedom.CodePrimitiveExpression;
+import org.duelengine.duel.codedom.CodeStatement;
+import org.duelengine.duel.codedom.CodeStatementCollection;
+import org.duelengine.duel.codedom.CodeThisReferenceExpression;
+import org.duelengine.duel.codedom.CodeTypeDeclaration;
+
+/**
+ * Joins runs of adjacent literal writes into a single write and drops empty ones.
+ * Comments between writes produce no output so they do not break a run.
+ */
+class LiteralWriteMerger implements OptimizerPass {
+
+	@Override
+	public void optimize(CodeTypeDeclaration viewType) {
+		for (CodeMember member : viewType.getMembers()) {
+			if (member instanceof CodeMethod) {
+				merge(((CodeMethod)member).getStatements());
+
+			} else if (member instanceof CodeTypeDeclaration) {
+				optimize((CodeTypeDeclaration)member);
+			}
+		}
+	}
+
+	private void merge(CodeStatementCollection statements) {
+		List<CodeStatement> merged = new ArrayList<CodeStatement>(statements.size());
+		List<CodeStatement> run = new ArrayList<CodeStatement>();
+		List<CodeStatement> comments = new ArrayList<CodeStatement>();
+		StringBuilder literal = new StringBuilder();
+
+		for (CodeStatement statement : statements) {
+			String value = literalValue(statement);
+			if (value != null) {
+				literal.append(value);
+				run.add(statement);
+				continue;
+			}
+
+			if (!run.isEmpty() && statement instanceof CodeCommentStatement) {
+				comments.add(statement);
+				continue;
+			}
+
+			flush(merged, run, literal, comments);
+
+			if (statement instanceof CodeConditionStatement) {
+				merge(((CodeConditionStatement)statement).getTrueStatements());
+				merge(((CodeConditionStatement)statement).getFalseStatements());
+
+			} else if (statement instanceof CodeIterationStatement) {
+				merge(((CodeIterationStatement)statement).getStatements());
+			}
+			merged.add(statement);
+		}
+		flush(merged, run, literal, comments);
+
+		if (merged.size() != statements.size()) {
+			statements.clear();
+			statements.addAll(merged);
+		}
+	}
+
+	private void flush(List<CodeStatement> merged, List<CodeStatement> run, StringBuilder literal, List<CodeStatement> comments) {
+		if (literal.length() > 0) {
+			// a lone write is kept as-is
+			merged.add((run.size() == 1) ? run.get(0) : CodeDOMUtility.emitLiteralValue(literal.toString()));
+		}
+		merged.addAll(comments);
+
+		run.clear();
+		comments.clear();
+		literal.setLength(0);
+	}
+
+	/**
+	 * Gets the text a statement of the form this.write(context, literal) would output
+	 * @param statement
+	 * @return the text or null if not a literal write
+	 */
+	private static String literalValue(CodeStatement statement) {
+		if (!(statement instanceof CodeExpressionStatement)) {
+			return null;
+		}
+
+		CodeExpression expression = ((CodeExpressionStatement)statement).getExpression();
+		if (!(expression instanceof CodeMethodInvokeExpression)) {
+			return null;
+		}
+
+		CodeMethodInvokeExpression invoke = (CodeMethodInvokeExpression)expression;
+		List<CodeExpression> args = invoke.getArguments();
+		if (!"write".equals(invoke.getMethodName()) ||
+			!(invoke.getTarget() instanceof CodeThisReferenceExpression) ||
+			args.size() != 2 ||
+			!(args.get(1) instanceof CodePrimitiveExpression)) {
+			return null;
+		}
+
+		Object value = ((CodePrimitiveExpression)args.get(1)).getValue();
+		if (value == JSUtility.UNDEFINED) {
+			return null;
+		}
+		if (value == null) {
+			// write(Object) skips null
+			return "";
+		}
+		if (value instanceof Character) {
+			return String.valueOf(value);
+		}
+
+		// matches DuelView.write(Object)
+		return DuelData.coerceString(value);
+	}
+}
@@ -0,0 +1,514 @@
+package org.duelengine.duel.codegen;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.duelengine.duel.codedom.AccessModifierType;
+import org.duelengine.duel.codedom.CodeBinaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeConditionStatement;
+import org.duelengine.duel.codedom.CodeExpression;
+import org.duelengine.duel.codedom.CodeExpressionStatement;
+import org.duelengine.duel.codedom.CodeIterationStatement;
+import org.duelengine.duel.codedom.CodeMember;
+import org.duelengine.duel.codedom.CodeMethod;
+import org.duelengine.duel.codedom.CodeMethodInvokeExpression;
+import org.duelengine.duel.codedom.CodeMethodReturnStatement;
+import org.duelengine.duel.codedom.CodeObject;
+import org.duelengine.duel.codedom.CodeParameterDeclarationExpression;
+import org.duelengine.duel.codedom.CodePrimitiveExpression;
+import org.duelengine.duel.codedom.CodePropertyReferenceExpression;
+import org.duelengine.duel.codedom.CodeStatement;
+import org.duelengine.duel.codedom.CodeStatementCollection;
+import org.duelengine.duel.codedom.CodeTernaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeThisReferenceExpression;
+import org.duelengine.duel.codedom.CodeTypeDeclaration;
+import org.duelengine.duel.codedom.CodeUnaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeVariableCompoundDeclarationStatement;
+import org.duelengine.duel.codedom.CodeVariableDeclarationStatement;
+import org.duelengine.duel.codedom.CodeVariableReferenceExpression;
+import org.duelengine.duel.codedom.CodeVisitor;
+
+/**
+ * Keeps generated methods within the limits of the JVM.
+ * HotSpot will not JIT compile a method over 8000 bytes of bytecode and a class file
+ * rejects any over 64KB, so long statement sequences are moved into private helper methods
+ * which receive the parameters of the original method plus any locals they read.
+ * Sizes are conservative estimates made from the CodeDOM so that either backend fits.
+ * Literals too long for a single constant are written in pieces, and a view needing
+ * more constants than a class may hold fails here with a clear message.
+ */
+class MethodSplitter implements OptimizerPass {
+
+	/**
+	 * Methods estimated above this are split (HotSpot's limit is 8000 bytes)
+	 */
+	static final int MAX_METHOD_SIZE = 6000;
+
+	/**
+	 * Target estimated size of each helper method
+	 */
+	static final int CHUNK_SIZE = 3000;
+
+	/**
+	 * Longest literal kept as a single constant, in chars, since
+	 * the 65535 byte limit of a constant allows up to 3 bytes per char
+	 */
+	static final int MAX_LITERAL_LENGTH = 0xFFFF/3;
+
+	/**
+	 * Entries available in a class constant pool
+	 */
+	static final int MAX_CONSTANTS = 0xFFFF;
+
+	/**
+	 * Method arguments are limited to 255 slots
+	 */
+	private static final int MAX_ARGS = 200;
+
+	/**
+	 * Locals visible at a point within a method
+	 */
+	private static class Scope {
+		final Map<String, Class<?>> locals;
+		final Set<String> mutated;
+
+		Scope(Map<String, Class<?>> locals, Set<String> mutated) {
+			this.locals = locals;
+			this.mutated = mutated;
+		}
+	}
+
+	@Override
+	public void optimize(CodeTypeDeclaration viewType) {
+		optimize(viewType, viewType);
+	}
+
+	private void optimize(CodeTypeDeclaration viewType, CodeTypeDeclaration type) {
+		// helpers are appended to the type while iterating
+		CodeMember[] members = type.getMembers().toArray(new CodeMember[type.getMembers().size()]);
+		for (CodeMember member : members) {
+			if (member instanceof CodeMethod) {
+				CodeMethod method = (CodeMethod)member;
+				splitLiterals(method.getStatements());
+				split(viewType, type, method);
+
+			} else if (member instanceof CodeTypeDeclaration) {
+				optimize(viewType, (CodeTypeDeclaration)member);
+			}
+		}
+
+		checkConstants(type);
+	}
+
+	private void split(CodeTypeDeclaration viewType, CodeTypeDeclaration type, CodeMethod method) {
+		if (estimate(method.getStatements()) <= MAX_METHOD_SIZE ||
+			!Void.class.equals(method.getReturnType()) ||
+			contains(method, CodeMethodReturnStatement.class)) {
+			return;
+		}
+
+		Set<String> params = new HashSet<String>();
+		for (CodeParameterDeclarationExpression param : method.getParameters()) {
+			params.add(param.getName());
+		}
+
+		Set<String> mutated = mutatedLocals(method);
+		for (String param : params) {
+			if (mutated.contains(param)) {
+				// a helper could not pass an assigned parameter back
+				return;
+			}
+		}
+
+		List<CodeMethod> helpers = new ArrayList<CodeMethod>();
+		split(viewType, method, method.getStatements(), new Scope(new LinkedHashMap<String, Class<?>>(), mutated), helpers);
+
+		// declare alongside the method being split
+		type.getMembers().addAll(type.getMembers().indexOf(method)+1, helpers);
+	}
+
+	/**
+	 * Splits a statement sequence into calls to helpers, working inward first
+	 * @param scope locals declared by enclosing statements
+	 */
+	private void split(CodeTypeDeclaration viewType, CodeMethod method, CodeStatementCollection statements, Scope scope, List<CodeMethod> helpers) {
+		if (estimate(statements) <= MAX_METHOD_SIZE) {
+			return;
+		}
+
+		// oversized blocks are split within before being grouped
+		Map<String, Class<?>> visible = new LinkedHashMap<String, Class<?>>(scope.locals);
+		for (CodeStatement statement : statements) {
+			if (estimate(statement) > CHUNK_SIZE) {
+				Scope inner = new Scope(visible, scope.mutated);
+				if (statement instanceof CodeConditionStatement) {
+					split(viewType, method, ((CodeConditionStatement)statement).getTrueStatements(), inner, helpers);
+					split(viewType, method, ((CodeConditionStatement)statement).getFalseStatements(), inner, helpers);
+				}
+			}
+			declare(statement, visible);
+		}
+
+		List<CodeStatement> output = new ArrayList<CodeStatement>();
+		List<CodeStatement> chunk = new ArrayList<CodeStatement>();
+		int chunkSize = 0;
+		visible = new LinkedHashMap<String, Class<?>>(scope.locals);
+
+		for (int i=0, length=statements.size(); i<length; i++) {
+			CodeStatement statement = statements.get(i);
+			boolean keepInCaller = isDeclaration(statement) && !declaresAny(statement, scope.mutated);
+			int size = estimate(statement);
+
+			if (!chunk.isEmpty() && (keepInCaller || chunkSize + size > CHUNK_SIZE)) {
+				if (!canSplitBefore(statements, i, chunk, scope.mutated)) {
+					if (keepInCaller) {
+						// a loop counter is still live so this sequence cannot be split safely
+						return;
+					}
+
+				} else {
+					extract(viewType, method, chunk, visible, helpers, output);
+					chunk = new ArrayList<CodeStatement>();
+					chunkSize = 0;
+				}
+			}
+
+			if (keepInCaller) {
+				// later chunks may read it so the declaration stays in sequence here
+				output.add(statement);
+				declare(statement, visible);
+				continue;
+			}
+
+			chunk.add(statement);
+			chunkSize += size;
+		}
+
+		if (chunk.size() == statements.size()) {
+			// no safe boundary was found
+			return;
+		}
+		if (!chunk.isEmpty()) {
+			extract(viewType, method, chunk, visible, helpers, output);
+		}
+
+		statements.clear();
+		statements.addAll(output);
+	}
+
+	/**
+	 * A chunk may end before index if no assigned local declared within it is read afterward
+	 */
+	private boolean canSplitBefore(CodeStatementCollection statements, int index, List<CodeStatement> chunk, Set<String> mutated) {
+		Map<String, Class<?>> declared = new LinkedHashMap<String, Class<?>>();
+		for (CodeStatement statement : chunk) {
+			declare(statement, declared);
+		}
+		if (declared.isEmpty()) {
+			return true;
+		}
+
+		Set<String> used = new HashSet<String>();
+		for (int i=index, length=statements.size(); i<length; i++) {
+			collectVariables(statements.get(i), used);
+		}
+
+		for (String local : declared.keySet()) {
+			if (used.contains(local)) {
+				// locals declared by a helper are not visible to its caller
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Moves a chunk into a new helper method
+	 * @param output receives the call to the helper, or the chunk itself if left in place
+	 */
+	private void extract(CodeTypeDeclaration viewType, CodeMethod method, List<CodeStatement> chunk, Map<String, Class<?>> visible, List<CodeMethod> helpers, List<CodeStatement> output) {
+		if (chunk.size() == 1 && estimate(chunk.get(0)) <= CHUNK_SIZE) {
+			// not worth a call
+			output.addAll(chunk);
+			return;
+		}
+
+		Set<String> used = new HashSet<String>();
+		for (CodeStatement statement : chunk) {
+			collectVariables(statement, used);
+		}
+
+		CodeMethod helper = new CodeMethod(
+			AccessModifierType.PRIVATE,
+			Void.class,
+			viewType.nextIdent("render_"),
+			null);
+		for (Class<?> exception : method.getThrows()) {
+			helper.addThrows(exception);
+		}
+
+		CodeMethodInvokeExpression call = new CodeMethodInvokeExpression(
+			Void.class,
+			new CodeThisReferenceExpression(),
+			helper.getName());
+
+		// pass through every parameter, then the locals which are read
+		for (CodeParameterDeclarationExpression param : method.getParameters()) {
+			helper.addParameter(param.getType(), param.getName());
+			call.getArguments().add(new CodeVariableReferenceExpression(param.getType(), param.getName()));
+		}
+		for (Map.Entry<String, Class<?>> local : visible.entrySet()) {
+			if (used.contains(local.getKey())) {
+				helper.addParameter(local.getValue(), local.getKey());
+				call.getArguments().add(new CodeVariableReferenceExpression(local.getValue(), local.getKey()));
+			}
+		}
+		if (call.getArguments().size() > MAX_ARGS) {
+			// leave in place rather than exceed the argument limit
+			output.addAll(chunk);
+			return;
+		}
+
+		helper.getStatements().addAll(chunk);
+		helpers.add(helper);
+		output.add(new CodeExpressionStatement(call));
+	}
+
+	/**
+	 * Breaks literal writes too long for one constant into several writes
+	 */
+	private void splitLiterals(CodeStatementCollection statements) {
+		for (int i=0; i<statements.size(); i++) {
+			CodeStatement statement = statements.get(i);
+			if (statement instanceof CodeConditionStatement) {
+				splitLiterals(((CodeConditionStatement)statement).getTrueStatements());
+				splitLiterals(((CodeConditionStatement)statement).getFalseStatements());
+				continue;
+			}
+			if (statement instanceof CodeIterationStatement) {
+				splitLiterals(((CodeIterationStatement)statement).getStatements());
+				continue;
+			}
+
+			String literal = literalWrite(statement);
+			if (literal == null || literal.length() <= MAX_LITERAL_LENGTH) {
+				continue;
+			}
+
+			statements.remove(i);
+			int start = 0;
+			while (start < literal.length()) {
+				int end = Math.min(start+MAX_LITERAL_LENGTH, literal.length());
+				if (end < literal.length() && Character.isHighSurrogate(literal.charAt(end-1))) {
+					// keep surrogate pairs together
+					end--;
+				}
+				statements.add(i++, CodeDOMUtility.emitLiteralValue(literal.substring(start, end)));
+				start = end;
+			}
+			i--;
+		}
+	}
+
+	private static String literalWrite(CodeStatement statement) {
+		if (!(statement instanceof CodeExpressionStatement) ||
+			!(((CodeExpressionStatement)statement).getExpression() instanceof CodeMethodInvokeExpression)) {
+			return null;
+		}
+
+		CodeMethodInvokeExpression invoke = (CodeMethodInvokeExpression)((CodeExpressionStatement)statement).getExpression();
+		if (!"write".equals(invoke.getMethodName()) ||
+			!(invoke.getTarget() instanceof CodeThisReferenceExpression) ||
+			invoke.getArguments().size() != 2 ||
+			!(invoke.getArguments().get(1) instanceof CodePrimitiveExpression)) {
+			return null;
+		}
+
+		Object value = ((CodePrimitiveExpression)invoke.getArguments().get(1)).getValue();
+		return (value instanceof String) ? (String)value : null;
+	}
+
+	/**
+	 * Fails early for a type which would exceed the constant pool of its class
+	 */
+	private void checkConstants(CodeTypeDeclaration type) {
+		final Set<Object> constants = new HashSet<Object>();
+		for (CodeMember member : type.getMembers()) {
+			if (member instanceof CodeTypeDeclaration) {
+				// nested types are separate classes
+				continue;
+			}
+			member.visit(new CodeVisitor() {
+				@Override
+				public boolean visit(CodeObject node) {
+					if (node instanceof CodePrimitiveExpression) {
+						Object value = ((CodePrimitiveExpression)node).getValue();
+						if (value instanceof String || value instanceof Long || value instanceof Double) {
+							constants.add(value);
+						}
+					}
+					return true;
+				}
+			});
+		}
+
+		// each string, long or double takes at least two entries
+		if (2*constants.size() > MAX_CONSTANTS) {
+			throw new UnsupportedOperationException("Too many distinct literals for one class ("+constants.size()+"): "+type.getTypeName());
+		}
+	}
+
+	/**
+	 * Estimates the bytecode size of a statement generously
+	 */
+	static int estimate(CodeStatement statement) {
+		final int[] size = new int[1];
+		statement.visit(new CodeVisitor() {
+			@Override
+			public boolean visit(CodeObject node) {
+				size[0] += weight(node);
+				return true;
+			}
+		});
+		return size[0];
+	}
+
+	static int estimate(List<CodeStatement> statements) {
+		int size = 0;
+		for (CodeStatement statement : statements) {
+			size += estimate(statement);
+		}
+		return size;
+	}
+
+	private static int weight(CodeObject node) {
+		if (node instanceof CodeMethodInvokeExpression) {
+			// invoke with possible cast and boxing
+			return 8;
+		}
+		if (node instanceof CodePropertyReferenceExpression) {
+			return 8;
+		}
+		if (node instanceof CodeBinaryOperatorExpression) {
+			// operators are often lowered to coercions and helper calls
+			return 12;
+		}
+		if (node instanceof CodeUnaryOperatorExpression ||
+			node instanceof CodeTernaryOperatorExpression) {
+			return 8;
+		}
+		if (node instanceof CodePrimitiveExpression) {
+			// ldc_w plus boxing
+			return 6;
+		}
+		if (node instanceof CodeConditionStatement) {
+			return 8;
+		}
+		if (node instanceof CodeIterationStatement) {
+			return 16;
+		}
+		if (node instanceof CodeVariableDeclarationStatement) {
+			return 4;
+		}
+		if (node instanceof CodeExpression) {
+			return 3;
+		}
+		return 1;
+	}
+
+	private static boolean contains(CodeObject root, final Class<? extends CodeObject> nodeType) {
+		final boolean[] found = new boolean[1];
+		root.visit(new CodeVisitor() {
+			@Override
+			public boolean visit(CodeObject node) {
+				if (nodeType.isInstance(node)) {
+					found[0] = true;
+				}
+				return !found[0];
+			}
+		});
+		return found[0];
+	}
+
+	/**
+	 * Finds each variable written to after being declared
+	 */
+	static Set<String> mutatedLocals(CodeMethod method) {
+		final Set<String> mutated = new HashSet<String>();
+		method.visit(new CodeVisitor() {
+			@Override
+			public boolean visit(CodeObject node) {
+				CodeExpression target = null;
+				if (node instanceof CodeBinaryOperatorExpression &&
+					ExpressionRewriter.isAssign(((CodeBinaryOperatorExpression)node).getOperator())) {
+					target = ((CodeBinaryOperatorExpression)node).getLeft();
+
+				} else if (node instanceof CodeUnaryOperatorExpression) {
+					switch (((CodeUnaryOperatorExpression)node).getOperator()) {
+						case PRE_INCREMENT:
+						case PRE_DECREMENT:
+						case POST_INCREMENT:
+						case POST_DECREMENT:
+							target = ((CodeUnaryOperatorExpression)node).getExpression();
+							break;
+						default:
+							break;
+					}
+				}
+
+				if (target instanceof CodeVariableReferenceExpression) {
+					mutated.add(((CodeVariableReferenceExpression)target).getIdent());
+				}
+				return true;
+			}
+		});
+		return mutated;
+	}
+
+	private static boolean isDeclaration(CodeStatement statement) {
+		return (statement instanceof CodeVariableDeclarationStatement) ||
+			(statement instanceof CodeVariableCompoundDeclarationStatement);
+	}
+
+	private static boolean declaresAny(CodeStatement statement, Set<String> names) {
+		Map<String, Class<?>> declared = new LinkedHashMap<String, Class<?>>();
+		declare(statement, declared);
+		for (String name : declared.keySet()) {
+			if (names.contains(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds any locals declared by a statement at its own level
+	 */
+	private static void declare(CodeStatement statement, Map<String, Class<?>> locals) {
+		if (statement instanceof CodeVariableDeclarationStatement) {
+			CodeVariableDeclarationStatement varDecl = (CodeVariableDeclarationStatement)statement;
+			locals.put(varDecl.getName(), varDecl.getType());
+
+		} else if (statement instanceof CodeVariableCompoundDeclarationStatement) {
+			for (CodeVariableDeclarationStatement varDecl : ((CodeVariableCompoundDeclarationStatement)statement).getVars()) {
+				locals.put(varDecl.getName(), varDecl.getType());
+			}
+		}
+	}
+
+	private static void collectVariables(CodeStatement statement, final Set<String> used) {
+		statement.visit(new CodeVisitor() {
+			@Override
+			public boolean visit(CodeObject node) {
+				if (node instanceof CodeVariableReferenceExpression) {
+					used.add(((CodeVariableReferenceExpression)node).getIdent());
+				}
+				return true;
+			}
+		});
+	}
+}
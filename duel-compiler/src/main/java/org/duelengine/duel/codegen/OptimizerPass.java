@@ -0,0 +1,16 @@
+package org.duelengine.duel.codegen;
+
+import org.duelengine.duel.codedom.CodeTypeDeclaration;
+
+/**
+ * A single transformation over the CodeDOM of a view which must not change its output.
+ * Passes may be shared across threads so any state should be local to each call.
+ */
+public interface OptimizerPass {
+
+	/**
+	 * Rewrites the view and its nested types in place
+	 * @param viewType
+	 */
+	void optimize(CodeTypeDeclaration viewType);
+}
@@ -0,0 +1,92 @@
+package org.duelengine.duel.codegen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.duelengine.duel.DuelView;
+import org.duelengine.duel.codedom.AccessModifierType;
+import org.duelengine.duel.codedom.CodeExpression;
+import org.duelengine.duel.codedom.CodeMember;
+import org.duelengine.duel.codedom.CodeMethod;
+import org.duelengine.duel.codedom.CodeMethodInvokeExpression;
+import org.duelengine.duel.codedom.CodeMethodReturnStatement;
+import org.duelengine.duel.codedom.CodeObject;
+import org.duelengine.duel.codedom.CodePrimitiveExpression;
+import org.duelengine.duel.codedom.CodeThisReferenceExpression;
+import org.duelengine.duel.codedom.CodeTypeDeclaration;
+import org.duelengine.duel.codedom.CodeTypeReferenceExpression;
+import org.duelengine.duel.codedom.CodeVisitor;
+
+/**
+ * Gives each part name rendered by a view a fixed slot so that
+ * renderPart reads an array by index rather than looking up a name.
+ * The names are declared in slot order by overriding getPartNames().
+ */
+class PartSlotAssigner implements OptimizerPass {
+
+	@Override
+	public void optimize(CodeTypeDeclaration viewType) {
+		// parts are views in their own right
+		for (CodeMember member : viewType.getMembers()) {
+			if (member instanceof CodeTypeDeclaration) {
+				optimize((CodeTypeDeclaration)member);
+			}
+		}
+
+		final List<String> names = new ArrayList<String>();
+		CodeVisitor visitor = new CodeVisitor() {
+			@Override
+			public boolean visit(CodeObject node) {
+				if (node instanceof CodeMethodInvokeExpression) {
+					CodeMethodInvokeExpression invoke = (CodeMethodInvokeExpression)node;
+					List<CodeExpression> args = invoke.getArguments();
+
+					// this.renderPart(context, "name", data, index, count, key);
+					if ("renderPart".equals(invoke.getMethodName()) &&
+						invoke.getTarget() instanceof CodeThisReferenceExpression &&
+						args.size() == 6 &&
+						args.get(1) instanceof CodePrimitiveExpression &&
+						((CodePrimitiveExpression)args.get(1)).getValue() instanceof String) {
+
+						String partName = (String)((CodePrimitiveExpression)args.get(1)).getValue();
+						int slot = names.indexOf(partName);
+						if (slot < 0) {
+							slot = names.size();
+							names.add(partName);
+						}
+						args.set(1, new CodePrimitiveExpression(slot));
+					}
+				}
+				return true;
+			}
+		};
+
+		for (CodeMember member : viewType.getMembers()) {
+			if (member instanceof CodeMethod) {
+				member.visit(visitor);
+			}
+		}
+
+		if (names.isEmpty()) {
+			return;
+		}
+
+		CodeExpression[] nameArgs = new CodeExpression[names.size()];
+		for (int i=0; i<nameArgs.length; i++) {
+			nameArgs[i] = new CodePrimitiveExpression(names.get(i));
+		}
+
+		// return DuelView.partNames("name", ...);
+		viewType.add(new CodeMethod(
+			AccessModifierType.PROTECTED,
+			String[].class,
+			"getPartNames",
+			null,
+			new CodeMethodReturnStatement(
+				new CodeMethodInvokeExpression(
+					String[].class,
+					new CodeTypeReferenceExpression(DuelView.class),
+					"partNames",
+					nameArgs))).withOverride());
+	}
+}
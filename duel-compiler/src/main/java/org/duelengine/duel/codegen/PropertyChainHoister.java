@@ -0,0 +1,286 @@
+package org.duelengine.duel.codegen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.duelengine.duel.JSUtility;
+import org.duelengine.duel.codedom.CodeBinaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeExpression;
+import org.duelengine.duel.codedom.CodeMember;
+import org.duelengine.duel.codedom.CodeMethod;
+import org.duelengine.duel.codedom.CodeMethodInvokeExpression;
+import org.duelengine.duel.codedom.CodeObject;
+import org.duelengine.duel.codedom.CodeParameterDeclarationExpression;
+import org.duelengine.duel.codedom.CodePrimitiveExpression;
+import org.duelengine.duel.codedom.CodePropertyReferenceExpression;
+import org.duelengine.duel.codedom.CodeTypeDeclaration;
+import org.duelengine.duel.codedom.CodeUnaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeVariableDeclarationStatement;
+import org.duelengine.duel.codedom.CodeVariableReferenceExpression;
+import org.duelengine.duel.codedom.CodeVisitor;
+
+/**
+ * Reads each property chain rooted at a method parameter (e.g. data.items.length)
+ * which is used more than once into a local at the top of the method.
+ * Property reads are treated as pure so methods which assign anything are skipped,
+ * since the hoisted value would no longer reflect the assignment.
+ */
+class PropertyChainHoister implements OptimizerPass {
+
+	/**
+	 * A distinct chain along with how often it is read
+	 */
+	private static class Chain {
+		final Chain target;
+		final CodeExpression root;
+		final Object propertyName;
+		final int length;
+		int reads;
+		int total;
+		String ident;
+
+		Chain(Chain target, CodeExpression root, Object propertyName) {
+			this.target = target;
+			this.root = root;
+			this.propertyName = propertyName;
+			this.length = (target != null) ? target.length+1 : 1;
+		}
+	}
+
+	@Override
+	public void optimize(CodeTypeDeclaration viewType) {
+		optimize(viewType, viewType);
+	}
+
+	private void optimize(CodeTypeDeclaration viewType, CodeTypeDeclaration type) {
+		for (CodeMember member : type.getMembers()) {
+			if (member instanceof CodeMethod) {
+				hoist(viewType, (CodeMethod)member);
+
+			} else if (member instanceof CodeTypeDeclaration) {
+				optimize(viewType, (CodeTypeDeclaration)member);
+			}
+		}
+	}
+
+	private void hoist(CodeTypeDeclaration viewType, CodeMethod method) {
+		final Set<String> params = new HashSet<String>();
+		for (CodeParameterDeclarationExpression param : method.getParameters()) {
+			params.add(param.getName());
+		}
+
+		final Map<String, Chain> chains = new LinkedHashMap<String, Chain>();
+		final boolean[] hasAssign = new boolean[1];
+		method.visit(new CodeVisitor() {
+			@Override
+			public boolean visit(CodeObject node) {
+				if (isAssign(node, params)) {
+					hasAssign[0] = true;
+					return false;
+				}
+				if (node instanceof CodePropertyReferenceExpression) {
+					Chain chain = chainOf((CodeExpression)node, params, chains);
+					if (chain != null) {
+						chain.reads++;
+						// inner links are counted through the chain itself
+						return false;
+					}
+				}
+				return true;
+			}
+		});
+
+		if (hasAssign[0] || chains.isEmpty()) {
+			return;
+		}
+
+		// longest first: hoisting a chain collapses its reads of each shorter prefix into one
+		List<Chain> ordered = new ArrayList<Chain>(chains.values());
+		sortByLength(ordered, false);
+		for (Chain chain : ordered) {
+			chain.total += chain.reads;
+			for (Chain prefix = chain.target; prefix != null; prefix = prefix.target) {
+				prefix.total += chain.reads;
+			}
+		}
+
+		List<Chain> hoisted = new ArrayList<Chain>();
+		for (Chain chain : ordered) {
+			if (chain.total > 1) {
+				hoisted.add(chain);
+				for (Chain prefix = chain.target; prefix != null; prefix = prefix.target) {
+					prefix.total -= chain.total-1;
+				}
+			}
+		}
+		if (hoisted.isEmpty()) {
+			return;
+		}
+
+		// shortest first so that each declaration may build on the last
+		sortByLength(hoisted, true);
+		final Map<String, Chain> byKey = new HashMap<String, Chain>();
+		for (Chain chain : hoisted) {
+			chain.ident = viewType.nextIdent("prop_");
+			byKey.put(keyOf(chain), chain);
+		}
+
+		new ExpressionRewriter() {
+			@Override
+			protected CodeExpression replace(CodeExpression expression, boolean isAssignTarget) {
+				if (expression instanceof CodePropertyReferenceExpression) {
+					Chain chain = chainOf(expression, params, null);
+					if (chain != null && byKey.containsKey(keyOf(chain))) {
+						return new CodeVariableReferenceExpression(Object.class, byKey.get(keyOf(chain)).ident);
+					}
+				}
+				return null;
+			}
+		}.rewrite(method);
+
+		for (int i=0; i<hoisted.size(); i++) {
+			Chain chain = hoisted.get(i);
+
+			// Object prop_N = data.items;
+			method.getStatements().add(i, new CodeVariableDeclarationStatement(
+				Object.class,
+				chain.ident,
+				new CodePropertyReferenceExpression(
+					reference(chain.target, chain.root, byKey),
+					new CodePrimitiveExpression(chain.propertyName))));
+		}
+	}
+
+	/**
+	 * Builds a fresh expression which reads the chain, using any hoisted prefix
+	 */
+	private static CodeExpression reference(Chain chain, CodeExpression root, Map<String, Chain> byKey) {
+		if (chain == null) {
+			CodeVariableReferenceExpression rootRef = (CodeVariableReferenceExpression)root;
+			return new CodeVariableReferenceExpression(rootRef.getResultType(), rootRef.getIdent());
+		}
+
+		Chain hoisted = byKey.get(keyOf(chain));
+		if (hoisted != null && hoisted.ident != null) {
+			return new CodeVariableReferenceExpression(Object.class, hoisted.ident);
+		}
+
+		return new CodePropertyReferenceExpression(
+			reference(chain.target, root, byKey),
+			new CodePrimitiveExpression(chain.propertyName));
+	}
+
+	/**
+	 * Resolves a property reference to its chain
+	 * @param expression
+	 * @param params the method parameter names
+	 * @param chains registers each new chain (and prefix) if not null
+	 * @return the chain or null if not rooted at a parameter or a name is computed
+	 */
+	private static Chain chainOf(CodeExpression expression, Set<String> params, Map<String, Chain> chains) {
+		if (!(expression instanceof CodePropertyReferenceExpression)) {
+			return null;
+		}
+
+		CodePropertyReferenceExpression propertyRef = (CodePropertyReferenceExpression)expression;
+		if (!(propertyRef.getPropertyName() instanceof CodePrimitiveExpression)) {
+			return null;
+		}
+		Object propertyName = ((CodePrimitiveExpression)propertyRef.getPropertyName()).getValue();
+		if (propertyName == null || propertyName == JSUtility.UNDEFINED) {
+			return null;
+		}
+
+		CodeExpression target = propertyRef.getTarget();
+		Chain targetChain = null;
+		if (target instanceof CodeVariableReferenceExpression) {
+			if (!params.contains(((CodeVariableReferenceExpression)target).getIdent())) {
+				return null;
+			}
+
+		} else {
+			targetChain = chainOf(target, params, chains);
+			if (targetChain == null) {
+				return null;
+			}
+		}
+
+		Chain chain = new Chain(targetChain, (targetChain != null) ? targetChain.root : target, propertyName);
+		if (chains == null) {
+			return chain;
+		}
+
+		String key = keyOf(chain);
+		Chain existing = chains.get(key);
+		if (existing != null) {
+			return existing;
+		}
+		chains.put(key, chain);
+		return chain;
+	}
+
+	private static String keyOf(Chain chain) {
+		StringBuilder key = new StringBuilder();
+		if (chain.target != null) {
+			key.append(keyOf(chain.target));
+		} else {
+			key.append(((CodeVariableReferenceExpression)chain.root).getIdent());
+		}
+
+		// distinguish data[1] from data["1"]
+		key.append('[').append(chain.propertyName.getClass().getSimpleName()).append(':').append(chain.propertyName).append(']');
+		return key.toString();
+	}
+
+	/**
+	 * Checks if the node may change a parameter or any data reachable from one.
+	 * Generated locals such as loop counters are free to change.
+	 */
+	private static boolean isAssign(CodeObject node, Set<String> params) {
+		if (node instanceof CodeBinaryOperatorExpression) {
+			CodeBinaryOperatorExpression binary = (CodeBinaryOperatorExpression)node;
+			return ExpressionRewriter.isAssign(binary.getOperator()) && !isLocal(binary.getLeft(), params);
+		}
+
+		if (node instanceof CodeUnaryOperatorExpression) {
+			CodeUnaryOperatorExpression unary = (CodeUnaryOperatorExpression)node;
+			switch (unary.getOperator()) {
+				case PRE_INCREMENT:
+				case PRE_DECREMENT:
+				case POST_INCREMENT:
+				case POST_DECREMENT:
+					return !isLocal(unary.getExpression(), params);
+				default:
+					return false;
+			}
+		}
+
+		if (node instanceof CodeMethodInvokeExpression) {
+			String methodName = ((CodeMethodInvokeExpression)node).getMethodName();
+			return "setProperty".equals(methodName) || "putExtra".equals(methodName);
+		}
+
+		return false;
+	}
+
+	private static boolean isLocal(CodeExpression target, Set<String> params) {
+		return (target instanceof CodeVariableReferenceExpression) &&
+			!params.contains(((CodeVariableReferenceExpression)target).getIdent());
+	}
+
+	private static void sortByLength(List<Chain> chains, final boolean ascending) {
+		Collections.sort(chains, new Comparator<Chain>() {
+			@Override
+			public int compare(Chain a, Chain b) {
+				return ascending ? (a.length - b.length) : (b.length - a.length);
+			}
+		});
+	}
+}
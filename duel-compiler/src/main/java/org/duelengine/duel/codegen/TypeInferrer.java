@@ -0,0 +1,708 @@
+package org.duelengine.duel.codegen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.duelengine.duel.DuelData;
+import org.duelengine.duel.codedom.CodeBinaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeBinaryOperatorType;
+import org.duelengine.duel.codedom.CodeCastExpression;
+import org.duelengine.duel.codedom.CodeConditionStatement;
+import org.duelengine.duel.codedom.CodeExpression;
+import org.duelengine.duel.codedom.CodeExpressionStatement;
+import org.duelengine.duel.codedom.CodeIterationStatement;
+import org.duelengine.duel.codedom.CodeMember;
+import org.duelengine.duel.codedom.CodeMethod;
+import org.duelengine.duel.codedom.CodeMethodInvokeExpression;
+import org.duelengine.duel.codedom.CodeObject;
+import org.duelengine.duel.codedom.CodePrimitiveExpression;
+import org.duelengine.duel.codedom.CodePropertyReferenceExpression;
+import org.duelengine.duel.codedom.CodeStatement;
+import org.duelengine.duel.codedom.CodeStatementCollection;
+import org.duelengine.duel.codedom.CodeTernaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeTypeDeclaration;
+import org.duelengine.duel.codedom.CodeUnaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeUnaryOperatorType;
+import org.duelengine.duel.codedom.CodeVariableCompoundDeclarationStatement;
+import org.duelengine.duel.codedom.CodeVariableDeclarationStatement;
+import org.duelengine.duel.codedom.CodeVariableReferenceExpression;
+import org.duelengine.duel.codedom.CodeVisitor;
+
+/**
+ * Narrows script locals declared as Object to int, double, boolean or String
+ * whenever every value assigned to them is statically of that type.
+ * Code generation then skips coercion and boxing for the typed locals.
+ * Since untyped locals coerce to double for arithmetic and to String for ADD,
+ * a local stays untyped wherever its static type would change which of those applies.
+ * JavaScript numbers are doubles so int is only kept where it cannot overflow or divide
+ * by zero, i.e., loop counters stepped toward a bound such as count or length.
+ */
+class TypeInferrer implements OptimizerPass {
+
+	/**
+	 * A local declared as Object along with each value assigned to it
+	 */
+	private static class Local {
+		final List<CodeVariableDeclarationStatement> decls = new ArrayList<CodeVariableDeclarationStatement>();
+		final List<CodeExpression> values = new ArrayList<CodeExpression>();
+		boolean notInt;
+		boolean pinned;
+		Class<?> type;
+	}
+
+	@Override
+	public void optimize(CodeTypeDeclaration viewType) {
+		for (CodeMember member : viewType.getMembers()) {
+			if (member instanceof CodeMethod) {
+				infer((CodeMethod)member);
+
+			} else if (member instanceof CodeTypeDeclaration) {
+				optimize((CodeTypeDeclaration)member);
+			}
+		}
+	}
+
+	private void infer(CodeMethod method) {
+		final Map<String, Local> locals = collect(method);
+		if (locals.isEmpty()) {
+			return;
+		}
+
+		Map<CodeBinaryOperatorExpression, boolean[]> concats = snapshot(method);
+		while (true) {
+			solve(locals);
+			apply(method, locals);
+
+			Set<Local> conflicts = check(concats, locals);
+			if (conflicts.isEmpty()) {
+				break;
+			}
+
+			for (Local local : conflicts) {
+				local.pinned = true;
+			}
+			for (Local local : locals.values()) {
+				local.type = null;
+			}
+		}
+
+		splitDeclarations(method.getStatements());
+	}
+
+	/**
+	 * Splits compound declarations whose vars no longer share a type
+	 */
+	private static void splitDeclarations(CodeStatementCollection statements) {
+		for (int i=0; i<statements.size(); i++) {
+			CodeStatement statement = statements.get(i);
+
+			if (statement instanceof CodeVariableCompoundDeclarationStatement) {
+				List<CodeVariableDeclarationStatement> vars = ((CodeVariableCompoundDeclarationStatement)statement).getVars();
+				boolean sameType = true;
+				for (CodeVariableDeclarationStatement var : vars) {
+					sameType &= var.getType().equals(vars.get(0).getType());
+				}
+				if (!sameType) {
+					statements.remove(i);
+					statements.addAll(i, vars);
+					i += vars.size()-1;
+				}
+
+			} else if (statement instanceof CodeConditionStatement) {
+				splitDeclarations(((CodeConditionStatement)statement).getTrueStatements());
+				splitDeclarations(((CodeConditionStatement)statement).getFalseStatements());
+
+			} else if (statement instanceof CodeIterationStatement) {
+				splitDeclarations(((CodeIterationStatement)statement).getStatements());
+			}
+		}
+	}
+
+	/**
+	 * Finds each Object local which is always initialized along with every assignment to it
+	 */
+	private static Map<String, Local> collect(CodeMethod method) {
+		final Map<String, Local> locals = new LinkedHashMap<String, Local>();
+		final Set<String> skipped = new HashSet<String>();
+		final Set<CodeObject> loopInits = Collections.newSetFromMap(new IdentityHashMap<CodeObject, Boolean>());
+		final Set<CodeObject> grouped = Collections.newSetFromMap(new IdentityHashMap<CodeObject, Boolean>());
+		final List<CodeIterationStatement> loops = new ArrayList<CodeIterationStatement>();
+
+		method.visit(new CodeVisitor() {
+			@Override
+			public boolean visit(CodeObject node) {
+				if (node instanceof CodeIterationStatement) {
+					loops.add((CodeIterationStatement)node);
+					loopInits.add(((CodeIterationStatement)node).getInitStatement());
+
+				} else if (node instanceof CodeVariableCompoundDeclarationStatement && loopInits.contains(node)) {
+					// the first var determines the type of all so loop vars must share one
+					// (others are split apart if their types differ)
+					Local group = new Local();
+					for (CodeVariableDeclarationStatement var : ((CodeVariableCompoundDeclarationStatement)node).getVars()) {
+						declare(group, var);
+						grouped.add(var);
+					}
+
+				} else if (node instanceof CodeVariableDeclarationStatement && !grouped.contains(node)) {
+					declare(new Local(), (CodeVariableDeclarationStatement)node);
+				}
+				return true;
+			}
+
+			private void declare(Local local, CodeVariableDeclarationStatement var) {
+				String name = var.getName();
+				if (locals.containsKey(name)) {
+					// redeclared names are left alone
+					skipped.add(name);
+					return;
+				}
+
+				if (!Object.class.equals(var.getType()) || var.getInitExpression() == null) {
+					// an uninitialized local may be read before it is assigned
+					local.pinned = true;
+				}
+				local.decls.add(var);
+				local.values.add(var.getInitExpression());
+				locals.put(name, local);
+			}
+		});
+
+		for (String name : skipped) {
+			Local local = locals.get(name);
+			if (local != null) {
+				local.pinned = true;
+			}
+		}
+
+		final List<CodeUnaryOperatorExpression> steps = new ArrayList<CodeUnaryOperatorExpression>();
+		method.visit(new CodeVisitor() {
+			@Override
+			public boolean visit(CodeObject node) {
+				if (node instanceof CodeBinaryOperatorExpression) {
+					CodeBinaryOperatorExpression binary = (CodeBinaryOperatorExpression)node;
+					CodeBinaryOperatorType op = binary.getOperator();
+					Local target = localOf(binary.getLeft(), locals);
+
+					if (target != null && ExpressionRewriter.isAssign(op)) {
+						if (op == CodeBinaryOperatorType.ASSIGN) {
+							target.values.add(binary.getRight());
+						} else {
+							// x op= y assigns the result of x op y
+							target.values.add(new CodeBinaryOperatorExpression(compoundOperator(op), binary.getLeft(), binary.getRight()));
+						}
+					}
+
+					switch (op) {
+						case ADD:
+						case ADD_ASSIGN:
+						case SUBTRACT:
+						case SUBTRACT_ASSIGN:
+						case DIVIDE:
+						case DIVIDE_ASSIGN:
+						case MULTIPLY:
+						case MULTIPLY_ASSIGN:
+						case MODULUS:
+						case MODULUS_ASSIGN:
+							// int results would differ from double by truncation, overflow or x % 0
+							markNotInt(binary, locals);
+							break;
+						default:
+							break;
+					}
+
+				} else if (node instanceof CodeUnaryOperatorExpression) {
+					CodeUnaryOperatorExpression unary = (CodeUnaryOperatorExpression)node;
+					Local target = localOf(unary.getExpression(), locals);
+					if (target != null && isIncrement(unary)) {
+						target.values.add(unary);
+						steps.add(unary);
+
+					} else if (unary.getOperator() == CodeUnaryOperatorType.NEGATION) {
+						// negating int.MIN_VALUE overflows
+						markNotInt(unary, locals);
+					}
+				}
+				return true;
+			}
+		});
+
+		// only counters stepped toward a bound are known not to overflow
+		Set<CodeObject> bounded = boundedSteps(loops, locals);
+		for (CodeUnaryOperatorExpression step : steps) {
+			if (!bounded.contains(step)) {
+				localOf(step.getExpression(), locals).notInt = true;
+			}
+		}
+
+		// only the remaining Object locals are candidates
+		for (Local local : new ArrayList<Local>(locals.values())) {
+			if (!Object.class.equals(local.decls.get(0).getType())) {
+				for (CodeVariableDeclarationStatement var : local.decls) {
+					locals.remove(var.getName());
+				}
+			}
+		}
+		return locals;
+	}
+
+	/**
+	 * Finds the increment of each loop counter which is stepped strictly toward a bound
+	 * which fits an int and is otherwise never assigned, e.g., for (var i=0; i<count; i++)
+	 * @return the unary step of each bounded counter
+	 */
+	private static Set<CodeObject> boundedSteps(List<CodeIterationStatement> loops, Map<String, Local> locals) {
+		Set<CodeObject> bounded = Collections.newSetFromMap(new IdentityHashMap<CodeObject, Boolean>());
+
+		for (CodeIterationStatement loop : loops) {
+			if (!(loop.getIncrementStatement() instanceof CodeExpressionStatement) ||
+				!(loop.getTestExpression() instanceof CodeBinaryOperatorExpression)) {
+				continue;
+			}
+
+			CodeExpression expression = ((CodeExpressionStatement)loop.getIncrementStatement()).getExpression();
+			if (!(expression instanceof CodeUnaryOperatorExpression) || !isIncrement((CodeUnaryOperatorExpression)expression)) {
+				continue;
+			}
+			CodeUnaryOperatorExpression step = (CodeUnaryOperatorExpression)expression;
+			Local counter = localOf(step.getExpression(), locals);
+			if (counter == null || counter.values.size() != 2 || !isDeclaredBy(loop.getInitStatement(), counter)) {
+				// assigned anywhere but its declaration and the step
+				continue;
+			}
+
+			CodeBinaryOperatorExpression test = (CodeBinaryOperatorExpression)loop.getTestExpression();
+			CodeBinaryOperatorType op = test.getOperator();
+			CodeExpression bound;
+			if (localOf(test.getLeft(), locals) == counter) {
+				bound = test.getRight();
+			} else if (localOf(test.getRight(), locals) == counter) {
+				bound = test.getLeft();
+				op = (op == CodeBinaryOperatorType.LESS_THAN) ? CodeBinaryOperatorType.GREATER_THAN :
+					(op == CodeBinaryOperatorType.GREATER_THAN) ? CodeBinaryOperatorType.LESS_THAN : op;
+			} else {
+				continue;
+			}
+
+			// a strict comparison stops the counter before it can pass the bound
+			boolean increasing = (step.getOperator() == CodeUnaryOperatorType.PRE_INCREMENT ||
+				step.getOperator() == CodeUnaryOperatorType.POST_INCREMENT);
+			CodeBinaryOperatorType expected = increasing ? CodeBinaryOperatorType.LESS_THAN : CodeBinaryOperatorType.GREATER_THAN;
+			if (op == expected && isBound(bound, locals, counter)) {
+				bounded.add(step);
+			}
+		}
+		return bounded;
+	}
+
+	private static boolean isDeclaredBy(CodeStatement init, Local local) {
+		if (init instanceof CodeVariableCompoundDeclarationStatement) {
+			for (CodeVariableDeclarationStatement var : ((CodeVariableCompoundDeclarationStatement)init).getVars()) {
+				if (local.decls.contains(var)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return (init instanceof CodeVariableDeclarationStatement) && local.decls.contains(init);
+	}
+
+	/**
+	 * Determines if an expression always fits an int: int literals and parameters
+	 * (e.g., count or index), a length property, or a local only assigned those
+	 */
+	private static boolean isBound(CodeExpression expression, Map<String, Local> locals, Local counter) {
+		if (expression instanceof CodePrimitiveExpression) {
+			Object value = ((CodePrimitiveExpression)expression).getValue();
+			return (value instanceof Integer || value instanceof Short || value instanceof Byte);
+		}
+
+		if (expression instanceof CodePropertyReferenceExpression) {
+			CodeExpression name = ((CodePropertyReferenceExpression)expression).getPropertyName();
+			return (name instanceof CodePrimitiveExpression) && "length".equals(((CodePrimitiveExpression)name).getValue());
+		}
+
+		if (expression instanceof CodeVariableReferenceExpression) {
+			Local local = localOf(expression, locals);
+			if (local == null) {
+				return int.class.equals(expression.getResultType());
+			}
+			if (local == counter || local.decls.size() != 1) {
+				return false;
+			}
+			for (CodeExpression value : local.values) {
+				if (value == null || value instanceof CodeVariableReferenceExpression || !isBound(value, locals, counter)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private static void markNotInt(final CodeObject root, final Map<String, Local> locals) {
+		root.visit(new CodeVisitor() {
+			@Override
+			public boolean visit(CodeObject node) {
+				Local local = localOf(node, locals);
+				if (local != null) {
+					local.notInt = true;
+				}
+				// arguments and property names are not operands, e.g., i in x + a[i]
+				return (node == root) ||
+					!(node instanceof CodePropertyReferenceExpression || node instanceof CodeMethodInvokeExpression);
+			}
+		});
+	}
+
+	/**
+	 * Widens each type until all assigned values are accounted for
+	 */
+	private static void solve(Map<String, Local> locals) {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Local local : locals.values()) {
+				if (local.pinned) {
+					continue;
+				}
+
+				Class<?> type = local.type;
+				for (CodeExpression value : local.values) {
+					type = join(type, typeOf(value, locals));
+				}
+				if (int.class.equals(type) && local.notInt) {
+					type = double.class;
+				}
+
+				if (type != local.type) {
+					local.type = type;
+					changed = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Retypes each declaration and reference to match its local
+	 */
+	private static void apply(CodeMethod method, final Map<String, Local> locals) {
+		for (Local local : locals.values()) {
+			for (CodeVariableDeclarationStatement var : local.decls) {
+				var.setType(resultType(local));
+			}
+		}
+
+		method.visit(new CodeVisitor() {
+			@Override
+			public boolean visit(CodeObject node) {
+				Local local = localOf(node, locals);
+				if (local != null) {
+					((CodeVariableReferenceExpression)node).setResultType(resultType(local));
+				}
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Records which operands of each ADD currently cause concatenation
+	 */
+	private static Map<CodeBinaryOperatorExpression, boolean[]> snapshot(CodeMethod method) {
+		final Map<CodeBinaryOperatorExpression, boolean[]> concats = new IdentityHashMap<CodeBinaryOperatorExpression, boolean[]>();
+		method.visit(new CodeVisitor() {
+			@Override
+			public boolean visit(CodeObject node) {
+				if (node instanceof CodeBinaryOperatorExpression) {
+					CodeBinaryOperatorExpression binary = (CodeBinaryOperatorExpression)node;
+					if (binary.getOperator() == CodeBinaryOperatorType.ADD ||
+						binary.getOperator() == CodeBinaryOperatorType.ADD_ASSIGN) {
+						concats.put(binary, concatOperands(binary));
+					}
+				}
+				return true;
+			}
+		});
+		return concats;
+	}
+
+	/**
+	 * Finds typed locals which would now generate different operations
+	 * @return the locals which must stay as Object
+	 */
+	private static Set<Local> check(Map<CodeBinaryOperatorExpression, boolean[]> concats, final Map<String, Local> locals) {
+		final Set<Local> conflicts = new HashSet<Local>();
+
+		for (Local local : locals.values()) {
+			Class<?> type = resultType(local);
+			if (Object.class.equals(type)) {
+				continue;
+			}
+
+			// generated code must see each value as the same kind
+			for (CodeExpression value : local.values) {
+				Class<?> valueType = value.getResultType();
+				boolean matches = DuelData.isBoolean(type) ? DuelData.isBoolean(valueType) :
+					DuelData.isString(type) ? DuelData.isString(valueType) :
+					DuelData.isNumber(valueType);
+				if (!matches) {
+					conflicts.add(local);
+				}
+			}
+		}
+
+		for (Map.Entry<CodeBinaryOperatorExpression, boolean[]> concat : concats.entrySet()) {
+			boolean[] before = concat.getValue();
+			boolean[] after = concatOperands(concat.getKey());
+			if ((before[0] || before[1]) == (after[0] || after[1])) {
+				continue;
+			}
+
+			// untyped operands concatenate so keep any locals which changed that
+			if (before[0] != after[0]) {
+				addTyped(concat.getKey().getLeft(), locals, conflicts);
+			}
+			if (before[1] != after[1]) {
+				addTyped(concat.getKey().getRight(), locals, conflicts);
+			}
+		}
+		return conflicts;
+	}
+
+	private static void addTyped(CodeExpression expression, final Map<String, Local> locals, final Set<Local> conflicts) {
+		expression.visit(new CodeVisitor() {
+			@Override
+			public boolean visit(CodeObject node) {
+				Local local = localOf(node, locals);
+				if (local != null && !Object.class.equals(resultType(local))) {
+					conflicts.add(local);
+				}
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Matches how code generation chooses between concatenation and addition
+	 * @return whether the left and right operands each cause concatenation
+	 */
+	private static boolean[] concatOperands(CodeBinaryOperatorExpression binary) {
+		// only the target of ADD_ASSIGN decides
+		return new boolean[] {
+			DuelData.isString(CodeDOMUtility.toPrimitive(binary.getLeft().getResultType())),
+			(binary.getOperator() == CodeBinaryOperatorType.ADD) &&
+				DuelData.isString(CodeDOMUtility.toPrimitive(binary.getRight().getResultType()))
+		};
+	}
+
+	/**
+	 * Determines the static type of an expression given the current types of the locals
+	 * @return int, double, boolean, String or Object; null if not yet known
+	 */
+	private static Class<?> typeOf(CodeExpression expression, Map<String, Local> locals) {
+		if (expression instanceof CodePrimitiveExpression) {
+			Object value = ((CodePrimitiveExpression)expression).getValue();
+			if (value instanceof String) {
+				return String.class;
+			}
+			if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+				return int.class;
+			}
+			if (value instanceof Double || value instanceof Float) {
+				return double.class;
+			}
+			return (value instanceof Boolean) ? boolean.class : Object.class;
+		}
+
+		if (expression instanceof CodeVariableReferenceExpression) {
+			Local local = locals.get(((CodeVariableReferenceExpression)expression).getIdent());
+			if (local != null) {
+				return local.pinned ? Object.class : local.type;
+			}
+			return primitiveType(expression.getResultType());
+		}
+
+		if (expression instanceof CodeBinaryOperatorExpression) {
+			CodeBinaryOperatorExpression binary = (CodeBinaryOperatorExpression)expression;
+			CodeBinaryOperatorType op = binary.getOperator();
+			if (ExpressionRewriter.isAssign(op)) {
+				// the assigned local carries its own type
+				return typeOf(binary.getLeft(), locals);
+			}
+			return operatorType(op, typeOf(binary.getLeft(), locals), typeOf(binary.getRight(), locals));
+		}
+
+		if (expression instanceof CodeUnaryOperatorExpression) {
+			CodeUnaryOperatorExpression unary = (CodeUnaryOperatorExpression)expression;
+			switch (unary.getOperator()) {
+				case LOGICAL_NEGATION:
+					return boolean.class;
+				case NEGATION:
+					if (unary.getExpression() instanceof CodePrimitiveExpression) {
+						Object value = ((CodePrimitiveExpression)unary.getExpression()).getValue();
+						if ((value instanceof Integer) && ((Integer)value).intValue() != Integer.MIN_VALUE) {
+							return int.class;
+						}
+					}
+					return (typeOf(unary.getExpression(), locals) == null) ? null : double.class;
+				case POSITIVE:
+				case BITWISE_NEGATION:
+				case PRE_INCREMENT:
+				case PRE_DECREMENT:
+				case POST_INCREMENT:
+				case POST_DECREMENT:
+					Class<?> type = typeOf(unary.getExpression(), locals);
+					return (type == null || int.class.equals(type)) ? type : double.class;
+				default:
+					return Object.class;
+			}
+		}
+
+		if (expression instanceof CodeTernaryOperatorExpression) {
+			CodeTernaryOperatorExpression ternary = (CodeTernaryOperatorExpression)expression;
+			return join(typeOf(ternary.getTrueExpression(), locals), typeOf(ternary.getFalseExpression(), locals));
+		}
+
+		if (expression instanceof CodeMethodInvokeExpression || expression instanceof CodeCastExpression) {
+			// only primitive results are known not to be null
+			return primitiveType(expression.getResultType());
+		}
+
+		return Object.class;
+	}
+
+	private static Class<?> operatorType(CodeBinaryOperatorType op, Class<?> left, Class<?> right) {
+		switch (op) {
+			case IDENTITY_EQUALITY:
+			case IDENTITY_INEQUALITY:
+			case VALUE_EQUALITY:
+			case VALUE_INEQUALITY:
+			case GREATER_THAN:
+			case GREATER_THAN_OR_EQUAL:
+			case LESS_THAN:
+			case LESS_THAN_OR_EQUAL:
+				return boolean.class;
+
+			case BOOLEAN_AND:
+			case BOOLEAN_OR:
+				if (left == null || right == null) {
+					return null;
+				}
+				// otherwise the result is one of the operands
+				return (boolean.class.equals(left) && boolean.class.equals(right)) ? boolean.class : Object.class;
+
+			case ADD:
+				// matches code generation: anything but a number or boolean concatenates
+				if (isStringLike(left) || isStringLike(right)) {
+					return String.class;
+				}
+				// fall through
+
+			case SUBTRACT:
+			case MULTIPLY:
+			case DIVIDE:
+			case MODULUS:
+			case USHIFT_RIGHT:
+				// results may exceed an int (>>> is unsigned)
+				if (left == null || right == null) {
+					return null;
+				}
+				return double.class;
+
+			default:
+				if (left == null || right == null) {
+					return null;
+				}
+				// bitwise operators produce 32-bit results just as in JavaScript
+				return (int.class.equals(left) && int.class.equals(right)) ? int.class : double.class;
+		}
+	}
+
+	private static Class<?> join(Class<?> a, Class<?> b) {
+		if (a == null || a.equals(b)) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		if (isNumeric(a) && isNumeric(b)) {
+			return double.class;
+		}
+		return Object.class;
+	}
+
+	private static Class<?> primitiveType(Class<?> type) {
+		// boxed types may be null
+		if (int.class.equals(type) || short.class.equals(type) || byte.class.equals(type)) {
+			return int.class;
+		}
+		if (double.class.equals(type) || float.class.equals(type)) {
+			return double.class;
+		}
+		return boolean.class.equals(type) ? boolean.class : Object.class;
+	}
+
+	private static Class<?> resultType(Local local) {
+		return (local.pinned || local.type == null) ? Object.class : local.type;
+	}
+
+	private static boolean isNumeric(Class<?> type) {
+		return int.class.equals(type) || double.class.equals(type);
+	}
+
+	private static boolean isStringLike(Class<?> type) {
+		return String.class.equals(type) || Object.class.equals(type);
+	}
+
+	private static boolean isIncrement(CodeUnaryOperatorExpression unary) {
+		switch (unary.getOperator()) {
+			case PRE_INCREMENT:
+			case PRE_DECREMENT:
+			case POST_INCREMENT:
+			case POST_DECREMENT:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private static Local localOf(CodeObject node, Map<String, Local> locals) {
+		if (!(node instanceof CodeVariableReferenceExpression)) {
+			return null;
+		}
+		return locals.get(((CodeVariableReferenceExpression)node).getIdent());
+	}
+
+	private static CodeBinaryOperatorType compoundOperator(CodeBinaryOperatorType op) {
+		switch (op) {
+			case ADD_ASSIGN:
+				return CodeBinaryOperatorType.ADD;
+			case SUBTRACT_ASSIGN:
+				return CodeBinaryOperatorType.SUBTRACT;
+			case MULTIPLY_ASSIGN:
+				return CodeBinaryOperatorType.MULTIPLY;
+			case DIVIDE_ASSIGN:
+				return CodeBinaryOperatorType.DIVIDE;
+			case MODULUS_ASSIGN:
+				return CodeBinaryOperatorType.MODULUS;
+			case BITWISE_AND_ASSIGN:
+				return CodeBinaryOperatorType.BITWISE_AND;
+			case BITWISE_OR_ASSIGN:
+				return CodeBinaryOperatorType.BITWISE_OR;
+			case BITWISE_XOR_ASSIGN:
+				return CodeBinaryOperatorType.BITWISE_XOR;
+			case SHIFT_LEFT_ASSIGN:
+				return CodeBinaryOperatorType.SHIFT_LEFT;
+			case SHIFT_RIGHT_ASSIGN:
+				return CodeBinaryOperatorType.SHIFT_RIGHT;
+			default:
+				return CodeBinaryOperatorType.USHIFT_RIGHT;
+		}
+	}
+}
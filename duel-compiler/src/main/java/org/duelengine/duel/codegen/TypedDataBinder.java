@@ -0,0 +1,317 @@
+package org.duelengine.duel.codegen;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.duelengine.duel.DuelData;
+import org.duelengine.duel.codedom.AccessModifierType;
+import org.duelengine.duel.codedom.CodeBinaryOperatorExpression;
+import org.duelengine.duel.codedom.CodeBinaryOperatorType;
+import org.duelengine.duel.codedom.CodeConditionStatement;
+import org.duelengine.duel.codedom.CodeExpression;
+import org.duelengine.duel.codedom.CodeFieldReferenceExpression;
+import org.duelengine.duel.codedom.CodeMethod;
+import org.duelengine.duel.codedom.CodeMethodInvokeExpression;
+import org.duelengine.duel.codedom.CodeMethodReturnStatement;
+import org.duelengine.duel.codedom.CodeParameterDeclarationExpression;
+import org.duelengine.duel.codedom.CodePrimitiveExpression;
+import org.duelengine.duel.codedom.CodePropertyReferenceExpression;
+import org.duelengine.duel.codedom.CodeThisReferenceExpression;
+import org.duelengine.duel.codedom.CodeTypeDeclaration;
+import org.duelengine.duel.codedom.CodeTypeReferenceExpression;
+import org.duelengine.duel.codedom.CodeVariableDeclarationStatement;
+import org.duelengine.duel.codedom.CodeVariableReferenceExpression;
+import org.duelengine.duel.codedom.ScriptExpression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binds property chains rooted at the view data to the getters of a declared model type.
+ * Each resolvable chain becomes a typed helper method on the view which falls back
+ * to dynamic property access whenever the data is not an instance of the model.
+ */
+class TypedDataBinder extends ExpressionRewriter {
+
+	private final Logger log = LoggerFactory.getLogger(TypedDataBinder.class);
+	private final CodeTypeDeclaration viewType;
+	private final Class<?> modelType;
+	private final Map<String, CodeMethod> helpers = new HashMap<String, CodeMethod>();
+
+	public TypedDataBinder(CodeTypeDeclaration viewType, Class<?> modelType) {
+		if (viewType == null) {
+			throw new NullPointerException("viewType");
+		}
+		if (modelType == null) {
+			throw new NullPointerException("modelType");
+		}
+
+		this.viewType = viewType;
+		this.modelType = modelType;
+	}
+
+	public Class<?> getModelType() {
+		return modelType;
+	}
+
+	@Override
+	protected CodeExpression replace(CodeExpression expression, boolean isAssignTarget) {
+		if (isAssignTarget || !(expression instanceof CodePropertyReferenceExpression)) {
+			return null;
+		}
+
+		// collect the chain of literal property names back to the data root
+		List<CodePropertyReferenceExpression> chain = new ArrayList<CodePropertyReferenceExpression>();
+		CodeExpression target = expression;
+		while (target instanceof CodePropertyReferenceExpression) {
+			CodePropertyReferenceExpression propertyRef = (CodePropertyReferenceExpression)target;
+			if (getPropertyName(propertyRef) == null) {
+				// computed property names are left to the dynamic path
+				return null;
+			}
+			chain.add(0, propertyRef);
+			target = propertyRef.getTarget();
+		}
+
+		if (!(target instanceof CodeVariableReferenceExpression) ||
+			!"data".equals(((CodeVariableReferenceExpression)target).getIdent())) {
+			return null;
+		}
+
+		// resolve the longest prefix which has getters
+		List<Method> getters = new ArrayList<Method>(chain.size());
+		Class<?> type = modelType;
+		for (CodePropertyReferenceExpression propertyRef : chain) {
+			if (type.isPrimitive()) {
+				break;
+			}
+
+			String name = getPropertyName(propertyRef);
+			Method getter = findGetter(type, name);
+			if (getter == null) {
+				if (isBeanType(type)) {
+					log.warn("Property '"+name+"' not found on model type "+type.getName()+"; using dynamic access");
+				}
+				break;
+			}
+
+			getters.add(getter);
+			type = getter.getReturnType();
+		}
+
+		if (getters.isEmpty()) {
+			// nothing to bind but children are no more resolvable
+			return expression;
+		}
+
+		// this.model_N(data)
+		CodeMethod helper = ensureHelper(getters, chain);
+		CodeExpression result = new CodeMethodInvokeExpression(
+			helper.getReturnType(),
+			new CodeThisReferenceExpression(),
+			helper.getName(),
+			new CodeVariableReferenceExpression(Object.class, "data"));
+
+		// remaining unresolved properties stay dynamic
+		for (int i=getters.size(), length=chain.size(); i<length; i++) {
+			result = new CodePropertyReferenceExpression(result, chain.get(i).getPropertyName());
+		}
+		result.setParens(expression.hasParens());
+		return result;
+	}
+
+	private CodeMethod ensureHelper(List<Method> getters, List<CodePropertyReferenceExpression> chain) {
+		StringBuilder key = new StringBuilder();
+		for (Method getter : getters) {
+			key.append('/').append(getter.getName());
+		}
+
+		CodeMethod helper = helpers.get(key.toString());
+		if (helper != null) {
+			return helper;
+		}
+
+		int length = getters.size();
+		Method leaf = getters.get(length-1);
+		Class<?> returnType = Object.class;
+		if (length == 1) {
+			// primitives can only be returned directly when intermediate values cannot be null
+			Class<?> leafType = leaf.getReturnType();
+			if (boolean.class.equals(leafType)) {
+				returnType = boolean.class;
+			} else if (leafType.isPrimitive() && DuelData.isNumber(leafType)) {
+				// widen all numerics to match script semantics
+				returnType = double.class;
+			}
+		}
+
+		helper = new CodeMethod(
+			AccessModifierType.PRIVATE,
+			returnType,
+			viewType.nextIdent("model_"),
+			new CodeParameterDeclarationExpression[] {
+				new CodeParameterDeclarationExpression(Object.class, "data")
+			});
+
+		// Model model = this.asModel(data, Model.class);
+		CodeVariableDeclarationStatement modelDecl = new CodeVariableDeclarationStatement(
+			modelType,
+			"model",
+			new CodeMethodInvokeExpression(
+				modelType,
+				new CodeThisReferenceExpression(),
+				"asModel",
+				new CodeVariableReferenceExpression(Object.class, "data"),
+				new CodeFieldReferenceExpression(
+					new CodeTypeReferenceExpression(modelType),
+					Class.class,
+					"class")));
+		helper.getStatements().add(modelDecl);
+
+		// fallback to dynamic access when data is not the model
+		CodeExpression dynamic = new CodeVariableReferenceExpression(Object.class, "data");
+		for (int i=0; i<length; i++) {
+			dynamic = new CodePropertyReferenceExpression(dynamic, chain.get(i).getPropertyName());
+		}
+		if (boolean.class.equals(returnType)) {
+			dynamic = CodeDOMUtility.ensureBoolean(dynamic);
+		} else if (double.class.equals(returnType)) {
+			dynamic = CodeDOMUtility.ensureNumber(dynamic);
+		}
+		helper.getStatements().add(new CodeConditionStatement(
+			isNull(new CodeVariableReferenceExpression(modelDecl)),
+			new CodeMethodReturnStatement(dynamic)));
+
+		CodeExpression value = new CodeVariableReferenceExpression(modelDecl);
+		for (int i=0; i<length-1; i++) {
+			Method getter = getters.get(i);
+
+			// Type val_N = val.getProp();
+			CodeVariableDeclarationStatement valDecl = new CodeVariableDeclarationStatement(
+				getter.getReturnType(),
+				"val_"+(i+1),
+				new CodeMethodInvokeExpression(getter.getReturnType(), value, getter.getName()));
+			helper.getStatements().add(valDecl);
+
+			// matches dynamic semantics of reading a property from null
+			helper.getStatements().add(new CodeConditionStatement(
+				isNull(new CodeVariableReferenceExpression(valDecl)),
+				new CodeMethodReturnStatement(ScriptExpression.UNDEFINED)));
+
+			value = new CodeVariableReferenceExpression(valDecl);
+		}
+
+		CodeExpression leafExpr = new CodeMethodInvokeExpression(leaf.getReturnType(), value, leaf.getName());
+		if (Object.class.equals(returnType) && !DuelData.isPrimitive(leaf.getReturnType())) {
+			// match the wrapping performed by getProperty
+			leafExpr = new CodeMethodInvokeExpression(
+				Object.class,
+				new CodeThisReferenceExpression(),
+				"asProxy",
+				leafExpr);
+		}
+		helper.getStatements().add(new CodeMethodReturnStatement(leafExpr));
+
+		viewType.add(helper);
+		helpers.put(key.toString(), helper);
+		return helper;
+	}
+
+	private static CodeExpression isNull(CodeExpression expression) {
+		return new CodeBinaryOperatorExpression(
+			CodeBinaryOperatorType.IDENTITY_EQUALITY,
+			expression,
+			CodePrimitiveExpression.NULL);
+	}
+
+	private static String getPropertyName(CodePropertyReferenceExpression propertyRef) {
+		CodeExpression name = propertyRef.getPropertyName();
+		if (!(name instanceof CodePrimitiveExpression)) {
+			return null;
+		}
+
+		Object value = ((CodePrimitiveExpression)name).getValue();
+		return (value instanceof String) ? (String)value : null;
+	}
+
+	/**
+	 * Finds a public getter whose result may be referenced from generated code
+	 * @param type
+	 * @param name
+	 * @return the read method or null if not statically resolvable
+	 */
+	private static Method findGetter(Class<?> type, String name) {
+		if (!isBeanType(type) || "class".equals(name)) {
+			return null;
+		}
+
+		try {
+			BeanInfo info = Introspector.getBeanInfo(type);
+			PropertyDescriptor[] properties = info.getPropertyDescriptors();
+			if (properties == null) {
+				return null;
+			}
+
+			for (PropertyDescriptor property : properties) {
+				if (property == null || !name.equals(property.getName())) {
+					continue;
+				}
+
+				Method getter = property.getReadMethod();
+				if (getter == null ||
+					!Modifier.isPublic(getter.getModifiers()) ||
+					!isAccessible(getter.getReturnType())) {
+					return null;
+				}
+				return getter;
+			}
+
+		} catch (IntrospectionException ex) {
+			ex.printStackTrace();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Determines if the type has bean properties which script would see
+	 * (i.e. would be wrapped in a ProxyMap at runtime)
+	 * @param type
+	 * @return
+	 */
+	private static boolean isBeanType(Class<?> type) {
+		return !Object.class.equals(type) &&
+			!type.isArray() &&
+			!DuelData.isPrimitive(type) &&
+			!Date.class.isAssignableFrom(type) &&
+			!Map.class.isAssignableFrom(type) &&
+			!Iterable.class.isAssignableFrom(type) &&
+			!CharSequence.class.isAssignableFrom(type) &&
+			isAccessible(type);
+	}
+
+	private static boolean isAccessible(Class<?> type) {
+		if (type.isPrimitive()) {
+			return true;
+		}
+
+		if (type.isArray() || type.isAnonymousClass() || type.isLocalClass()) {
+			return false;
+		}
+
+		for (Class<?> t = type; t != null; t = t.getEnclosingClass()) {
+			if (!Modifier.isPublic(t.getModifiers())) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -8,8 +8,11 @@ public class CLI {
 			"  -in <source-file|source-dir> : file path to the source file or folder (required)\n"+
 			"  -client-out <target-dir>     : file path to the target output directory (default: <source-dir>)\n"+
 			"  -server-out <target-dir>     : file path to the target output directory (default: <source-dir>)\n"+
+			"  -classes-out <target-dir>    : emit server-side class files to this directory instead of Java source\n"+
 			"  -client-prefix <package>     : client-side package name\n"+
-			"  -server-prefix <package>     : server-side package name\n";
+			"  -server-prefix <package>     : server-side package name\n"+
+			"  -threads <count>             : max files compiled concurrently (default: processors)\n"+
+			"  -incremental                 : skip templates unchanged since the last run\n";
 
 	public static void main(String[] args) {
 		if (args.length < 1) {
@@ -32,12 +35,21 @@ public class CLI {
 			} else if ("-server-out".equals(arg)) {
 				compiler.setOutputServerDir(args[++i]);
 
+			} else if ("-classes-out".equals(arg)) {
+				compiler.setOutputClassesDir(args[++i]);
+
 			} else if ("-client-prefix".equals(arg)) {
 				compiler.setClientPrefix(args[++i]);
 
 			} else if ("-server-prefix".equals(arg)) {
 				compiler.setServerPrefix(args[++i]);
 
+			} else if ("-threads".equals(arg)) {
+				compiler.setThreads(Integer.parseInt(args[++i]));
+
+			} else if ("-incremental".equals(arg)) {
+				compiler.setIncremental(true);
+
 			} else if ("--help".equalsIgnoreCase(arg)) {
 				System.out.println(HELP);
 				System.out.println(SEPARATOR);
@@ -0,0 +1,421 @@
+package org.duelengine.duel.compiler;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.duelengine.duel.codegen.CodeDOMBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the content hash of each template along with the views and files it produced
+ * so that later runs may skip any template which has not changed.
+ * Templates which bind to a VIEW model also record a hash of the model classes,
+ * since typed binding resolves their getters at compile time.
+ * Entries are only trusted if compiled with the same settings.
+ */
+class CompileStamp {
+
+	private static final Logger log = LoggerFactory.getLogger(CompileStamp.class);
+
+	/**
+	 * The stamp file name within the server output directory
+	 */
+	public static final String FILE_NAME = ".duel-stamp";
+
+	// versioned so stamps written in an older format are not trusted
+	private static final String SETTINGS_KEY = "#settings:2";
+	private static final String HASH_ALGORITHM = "SHA-1";
+	private static final char DELIM = '\t';
+	private static final String VIEW_DELIM = ",";
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * The outputs of a single template
+	 */
+	static class Entry {
+		final String hash;
+		final List<String> serverViews;
+		final List<String> models;
+		final String modelHash;
+		final List<String> outputs;
+
+		Entry(String hash, List<String> serverViews, List<String> models, String modelHash, List<String> outputs) {
+			this.hash = hash;
+			this.serverViews = serverViews;
+			this.models = models;
+			this.modelHash = modelHash;
+			this.outputs = outputs;
+		}
+
+		/**
+		 * @return true if the model classes are unchanged since the entry was recorded
+		 */
+		boolean hasCurrentModels() {
+			return modelHash.equals(hashModels(models));
+		}
+
+		/**
+		 * @return true if every output is still on disk
+		 */
+		boolean hasOutputs() {
+			for (String output : outputs) {
+				if (!new File(output).isFile()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private final File stampFile;
+	private final String settings;
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private boolean trusted = true;
+
+	/**
+	 * Creates an empty stamp
+	 * @param stampFile
+	 * @param settings
+	 */
+	public CompileStamp(File stampFile, String settings) {
+		this.stampFile = stampFile;
+		this.settings = settings;
+	}
+
+	/**
+	 * Reads the stamp of the previous run
+	 * @param stampFile
+	 * @param settings
+	 * @return the stamp, empty if missing or unreadable, untrusted if compiled with other settings
+	 */
+	public static CompileStamp read(File stampFile, String settings) {
+		CompileStamp stamp = new CompileStamp(stampFile, settings);
+		if (!stampFile.isFile()) {
+			return stamp;
+		}
+
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(stampFile), StandardCharsets.UTF_8));
+
+			String line = reader.readLine();
+			if (line == null || !line.startsWith(SETTINGS_KEY+DELIM)) {
+				log.info("Compile stamp format changed, recompiling all views");
+				return stamp;
+			}
+			if (!line.equals(SETTINGS_KEY+DELIM+settings)) {
+				// outputs are still read so that any no longer generated are removed
+				log.info("Compiler settings changed, recompiling all views");
+				stamp.trusted = false;
+			}
+
+			while ((line = reader.readLine()) != null) {
+				// hash, input, views, models, model hash, outputs...
+				String[] parts = line.split(String.valueOf(DELIM), -1);
+				if (parts.length < 5) {
+					continue;
+				}
+
+				List<String> outputs = Arrays.asList(parts).subList(5, parts.length);
+
+				stamp.entries.put(parts[1], new Entry(parts[0], split(parts[2]), split(parts[3]), parts[4], outputs));
+			}
+
+		} catch (IOException ex) {
+			log.warn("Ignoring unreadable compile stamp: "+stampFile, ex);
+			stamp.entries.clear();
+
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException ex) {}
+			}
+		}
+
+		return stamp;
+	}
+
+	private static List<String> split(String list) {
+		return list.isEmpty() ?
+			Collections.<String>emptyList() :
+			Arrays.asList(list.split(VIEW_DELIM));
+	}
+
+	/**
+	 * Gets the entry for a template
+	 * @param inputPath
+	 * @return the entry or null if not recorded or compiled with other settings
+	 */
+	public Entry get(String inputPath) {
+		return trusted ? entries.get(inputPath) : null;
+	}
+
+	/**
+	 * Records the outputs of a template
+	 * @param inputPath
+	 * @param hash
+	 * @param serverViews
+	 * @param models the VIEW model type names declared by the template
+	 * @param modelHash
+	 * @param outputs
+	 */
+	public void put(String inputPath, String hash, List<String> serverViews, List<String> models, String modelHash, List<String> outputs) {
+		entries.put(inputPath, new Entry(hash, new ArrayList<String>(serverViews), new ArrayList<String>(models), modelHash, new ArrayList<String>(outputs)));
+	}
+
+	/**
+	 * @return the recorded templates, including those compiled with other settings
+	 */
+	public Map<String, Entry> entries() {
+		return entries;
+	}
+
+	/**
+	 * Writes the stamp for the next run
+	 */
+	public void write() {
+		stampFile.getParentFile().mkdirs();
+
+		BufferedWriter writer = null;
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(stampFile), StandardCharsets.UTF_8));
+			writer.append(SETTINGS_KEY).append(DELIM).append(settings).append('\n');
+
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				Entry value = entry.getValue();
+				writer.append(value.hash).append(DELIM).append(entry.getKey()).append(DELIM);
+
+				writeList(writer, value.serverViews);
+				writer.append(DELIM);
+				writeList(writer, value.models);
+				writer.append(DELIM).append(value.modelHash);
+
+				for (String output : value.outputs) {
+					writer.append(DELIM).append(output);
+				}
+				writer.append('\n');
+			}
+
+		} catch (IOException ex) {
+			log.error(ex.getMessage(), ex);
+
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException ex) {}
+			}
+		}
+	}
+
+	private static void writeList(Appendable writer, List<String> values)
+		throws IOException {
+
+		boolean needsDelim = false;
+		for (String value : values) {
+			if (needsDelim) {
+				writer.append(VIEW_DELIM);
+			} else {
+				needsDelim = true;
+			}
+			writer.append(value);
+		}
+	}
+
+	/**
+	 * Hashes the template contents along with the settings used to compile it
+	 * @param inputFile
+	 * @param settings
+	 * @return hex-encoded hash
+	 * @throws IOException
+	 */
+	public static String hash(File inputFile, String settings)
+		throws IOException {
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+
+		} catch (NoSuchAlgorithmException ex) {
+			// required of every JRE
+			throw new IllegalStateException(ex);
+		}
+
+		digest.update(settings.getBytes(StandardCharsets.UTF_8));
+
+		InputStream stream = new FileInputStream(inputFile);
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int count;
+			while ((count = stream.read(buffer)) > 0) {
+				digest.update(buffer, 0, count);
+			}
+
+		} finally {
+			stream.close();
+		}
+
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Hashes the settings which affect generated output so that any change invalidates the stamp
+	 * @param values
+	 * @return hex-encoded hash
+	 */
+	public static String hashSettings(Object... values) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+
+		} catch (NoSuchAlgorithmException ex) {
+			// required of every JRE
+			throw new IllegalStateException(ex);
+		}
+
+		for (Object value : values) {
+			digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte)0);
+		}
+
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Hashes the class files which typed binding may resolve getters against:
+	 * each model type, its supertypes and the types returned by their getters.
+	 * Platform types are skipped as they cannot change between builds.
+	 * @param models the VIEW model type names
+	 * @return hex-encoded hash or empty if no models
+	 */
+	public static String hashModels(Collection<String> models) {
+		if (models.isEmpty()) {
+			return "";
+		}
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+
+		} catch (NoSuchAlgorithmException ex) {
+			// required of every JRE
+			throw new IllegalStateException(ex);
+		}
+
+		for (String model : models) {
+			digest.update(model.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte)0);
+
+			Class<?> modelType = CodeDOMBuilder.loadModelType(model);
+			if (modelType == null) {
+				// recompiled once the type appears
+				continue;
+			}
+
+			for (Class<?> type : boundTypes(modelType)) {
+				digest.update(type.getName().getBytes(StandardCharsets.UTF_8));
+				digest.update((byte)0);
+				updateClassFile(digest, type);
+			}
+		}
+
+		return toHex(digest.digest());
+	}
+
+	private static Set<Class<?>> boundTypes(Class<?> modelType) {
+		Set<Class<?>> types = new LinkedHashSet<Class<?>>();
+		Deque<Class<?>> pending = new ArrayDeque<Class<?>>();
+		pending.add(modelType);
+
+		while (!pending.isEmpty()) {
+			Class<?> type = pending.poll();
+			while (type.isArray()) {
+				type = type.getComponentType();
+			}
+			if (type.isPrimitive() || isPlatformType(type) || !types.add(type)) {
+				continue;
+			}
+
+			if (type.getSuperclass() != null) {
+				pending.add(type.getSuperclass());
+			}
+			pending.addAll(Arrays.asList(type.getInterfaces()));
+
+			try {
+				for (PropertyDescriptor property : Introspector.getBeanInfo(type).getPropertyDescriptors()) {
+					if (property != null && property.getReadMethod() != null) {
+						pending.add(property.getReadMethod().getReturnType());
+					}
+				}
+
+			} catch (IntrospectionException ex) {
+				log.warn("Unable to inspect model type: "+type.getName(), ex);
+			}
+		}
+
+		return types;
+	}
+
+	private static boolean isPlatformType(Class<?> type) {
+		String name = type.getName();
+		return type.getClassLoader() == null || name.startsWith("java.") || name.startsWith("javax.");
+	}
+
+	private static void updateClassFile(MessageDigest digest, Class<?> type) {
+		String resource = type.getName().replace('.', '/')+".class";
+		InputStream stream = type.getClassLoader().getResourceAsStream(resource);
+		if (stream == null) {
+			return;
+		}
+
+		try {
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int count;
+				while ((count = stream.read(buffer)) > 0) {
+					digest.update(buffer, 0, count);
+				}
+
+			} finally {
+				stream.close();
+			}
+
+		} catch (IOException ex) {
+			log.warn("Unable to read model class: "+resource, ex);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder buffer = new StringBuilder(bytes.length*2);
+		for (byte b : bytes) {
+			buffer.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return buffer.toString();
+	}
+}
@@ -4,17 +4,34 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.LineNumberReader;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.security.CodeSource;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.duelengine.duel.ast.VIEWCommandNode;
+import org.duelengine.duel.codegen.BytecodeGen;
 import org.duelengine.duel.codegen.ClientCodeGen;
+import org.duelengine.duel.codegen.CodeDOMBuilder;
 import org.duelengine.duel.codegen.CodeGenSettings;
 import org.duelengine.duel.codegen.CodeGenerator;
+import org.duelengine.duel.codegen.CodeOptimizer;
 import org.duelengine.duel.codegen.JavaCodeGen;
 import org.duelengine.duel.parsing.DuelLexer;
 import org.duelengine.duel.parsing.DuelParser;
@@ -24,11 +41,31 @@ import org.slf4j.LoggerFactory;
 
 public class DuelCompiler {
 
+	/**
+	 * The outputs of compiling a single input file
+	 */
+	private static class CompileResult {
+		final File inputFile;
+		final List<String> serverViews = new ArrayList<String>();
+		final List<String> outputs = new ArrayList<String>();
+		final List<SyntaxException> errors = new ArrayList<SyntaxException>();
+		final List<String> models = new ArrayList<String>();
+		String hash;
+		String modelHash = "";
+
+		CompileResult(File inputFile) {
+			this.inputFile = inputFile;
+		}
+	}
+
 	private final Logger log = LoggerFactory.getLogger(DuelCompiler.class);
 	private boolean verbose;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private boolean incremental;
 	private File inputDir;
 	private File outputClientDir;
 	private File outputServerDir;
+	private File outputClassesDir;
 	private String clientPrefix;
 	private String serverPrefix;
 
@@ -56,6 +93,19 @@ public class DuelCompiler {
 		outputServerDir = (value != null) ? new File(value.replace('\\', '/')) : null;
 	}
 
+	public String getOutputClassesDir() {
+		return (outputClassesDir != null) ? outputClassesDir.getAbsolutePath() : null;
+	}
+
+	/**
+	 * Sets the directory where server-side views are emitted directly as class files.
+	 * If not set then Java source is emitted to the server output directory.
+	 * @param value
+	 */
+	public void setOutputClassesDir(String value) {
+		outputClassesDir = (value != null) ? new File(value.replace('\\', '/')) : null;
+	}
+
 	public String getClientPrefix() {
 		return clientPrefix;
 	}
@@ -72,6 +122,30 @@ public class DuelCompiler {
 		serverPrefix = value;
 	}
 
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Sets the maximum number of files compiled concurrently
+	 * @param value defaults to the number of available processors
+	 */
+	public void setThreads(int value) {
+		threads = (value > 0) ? value : 1;
+	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * Sets if templates unchanged since the last run should be skipped
+	 * @param value
+	 */
+	public void setIncremental(boolean value) {
+		incremental = value;
+	}
+
 	private boolean ensureSettings() {
 		if (inputDir == null || !inputDir.exists()) {
 			throw new IllegalArgumentException("ERROR: input directory is empty: "+inputDir);
@@ -91,6 +165,7 @@ public class DuelCompiler {
 	/**
 	 * Compiles view files
 	 * @throws IOException 
+	 * @throws IllegalStateException if a template failed without a last good compile to fall back on
 	 */
 	public void execute() throws IOException {
 		if (!ensureSettings()) {
@@ -102,97 +177,429 @@ public class DuelCompiler {
 			throw new IllegalArgumentException("ERROR: no input files found: "+inputDir);
 		}
 
-		for (File inputFile : inputFiles) {
-			List<VIEWCommandNode> views;
+		// stamps are only trusted if compiled with identical settings
+		File stampFile = new File(outputServerDir, CompileStamp.FILE_NAME);
+		String settingsHash = settingsHash();
+		CompileStamp previous = incremental ?
+			CompileStamp.read(stampFile, settingsHash) :
+			new CompileStamp(stampFile, settingsHash);
+
+		List<CompileResult> results = compileAll(inputFiles, previous, settingsHash);
+
+		// errors are reported and views registered in input order regardless of completion order
+		CompileStamp stamp = new CompileStamp(stampFile, settingsHash);
+		Set<String> outputs = new HashSet<String>();
+		Set<String> serverViews = new LinkedHashSet<String>();
+		List<String> failed = new ArrayList<String>();
+		for (CompileResult result : results) {
+			for (SyntaxException ex : result.errors) {
+				reportSyntaxError(result.inputFile, ex);
+			}
+			serverViews.addAll(result.serverViews);
+			outputs.addAll(result.outputs);
+
+			String inputPath = result.inputFile.getPath();
+			CompileStamp.Entry last = previous.get(inputPath);
+			if (result.errors.isEmpty()) {
+				stamp.put(inputPath, result.hash, result.serverViews, result.models, result.modelHash, result.outputs);
+
+			} else if (last != null) {
+				// failed templates are retried next run but keep their last good views meanwhile
+				serverViews.addAll(last.serverViews);
+				outputs.addAll(last.outputs);
+
+			} else {
+				failed.add(inputPath);
+			}
+		}
+
+		if (!failed.isEmpty()) {
+			// a registry without these views would silently 404 them
+			if (incremental) {
+				stamp.write();
+			}
+			throw new IllegalStateException("ERROR: views failed to compile: "+failed);
+		}
+
+		if (!serverViews.isEmpty()) {
+			if (outputClassesDir != null) {
+				writeRegistry(new BytecodeGen(createSettings()), new ArrayList<String>(serverViews));
+			} else {
+				writeRegistry(new JavaCodeGen(createSettings()), new ArrayList<String>(serverViews));
+			}
+		}
+
+		if (incremental) {
+			removeStale(previous, outputs);
+			stamp.write();
+		}
+	}
+
+	/**
+	 * Compiles each input file, spread across a bounded pool when more than one thread is allowed
+	 * @param inputFiles
+	 * @return the results in the same order as the input files
+	 * @throws IOException
+	 */
+	private List<CompileResult> compileAll(List<File> inputFiles, final CompileStamp previous, final String settingsHash)
+		throws IOException {
+
+		List<CompileResult> results = new ArrayList<CompileResult>(inputFiles.size());
+
+		int poolSize = Math.min(threads, inputFiles.size());
+		if (poolSize < 2) {
+			for (File inputFile : inputFiles) {
+				results.add(compile(inputFile, previous, settingsHash));
+			}
+			return results;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+		try {
+			List<Future<CompileResult>> pending = new ArrayList<Future<CompileResult>>(inputFiles.size());
+			for (final File inputFile : inputFiles) {
+				pending.add(pool.submit(new Callable<CompileResult>() {
+					@Override
+					public CompileResult call() throws IOException {
+						return compile(inputFile, previous, settingsHash);
+					}
+				}));
+			}
+
+			for (Future<CompileResult> task : pending) {
+				try {
+					results.add(task.get());
+
+				} catch (ExecutionException ex) {
+					Throwable cause = ex.getCause();
+					if (cause instanceof IOException) {
+						throw (IOException)cause;
+					}
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException)cause;
+					}
+					if (cause instanceof Error) {
+						throw (Error)cause;
+					}
+					throw new IOException(cause);
+				}
+			}
+
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Compilation interrupted");
+
+		} finally {
+			pool.shutdownNow();
+		}
+
+		return results;
+	}
+
+	/**
+	 * Parses a single input file and emits its client-side and server-side views.
+	 * Syntax errors are collected rather than reported so output is not interleaved.
+	 * @param inputFile
+	 * @param previous the stamp of the last run
+	 * @param settingsHash
+	 * @return
+	 * @throws IOException
+	 */
+	private CompileResult compile(File inputFile, CompileStamp previous, String settingsHash)
+		throws IOException {
+
+		CompileResult result = new CompileResult(inputFile);
+		result.hash = CompileStamp.hash(inputFile, settingsHash);
+
+		CompileStamp.Entry last = previous.get(inputFile.getPath());
+		if (last != null && result.hash.equals(last.hash) && last.hasCurrentModels() && last.hasOutputs()) {
+			// leave outputs untouched so downstream timestamps stay stable
+			log.debug("Unchanged: "+inputFile.getPath());
+			result.serverViews.addAll(last.serverViews);
+			result.models.addAll(last.models);
+			result.modelHash = last.modelHash;
+			result.outputs.addAll(last.outputs);
+			return result;
+		}
+
+		List<VIEWCommandNode> views;
+		try {
+			FileReader reader = new FileReader(inputFile);
 			try {
-				FileReader reader = new FileReader(inputFile);
 				views = new DuelParser().parse(new DuelLexer(reader));
+			} finally {
+				reader.close();
+			}
 
-				if (views == null || views.size() < 1) {
-					throw new SyntaxException("Syntax error: no view found in "+inputFile, 0, 0, 0);
+			if (views == null || views.size() < 1) {
+				throw new SyntaxException("Syntax error: no view found in "+inputFile, 0, 0, 0);
+			}
+
+		} catch (SyntaxException ex) {
+			result.errors.add(ex);
+			return result;
+		}
+
+		// typed binding depends upon the model classes as well as the template
+		for (VIEWCommandNode view : views) {
+			String model = view.getModel();
+			if (model != null && !model.trim().isEmpty() && !view.isClientOnly()) {
+				result.models.add(model.trim());
+			}
+		}
+		result.modelHash = CompileStamp.hashModels(result.models);
+
+		CodeGenSettings settings = createSettings();
+
+		// compact client-side
+		settings.setConvertLineEndings(false);
+		settings.setNormalizeWhitespace(true);
+
+		String outputName = null;
+		for (VIEWCommandNode view : views) {
+			if (view.isServerOnly()) {
+				// skip server-only views
+				continue;
+			}
+
+			// use the first view
+			outputName = settings.getClientPath(view.getName());
+			if (outputName == null || outputName.isEmpty()) {
+				outputName = inputFile.getName().substring(0, inputFile.getName().lastIndexOf('.'));
+			}
+			break;
+		}
+
+		CodeGenerator codegen = new ClientCodeGen(settings);
+
+		// ensure has client-views before generating file
+		if (outputName != null) {
+			try {
+				File outputFile = new File(outputClientDir, outputName+codegen.getFileExtension());
+				outputFile.getParentFile().mkdirs();
+
+				FileWriter writer = new FileWriter(outputFile, false);
+				try {
+					codegen.write(writer, views);
+				} finally {
+					writer.flush();
+					writer.close();
 				}
+				result.outputs.add(outputFile.getPath());
 
 			} catch (SyntaxException ex) {
-				reportSyntaxError(inputFile, ex);
+				result.errors.add(ex);
+			}
+		}
+
+		// directly emit server-side
+		settings.setConvertLineEndings(true);
+		settings.setNormalizeWhitespace(false);
+		settings.setPreEncodeLiterals(true);
+		settings.setOptimizer(new CodeOptimizer());
+		// calls between views of the same template may be inlined
+		settings.setInlineViews(views);
+
+		if (outputClassesDir != null) {
+			writeClasses(new BytecodeGen(settings), views, result);
+			return result;
+		}
+
+		codegen = new JavaCodeGen(settings);
+		for (VIEWCommandNode view : views) {
+			if (view.isClientOnly()) {
+				// skip client-only views
 				continue;
 			}
 
-			// TODO: allow setting of more properties from args
-			CodeGenSettings settings = new CodeGenSettings();
-			settings.setIndent("\t");
-			settings.setNewline(System.getProperty("line.separator"));
-			settings.setXHTMLStyle(false);
-			settings.setClientNamePrefix(clientPrefix);
-			settings.setServerNamePrefix(serverPrefix);
-
-			// compact client-side
-			settings.setConvertLineEndings(false);
-			settings.setNormalizeWhitespace(true);
-
-			String outputName = null;
-			for (VIEWCommandNode view : views) {
-				if (view.isServerOnly()) {
-					// skip server-only views
-					continue;
-				}
+			try {
+				File outputFile = new File(outputServerDir, settings.getServerPath(view.getName(), codegen));
+				outputFile.getParentFile().mkdirs();
 
-				// use the first view
-				outputName = settings.getClientPath(view.getName());
-				if (outputName == null || outputName.isEmpty()) {
-					outputName = inputFile.getName().substring(0, inputFile.getName().lastIndexOf('.'));
+				FileWriter writer = new FileWriter(outputFile, false);
+				try {
+					codegen.write(writer, view);
+				} finally {
+					writer.flush();
+					writer.close();
 				}
-				break;
+
+				result.serverViews.add(view.getName());
+				result.outputs.add(outputFile.getPath());
+
+			} catch (SyntaxException ex) {
+				result.errors.add(ex);
 			}
+		}
 
-			CodeGenerator codegen = new ClientCodeGen(settings);
+		return result;
+	}
 
-			// ensure has client-views before generating file
-			if (outputName != null) {
-				try {
-					File outputFile = new File(outputClientDir, outputName+codegen.getFileExtension());
-					outputFile.getParentFile().mkdirs();
+	/**
+	 * Emits server-side views directly as class files, skipping javac
+	 * @param codegen
+	 * @param views
+	 * @param result
+	 * @throws IOException
+	 */
+	private void writeClasses(BytecodeGen codegen, List<VIEWCommandNode> views, CompileResult result)
+		throws IOException {
 
-					FileWriter writer = new FileWriter(outputFile, false);
-					try {
-						codegen.write(writer, views);
-					} finally {
-						writer.flush();
-						writer.close();
-					}
+		for (VIEWCommandNode view : views) {
+			if (view.isClientOnly()) {
+				// skip client-only views
+				continue;
+			}
+
+			try {
+				// includes the nested classes of each part
+				for (Map.Entry<String, byte[]> type : codegen.compile(view).entrySet()) {
+					File outputFile = new File(outputClassesDir, BytecodeGen.getClassPath(type.getKey()));
+					outputFile.getParentFile().mkdirs();
+					Files.write(outputFile.toPath(), type.getValue());
 
-				} catch (SyntaxException ex) {
-					reportSyntaxError(inputFile, ex);
+					result.outputs.add(outputFile.getPath());
 				}
+
+				result.serverViews.add(view.getName());
+
+			} catch (SyntaxException ex) {
+				result.errors.add(ex);
+			}
+		}
+	}
+
+	private CodeGenSettings createSettings() {
+		// TODO: allow setting of more properties from args
+		CodeGenSettings settings = new CodeGenSettings();
+		settings.setIndent("\t");
+		settings.setNewline(System.getProperty("line.separator"));
+		settings.setXHTMLStyle(false);
+		settings.setClientNamePrefix(clientPrefix);
+		settings.setServerNamePrefix(serverPrefix);
+		return settings;
+	}
+
+	/**
+	 * Emits a registry of server-side view constructors
+	 * so views may be resolved without reflection at runtime
+	 * Only rewritten if changed so the generated class is not needlessly recompiled.
+	 * @param codegen
+	 * @param viewNames
+	 * @throws IOException
+	 */
+	private void writeRegistry(JavaCodeGen codegen, List<String> viewNames)
+		throws IOException {
+
+		File outputFile = new File(outputServerDir, codegen.getRegistryPath());
+		outputFile.getParentFile().mkdirs();
+
+		StringBuilder buffer = new StringBuilder();
+		codegen.writeCode(buffer, new CodeDOMBuilder(createSettings()).buildRegistry(viewNames));
+		String registry = buffer.toString();
+
+		if (outputFile.isFile() && registry.equals(readAll(outputFile))) {
+			log.debug("Unchanged: "+outputFile.getPath());
+			return;
+		}
+
+		FileWriter writer = new FileWriter(outputFile, false);
+		try {
+			writer.write(registry);
+		} finally {
+			writer.flush();
+			writer.close();
+		}
+	}
+
+	/**
+	 * Emits a registry of server-side view constructors directly as a class file
+	 * Only rewritten if changed so dependent builds are not needlessly triggered.
+	 * @param codegen
+	 * @param viewNames
+	 * @throws IOException
+	 */
+	private void writeRegistry(BytecodeGen codegen, List<String> viewNames)
+		throws IOException {
+
+		for (Map.Entry<String, byte[]> type : codegen.compileCode(new CodeDOMBuilder(createSettings()).buildRegistry(viewNames)).entrySet()) {
+			File outputFile = new File(outputClassesDir, BytecodeGen.getClassPath(type.getKey()));
+			if (outputFile.isFile() && Arrays.equals(type.getValue(), Files.readAllBytes(outputFile.toPath()))) {
+				log.debug("Unchanged: "+outputFile.getPath());
+				continue;
 			}
 
-			// directly emit server-side
-			settings.setConvertLineEndings(true);
-			settings.setNormalizeWhitespace(false);
+			outputFile.getParentFile().mkdirs();
+			Files.write(outputFile.toPath(), type.getValue());
+		}
+	}
 
-			codegen = new JavaCodeGen(settings);
-			for (VIEWCommandNode view : views) {
-				if (view.isClientOnly()) {
-					// skip client-only views
+	/**
+	 * Removes outputs of the last run which are no longer generated by any template
+	 * @param previous
+	 * @param outputs
+	 */
+	private void removeStale(CompileStamp previous, Set<String> outputs) {
+		for (Map.Entry<String, CompileStamp.Entry> entry : previous.entries().entrySet()) {
+			for (String output : entry.getValue().outputs) {
+				if (outputs.contains(output)) {
 					continue;
 				}
 
-				try {
-					File outputFile = new File(outputServerDir, settings.getServerPath(view.getName(), codegen));
-					outputFile.getParentFile().mkdirs();
+				File outputFile = new File(output);
+				if (outputFile.isFile() && outputFile.delete()) {
+					log.info("Deleted stale: "+output);
+				}
+			}
+		}
+	}
 
-					FileWriter writer = new FileWriter(outputFile, false);
-					try {
-						codegen.write(writer, view);
-					} finally {
-						writer.flush();
-						writer.close();
-					}
+	/**
+	 * Combines the settings which affect generated output, including the compiler build itself
+	 * @return
+	 */
+	private String settingsHash() {
+		String compiler = DuelCompiler.class.getPackage().getImplementationVersion();
 
-				} catch (SyntaxException ex) {
-					reportSyntaxError(inputFile, ex);
-				}
+		CodeSource source = DuelCompiler.class.getProtectionDomain().getCodeSource();
+		if (source != null && source.getLocation() != null) {
+			try {
+				File location = new File(source.getLocation().toURI());
+				compiler += ":"+location.length()+":"+location.lastModified();
+
+			} catch (URISyntaxException ex) {
+				compiler += ":"+source.getLocation();
+
+			} catch (IllegalArgumentException ex) {
+				compiler += ":"+source.getLocation();
+			}
+		}
+
+		return CompileStamp.hashSettings(
+			compiler,
+			clientPrefix,
+			serverPrefix,
+			outputClientDir.getAbsolutePath(),
+			outputServerDir.getAbsolutePath(),
+			getOutputClassesDir(),
+			System.getProperty("line.separator"));
+	}
+
+	private static String readAll(File file)
+		throws IOException {
+
+		StringBuilder buffer = new StringBuilder((int)file.length());
+		FileReader reader = new FileReader(file);
+		try {
+			char[] chars = new char[4096];
+			int count;
+			while ((count = reader.read(chars)) > 0) {
+				buffer.append(chars, 0, count);
 			}
+		} finally {
+			reader.close();
 		}
+		return buffer.toString();
 	}
 
 	private void reportSyntaxError(File inputFile, SyntaxException ex) {
@@ -246,7 +653,7 @@ public class DuelCompiler {
 		}
 	}
 
-	private static List<File> findFiles(File inputDir) {
+	static List<File> findFiles(File inputDir) {
 
 		List<File> files = new ArrayList<File>();
 		Queue<File> dirs = new LinkedList<File>();
@@ -261,6 +668,8 @@ public class DuelCompiler {
 			}
 		}
 
+		// consistent order across platforms
+		Collections.sort(files);
 		return files;
 	}
 }
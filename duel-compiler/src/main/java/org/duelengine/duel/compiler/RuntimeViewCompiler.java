@@ -0,0 +1,274 @@
+package org.duelengine.duel.compiler;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.duelengine.duel.ViewRegistry;
+import org.duelengine.duel.ast.VIEWCommandNode;
+import org.duelengine.duel.codegen.BytecodeGen;
+import org.duelengine.duel.codegen.CodeDOMBuilder;
+import org.duelengine.duel.codegen.CodeGenSettings;
+import org.duelengine.duel.codegen.CodeOptimizer;
+import org.duelengine.duel.parsing.DuelLexer;
+import org.duelengine.duel.parsing.DuelParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles templates straight into memory for development, skipping the build entirely.
+ * Only templates added or changed since the last refresh are parsed and compiled again.
+ * Each refresh with changes defines every view in a new throwaway class loader so views
+ * always call the same generation of each other, then swaps in a new registry.
+ * A template which fails to compile keeps its last good classes.
+ */
+public class RuntimeViewCompiler {
+
+	private static final Logger log = LoggerFactory.getLogger(RuntimeViewCompiler.class);
+
+	/**
+	 * The classes compiled from a single template
+	 */
+	private static class Entry {
+		final long modified;
+		final long length;
+		final List<String> serverViews;
+		final Map<String, byte[]> classes;
+
+		Entry(long modified, long length, List<String> serverViews, Map<String, byte[]> classes) {
+			this.modified = modified;
+			this.length = length;
+			this.serverViews = serverViews;
+			this.classes = classes;
+		}
+
+		boolean isCurrent(File inputFile) {
+			return (inputFile.lastModified() == modified) && (inputFile.length() == length);
+		}
+	}
+
+	/**
+	 * Defines one generation of compiled views, preferring them over any built copies
+	 */
+	private static class GenerationClassLoader extends ClassLoader {
+		private final Map<String, byte[]> classes;
+
+		GenerationClassLoader(Map<String, byte[]> classes, ClassLoader parent) {
+			super(parent);
+			this.classes = classes;
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve)
+				throws ClassNotFoundException {
+
+			if (!classes.containsKey(name)) {
+				return super.loadClass(name, resolve);
+			}
+
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> type = findLoadedClass(name);
+				if (type == null) {
+					type = findClass(name);
+				}
+				if (resolve) {
+					resolveClass(type);
+				}
+				return type;
+			}
+		}
+
+		@Override
+		protected Class<?> findClass(String name)
+				throws ClassNotFoundException {
+
+			byte[] bytes = classes.get(name);
+			if (bytes == null) {
+				throw new ClassNotFoundException(name);
+			}
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	private final File inputDir;
+	private final String serverPrefix;
+	private final ClassLoader parent;
+	private final BytecodeGen codegen;
+	private final Map<File, Entry> entries = new HashMap<File, Entry>();
+	private volatile ViewRegistry registry;
+	private volatile long sourceStamp;
+
+	public RuntimeViewCompiler(File inputDir, String serverPrefix) {
+		this(inputDir, serverPrefix, null);
+	}
+
+	/**
+	 * @param inputDir the template source directory
+	 * @param serverPrefix the server-side package name
+	 * @param parent the class loader of the application (default: context class loader)
+	 */
+	public RuntimeViewCompiler(File inputDir, String serverPrefix, ClassLoader parent) {
+		if (inputDir == null) {
+			throw new NullPointerException("inputDir");
+		}
+		if (parent == null) {
+			parent = Thread.currentThread().getContextClassLoader();
+		}
+
+		this.inputDir = inputDir;
+		this.serverPrefix = serverPrefix;
+		this.parent = (parent != null) ? parent : RuntimeViewCompiler.class.getClassLoader();
+		this.codegen = new BytecodeGen(createSettings(), this.parent);
+	}
+
+	/**
+	 * Gets the registry of the last refresh without checking for changes
+	 * @return the registry or null if never refreshed
+	 */
+	public ViewRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Checks for templates added, changed or removed since the last refresh.
+	 * Only reads the file system so never waits on a refresh in progress.
+	 * @return true if a refresh would compile anything
+	 */
+	public boolean isStale() {
+		if (registry == null) {
+			return true;
+		}
+
+		List<File> inputFiles = DuelCompiler.findFiles(inputDir);
+		long stamp = inputFiles.size();
+		for (File inputFile : inputFiles) {
+			stamp = stamp(stamp, inputFile, inputFile.lastModified(), inputFile.length());
+		}
+		return (stamp != sourceStamp);
+	}
+
+	/**
+	 * Recompiles any templates added, changed or removed since the last refresh
+	 * @return the current registry, which is only a new instance if views changed
+	 */
+	public synchronized ViewRegistry refresh() {
+		if (!inputDir.exists()) {
+			log.error("Template directory not found: "+inputDir);
+			return registry;
+		}
+
+		long start = System.currentTimeMillis();
+		List<File> inputFiles = DuelCompiler.findFiles(inputDir);
+
+		boolean changed = entries.keySet().retainAll(new HashSet<File>(inputFiles));
+		int compiled = 0;
+		long stamp = inputFiles.size();
+		for (File inputFile : inputFiles) {
+			Entry entry = entries.get(inputFile);
+			if (entry == null || !entry.isCurrent(inputFile)) {
+				entry = compile(inputFile, entry);
+				entries.put(inputFile, entry);
+				compiled++;
+				changed = true;
+			}
+
+			// stamped as read before compiling so edits made meanwhile are still seen as stale
+			stamp = stamp(stamp, inputFile, entry.modified, entry.length);
+		}
+		sourceStamp = stamp;
+
+		if (!changed && registry != null) {
+			return registry;
+		}
+
+		// every view is defined again so that unchanged views see their changed dependencies
+		Map<String, byte[]> classes = new HashMap<String, byte[]>();
+		List<String> serverViews = new ArrayList<String>();
+		for (File inputFile : inputFiles) {
+			Entry entry = entries.get(inputFile);
+			if (entry != null) {
+				classes.putAll(entry.classes);
+				serverViews.addAll(entry.serverViews);
+			}
+		}
+		classes.putAll(codegen.compileCode(new CodeDOMBuilder(createSettings()).buildRegistry(serverViews)));
+
+		registry = ViewRegistry.load(serverPrefix, new GenerationClassLoader(classes, parent));
+
+		log.info("Compiled "+compiled+" of "+inputFiles.size()+" templates in "+(System.currentTimeMillis()-start)+" ms");
+		return registry;
+	}
+
+	private static long stamp(long stamp, File inputFile, long modified, long length) {
+		stamp = 31L*stamp + inputFile.hashCode();
+		stamp = 31L*stamp + modified;
+		return 31L*stamp + length;
+	}
+
+	/**
+	 * Compiles a single template into classes
+	 * @param inputFile
+	 * @param last the previous entry
+	 * @return the new entry, or the last entry with an updated stamp if compilation failed
+	 */
+	private Entry compile(File inputFile, Entry last) {
+		long modified = inputFile.lastModified();
+		long length = inputFile.length();
+
+		try {
+			List<VIEWCommandNode> views;
+			FileReader reader = new FileReader(inputFile);
+			try {
+				views = new DuelParser().parse(new DuelLexer(reader));
+			} finally {
+				reader.close();
+			}
+
+			List<String> serverViews = new ArrayList<String>();
+			for (VIEWCommandNode view : views) {
+				if (!view.isClientOnly()) {
+					serverViews.add(view.getName());
+				}
+			}
+
+			// calls between views of the same template may be inlined
+			CodeGenSettings settings = createSettings();
+			settings.setInlineViews(views);
+
+			return new Entry(modified, length, serverViews, new BytecodeGen(settings, parent).compile(views));
+
+		} catch (IOException ex) {
+			log.error("Unable to read template: "+inputFile, ex);
+
+		} catch (RuntimeException ex) {
+			log.error("Unable to compile template: "+inputFile+": "+ex.getMessage(), ex);
+		}
+
+		// keep rendering the last good version until the next edit
+		if (last == null) {
+			return new Entry(modified, length, Collections.<String>emptyList(), new LinkedHashMap<String, byte[]>());
+		}
+		return new Entry(modified, length, last.serverViews, last.classes);
+	}
+
+	private CodeGenSettings createSettings() {
+		// same as DuelCompiler emits server-side views
+		CodeGenSettings settings = new CodeGenSettings();
+		settings.setIndent("\t");
+		settings.setNewline(System.getProperty("line.separator"));
+		settings.setXHTMLStyle(false);
+		settings.setServerNamePrefix(serverPrefix);
+		settings.setConvertLineEndings(true);
+		settings.setNormalizeWhitespace(false);
+		settings.setPreEncodeLiterals(true);
+		settings.setOptimizer(new CodeOptimizer());
+		return settings;
+	}
+}
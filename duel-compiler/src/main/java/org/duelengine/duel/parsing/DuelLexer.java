@@ -16,7 +16,7 @@ public class DuelLexer implements Iterator<DuelToken> {
 
 	private static final int EOF = -1;
 	private static final String CONFIG_RESOURCE = "org.duelengine.duel.parsing.HTMLCharRefs";
-	private static ResourceBundle htmlConfig;
+	private static volatile ResourceBundle htmlConfig;
 
 	private final LineNumberReader reader;
 	private final StringBuilder buffer = new StringBuilder(512);
@@ -380,13 +380,16 @@ public class DuelLexer implements Iterator<DuelToken> {
 			return null;
 		}
 
-		if (htmlConfig == null) {
+		ResourceBundle config = htmlConfig;
+		if (config == null) {
 			// definitions maintained in HTMLCharRefs.properties
-			htmlConfig = ResourceBundle.getBundle(CONFIG_RESOURCE, Locale.ROOT);
+			// bundles are cached and thread-safe so concurrent lexers may race to assign the same instance
+			config = ResourceBundle.getBundle(CONFIG_RESOURCE, Locale.ROOT);
+			htmlConfig = config;
 		}
 
-		if (htmlConfig.containsKey(name)) {
-			return htmlConfig.getString(name);
+		if (config.containsKey(name)) {
+			return config.getString(name);
 		}
 
 		return null;
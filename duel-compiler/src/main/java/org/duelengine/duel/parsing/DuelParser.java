@@ -223,10 +223,12 @@ public class DuelParser {
 							// consume token
 							next = null;
 
+							rewriteCacheAttr(elem);
 							rewriteConditionalAttr(elem);
 							return;
 						}
 						if (elem.isAncestor(tag)) {
+							rewriteCacheAttr(elem);
 							rewriteConditionalAttr(elem);
 
 							// pass next on up
@@ -241,6 +243,7 @@ public class DuelParser {
 
 				default:
 					if (!elem.canHaveChildren()) {
+						rewriteCacheAttr(elem);
 						rewriteConditionalAttr(elem);
 
 						// pass next on up
@@ -270,6 +273,28 @@ public class DuelParser {
 		next = null;
 	}
 
+	private void rewriteCacheAttr(ElementNode elem) {
+		if (elem instanceof CommandNode && !(elem instanceof CALLCommandNode)) {
+			// only process CALL and HTML elements
+			return;
+		}
+
+		DuelNode key = elem.removeAttribute(ElementNode.CACHE_KEY);
+		DuelNode ttl = elem.removeAttribute(ElementNode.CACHE_TTL);
+		if (key == null) {
+			if (ttl != null) {
+				throw new InvalidNodeException("Attribute "+ElementNode.CACHE_TTL+" requires "+ElementNode.CACHE_KEY, ttl);
+			}
+
+			// nothing to do
+			return;
+		}
+
+		// move attrs over to the element cache settings
+		elem.setCacheKey(key);
+		elem.setCacheTTL(ttl);
+	}
+
 	private void rewriteConditionalAttr(ElementNode elem) {
 		if (elem instanceof CommandNode && !(elem instanceof CALLCommandNode) && !(elem instanceof FORCommandNode)) {
 			// only process normal CALL, FOR, and HTML elements
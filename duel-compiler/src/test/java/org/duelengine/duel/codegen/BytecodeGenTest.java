@@ -0,0 +1,449 @@
+package org.duelengine.duel.codegen;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.*;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.duelengine.duel.*;
+import org.duelengine.duel.ast.*;
+import org.duelengine.duel.parsing.*;
+import org.junit.Test;
+
+/**
+ * Renders views built by BytecodeGen alongside the same views built by
+ * JavaCodeGen and javac, expecting identical output.
+ */
+public class BytecodeGenTest {
+
+	private static final String SERVER_PREFIX = "test";
+
+	@Test
+	public void literalsTest() throws Exception {
+		String input =
+			"<view name=\"foo.Literals\">\n"+
+			"<div class=\"a\" title=\"&lt;&quot;&gt;\">\n"+
+			"\tCopyright &copy; 2014 &mdash; café &amp; ☃\n"+
+			"\t<br><input type=\"checkbox\" checked>\r\n"+
+			"\t<script>var x = 1 < 2;</script>\n"+
+			"</div>\n"+
+			"</view>";
+
+		assertSameOutput(input, "foo.Literals", null);
+	}
+
+	@Test
+	public void conditionalTest() throws Exception {
+		String input =
+			"<view name=\"foo.Cond\">\n"+
+			"<if test=\"<%= data.x === 1 %>\"><b>one</b>\n"+
+			"<else if=\"<%= data.x > 1 && data.x <= 3 %>\"><i>few <%= data.x %></i>\n"+
+			"<else if=\"<%= !data.x || data.y %>\"><u>none</u>\n"+
+			"<else><s>many</s>\n"+
+			"</if>\n"+
+			"</view>";
+
+		assertSameOutput(input, "foo.Cond", map("x", 1));
+		assertSameOutput(input, "foo.Cond", map("x", 2.5));
+		assertSameOutput(input, "foo.Cond", map("x", 0));
+		assertSameOutput(input, "foo.Cond", map("x", 7, "y", "yes"));
+		assertSameOutput(input, "foo.Cond", map("x", 7));
+		assertSameOutput(input, "foo.Cond", null);
+	}
+
+	@Test
+	public void loopTest() throws Exception {
+		String input =
+			"<view name=\"foo.Loops\">\n"+
+			"<ul><for each=\"<%= data.items %>\">\n"+
+			"\t<li class=\"<%= index % 2 ? 'odd' : 'even' %>\"><%= data %> (<%= index+1 %> of <%= count %>)</li>\n"+
+			"</for></ul>\n"+
+			"<dl><for in=\"<%= data.map %>\"><dt><%= key %></dt><dd><%= data %></dd></for></dl>\n"+
+			"<p><for count=\"<%= 3 %>\" data=\"<%= data.items %>\"><%= index %>/<%= count %> </for></p>\n"+
+			"</view>";
+
+		Map<String, Object> pairs = new LinkedHashMap<String, Object>();
+		pairs.put("a", 1);
+		pairs.put("b", "two");
+		pairs.put("c", null);
+
+		assertSameOutput(input, "foo.Loops", map(
+			"items", Arrays.asList("x", 2, true, null),
+			"map", pairs));
+		assertSameOutput(input, "foo.Loops", map(
+			"items", new String[0],
+			"map", new HashMap<String, Object>()));
+		assertSameOutput(input, "foo.Loops", null);
+	}
+
+	@Test
+	public void expressionTest() throws Exception {
+		String input =
+			"<view name=\"foo.Expr\">\n"+
+			"<p><%= 'x'+data.id %>|<%= data.a+data.b %>|<%= data.a-data.b %>|<%= -data.a * 2 / 3 %>|<%= data.a % 3 %></p>\n"+
+			"<p><%= data.a == data.b %>|<%= data.a != null %>|<%= data.a === data.c %>|<%= data.a !== undefined %></p>\n"+
+			"<p><%= data.a < data.b %>|<%= data.a >= data.b %>|<%= 5 & 6 %>|<%= 5 | 8 %>|<%= ~5 %></p>\n"+
+			"<p><%= 5 << 2 %>|<%= -5 >> 1 %>|<%= -1 >>> 28 %>|<%= data.s && data.a %>|<%= data.z || 'dflt' %></p>\n"+
+			"<p><%= typeof data.s === 'string' ? data.s.toUpperCase() : '' %>|<%= data.list.length %>|<%= [1, 'two', data.a] %></p>\n"+
+			"<p><%= Math.max(data.a, 2) %>|<%= data.a ? 'yes' : 'no' %>|<%= 1e21 %>|<%= 0.5 %></p>\n"+
+			"<a href=\"/foo?x=<%= data.q %>&amp;y=1\" title=\"<%= data.s %>\">link</a>\n"+
+			"</view>";
+
+		assertSameOutput(input, "foo.Expr", map(
+			"id", 42,
+			"a", 5,
+			"b", 3.5,
+			"c", 5,
+			"s", "Mixed<Case>",
+			"q", "a b&c",
+			"list", Arrays.asList(1, 2, 3)));
+		assertSameOutput(input, "foo.Expr", map(
+			"id", "abc",
+			"a", "7",
+			"b", true,
+			"list", new int[0]));
+		assertSameOutput(input, "foo.Expr", map("list", "text"));
+	}
+
+	@Test
+	public void callPartTest() throws Exception {
+		String input =
+			"<view name=\"foo.Outer\">\n"+
+			"<div><call view=\"foo.Wrap\" data=\"<%= data.inner %>\">\n"+
+			"\t<part name=\"body\"><span><%= data.title %></span></part>\n"+
+			"</call>\n"+
+			"<call view=\"foo.Wrap\" data=\"<%= data %>\" /></div>\n"+
+			"</view>\n"+
+			"<view name=\"foo.Wrap\">\n"+
+			"<section title=\"<%= data.title %>\"><part name=\"body\">default</part></section>\n"+
+			"</view>";
+
+		assertSameOutput(input, "foo.Outer", map(
+			"title", "outer",
+			"inner", map("title", "inner")));
+		assertSameOutput(input, "foo.Outer", null);
+	}
+
+	@Test
+	public void partSlotsTest() throws Exception {
+		String input =
+			"<view name=\"foo.Outer\">\n"+
+			"<call view=\"foo.Wrap\" data=\"<%= data.inner %>\">\n"+
+			"\t<part name=\"body\"><span><%= data.title %></span></part>\n"+
+			"\t<part name=\"unused\">unused</part>\n"+
+			"</call>\n"+
+			"</view>\n"+
+			"<view name=\"foo.Wrap\">\n"+
+			"<section><part name=\"head\">head</part>|<part name=\"body\">default</part>|<part name=\"body\" /></section>\n"+
+			"</view>";
+
+		assertSameOutput(input, "foo.Outer", map("inner", map("title", "inner")), new CodeOptimizer());
+		assertSameOutput(input, "foo.Wrap", map("title", "wrap"), new CodeOptimizer());
+	}
+
+	@Test
+	public void inlineCallTest() throws Exception {
+		String input =
+			"<view name=\"foo.Page\">\n"+
+			"<div><call view=\"foo.Box\" data=\"<%= data.inner %>\" index=\"<%= 2 %>\">\n"+
+			"\t<part name=\"body\"><span><%= data.title %>#<%= index %></span></part>\n"+
+			"</call>\n"+
+			"<call view=\"foo.Box\" data=\"<%= data %>\" />\n"+
+			"<for each=\"<%= data.items %>\"><call view=\"foo.Item\" /></for></div>\n"+
+			"</view>\n"+
+			"<view name=\"foo.Box\">\n"+
+			"<section title=\"<%= data.title %>\"><part name=\"body\">default</part>|<part name=\"body\" /><part name=\"none\" /></section>\n"+
+			"</view>\n"+
+			"<view name=\"foo.Item\">\n"+
+			"<b><%= data %>:<%= index %>/<%= count %></b>\n"+
+			"</view>";
+
+		assertSameInlined(input, "foo.Page", map(
+			"title", "page",
+			"inner", map("title", "inner"),
+			"items", Arrays.asList("a", "b")));
+		assertSameInlined(input, "foo.Page", null);
+	}
+
+	@Test
+	public void optimizedTest() throws Exception {
+		String input =
+			"<view name=\"foo.Opt\">\n"+
+			"<if test=\"<%= 1 + 2 > 2 %>\"><b>yes <%= 7 / 2 %> <%= 'a' + 1 %></b><else><i>no</i></if>\n"+
+			"<if test=\"<%= !'' && data.x %>\">x</if>\n"+
+			"<if test=\"<%= false %>\"><for each=\"<%= data.items %>\"><%= data %></for></if>\n"+
+			"<p><%= data.a.b %>|<%= data.a.b.c %>|<%= data.a %>|<%= data.items.length %>|<%= data.items %></p>\n"+
+			"<for each=\"<%= data.items %>\"><%= index %>:<%= data %> </for>\n"+
+			"</view>";
+
+		assertSameOutput(input, "foo.Opt", map(
+			"x", true,
+			"a", map("b", map("c", "C")),
+			"items", Arrays.asList(1, "two")), new CodeOptimizer());
+		assertSameOutput(input, "foo.Opt", null, new CodeOptimizer());
+	}
+
+	@Test
+	public void typedLocalsTest() throws Exception {
+		String input =
+			"<view name=\"foo.Typed\">\n"+
+			"<%\n"+
+			"\tvar sum = 0, n = data.items.length, c = 0;\n"+
+			"\tfor (var i=0; i<n; i++) { sum = sum + data.items[i]; c++; }\n"+
+			"\tvar half = n / 2;\n"+
+			"\tvar label = 'items:' + n;\n"+
+			"\tvar flag = n > 2;\n"+
+			"\tvar k = 1.5;\n"+
+			"\tk = k - 1;\n"+
+			"\tvar neg = -c;\n"+
+			"\tvar r = '';\n"+
+			"\tfor (var m=0; m<3; m++) { r = r + m; }\n"+
+			"\tvar big = c * 2;\n"+
+			"\treturn [sum, half, label, flag, k, neg, r, big, c === 3, k == 0.5, c + 'x', c + 1];\n"+
+			"%>\n"+
+			"<for count=\"3\"><%= index % 2 === 0 ? 'even' : 'odd' %>:<%= index + 1 %> </for>\n"+
+			"</view>";
+
+		assertSameOptimized(input, "foo.Typed", map("items", Arrays.asList(1, 2, 3)));
+		assertSameOptimized(input, "foo.Typed", map("items", Arrays.asList("a", "b")));
+	}
+
+	@Test
+	public void typedOverflowTest() throws Exception {
+		String input =
+			"<view name=\"foo.Overflow\">\n"+
+			"<%\n"+
+			"\tvar i = 2147483647; i++;\n"+
+			"\tvar d = -2147483648; d--;\n"+
+			"\tvar s = 2147483647; s = s - -1;\n"+
+			"\treturn [i, d, s];\n"+
+			"%>\n"+
+			"</view>";
+
+		assertSameOptimized(input, "foo.Overflow", null);
+	}
+
+	@Test
+	public void typedModulusZeroTest() throws Exception {
+		String input =
+			"<view name=\"foo.Modulus\">\n"+
+			"<%\n"+
+			"\tvar x = 5; var y = 0; var z = x % y;\n"+
+			"\tvar w = 7; w = w % y;\n"+
+			"\treturn [z, w, x % 3];\n"+
+			"%>\n"+
+			"</view>";
+
+		assertSameOptimized(input, "foo.Modulus", null);
+	}
+
+	@Test
+	public void splitTest() throws Exception {
+		// large enough that the render method is split into helpers
+		StringBuilder input = new StringBuilder("<view name=\"foo.Big\">\n");
+		for (int i=0; i<150; i++) {
+			input.append("<div class=\"n").append(i).append("\"><%= data.a.b + ").append(i).append(" %>")
+				.append("<if test=\"<%= data.n > ").append(i).append(" %>\"><b><%= data.name %></b><else>-</if>")
+				.append("<for each=\"<%= data.items %>\"><%= index %>:<%= data %> </for></div>\n");
+		}
+		input.append("</view>");
+
+		assertSameOutput(input.toString(), "foo.Big", map(
+			"a", map("b", "B"),
+			"n", 75,
+			"name", "x",
+			"items", Arrays.asList(1, "two")), new CodeOptimizer());
+		assertSameOutput(input.toString(), "foo.Big", null, new CodeOptimizer());
+	}
+
+	@Test
+	public void registryTest() throws Exception {
+		String input =
+			"<view name=\"foo.One\">one</view>\n"+
+			"<view name=\"foo.Two\">two</view>";
+
+		List<VIEWCommandNode> views = parse(input);
+		CodeGenSettings settings = createSettings();
+		Map<String, byte[]> classes = new BytecodeGen(settings).compile(views);
+		classes.putAll(new BytecodeGen(settings).compileRegistry(views));
+
+		ClassLoader loader = new MemoryClassLoader(classes);
+		ViewRegistry registry = (ViewRegistry)loader.loadClass(SERVER_PREFIX+'.'+ViewRegistry.GENERATED_NAME).newInstance();
+
+		StringBuilder output = new StringBuilder();
+		registry.create("foo.Two").render(output);
+		assertEquals("two", output.toString());
+	}
+
+	private static void assertSameOutput(String input, String viewName, Object data) throws Exception {
+		assertSameOutput(input, viewName, data, null);
+	}
+
+	/**
+	 * @param optimizer applied only to the BytecodeGen side
+	 */
+	private static void assertSameOutput(String input, String viewName, Object data, CodeOptimizer optimizer) throws Exception {
+		List<VIEWCommandNode> views = parse(input);
+		CodeGenSettings settings = createSettings();
+		String className = SERVER_PREFIX+'.'+viewName;
+
+		String expected = render(new MemoryClassLoader(compileSource(settings, views)), className, data);
+		settings.setOptimizer(optimizer);
+		String actual = render(new MemoryClassLoader(new BytecodeGen(settings).compile(views)), className, data);
+
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * Compares optimized views built both ways against unoptimized views
+	 */
+	private static void assertSameOptimized(String input, String viewName, Object data) throws Exception {
+		List<VIEWCommandNode> views = parse(input);
+		CodeGenSettings settings = createSettings();
+		String className = SERVER_PREFIX+'.'+viewName;
+
+		String expected = render(new MemoryClassLoader(compileSource(settings, views)), className, data);
+		settings.setOptimizer(new CodeOptimizer());
+
+		assertEquals(expected, render(new MemoryClassLoader(new BytecodeGen(settings).compile(views)), className, data));
+		assertEquals(expected, render(new MemoryClassLoader(compileSource(settings, views)), className, data));
+	}
+
+	/**
+	 * Compares inlined views built both ways against views which call each other
+	 */
+	private static void assertSameInlined(String input, String viewName, Object data) throws Exception {
+		List<VIEWCommandNode> views = parse(input);
+		CodeGenSettings settings = createSettings();
+		String className = SERVER_PREFIX+'.'+viewName;
+
+		String expected = render(new MemoryClassLoader(compileSource(settings, views)), className, data);
+		settings.setInlineViews(views);
+		Map<String, byte[]> classes = new BytecodeGen(settings).compile(views);
+
+		// the parts passed to each call are no longer needed
+		for (String name : classes.keySet()) {
+			assertFalse(name, name.startsWith(className+'$'));
+		}
+
+		assertEquals(expected, render(new MemoryClassLoader(classes), className, data));
+		assertEquals(expected, render(new MemoryClassLoader(compileSource(settings, views)), className, data));
+	}
+
+	private static String render(ClassLoader loader, String className, Object data) throws Exception {
+		DuelView view = (DuelView)loader.loadClass(className).newInstance();
+
+		StringBuilder output = new StringBuilder();
+		view.render(output, data);
+		return output.toString();
+	}
+
+	private static List<VIEWCommandNode> parse(String input) throws IOException {
+		return new DuelParser().parse(new DuelLexer(input));
+	}
+
+	private static CodeGenSettings createSettings() {
+		// same as the compiler uses for server-side views
+		CodeGenSettings settings = new CodeGenSettings();
+		settings.setServerNamePrefix(SERVER_PREFIX);
+		settings.setConvertLineEndings(true);
+		settings.setNormalizeWhitespace(false);
+		settings.setPreEncodeLiterals(true);
+		return settings;
+	}
+
+	private static Map<String, Object> map(Object... pairs) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		for (int i=0; i<pairs.length; i+=2) {
+			map.put((String)pairs[i], pairs[i+1]);
+		}
+		return map;
+	}
+
+	/**
+	 * Builds the views via JavaCodeGen and javac
+	 */
+	private static Map<String, byte[]> compileSource(CodeGenSettings settings, List<VIEWCommandNode> views) throws IOException {
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		assumeNotNull(javac);
+
+		List<JavaFileObject> sources = new ArrayList<JavaFileObject>();
+		for (VIEWCommandNode view : views) {
+			StringBuilder source = new StringBuilder();
+			new JavaCodeGen(settings).write(source, view);
+			sources.add(new SourceFile(settings.getServerPath(view.getName(), new JavaCodeGen(settings)), source.toString()));
+		}
+
+		final Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+		StandardJavaFileManager standard = javac.getStandardFileManager(null, null, null);
+		ForwardingJavaFileManager<StandardJavaFileManager> fileManager = new ForwardingJavaFileManager<StandardJavaFileManager>(standard) {
+			@Override
+			public JavaFileObject getJavaFileForOutput(Location location, final String className, JavaFileObject.Kind kind, FileObject sibling) {
+				return new SimpleJavaFileObject(URI.create("mem:///"+className.replace('.', '/')+kind.extension), kind) {
+					@Override
+					public OutputStream openOutputStream() {
+						return new ByteArrayOutputStream() {
+							@Override
+							public void close() {
+								classes.put(className, toByteArray());
+							}
+						};
+					}
+				};
+			}
+		};
+
+		File runtime = new File(DuelView.class.getProtectionDomain().getCodeSource().getLocation().getPath());
+		standard.setLocation(StandardLocation.CLASS_PATH, Collections.singletonList(runtime));
+
+		boolean success = javac.getTask(null, fileManager, null, Arrays.asList("-nowarn", "-source", "8", "-target", "8"), null, sources).call();
+		assertTrue("javac failed", success);
+		return classes;
+	}
+
+	private static class SourceFile extends SimpleJavaFileObject {
+		private final String source;
+
+		SourceFile(String path, String source) {
+			super(URI.create("mem:///"+path), JavaFileObject.Kind.SOURCE);
+			this.source = source;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return source;
+		}
+	}
+
+	private static class MemoryClassLoader extends ClassLoader {
+		private final Map<String, byte[]> classes;
+
+		MemoryClassLoader(Map<String, byte[]> classes) {
+			super(BytecodeGenTest.class.getClassLoader());
+			this.classes = classes;
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			byte[] bytes = classes.get(name);
+			if (bytes == null) {
+				throw new ClassNotFoundException(name);
+			}
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+}
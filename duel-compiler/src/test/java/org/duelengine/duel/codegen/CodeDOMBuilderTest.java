@@ -2126,7 +2126,7 @@ public class CodeDOMBuilderTest {
 					new CodeMethodInvokeExpression(
 						Void.class,
 						new CodeThisReferenceExpression(),
-						"write",
+						"htmlEncode",
 						new CodeVariableReferenceExpression(DuelContext.class, "context"),
 						new CodeBinaryOperatorExpression(
 							CodeBinaryOperatorType.ADD,
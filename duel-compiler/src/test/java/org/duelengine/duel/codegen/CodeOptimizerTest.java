@@ -0,0 +1,494 @@
+package org.duelengine.duel.codegen;
+
+import static org.junit.Assert.*;
+
+import org.duelengine.duel.DuelContext;
+import org.duelengine.duel.DuelData;
+import org.duelengine.duel.DuelView;
+import org.duelengine.duel.codedom.*;
+import org.junit.Test;
+
+public class CodeOptimizerTest {
+
+	@Test
+	public void foldArithmeticTest() {
+		CodeTypeDeclaration input = view(
+			write(new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.DIVIDE,
+				new CodePrimitiveExpression(7),
+				new CodePrimitiveExpression(2))),
+			write(new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.MULTIPLY,
+				new CodeUnaryOperatorExpression(CodeUnaryOperatorType.NEGATION, new CodePrimitiveExpression(1.5)),
+				new CodePrimitiveExpression(2))));
+
+		CodeTypeDeclaration expected = view(
+			// integer division matches the generated Java
+			write(new CodePrimitiveExpression(3)),
+			write(new CodePrimitiveExpression(-3.0)));
+
+		new ConstantFolder().optimize(input);
+		assertEquals(expected, input);
+	}
+
+	@Test
+	public void foldStringConcatTest() {
+		CodeTypeDeclaration input = view(
+			write(new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.ADD,
+				new CodeBinaryOperatorExpression(
+					CodeBinaryOperatorType.ADD,
+					new CodePrimitiveExpression("a"),
+					new CodePrimitiveExpression(1)),
+				new CodeTernaryOperatorExpression(
+					new CodePrimitiveExpression(true),
+					new CodePrimitiveExpression("x"),
+					new CodePrimitiveExpression("y")))));
+
+		CodeTypeDeclaration expected = view(
+			write(new CodePrimitiveExpression("a1x")));
+
+		new ConstantFolder().optimize(input);
+		assertEquals(expected, input);
+	}
+
+	@Test
+	public void foldCoercionTest() {
+		CodeTypeDeclaration input = view(
+			new CodeConditionStatement(
+				new CodeMethodInvokeExpression(
+					boolean.class,
+					new CodeTypeReferenceExpression(DuelData.class),
+					"coerceBoolean",
+					new CodeUnaryOperatorExpression(CodeUnaryOperatorType.LOGICAL_NEGATION, new CodePrimitiveExpression(""))),
+				write(new CodePrimitiveExpression("yes"))));
+
+		CodeTypeDeclaration expected = view(
+			new CodeConditionStatement(
+				new CodePrimitiveExpression(true),
+				write(new CodePrimitiveExpression("yes"))));
+
+		new ConstantFolder().optimize(input);
+		assertEquals(expected, input);
+	}
+
+	@Test
+	public void foldLeavesRuntimeCasesTest() {
+		CodeTypeDeclaration input = view(
+			// integer division by zero throws
+			write(new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.DIVIDE,
+				new CodePrimitiveExpression(1),
+				new CodePrimitiveExpression(0))),
+			// infinity does not round-trip
+			write(new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.DIVIDE,
+				new CodePrimitiveExpression(-1.0),
+				new CodePrimitiveExpression(0.0))),
+			write(new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.ADD,
+				new CodeVariableReferenceExpression(int.class, "index"),
+				new CodePrimitiveExpression(1))));
+
+		CodeTypeDeclaration expected = view(
+			write(new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.DIVIDE,
+				new CodePrimitiveExpression(1),
+				new CodePrimitiveExpression(0))),
+			write(new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.DIVIDE,
+				new CodePrimitiveExpression(-1.0),
+				new CodePrimitiveExpression(0.0))),
+			write(new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.ADD,
+				new CodeVariableReferenceExpression(int.class, "index"),
+				new CodePrimitiveExpression(1))));
+
+		new ConstantFolder().optimize(input);
+		assertEquals(expected, input);
+	}
+
+	@Test
+	public void deadBranchTest() {
+		CodeTypeDeclaration input = view(
+			write(new CodePrimitiveExpression("a")),
+			new CodeConditionStatement(
+				new CodePrimitiveExpression(0),
+				new CodeStatement[] {
+					new CodeMethodInvokeExpression(
+						Void.class,
+						new CodeThisReferenceExpression(),
+						"render_1",
+						new CodeVariableReferenceExpression(DuelContext.class, "context"),
+						new CodeVariableReferenceExpression(Object.class, "data"),
+						new CodePrimitiveExpression(0),
+						new CodePrimitiveExpression(1),
+						CodePrimitiveExpression.NULL).asStatement()
+				},
+				new CodeStatement[] {
+					write(new CodePrimitiveExpression("b"))
+				}),
+			write(new CodePrimitiveExpression("c")));
+		input.add(renderMethod("render_1", write(new CodePrimitiveExpression("unused"))));
+
+		CodeTypeDeclaration expected = view(
+			write(new CodePrimitiveExpression("a")),
+			write(new CodePrimitiveExpression("b")),
+			write(new CodePrimitiveExpression("c")));
+
+		new DeadBranchEliminator().optimize(input);
+		assertEquals(expected, input);
+	}
+
+	@Test
+	public void deadBranchKeepsRuntimeTestTest() {
+		CodeTypeDeclaration input = view(
+			new CodeConditionStatement(
+				new CodeVariableReferenceExpression(Object.class, "data"),
+				write(new CodePrimitiveExpression("a"))));
+
+		CodeTypeDeclaration expected = view(
+			new CodeConditionStatement(
+				new CodeVariableReferenceExpression(Object.class, "data"),
+				write(new CodePrimitiveExpression("a"))));
+
+		new DeadBranchEliminator().optimize(input);
+		assertEquals(expected, input);
+	}
+
+	@Test
+	public void mergeLiteralWritesTest() {
+		CodeTypeDeclaration input = view(
+			write(new CodePrimitiveExpression("<p>")),
+			new CodeCommentStatement("comment"),
+			write(new CodePrimitiveExpression(42)),
+			write(new CodePrimitiveExpression(' ')),
+			write(new CodePrimitiveExpression("")),
+			write(new CodePrimitiveExpression(true)),
+			write(new CodeVariableReferenceExpression(int.class, "index")),
+			write(new CodePrimitiveExpression("</p>")));
+
+		CodeTypeDeclaration expected = view(
+			write(new CodePrimitiveExpression("<p>42 true")),
+			new CodeCommentStatement("comment"),
+			write(new CodeVariableReferenceExpression(int.class, "index")),
+			write(new CodePrimitiveExpression("</p>")));
+
+		new LiteralWriteMerger().optimize(input);
+		assertEquals(expected, input);
+	}
+
+	@Test
+	public void mergeLiteralWritesNestedTest() {
+		CodeTypeDeclaration input = view(
+			new CodeConditionStatement(
+				new CodeVariableReferenceExpression(Object.class, "data"),
+				write(new CodePrimitiveExpression("a")),
+				write(new CodePrimitiveExpression("b"))));
+
+		CodeTypeDeclaration expected = view(
+			new CodeConditionStatement(
+				new CodeVariableReferenceExpression(Object.class, "data"),
+				write(new CodePrimitiveExpression("ab"))));
+
+		new LiteralWriteMerger().optimize(input);
+		assertEquals(expected, input);
+	}
+
+	@Test
+	public void hoistPropertyChainTest() {
+		CodeTypeDeclaration input = view(
+			write(property("data", "items", "length")),
+			write(property("data", "items", "length")),
+			write(property("data", "items")),
+			write(property("data", "name")));
+
+		CodeTypeDeclaration expected = view(
+			new CodeVariableDeclarationStatement(Object.class, "prop_1", property("data", "items")),
+			new CodeVariableDeclarationStatement(Object.class, "prop_2", new CodePropertyReferenceExpression(
+				new CodeVariableReferenceExpression(Object.class, "prop_1"),
+				new CodePrimitiveExpression("length"))),
+			write(new CodeVariableReferenceExpression(Object.class, "prop_2")),
+			write(new CodeVariableReferenceExpression(Object.class, "prop_2")),
+			write(new CodeVariableReferenceExpression(Object.class, "prop_1")),
+			write(property("data", "name")));
+
+		new PropertyChainHoister().optimize(input);
+		assertEquals(expected, input);
+	}
+
+	@Test
+	public void hoistSkipsAssignedDataTest() {
+		CodeTypeDeclaration input = view(
+			write(property("data", "a")),
+			new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.ASSIGN,
+				property("data", "a"),
+				new CodePrimitiveExpression(1)).asStatement(),
+			write(property("data", "a")));
+
+		CodeTypeDeclaration expected = view(
+			write(property("data", "a")),
+			new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.ASSIGN,
+				property("data", "a"),
+				new CodePrimitiveExpression(1)).asStatement(),
+			write(property("data", "a")));
+
+		new PropertyChainHoister().optimize(input);
+		assertEquals(expected, input);
+	}
+
+	@Test
+	public void splitMethodTest() {
+		int length = 400;
+		CodeStatement[] statements = new CodeStatement[length+1];
+		statements[0] = new CodeVariableDeclarationStatement(Object.class, "x_1", property("data", "x"));
+		for (int i=1; i<=length; i++) {
+			statements[i] = write((i == length) ?
+				new CodeVariableReferenceExpression(Object.class, "x_1") :
+				property("data", "a"+i));
+		}
+		CodeTypeDeclaration input = view(statements);
+
+		new MethodSplitter().optimize(input);
+
+		CodeMethod render = (CodeMethod)input.getMembers().get(2);
+		assertTrue(MethodSplitter.estimate(render.getStatements()) <= MethodSplitter.MAX_METHOD_SIZE);
+		assertEquals(statements[0], render.getStatements().get(0));
+
+		// each helper follows in order and together they hold every write
+		CodeStatementCollection moved = new CodeStatementCollection(null);
+		for (int i=1; i<render.getStatements().size(); i++) {
+			CodeMethodInvokeExpression call = (CodeMethodInvokeExpression)((CodeExpressionStatement)render.getStatements().get(i)).getExpression();
+			CodeMethod helper = (CodeMethod)input.getMembers().get(i+2);
+			assertEquals(helper.getName(), call.getMethodName());
+			assertEquals(AccessModifierType.PRIVATE, helper.getAccess());
+			assertEquals(helper.getParameters().size(), call.getArguments().size());
+			assertTrue(MethodSplitter.estimate(helper.getStatements()) <= MethodSplitter.CHUNK_SIZE);
+			moved.addAll(helper.getStatements());
+		}
+		assertTrue(render.getStatements().size() > 2);
+		assertEquals(length, moved.size());
+		for (int i=1; i<=length; i++) {
+			assertEquals(statements[i], moved.get(i-1));
+		}
+
+		// only the last helper reads the local
+		CodeMethod last = (CodeMethod)input.getMembers().get(render.getStatements().size()+1);
+		assertEquals(6, last.getParameters().size());
+		assertEquals("x_1", last.getParameters().get(5).getName());
+		assertEquals(5, ((CodeMethod)input.getMembers().get(3)).getParameters().size());
+	}
+
+	@Test
+	public void splitKeepsLoopCounterTest() {
+		int length = 400;
+		CodeStatement[] statements = new CodeStatement[length+1];
+		statements[0] = new CodeVariableDeclarationStatement(int.class, "i_1", new CodePrimitiveExpression(0));
+		for (int i=1; i<length; i++) {
+			statements[i] = write(property("data", "a"+i));
+		}
+		// assigned after other statements so it cannot be passed in by value
+		statements[length] = new CodeUnaryOperatorExpression(
+			CodeUnaryOperatorType.POST_INCREMENT,
+			new CodeVariableReferenceExpression(int.class, "i_1")).asStatement();
+		CodeTypeDeclaration input = view(statements);
+		CodeTypeDeclaration expected = view(statements);
+
+		new MethodSplitter().optimize(input);
+		assertEquals(expected, input);
+	}
+
+	@Test
+	public void splitLongLiteralTest() {
+		StringBuilder literal = new StringBuilder();
+		while (literal.length() <= 2*MethodSplitter.MAX_LITERAL_LENGTH) {
+			literal.append("<p>\u00e9</p>");
+		}
+		CodeTypeDeclaration input = view(
+			write(new CodePrimitiveExpression(literal.toString())));
+
+		CodeTypeDeclaration expected = view(
+			write(new CodePrimitiveExpression(literal.substring(0, MethodSplitter.MAX_LITERAL_LENGTH))),
+			write(new CodePrimitiveExpression(literal.substring(MethodSplitter.MAX_LITERAL_LENGTH, 2*MethodSplitter.MAX_LITERAL_LENGTH))),
+			write(new CodePrimitiveExpression(literal.substring(2*MethodSplitter.MAX_LITERAL_LENGTH))));
+
+		new MethodSplitter().optimize(input);
+		assertEquals(expected, input);
+	}
+
+	@Test
+	public void inferLocalTypesTest() {
+		CodeTypeDeclaration input = view(
+			new CodeVariableDeclarationStatement(Object.class, "i", new CodePrimitiveExpression(0)),
+			new CodeExpressionStatement(new CodeUnaryOperatorExpression(
+				CodeUnaryOperatorType.POST_INCREMENT,
+				new CodeVariableReferenceExpression(Object.class, "i"))),
+			new CodeVariableDeclarationStatement(Object.class, "s", new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.ADD,
+				new CodePrimitiveExpression("n"),
+				new CodeVariableReferenceExpression(Object.class, "i"))),
+			// an untyped local concatenates here
+			new CodeVariableDeclarationStatement(Object.class, "x", new CodePrimitiveExpression(0)),
+			write(new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.ADD,
+				new CodeVariableReferenceExpression(Object.class, "x"),
+				new CodePrimitiveExpression(1))));
+
+		// an unbounded increment may pass int.MAX_VALUE
+		CodeTypeDeclaration expected = view(
+			new CodeVariableDeclarationStatement(double.class, "i", new CodePrimitiveExpression(0)),
+			new CodeExpressionStatement(new CodeUnaryOperatorExpression(
+				CodeUnaryOperatorType.POST_INCREMENT,
+				new CodeVariableReferenceExpression(double.class, "i"))),
+			new CodeVariableDeclarationStatement(String.class, "s", new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.ADD,
+				new CodePrimitiveExpression("n"),
+				new CodeVariableReferenceExpression(double.class, "i"))),
+			new CodeVariableDeclarationStatement(Object.class, "x", new CodePrimitiveExpression(0)),
+			write(new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.ADD,
+				new CodeVariableReferenceExpression(Object.class, "x"),
+				new CodePrimitiveExpression(1))));
+
+		new TypeInferrer().optimize(input);
+		assertEquals(expected, input);
+	}
+
+	@Test
+	public void inferBoundedCounterTest() {
+		CodeTypeDeclaration input = view(
+			new CodeIterationStatement(
+				new CodeVariableDeclarationStatement(Object.class, "i", new CodePrimitiveExpression(0)),
+				new CodeBinaryOperatorExpression(
+					CodeBinaryOperatorType.LESS_THAN,
+					new CodeVariableReferenceExpression(Object.class, "i"),
+					new CodeVariableReferenceExpression(int.class, "count")),
+				new CodeExpressionStatement(new CodeUnaryOperatorExpression(
+					CodeUnaryOperatorType.POST_INCREMENT,
+					new CodeVariableReferenceExpression(Object.class, "i")))),
+			new CodeVariableDeclarationStatement(Object.class, "x", new CodePrimitiveExpression(5)),
+			new CodeVariableDeclarationStatement(Object.class, "y", new CodePrimitiveExpression(0)),
+			new CodeVariableDeclarationStatement(Object.class, "z", new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.MODULUS,
+				new CodeVariableReferenceExpression(Object.class, "x"),
+				new CodeVariableReferenceExpression(Object.class, "y"))));
+
+		// only the counter is bounded, x % 0 must be NaN rather than throw
+		CodeTypeDeclaration expected = view(
+			new CodeIterationStatement(
+				new CodeVariableDeclarationStatement(int.class, "i", new CodePrimitiveExpression(0)),
+				new CodeBinaryOperatorExpression(
+					CodeBinaryOperatorType.LESS_THAN,
+					new CodeVariableReferenceExpression(int.class, "i"),
+					new CodeVariableReferenceExpression(int.class, "count")),
+				new CodeExpressionStatement(new CodeUnaryOperatorExpression(
+					CodeUnaryOperatorType.POST_INCREMENT,
+					new CodeVariableReferenceExpression(int.class, "i")))),
+			new CodeVariableDeclarationStatement(double.class, "x", new CodePrimitiveExpression(5)),
+			new CodeVariableDeclarationStatement(double.class, "y", new CodePrimitiveExpression(0)),
+			new CodeVariableDeclarationStatement(double.class, "z", new CodeBinaryOperatorExpression(
+				CodeBinaryOperatorType.MODULUS,
+				new CodeVariableReferenceExpression(double.class, "x"),
+				new CodeVariableReferenceExpression(double.class, "y"))));
+
+		new TypeInferrer().optimize(input);
+		assertEquals(expected, input);
+	}
+
+	@Test
+	public void partSlotsTest() {
+		CodeTypeDeclaration input = view(
+			new CodeExpressionStatement(renderPart("head")),
+			new CodeExpressionStatement(renderPart("body")),
+			new CodeExpressionStatement(renderPart("head")));
+
+		CodeTypeDeclaration expected = view(
+			new CodeExpressionStatement(renderPart(0)),
+			new CodeExpressionStatement(renderPart(1)),
+			new CodeExpressionStatement(renderPart(0)));
+		expected.add(new CodeMethod(
+			AccessModifierType.PROTECTED,
+			String[].class,
+			"getPartNames",
+			null,
+			new CodeMethodReturnStatement(
+				new CodeMethodInvokeExpression(
+					String[].class,
+					new CodeTypeReferenceExpression(DuelView.class),
+					"partNames",
+					new CodePrimitiveExpression("head"),
+					new CodePrimitiveExpression("body")))).withOverride());
+
+		new PartSlotAssigner().optimize(input);
+		assertEquals(expected, input);
+	}
+
+	@Test
+	public void pipelineTest() {
+		CodeTypeDeclaration input = view(
+			write(new CodePrimitiveExpression("<b>")),
+			new CodeConditionStatement(
+				new CodeBinaryOperatorExpression(
+					CodeBinaryOperatorType.GREATER_THAN,
+					new CodePrimitiveExpression(3),
+					new CodePrimitiveExpression(2)),
+				write(new CodePrimitiveExpression("yes"))),
+			write(new CodePrimitiveExpression("</b>")));
+
+		CodeTypeDeclaration expected = view(
+			write(new CodePrimitiveExpression("<b>yes</b>")));
+
+		new CodeOptimizer().optimize(input);
+		assertEquals(expected, input);
+	}
+
+	private static CodeTypeDeclaration view(CodeStatement... statements) {
+		CodeMethod render = renderMethod("render", statements);
+		render.setAccess(AccessModifierType.PROTECTED);
+		render.setOverride(true);
+
+		return CodeDOMUtility.createViewType("foo", "Test", render);
+	}
+
+	private static CodeMethod renderMethod(String name, CodeStatement... statements) {
+		return new CodeMethod(
+			AccessModifierType.PRIVATE,
+			Void.class,
+			name,
+			new CodeParameterDeclarationExpression[] {
+				new CodeParameterDeclarationExpression(DuelContext.class, "context"),
+				new CodeParameterDeclarationExpression(Object.class, "data"),
+				new CodeParameterDeclarationExpression(int.class, "index"),
+				new CodeParameterDeclarationExpression(int.class, "count"),
+				new CodeParameterDeclarationExpression(String.class, "key")
+			},
+			statements);
+	}
+
+	private static CodeStatement write(CodeExpression expression) {
+		return CodeDOMUtility.emitExpression(expression);
+	}
+
+	private static CodeExpression renderPart(Object part) {
+		return new CodeMethodInvokeExpression(
+			Void.class,
+			new CodeThisReferenceExpression(),
+			"renderPart",
+			new CodeVariableReferenceExpression(DuelContext.class, "context"),
+			new CodePrimitiveExpression(part),
+			new CodeVariableReferenceExpression(Object.class, "data"),
+			new CodeVariableReferenceExpression(int.class, "index"),
+			new CodeVariableReferenceExpression(int.class, "count"),
+			new CodeVariableReferenceExpression(String.class, "key"));
+	}
+
+	private static CodeExpression property(String ident, String... names) {
+		CodeExpression expression = new CodeVariableReferenceExpression(Object.class, ident);
+		for (String name : names) {
+			expression = new CodePropertyReferenceExpression(expression, new CodePrimitiveExpression(name));
+		}
+		return expression;
+	}
+}
@@ -6,7 +6,9 @@ import java.io.IOException;
 import java.util.*;
 
 import org.duelengine.duel.*;
+import org.duelengine.duel.ast.*;
 import org.duelengine.duel.codedom.*;
+import org.duelengine.duel.parsing.InvalidNodeException;
 import org.junit.Test;
 
 public class JavaCodeGenTest {
@@ -823,7 +825,7 @@ public class JavaCodeGenTest {
 			"\t}\n\n"+
 			"\t@Override\n"+
 			"\tprotected void render(DuelContext context, Object data, int index, int count, String key) throws IOException {\n"+
-			"\t\tthis.write(context, this.echo(DuelData.coerceNumber(data), (data = (DuelData.coerceNumber(data) + 1))));\n"+
+			"\t\tthis.write(context, this.echo(DuelData.coerceNumber(data), DuelData.coerceNumber(data = (DuelData.coerceNumber(data) + 1))));\n"+
 			"\t}\n"+
 			"}\n";
 
@@ -1795,4 +1797,251 @@ public class JavaCodeGenTest {
 
 		assertEquals(expected, actual);
 	}
+
+	public static class Owner {
+		public String getName() {
+			return "owner";
+		}
+	}
+
+	public static class Product {
+		public String getName() {
+			return "product";
+		}
+
+		public int getPrice() {
+			return 42;
+		}
+
+		public boolean isOnSale() {
+			return true;
+		}
+
+		public Owner getOwner() {
+			return new Owner();
+		}
+	}
+
+	@Test
+	public void modelPropertyTest() throws IOException {
+
+		VIEWCommandNode input = new VIEWCommandNode(
+			new AttributePair[] {
+				new AttributePair("name", new LiteralNode("foo")),
+				new AttributePair("model", new LiteralNode("org.duelengine.duel.codegen.JavaCodeGenTest.Product"))
+			},
+			new ExpressionNode("data.price * 2"),
+			new ExpressionNode("data.onSale ? data.name : data.owner.name"),
+			new ExpressionNode("data.name.length"),
+			new ExpressionNode("data.missing"));
+
+		String expected =
+			"import java.io.*;\n"+
+			"import org.duelengine.duel.*;\n"+
+			"\n"+
+			"public class foo extends DuelView {\n"+
+			"\n"+
+			"\tpublic foo() {\n"+
+			"\t}\n"+
+			"\n"+
+			"\tpublic foo(DuelPart... parts) {\n"+
+			"\t\tsuper(parts);\n"+
+			"\t}\n"+
+			"\n"+
+			"\t@Override\n"+
+			"\tprotected void render(DuelContext context, Object data, int index, int count, String key) throws IOException {\n"+
+			"\t\tthis.write(context, (this.model_3(data) * 2));\n"+
+			"\t\tthis.htmlEncode(context, (this.model_5(data) ? this.model_6(data) : this.model_7(data)));\n"+
+			"\t\tthis.htmlEncode(context, this.getProperty(this.model_6(data), \"length\"));\n"+
+			"\t\tthis.htmlEncode(context, this.getProperty(data, \"missing\"));\n"+
+			"\t}\n"+
+			"\n"+
+			"\tprivate double model_3(Object data) {\n"+
+			"\t\torg.duelengine.duel.codegen.JavaCodeGenTest.Product model = this.asModel(data, org.duelengine.duel.codegen.JavaCodeGenTest.Product.class);\n"+
+			"\t\tif (model == null) {\n"+
+			"\t\t\treturn DuelData.coerceNumber(this.getProperty(data, \"price\"));\n"+
+			"\t\t}\n"+
+			"\t\treturn model.getPrice();\n"+
+			"\t}\n"+
+			"\n"+
+			"\tprivate boolean model_5(Object data) {\n"+
+			"\t\torg.duelengine.duel.codegen.JavaCodeGenTest.Product model = this.asModel(data, org.duelengine.duel.codegen.JavaCodeGenTest.Product.class);\n"+
+			"\t\tif (model == null) {\n"+
+			"\t\t\treturn DuelData.coerceBoolean(this.getProperty(data, \"onSale\"));\n"+
+			"\t\t}\n"+
+			"\t\treturn model.isOnSale();\n"+
+			"\t}\n"+
+			"\n"+
+			"\tprivate Object model_6(Object data) {\n"+
+			"\t\torg.duelengine.duel.codegen.JavaCodeGenTest.Product model = this.asModel(data, org.duelengine.duel.codegen.JavaCodeGenTest.Product.class);\n"+
+			"\t\tif (model == null) {\n"+
+			"\t\t\treturn this.getProperty(data, \"name\");\n"+
+			"\t\t}\n"+
+			"\t\treturn model.getName();\n"+
+			"\t}\n"+
+			"\n"+
+			"\tprivate Object model_7(Object data) {\n"+
+			"\t\torg.duelengine.duel.codegen.JavaCodeGenTest.Product model = this.asModel(data, org.duelengine.duel.codegen.JavaCodeGenTest.Product.class);\n"+
+			"\t\tif (model == null) {\n"+
+			"\t\t\treturn this.getProperty(this.getProperty(data, \"owner\"), \"name\");\n"+
+			"\t\t}\n"+
+			"\t\torg.duelengine.duel.codegen.JavaCodeGenTest.Owner val_1 = model.getOwner();\n"+
+			"\t\tif (val_1 == null) {\n"+
+			"\t\t\treturn JSUtility.UNDEFINED;\n"+
+			"\t\t}\n"+
+			"\t\treturn val_1.getName();\n"+
+			"\t}\n"+
+			"}\n";
+
+		StringBuilder output = new StringBuilder();
+		new JavaCodeGen().write(output, input);
+		String actual = output.toString();
+
+		assertEquals(expected, actual);
+	}
+
+	@Test(expected=InvalidNodeException.class)
+	public void modelMissingTest() throws IOException {
+
+		VIEWCommandNode input = new VIEWCommandNode(
+			new AttributePair[] {
+				new AttributePair("name", new LiteralNode("foo")),
+				new AttributePair("model", new LiteralNode("org.duelengine.duel.codegen.JavaCodeGenTest.Missing"))
+			},
+			new ExpressionNode("data.name"));
+
+		new JavaCodeGen().write(new StringBuilder(), input);
+	}
+
+	@Test
+	public void registryTest() throws IOException {
+
+		List<VIEWCommandNode> input = Arrays.asList(
+			new VIEWCommandNode(
+				new AttributePair[] {
+					new AttributePair("name", new LiteralNode("Foo"))
+				}),
+			new VIEWCommandNode(
+				new AttributePair[] {
+					new AttributePair("name", new LiteralNode("bar.Baz"))
+				}),
+			new VIEWCommandNode(
+				new AttributePair[] {
+					new AttributePair("name", new LiteralNode("ClientOnly")),
+					new AttributePair("client-only", null)
+				}));
+
+		String expected =
+			"package com.example;\n\n"+
+			"import java.io.*;\n"+
+			"import org.duelengine.duel.*;\n\n"+
+			"public class DuelViewRegistry extends ViewRegistry {\n\n"+
+			"\tpublic DuelViewRegistry() {\n"+
+			"\t\tthis.register(\"Foo\", com.example.Foo::new);\n"+
+			"\t\tthis.register(\"bar.Baz\", com.example.bar.Baz::new);\n"+
+			"\t}\n"+
+			"}\n";
+
+		CodeGenSettings settings = new CodeGenSettings();
+		settings.setServerNamePrefix("com.example");
+
+		StringBuilder output = new StringBuilder();
+		new JavaCodeGen(settings).writeRegistry(output, input);
+		String actual = output.toString();
+
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void preEncodeLiteralsTest() throws IOException {
+
+		VIEWCommandNode input = new VIEWCommandNode(
+			new AttributePair[] {
+				new AttributePair("name", new LiteralNode("foo"))
+			},
+			new LiteralNode("A literal which is long enough to encode"),
+			new ExpressionNode("data"),
+			new LiteralNode("short"),
+			new ExpressionNode("data"),
+			new LiteralNode("A literal which is long enough to encode"));
+
+		String expected =
+			"import java.io.*;\n"+
+			"import org.duelengine.duel.*;\n\n"+
+			"public class foo extends DuelView {\n\n"+
+			"\tprivate static final byte[] lit_4 = DuelView.encodeUTF8(\"A literal which is long enough to encode\");\n\n"+
+			"\tpublic foo() {\n"+
+			"\t}\n\n"+
+			"\tpublic foo(DuelPart... parts) {\n"+
+			"\t\tsuper(parts);\n"+
+			"\t}\n\n"+
+			"\t@Override\n"+
+			"\tprotected void render(DuelContext context, Object data, int index, int count, String key) throws IOException {\n"+
+			"\t\tthis.write(context, \"A literal which is long enough to encode\", lit_4);\n"+
+			"\t\tthis.htmlEncode(context, data);\n"+
+			"\t\tthis.write(context, \"short\");\n"+
+			"\t\tthis.htmlEncode(context, data);\n"+
+			"\t\tthis.write(context, \"A literal which is long enough to encode\", lit_4);\n"+
+			"\t}\n"+
+			"}\n";
+
+		CodeGenSettings settings = new CodeGenSettings();
+		settings.setPreEncodeLiterals(true);
+
+		StringBuilder output = new StringBuilder();
+		new JavaCodeGen(settings).write(output, input);
+		String actual = output.toString();
+
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void fragmentCacheTest() throws IOException {
+
+		ElementNode menu = new ElementNode("ul", null,
+			new ElementNode("li", null,
+				new ExpressionNode("data.name")));
+		menu.setCacheKey(new ExpressionNode("data.id"));
+		menu.setCacheTTL(new LiteralNode("60"));
+
+		VIEWCommandNode input = new VIEWCommandNode(
+			new AttributePair[] {
+				new AttributePair("name", new LiteralNode("foo"))
+			},
+			new ElementNode("nav", null, menu));
+
+		String expected =
+			"import java.io.*;\n"+
+			"import org.duelengine.duel.*;\n"+
+			"\n"+
+			"public class foo extends DuelView {\n"+
+			"\n"+
+			"\tpublic foo() {\n"+
+			"\t}\n"+
+			"\n"+
+			"\tpublic foo(DuelPart... parts) {\n"+
+			"\t\tsuper(parts);\n"+
+			"\t}\n"+
+			"\n"+
+			"\t@Override\n"+
+			"\tprotected void render(DuelContext context, Object data, int index, int count, String key) throws IOException {\n"+
+			"\t\tthis.write(context, \"<nav>\");\n"+
+			"\t\tString frag_3 = this.fragmentKey(context, \"foo#1\", this.getProperty(data, \"id\"));\n"+
+			"\t\tif (!this.writeFragment(context, frag_3)) {\n"+
+			"\t\t\tthis.beginFragment(context, frag_3);\n"+
+			"\t\t\tthis.write(context, \"<ul><li>\");\n"+
+			"\t\t\tthis.htmlEncode(context, this.getProperty(data, \"name\"));\n"+
+			"\t\t\tthis.write(context, \"</li></ul>\");\n"+
+			"\t\t\tthis.endFragment(context, frag_3, 60.0);\n"+
+			"\t\t}\n"+
+			"\t\tthis.write(context, \"</nav>\");\n"+
+			"\t}\n"+
+			"}\n";
+
+		StringBuilder output = new StringBuilder();
+		new JavaCodeGen().write(output, input);
+		String actual = output.toString();
+
+		assertEquals(expected, actual);
+	}
 }
@@ -0,0 +1,230 @@
+package org.duelengine.duel.compiler;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompileStampTest {
+
+	private static final long OLD_TIME = 1000000000000L;
+	private static final String BROKEN = "<for each=\"<%= ) %>\">x</for>";
+
+	public static class Model {
+		public String getName() {
+			return "model";
+		}
+	}
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File inputDir;
+	private File clientDir;
+	private File serverDir;
+
+	@Before
+	public void setUp() throws IOException {
+		inputDir = folder.newFolder("views");
+		clientDir = folder.newFolder("client");
+		serverDir = folder.newFolder("server");
+	}
+
+	@Test
+	public void unchangedTemplateSkippedTest() throws IOException {
+		writeTemplate("a.duel", "foo.A", "A");
+		writeTemplate("b.duel", "foo.B", "B");
+		compile("bar");
+		age(clientFile("bar", "a"), serverFile("A"), clientFile("bar", "b"), serverFile("B"));
+
+		compile("bar");
+
+		assertEquals(OLD_TIME, clientFile("bar", "a").lastModified());
+		assertEquals(OLD_TIME, serverFile("A").lastModified());
+		assertEquals(OLD_TIME, clientFile("bar", "b").lastModified());
+		assertEquals(OLD_TIME, serverFile("B").lastModified());
+	}
+
+	@Test
+	public void changedTemplateRebuiltTest() throws IOException {
+		writeTemplate("a.duel", "foo.A", "A");
+		writeTemplate("b.duel", "foo.B", "B");
+		compile("bar");
+		age(clientFile("bar", "a"), serverFile("A"), clientFile("bar", "b"), serverFile("B"));
+
+		writeTemplate("a.duel", "foo.A", "Changed");
+		compile("bar");
+
+		assertNotEquals(OLD_TIME, clientFile("bar", "a").lastModified());
+		assertNotEquals(OLD_TIME, serverFile("A").lastModified());
+		assertTrue(read(serverFile("A")).contains("Changed"));
+		assertEquals(OLD_TIME, clientFile("bar", "b").lastModified());
+		assertEquals(OLD_TIME, serverFile("B").lastModified());
+	}
+
+	@Test
+	public void settingsChangeRebuildsAllTest() throws IOException {
+		writeTemplate("a.duel", "foo.A", "A");
+		writeTemplate("b.duel", "foo.B", "B");
+		compile("bar");
+		age(clientFile("bar", "a"), serverFile("A"), clientFile("bar", "b"), serverFile("B"));
+
+		compile("baz");
+
+		assertNotEquals(OLD_TIME, serverFile("A").lastModified());
+		assertNotEquals(OLD_TIME, serverFile("B").lastModified());
+		assertTrue(read(clientFile("baz", "a")).contains("baz"));
+		assertTrue(clientFile("baz", "b").isFile());
+
+		// outputs under the old prefix are no longer generated
+		assertFalse(clientFile("bar", "a").exists());
+		assertFalse(clientFile("bar", "b").exists());
+	}
+
+	@Test
+	public void deletedTemplateOutputsRemovedTest() throws IOException {
+		writeTemplate("a.duel", "foo.A", "A");
+		writeTemplate("b.duel", "foo.B", "B");
+		compile("bar");
+		assertTrue(clientFile("bar", "b").isFile());
+		assertTrue(serverFile("B").isFile());
+
+		assertTrue(new File(inputDir, "b.duel").delete());
+		compile("bar");
+
+		assertFalse(clientFile("bar", "b").exists());
+		assertFalse(serverFile("B").exists());
+		assertTrue(clientFile("bar", "a").isFile());
+		assertTrue(serverFile("A").isFile());
+	}
+
+	@Test
+	public void failedTemplateKeepsViewsTest() throws IOException {
+		writeTemplate("a.duel", "foo.A", "A");
+		writeTemplate("b.duel", "foo.B", "B");
+		compile("bar");
+
+		writeTemplate("a.duel", "foo.A", BROKEN);
+		compile("bar");
+
+		// last good output is still registered alongside the rest
+		assertTrue(serverFile("A").isFile());
+		String registry = read(registryFile());
+		assertTrue(registry.contains("\"foo.A\""));
+		assertTrue(registry.contains("\"foo.B\""));
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void failedNewTemplateFailsBuildTest() throws IOException {
+		writeTemplate("a.duel", "foo.A", "A");
+		writeTemplate("b.duel", "foo.B", BROKEN);
+		compile("bar");
+	}
+
+	@Test
+	public void changedModelRebuiltTest() throws IOException {
+		// load the model from a copy of its class file which the test can change
+		File classesDir = folder.newFolder("classes");
+		File classFile = copyClass(Model.class, classesDir);
+		copyClass(CompileStampTest.class, classesDir);
+
+		Thread thread = Thread.currentThread();
+		ClassLoader original = thread.getContextClassLoader();
+		URLClassLoader loader = new URLClassLoader(new URL[] { classesDir.toURI().toURL() }, null);
+		thread.setContextClassLoader(loader);
+		try {
+			String modelName = CompileStampTest.class.getName()+".Model";
+			writeTemplate("a.duel", "foo.A", "<%= data.name %>", modelName);
+			writeTemplate("b.duel", "foo.B", "B");
+			compile("bar");
+			assertTrue(read(serverFile("A")).contains("getName()"));
+			age(serverFile("A"), serverFile("B"));
+
+			String hash = CompileStamp.hashModels(Collections.singletonList(modelName));
+			assertEquals(hash, CompileStamp.hashModels(Collections.singletonList(modelName)));
+			assertEquals("", CompileStamp.hashModels(Collections.<String>emptyList()));
+
+			// any change to the class file invalidates views bound to it
+			Files.write(classFile.toPath(), new byte[] { 0 }, StandardOpenOption.APPEND);
+			assertNotEquals(hash, CompileStamp.hashModels(Arrays.asList(modelName)));
+			compile("bar");
+
+			assertNotEquals(OLD_TIME, serverFile("A").lastModified());
+			assertEquals(OLD_TIME, serverFile("B").lastModified());
+
+		} finally {
+			thread.setContextClassLoader(original);
+			loader.close();
+		}
+	}
+
+	private void compile(String clientPrefix) throws IOException {
+		DuelCompiler compiler = new DuelCompiler();
+		compiler.setInputDir(inputDir.getPath());
+		compiler.setOutputClientDir(clientDir.getPath());
+		compiler.setOutputServerDir(serverDir.getPath());
+		compiler.setClientPrefix(clientPrefix);
+		compiler.setThreads(1);
+		compiler.setIncremental(true);
+		compiler.execute();
+	}
+
+	private void writeTemplate(String fileName, String viewName, String content) throws IOException {
+		writeTemplate(fileName, viewName, content, null);
+	}
+
+	private void writeTemplate(String fileName, String viewName, String content, String model) throws IOException {
+		String modelAttr = (model != null) ? " model=\""+model+"\"" : "";
+		String template = "<view name=\""+viewName+"\""+modelAttr+"><p>"+content+"</p></view>";
+		Files.write(new File(inputDir, fileName).toPath(), template.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private File clientFile(String prefix, String name) {
+		return new File(clientDir, prefix+"/foo/"+name+".js");
+	}
+
+	private File serverFile(String name) {
+		return new File(serverDir, "foo/"+name+".java");
+	}
+
+	private File registryFile() {
+		return new File(serverDir, "DuelViewRegistry.java");
+	}
+
+	private static void age(File... files) {
+		for (File file : files) {
+			assertTrue(file.getPath(), file.setLastModified(OLD_TIME));
+		}
+	}
+
+	private static File copyClass(Class<?> type, File classesDir) throws IOException {
+		String classPath = type.getName().replace('.', '/')+".class";
+		File classFile = new File(classesDir, classPath);
+		classFile.getParentFile().mkdirs();
+
+		InputStream stream = type.getClassLoader().getResourceAsStream(classPath);
+		try {
+			Files.copy(stream, classFile.toPath());
+		} finally {
+			stream.close();
+		}
+		return classFile;
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+}
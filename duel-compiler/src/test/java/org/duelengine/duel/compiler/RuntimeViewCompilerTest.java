@@ -0,0 +1,55 @@
+package org.duelengine.duel.compiler;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.duelengine.duel.ViewRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RuntimeViewCompilerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void isStaleTest() throws IOException {
+		File template = write("a.duel", "<view name=\"foo.A\"><p>A</p></view>");
+		RuntimeViewCompiler compiler = new RuntimeViewCompiler(folder.getRoot(), "bar");
+
+		// never refreshed
+		assertTrue(compiler.isStale());
+
+		ViewRegistry registry = compiler.refresh();
+		assertNotNull(registry);
+		assertFalse(compiler.isStale());
+		assertSame(registry, compiler.refresh());
+
+		write("a.duel", "<view name=\"foo.A\"><p>Changed</p></view>");
+		assertTrue(template.setLastModified(template.lastModified()+2000L));
+		assertTrue(compiler.isStale());
+
+		ViewRegistry latest = compiler.refresh();
+		assertNotSame(registry, latest);
+		assertFalse(compiler.isStale());
+
+		write("b.duel", "<view name=\"foo.B\"><p>B</p></view>");
+		assertTrue(compiler.isStale());
+		compiler.refresh();
+		assertFalse(compiler.isStale());
+
+		assertTrue(template.delete());
+		assertTrue(compiler.isStale());
+	}
+
+	private File write(String name, String template) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Files.write(file.toPath(), template.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
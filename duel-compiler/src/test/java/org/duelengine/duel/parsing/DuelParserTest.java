@@ -826,6 +826,56 @@ public class DuelParserTest {
 		assertFalse(iterator.hasNext());
 	}
 
+	@Test
+	public void cacheAttrTest() throws Exception {
+
+		ElementNode cached = new ElementNode("div", null,
+			new ElementNode("p", null,
+				new LiteralNode("menu")));
+		cached.setCacheKey(new ExpressionNode(" data.id "));
+		cached.setCacheTTL(new LiteralNode("60"));
+
+		VIEWCommandNode expected = new VIEWCommandNode(
+			new AttributePair[] {
+				new AttributePair("name", new LiteralNode("foo"))
+			},
+			cached);
+
+		Iterable<VIEWCommandNode> actual = new DuelParser().parse(
+			DuelToken.elemBegin("view"),
+			DuelToken.attrName("name"),
+			DuelToken.attrValue("foo"),
+			DuelToken.elemBegin("div"),
+			DuelToken.attrName("cache-key"),
+			DuelToken.attrValue(new BlockValue("<%=", "%>", " data.id ")),
+			DuelToken.attrName("cache-ttl"),
+			DuelToken.attrValue("60"),
+			DuelToken.elemBegin("p"),
+			DuelToken.literal("menu"),
+			DuelToken.elemEnd("p"),
+			DuelToken.elemEnd("div")
+		);
+
+		Iterator<VIEWCommandNode> iterator = actual.iterator();
+		assertTrue(iterator.hasNext());
+		assertEquals(expected, iterator.next());
+		assertFalse(iterator.hasNext());
+	}
+
+	@Test(expected=InvalidNodeException.class)
+	public void cacheAttrMissingKeyTest() throws Exception {
+
+		new DuelParser().parse(
+			DuelToken.elemBegin("view"),
+			DuelToken.attrName("name"),
+			DuelToken.attrValue("foo"),
+			DuelToken.elemBegin("div"),
+			DuelToken.attrName("cache-ttl"),
+			DuelToken.attrValue("60"),
+			DuelToken.elemEnd("div")
+		);
+	}
+
 	@Test
 	public void callTest() throws Exception {
 
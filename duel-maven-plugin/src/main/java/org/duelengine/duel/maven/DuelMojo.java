@@ -1,7 +1,14 @@
 package org.duelengine.duel.maven;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
@@ -9,10 +16,13 @@ import org.apache.maven.project.MavenProject;
 import org.duelengine.duel.compiler.DuelCompiler;
 
 /**
- * Generates client-side and server-side sources
+ * Generates client-side and server-side sources.
+ * Runs before the module is compiled, so VIEW model types must come from its dependencies;
+ * a model which cannot be loaded is reported as a template error.
  *
  * @goal generate
  * @phase generate-sources
+ * @requiresDependencyResolution compile
  */
 public class DuelMojo extends AbstractMojo {
 
@@ -57,6 +67,14 @@ public class DuelMojo extends AbstractMojo {
 	 */
 	private String outputServerDir;
 
+	/**
+	 * Location where server-side templates are emitted directly as class files,
+	 * e.g. ${project.build.outputDirectory}. If set, no Java sources are generated.
+	 * 
+	 * @parameter
+	 */
+	private String outputClassesDir;
+
 	/**
 	 * Client-side template package prefix
 	 * 
@@ -71,6 +89,20 @@ public class DuelMojo extends AbstractMojo {
 	 */
 	private String serverPrefix;
 
+	/**
+	 * Maximum number of template files compiled concurrently
+	 * 
+	 * @parameter
+	 */
+	private Integer threads;
+
+	/**
+	 * Skip templates unchanged since the last build
+	 * 
+	 * @parameter default-value="true"
+	 */
+	private boolean incremental;
+
 	@Override
 	public void setLog(Log log) {
 		super.setLog(log);
@@ -85,6 +117,7 @@ public class DuelMojo extends AbstractMojo {
 
 	    log.info("\tinputDir="+this.inputDir);
 	    log.info("\toutputServerDir="+this.outputServerDir);
+	    log.info("\toutputClassesDir="+this.outputClassesDir);
 
 	    if (this.outputClientPath == null || this.outputClientPath.isEmpty()) {
 			this.outputClientPath = "/js/views/";
@@ -99,6 +132,8 @@ public class DuelMojo extends AbstractMojo {
 	    log.info("\toutputClientDir="+this.outputDir+this.outputClientPath);
 	    log.info("\tclientPrefix="+this.clientPrefix);
 	    log.info("\tserverPrefix="+this.serverPrefix);
+	    log.info("\tthreads="+this.threads);
+	    log.info("\tincremental="+this.incremental);
 
 	    DuelCompiler compiler = new DuelCompiler();
 	    compiler.setInputDir(this.inputDir);
@@ -109,6 +144,10 @@ public class DuelMojo extends AbstractMojo {
 			compiler.setOutputServerDir(this.outputServerDir);
 		}
 
+		if (this.outputClassesDir != null && !this.outputClassesDir.isEmpty()) {
+			compiler.setOutputClassesDir(this.outputClassesDir);
+		}
+
 	    if (this.clientPrefix != null && !this.clientPrefix.isEmpty()) {
 		    compiler.setClientPrefix(this.clientPrefix);
 	    }
@@ -117,13 +156,68 @@ public class DuelMojo extends AbstractMojo {
 	        compiler.setServerPrefix(this.serverPrefix);
 	    }
 
+	    if (this.threads != null) {
+	        compiler.setThreads(this.threads);
+	    }
+
+	    compiler.setIncremental(this.incremental);
+
+	    // allow VIEW model types to be loaded from the project dependencies
+	    Thread thread = Thread.currentThread();
+	    ClassLoader parentLoader = thread.getContextClassLoader();
+	    URLClassLoader projectLoader = this.getProjectClassLoader(parentLoader);
+	    thread.setContextClassLoader(projectLoader);
+
 	    try {
 		    compiler.execute();
 
-		    this.project.addCompileSourceRoot(compiler.getOutputServerDir()); 
+		    if (compiler.getOutputClassesDir() == null) {
+			    this.project.addCompileSourceRoot(compiler.getOutputServerDir());
+		    }
 
 	    } catch (IOException e) {
 		    log.error(e);
+
+	    } catch (IllegalStateException e) {
+		    throw new MojoExecutionException(e.getMessage(), e);
+
+	    } finally {
+		    thread.setContextClassLoader(parentLoader);
+		    try {
+			    projectLoader.close();
+		    } catch (IOException e) {
+			    log.warn(e);
+		    }
+	    }
+    }
+
+    /**
+     * Builds a loader over the compile classpath less the module's own output directory,
+     * which is not yet compiled on a clean build and would otherwise only resolve models
+     * on incremental builds
+     * @param parent
+     * @return
+     * @throws MojoExecutionException
+     */
+    private URLClassLoader getProjectClassLoader(ClassLoader parent)
+    	throws MojoExecutionException {
+
+	    try {
+		    File outputDirectory = new File(this.project.getBuild().getOutputDirectory()).getAbsoluteFile();
+		    List<URL> urls = new ArrayList<URL>();
+		    for (String element : this.project.getCompileClasspathElements()) {
+			    File file = new File(element).getAbsoluteFile();
+			    if (!file.equals(outputDirectory)) {
+				    urls.add(file.toURI().toURL());
+			    }
+		    }
+		    return new URLClassLoader(urls.toArray(new URL[urls.size()]), parent);
+
+	    } catch (DependencyResolutionRequiredException e) {
+		    throw new MojoExecutionException("Unable to resolve compile classpath", e);
+
+	    } catch (MalformedURLException e) {
+		    throw new MojoExecutionException("Invalid compile classpath", e);
 	    }
     }
 }
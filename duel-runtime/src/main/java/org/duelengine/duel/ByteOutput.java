@@ -0,0 +1,215 @@
+package org.duelengine.duel;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A buffered byte-oriented output which allows pre-encoded literals
+ * to be copied directly while only dynamic text is run through a CharsetEncoder.
+ * ByteOutput is NOT thread-safe and must be flushed when rendering is complete.
+ */
+public class ByteOutput implements Appendable, Flushable {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final OutputStream stream;
+	private final Charset charset;
+	private final CharsetEncoder encoder;
+	private final boolean isUTF8;
+	private final boolean isASCIICompatible;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	/**
+	 * a high surrogate awaiting its pair from the next append
+	 */
+	private char pending;
+
+	public ByteOutput(OutputStream stream) {
+		this(stream, StandardCharsets.UTF_8);
+	}
+
+	public ByteOutput(OutputStream stream, String encoding) {
+		this(stream, Charset.forName((encoding == null || encoding.isEmpty()) ? FormatPrefs.UTF8_ENCODING : encoding));
+	}
+
+	public ByteOutput(OutputStream stream, Charset charset) {
+		if (stream == null) {
+			throw new NullPointerException("stream");
+		}
+		if (charset == null) {
+			throw new NullPointerException("charset");
+		}
+
+		this.stream = stream;
+		this.charset = charset;
+		encoder = charset.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		isUTF8 = StandardCharsets.UTF_8.equals(charset);
+		isASCIICompatible = isUTF8 ||
+			StandardCharsets.US_ASCII.equals(charset) ||
+			StandardCharsets.ISO_8859_1.equals(charset);
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Gets if pre-encoded UTF-8 literals may be written directly
+	 * @return
+	 */
+	public boolean isUTF8() {
+		return isUTF8;
+	}
+
+	/**
+	 * Copies pre-encoded bytes directly to the output
+	 * @param bytes bytes already in the output charset
+	 * @throws IOException
+	 */
+	public ByteOutput write(byte[] bytes)
+		throws IOException {
+
+		if (pending != 0) {
+			// a dangling surrogate cannot be paired with bytes
+			encodePending();
+		}
+
+		int length = bytes.length;
+		if (length > buffer.remaining()) {
+			drain();
+			if (length >= BUFFER_SIZE) {
+				// large literals bypass the buffer
+				stream.write(bytes, 0, length);
+				return this;
+			}
+		}
+
+		buffer.put(bytes, 0, length);
+		return this;
+	}
+
+	@Override
+	public ByteOutput append(CharSequence csq)
+		throws IOException {
+
+		if (csq == null) {
+			csq = "null";
+		}
+		return append(csq, 0, csq.length());
+	}
+
+	@Override
+	public ByteOutput append(CharSequence csq, int start, int end)
+		throws IOException {
+
+		if (csq == null) {
+			csq = "null";
+		}
+
+		if (pending != 0 && start < end) {
+			char high = pending;
+			pending = 0;
+			encode(CharBuffer.wrap(new char[] { high, csq.charAt(start++) }));
+		}
+
+		if (isASCIICompatible) {
+			// ASCII maps directly onto bytes in these charsets
+			while (start < end) {
+				char ch = csq.charAt(start);
+				if (ch >= 0x80) {
+					break;
+				}
+				if (!buffer.hasRemaining()) {
+					drain();
+				}
+				buffer.put((byte)ch);
+				start++;
+			}
+		}
+
+		if (start < end) {
+			encode(CharBuffer.wrap(csq, start, end));
+		}
+		return this;
+	}
+
+	@Override
+	public ByteOutput append(char ch)
+		throws IOException {
+
+		if (pending == 0 && ch < 0x80 && isASCIICompatible) {
+			if (!buffer.hasRemaining()) {
+				drain();
+			}
+			buffer.put((byte)ch);
+			return this;
+		}
+
+		return append(String.valueOf(ch), 0, 1);
+	}
+
+	/**
+	 * Writes any buffered bytes and flushes the underlying stream
+	 */
+	@Override
+	public void flush()
+		throws IOException {
+
+		if (pending != 0) {
+			encodePending();
+		}
+		drain();
+		stream.flush();
+	}
+
+	private void encode(CharBuffer chars)
+		throws IOException {
+
+		while (true) {
+			CoderResult result = encoder.encode(chars, buffer, false);
+			if (result.isOverflow()) {
+				drain();
+				continue;
+			}
+
+			if (chars.hasRemaining()) {
+				// only a trailing high surrogate is left unconsumed
+				pending = chars.get();
+			}
+			return;
+		}
+	}
+
+	private void encodePending()
+		throws IOException {
+
+		CharBuffer chars = CharBuffer.wrap(new char[] { pending });
+		pending = 0;
+		while (encoder.encode(chars, buffer, true).isOverflow()) {
+			drain();
+		}
+		while (encoder.flush(buffer).isOverflow()) {
+			drain();
+		}
+		encoder.reset();
+	}
+
+	private void drain()
+		throws IOException {
+
+		if (buffer.position() > 0) {
+			stream.write(buffer.array(), 0, buffer.position());
+			buffer.clear();
+		}
+	}
+}
@@ -54,6 +54,20 @@ public class CDNLinkInterceptor implements LinkInterceptor {
 		log.info("isDevMode="+isDevMode);
 	}
 
+	/**
+	 * Shares the configuration of an existing interceptor
+	 * @param prototype
+	 */
+	protected CDNLinkInterceptor(CDNLinkInterceptor prototype) {
+		if (prototype == null) {
+			throw new NullPointerException("prototype");
+		}
+
+		this.isDevMode = prototype.isDevMode;
+		this.cdnMap = prototype.cdnMap;
+		this.cdnHost = prototype.cdnHost;
+	}
+
 	private static String formatURL(String path) {
 		path = path == null ? "" : path.trim();
 		if (path.isEmpty() || path.equals("/")) {
@@ -6,6 +6,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
@@ -35,24 +36,187 @@ public class DataEncoder {
 		return new Snippet(text);
 	}
 
+	/**
+	 * A bounded cache of encoded string literals which may be shared across
+	 * requests for values which repeat (e.g., configuration extras).
+	 * Opt-in per encoder, so only pass one where the values are known to repeat.
+	 * Evicts the least recently used entries once over either the entry count or
+	 * the character budget, so one-off request data cannot pin memory or crowd out
+	 * the values hit on every request.
+	 * Thread-safe via synchronization as the access order is mutated on every read.
+	 */
+	public static class StringCache {
+		public static final int DEFAULT_MAX_ENTRIES = 4096;
+		public static final int DEFAULT_MIN_LENGTH = 64;
+		public static final long DEFAULT_MAX_CHARS = 1L << 20;
+
+		private static class Key {
+			final EncodingFormat format;
+			final String value;
+
+			Key(EncodingFormat format, String value) {
+				this.format = format;
+				this.value = value;
+			}
+
+			@Override
+			public boolean equals(Object arg) {
+				if (!(arg instanceof Key)) {
+					// includes null
+					return false;
+				}
+
+				Key that = (Key)arg;
+				return this.format == that.format && this.value.equals(that.value);
+			}
+
+			@Override
+			public int hashCode() {
+				return value.hashCode() * 31 + format.ordinal();
+			}
+		}
+
+		private final int maxEntries;
+		private final int minLength;
+		private final long maxLength;
+		private final long maxChars;
+		private final LinkedHashMap<Key, String> entries = new LinkedHashMap<Key, String>(16, 0.75f, true);
+		private long chars;
+
+		public StringCache() {
+			this(DEFAULT_MAX_ENTRIES, DEFAULT_MIN_LENGTH, DEFAULT_MAX_CHARS);
+		}
+
+		public StringCache(int maxEntries, int minLength) {
+			this(maxEntries, minLength, DEFAULT_MAX_CHARS);
+		}
+
+		/**
+		 * @param maxEntries maximum number of encoded forms held across formats
+		 * @param minLength shorter strings are cheaper to encode than to look up
+		 * @param maxChars budget for the chars held by both the strings and their encoded forms
+		 */
+		public StringCache(int maxEntries, int minLength, long maxChars) {
+			if (maxEntries < 1) {
+				throw new IllegalArgumentException("maxEntries must be positive");
+			}
+			if (maxChars < 1L) {
+				throw new IllegalArgumentException("maxChars must be positive");
+			}
+
+			this.maxEntries = maxEntries;
+			this.minLength = minLength;
+			this.maxChars = maxChars;
+
+			// no single string may take over the cache
+			maxLength = Math.max(maxChars / 4L, 1L);
+		}
+
+		public int size() {
+			synchronized (entries) {
+				return entries.size();
+			}
+		}
+
+		/**
+		 * @return the number of chars currently held
+		 */
+		public long chars() {
+			synchronized (entries) {
+				return chars;
+			}
+		}
+
+		public void clear() {
+			synchronized (entries) {
+				entries.clear();
+				chars = 0L;
+			}
+		}
+
+		private boolean admits(String data) {
+			return data.length() >= minLength && data.length() <= maxLength;
+		}
+
+		private String get(EncodingFormat format, String data) {
+			Key key = new Key(format, data);
+			synchronized (entries) {
+				return entries.get(key);
+			}
+		}
+
+		private void put(EncodingFormat format, String data, String literal) {
+			Key key = new Key(format, data);
+			synchronized (entries) {
+				String old = entries.put(key, literal);
+				if (old != null) {
+					chars -= data.length() + old.length();
+				}
+				chars += data.length() + literal.length();
+
+				Iterator<Map.Entry<Key, String>> eldest = entries.entrySet().iterator();
+				while (eldest.hasNext() && (entries.size() > maxEntries || chars > maxChars)) {
+					Map.Entry<Key, String> entry = eldest.next();
+					chars -= entry.getKey().value.length() + entry.getValue().length();
+					eldest.remove();
+				}
+			}
+		}
+	}
+
 	private enum EncodingFormat {
 		ECMASCRIPT,
 		JSON
 	}
 
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	/**
+	 * Escape sequences for ASCII chars by format, null if safe to emit directly.
+	 * All non-ASCII chars are emitted as UTF-16 escapes.
+	 */
+	private static final int TABLE_SIZE = 0x80;
+	private static final String[] ECMASCRIPT_ESCAPES = new String[TABLE_SIZE];
+	private static final String[] JSON_ESCAPES = new String[TABLE_SIZE];
+
+	static {
+		for (int ch=0; ch<TABLE_SIZE; ch++) {
+			if (ch < ' ' || ch == 0x7F) {
+				ECMASCRIPT_ESCAPES[ch] = toUnicodeEscape((char)ch);
+			}
+		}
+
+		ECMASCRIPT_ESCAPES['\\'] = "\\\\";
+		ECMASCRIPT_ESCAPES['\t'] = "\\t";
+		ECMASCRIPT_ESCAPES['\n'] = "\\n";
+		ECMASCRIPT_ESCAPES['\r'] = "\\r";
+		ECMASCRIPT_ESCAPES['\f'] = "\\f";
+		ECMASCRIPT_ESCAPES['\b'] = "\\b";
+
+		System.arraycopy(ECMASCRIPT_ESCAPES, 0, JSON_ESCAPES, 0, TABLE_SIZE);
+		ECMASCRIPT_ESCAPES['\''] = "\\'";
+		JSON_ESCAPES['"'] = "\\\"";
+	}
+
 	private final static TimeZone UTC = TimeZone.getTimeZone("UTC");
 	private final boolean prettyPrint;
 	private final String indent;
 	private final String newline;
+	private final StringCache cache;
 	
 	public DataEncoder() {
 		this(null, null);
 	}
 
 	public DataEncoder(String newlineStr, String indentStr) {
+		this(newlineStr, indentStr, null);
+	}
+
+	public DataEncoder(String newlineStr, String indentStr, StringCache stringCache) {
 		newline = (newlineStr != null) ? newlineStr : "";
 		indent = (indentStr != null) ? indentStr : "";
 		prettyPrint = !indent.isEmpty() || !newline.isEmpty();
+		cache = stringCache;
 	}
 
 	public boolean isPrettyPrint() {
@@ -369,59 +533,51 @@ public class DataEncoder {
 			return;
 		}
 
-		int start = 0,
-			length = data.length();
+		if (cache != null && cache.admits(data)) {
+			String literal = cache.get(format, data);
+			if (literal == null) {
+				StringBuilder buffer = new StringBuilder(data.length()+16);
+				writeStringLiteral(buffer, data, format);
+				literal = buffer.toString();
+				cache.put(format, data, literal);
+			}
+			output.append(literal);
+			return;
+		}
 
-		if (format == EncodingFormat.JSON) {
-			output.append('"');
+		writeStringLiteral(output, data, format);
+	}
+
+	private static void writeStringLiteral(Appendable output, String data, EncodingFormat format)
+		throws IOException {
 
+		final String[] escapes;
+		final char quote;
+		if (format == EncodingFormat.JSON) {
+			escapes = JSON_ESCAPES;
+			quote = '"';
 		} else {
-			output.append('\'');
+			escapes = ECMASCRIPT_ESCAPES;
+			quote = '\'';
 		}
 
-		for (int i=start; i<length; i++) {
-			String escape;
+		int start = 0,
+			length = data.length();
+
+		output.append(quote);
 
+		for (int i=start; i<length; i++) {
 			char ch = data.charAt(i);
-			switch (ch) {
-				case '\'':
-					if (format == EncodingFormat.JSON) {
-						continue;
-					}
-					escape = "\\'";
-					break;
-				case '"':
-					if (format != EncodingFormat.JSON) {
-						continue;
-					}
-					escape = "\\\"";
-					break;
-				case '\\':
-					escape = "\\\\";
-					break;
-				case '\t':
-					escape = "\\t";
-					break;
-				case '\n':
-					escape = "\\n";
-					break;
-				case '\r':
-					escape = "\\r";
-					break;
-				case '\f':
-					escape = "\\f";
-					break;
-				case '\b':
-					escape = "\\b";
-					break;
-				default:
-					if (ch >= ' ' && ch < '\u007F') {
-						// no need to escape printable ASCII chars
-						continue;
-					}
 
-					escape = String.format("\\u%04X", data.codePointAt(i));
+			// scan ahead over the common case of printable ASCII
+			while (ch < TABLE_SIZE && escapes[ch] == null) {
+				if (++i >= length) {
 					break;
+				}
+				ch = data.charAt(i);
+			}
+			if (i >= length) {
+				break;
 			}
 
 			if (i > start) {
@@ -429,19 +585,42 @@ public class DataEncoder {
 			}
 			start = i+1;
 
-			output.append(escape);
+			if (ch < TABLE_SIZE) {
+				output.append(escapes[ch]);
+
+			} else {
+				// escape each UTF-16 unit so surrogate pairs remain valid
+				writeUnicodeEscape(output, ch);
+			}
 		}
 
 		if (length > start) {
 			output.append(data, start, length);
 		}
 
-		if (format == EncodingFormat.JSON) {
-			output.append('"');
+		output.append(quote);
+	}
 
-		} else {
-			output.append('\'');
+	private static void writeUnicodeEscape(Appendable output, char ch)
+		throws IOException {
+
+		output
+			.append('\\')
+			.append('u')
+			.append(HEX_DIGITS[(ch >>> 12) & 0xF])
+			.append(HEX_DIGITS[(ch >>> 8) & 0xF])
+			.append(HEX_DIGITS[(ch >>> 4) & 0xF])
+			.append(HEX_DIGITS[ch & 0xF]);
+	}
+
+	private static String toUnicodeEscape(char ch) {
+		StringBuilder buffer = new StringBuilder(6);
+		try {
+			writeUnicodeEscape(buffer, ch);
+		} catch (IOException ex) {
+			// StringBuilder does not throw
 		}
+		return buffer.toString();
 	}
 
 	/**
@@ -1,5 +1,11 @@
 package org.duelengine.duel;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -31,10 +37,30 @@ public class DuelContext {
 		DIRTY
 	}
 
+	/**
+	 * The output and side effects of a subtree being captured
+	 */
+	private static class Capture {
+		final Appendable outer;
+		final StringBuilder output = new StringBuilder();
+		final List<String> clientIDs = new ArrayList<String>();
+		final Map<String, Object> extras = new LinkedHashMap<String, Object>();
+		boolean emitted;
+
+		Capture(Appendable outer) {
+			this.outer = outer;
+		}
+	}
+
 	private Appendable output;
+	private ByteOutput utf8Output;
 	private ClientIDStrategy clientID;
 	private LinkInterceptor interceptor;
 	private DataEncoder encoder;
+	private DataEncoder extrasEncoder;
+	private DataEncoder.StringCache stringCache;
+	private FragmentCache fragmentCache;
+	private Deque<Capture> captured;
 	private FormatPrefs format;
 
 	private Object data;
@@ -51,10 +77,19 @@ public class DuelContext {
 
 	public DuelContext setOutput(Appendable value) {
 		output = value;
+		utf8Output = (value instanceof ByteOutput && ((ByteOutput)value).isUTF8()) ? (ByteOutput)value : null;
 
 		return this;
 	}
 
+	/**
+	 * Gets the output as a byte sink which accepts pre-encoded UTF-8 literals
+	 * @return the output or null if literals must be written as text
+	 */
+	ByteOutput getUTF8Output() {
+		return utf8Output;
+	}
+
 	public DuelContext setLinkInterceptor(LinkInterceptor value) {
 		interceptor = value;
 
@@ -77,10 +112,128 @@ public class DuelContext {
 	public DuelContext setFormat(FormatPrefs value) {
 		format = value;
 		encoder = null;
+		extrasEncoder = null;
+
+		return this;
+	}
+
+	/**
+	 * Sets a cache of encoded strings which may be shared across contexts.
+	 * Only applied to extras, as request data rarely repeats between contexts.
+	 * @param value
+	 * @return
+	 */
+	public DuelContext setStringCache(DataEncoder.StringCache value) {
+		stringCache = value;
+		extrasEncoder = null;
+
+		return this;
+	}
+
+	/**
+	 * Sets the cache used for cacheable view subtrees.
+	 * Fragment caching is disabled when not set.
+	 * @param value
+	 * @return
+	 */
+	public DuelContext setFragmentCache(FragmentCache value) {
+		fragmentCache = value;
 
 		return this;
 	}
 
+	FragmentCache getFragmentCache() {
+		return fragmentCache;
+	}
+
+	/**
+	 * Redirects output into a buffer until the matching {@link #endCapture()}
+	 */
+	void beginCapture() {
+		if (captured == null) {
+			captured = new ArrayDeque<Capture>();
+		}
+
+		Capture capture = new Capture(getOutput());
+		captured.push(capture);
+		setOutput(capture.output);
+	}
+
+	/**
+	 * Restores the output which was active at the matching {@link #beginCapture()}
+	 * @return the output and side effects captured in the meantime
+	 */
+	Fragment endCapture() {
+		if (captured == null || captured.isEmpty()) {
+			throw new IllegalStateException("No output is being captured");
+		}
+
+		Capture capture = captured.pop();
+		setOutput(capture.outer);
+
+		// enclosing captures see the same side effects
+		Capture outer = captured.peek();
+		if (outer != null) {
+			outer.clientIDs.addAll(capture.clientIDs);
+			outer.extras.putAll(capture.extras);
+			outer.emitted |= capture.emitted;
+		}
+
+		return new Fragment(capture.output.toString(), capture.clientIDs, capture.extras, !capture.emitted);
+	}
+
+	/**
+	 * @return the number of captures currently open
+	 */
+	int getCaptureDepth() {
+		return (captured == null) ? 0 : captured.size();
+	}
+
+	/**
+	 * Ends any captures opened beyond the given depth without caching them,
+	 * writing the output captured so far as if it had never been captured
+	 * @param depth
+	 * @throws IOException
+	 */
+	void abandonCaptures(int depth)
+		throws IOException {
+
+		while (getCaptureDepth() > depth) {
+			Fragment fragment = endCapture();
+			getOutput().append(fragment.getOutput());
+		}
+	}
+
+	/**
+	 * Applies the side effects of a cached fragment
+	 * @param fragment
+	 * @return the output of the fragment using client IDs issued by this context
+	 */
+	String replay(Fragment fragment) {
+		String[] clientIDs = fragment.getClientIDs();
+		String[] replacements = new String[clientIDs.length];
+		for (int i=0; i<replacements.length; i++) {
+			replacements[i] = nextID();
+		}
+
+		for (Map.Entry<String, Object> extra : fragment.getExtras().entrySet()) {
+			Object value = extra.getValue();
+			for (int i=0; i<clientIDs.length; i++) {
+				if (clientIDs[i].equals(value)) {
+					// extras which hold a client ID follow it
+					value = replacements[i];
+					break;
+				}
+			}
+			putExtra(extra.getKey(), value);
+		}
+
+		if (clientIDs.length == 0) {
+			return fragment.getOutput();
+		}
+		return fragment.replaceClientIDs(replacements);
+	}
+
 	public Object getData() {
 		return data;
 	}
@@ -120,6 +273,10 @@ public class DuelContext {
 		}
 		extras.putSparse(ident, value);
 
+		if (captured != null && !captured.isEmpty()) {
+			captured.peek().extras.put(ident, value);
+		}
+
 		switch (extraState) {
 			case NONE:
 			case PENDING:
@@ -168,6 +325,10 @@ public class DuelContext {
 	}
 
 	SparseMap getPendingExtras() {
+		if (captured != null && !captured.isEmpty()) {
+			// emitted extras reflect this request
+			captured.peek().emitted = true;
+		}
 
 		SparseMap sparseMap = (extraState == ExtraState.DIRTY) ? dirty : extras;
 		extraState = ExtraState.EMITTED;
@@ -193,12 +354,28 @@ public class DuelContext {
 		return encoder;
 	}
 
+	DataEncoder getExtrasEncoder() {
+		if (stringCache == null) {
+			return getEncoder();
+		}
+
+		if (extrasEncoder == null) {
+			extrasEncoder = new DataEncoder(getFormat().getNewline(), getFormat().getIndent(), stringCache);
+		}
+
+		return extrasEncoder;
+	}
+
 	String nextID() {
 		if (clientID == null) {
 			clientID = new IncClientIDStrategy();
 		}
 
-		return clientID.nextID();
+		String id = clientID.nextID();
+		if (captured != null && !captured.isEmpty()) {
+			captured.peek().clientIDs.add(id);
+		}
+		return id;
 	}
 
 	String transformURL(String url) {
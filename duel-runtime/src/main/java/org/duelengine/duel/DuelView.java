@@ -2,8 +2,10 @@ package org.duelengine.duel;
 
 import java.io.IOException;
 import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -17,12 +19,16 @@ public abstract class DuelView {
 	private static final int DEFAULT_COUNT = 1;
 	private static final String DEFAULT_KEY = null;
 
+	private static final String[] NO_PART_NAMES = {};
+	private static final DuelPart[] NO_PARTS = {};
+
 	private static final HTMLFormatter formatter = new HTMLFormatter();
-	private Map<String, DuelPart> parts = null;
+	private final String[] partNames;
+	private final DuelPart[] parts;
+	private List<DuelPart> addedParts;
 
 	protected DuelView() {
-		// allow view to define child views
-		init();
+		this((DuelPart[])null);
 	}
 
 	protected DuelView(DuelPart... viewParts) {
@@ -31,19 +37,38 @@ public abstract class DuelView {
 		init();
 
 		// then allow caller to replace any parts by name
-		if (viewParts != null && viewParts.length > 0) {
-			if (parts == null) {
-				parts = new HashMap<String, DuelPart>(viewParts.length);
+		if (viewParts != null) {
+			for (DuelPart part : viewParts) {
+				addPart(part);
 			}
+		}
 
-			for (DuelPart part : viewParts) {
-				if (part == null || part.getPartName() == null) {
-					continue;
+		// fix a slot for each part name so rendering reads by index
+		String[] names = getPartNames();
+		if (names == null) {
+			names = NO_PART_NAMES;
+		}
+		if (addedParts != null) {
+			for (DuelPart part : addedParts) {
+				if (slotOf(names, part.getPartName()) < 0) {
+					// names not declared up front (e.g. hand-written views) take the next slot
+					names = Arrays.copyOf(names, names.length+1);
+					names[names.length-1] = part.getPartName();
 				}
+			}
+		}
 
-				parts.put(part.getPartName(), part);
+		DuelPart[] slots = (names.length > 0) ? new DuelPart[names.length] : NO_PARTS;
+		if (addedParts != null) {
+			for (DuelPart part : addedParts) {
+				// later parts replace earlier ones of the same name
+				slots[slotOf(names, part.getPartName())] = part;
 			}
+			addedParts = null;
 		}
+
+		partNames = names;
+		parts = slots;
 	}
 
 	/**
@@ -93,7 +118,14 @@ public abstract class DuelView {
 			throw new NullPointerException("context");
 		}
 
-		render(context, DuelData.asProxy(context.getData(), true), DEFAULT_INDEX, DEFAULT_COUNT, DEFAULT_KEY);
+		int depth = context.getCaptureDepth();
+		try {
+			render(context, DuelData.asProxy(context.getData(), true), DEFAULT_INDEX, DEFAULT_COUNT, DEFAULT_KEY);
+
+		} finally {
+			// an exception within a cacheable subtree must not leave output captured
+			context.abandonCaptures(depth);
+		}
 	}
 
 	/**
@@ -108,19 +140,41 @@ public abstract class DuelView {
 		throws IOException;
 
 	/**
-	 * Sets the partial view for a named area
+	 * Gets the name of each part this view renders, in slot order
+	 * @return the names which renderPart slots index
+	 */
+	protected String[] getPartNames() {
+		return NO_PART_NAMES;
+	}
+
+	/**
+	 * Allows generated code to declare part names without an array literal
+	 * @param names
+	 * @return names
+	 */
+	protected static String[] partNames(String... names) {
+		return names;
+	}
+
+	/**
+	 * Sets the partial view for a named area.
+	 * Parts are fixed once constructed so may only be added during init().
 	 * @param part
 	 */
 	protected void addPart(DuelPart part) {
+		if (partNames != null) {
+			throw new IllegalStateException("Parts may only be added during construction");
+		}
+
 		if (part == null || part.getPartName() == null) {
 			return;
 		}
 
-		if (parts == null) {
-			parts = new HashMap<String, DuelPart>(4);
+		if (addedParts == null) {
+			addedParts = new ArrayList<DuelPart>(4);
 		}
 
-		parts.put(part.getPartName(), part);
+		addedParts.add(part);
 	}
 
 	/**
@@ -135,11 +189,27 @@ public abstract class DuelView {
 	protected void renderPart(DuelContext context, String partName, Object data, int index, int count, String key)
 		throws IOException {
 
-		if (parts == null || !parts.containsKey(partName)) {
+		int slot = slotOf(partNames, partName);
+		if (slot < 0) {
 			return;
 		}
 
-		DuelPart part = parts.get(partName);
+		renderPart(context, slot, data, index, count, key);
+	}
+
+	/**
+	 * Renders the partial view in a slot
+	 * @param context
+	 * @param slot the index of its name within getPartNames()
+	 * @param data
+	 * @param index
+	 * @param count
+	 * @param key
+	 */
+	protected void renderPart(DuelContext context, int slot, Object data, int index, int count, String key)
+		throws IOException {
+
+		DuelPart part = parts[slot];
 		if (part == null) {
 			return;
 		}
@@ -147,6 +217,15 @@ public abstract class DuelView {
 		part.render(context, data, index, count, key);
 	}
 
+	private static int slotOf(String[] names, String partName) {
+		for (int i=0; i<names.length; i++) {
+			if (names[i].equals(partName)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
 	/**
 	 * Allows one view to render another
 	 * @param view
@@ -201,6 +280,113 @@ public abstract class DuelView {
 
 		context.getOutput().append(value);
 	}
+
+	/**
+	 * Writes a literal to the output, copying the pre-encoded bytes
+	 * directly when the output is a UTF-8 byte sink
+	 * @param context
+	 * @param value
+	 * @param utf8 the value already encoded as UTF-8
+	 * @throws IOException
+	 */
+	protected void write(DuelContext context, String value, byte[] utf8)
+		throws IOException {
+
+		ByteOutput output = context.getUTF8Output();
+		if (output != null) {
+			output.write(utf8);
+		} else {
+			context.getOutput().append(value);
+		}
+	}
+
+	/**
+	 * Encodes a literal once so that it may be written without per-request encoding
+	 * @param value
+	 * @return
+	 */
+	protected static byte[] encodeUTF8(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Builds the cache key of a cacheable subtree
+	 * @param context
+	 * @param site uniquely identifies the subtree within all views
+	 * @param key the value of the cache-key attribute
+	 * @return the key or null if fragment caching is disabled
+	 */
+	protected String fragmentKey(DuelContext context, String site, Object key) {
+		if (context.getFragmentCache() == null || key == null || key == JSUtility.UNDEFINED) {
+			// missing keys would otherwise all share one fragment
+			return null;
+		}
+
+		return site+':'+DuelData.coerceString(key);
+	}
+
+	/**
+	 * Writes the cached output of a subtree
+	 * @param context
+	 * @param key
+	 * @return true if the subtree was written and should be skipped
+	 * @throws IOException
+	 */
+	protected boolean writeFragment(DuelContext context, String key)
+		throws IOException {
+
+		if (key == null) {
+			return false;
+		}
+
+		Fragment fragment = context.getFragmentCache().get(key);
+		if (fragment == null) {
+			return false;
+		}
+
+		String output = context.replay(fragment);
+		if (output == fragment.getOutput() && fragment.getUTF8() != null) {
+			// no client IDs were replaced so the cached bytes still match
+			write(context, output, fragment.getUTF8());
+		} else {
+			context.getOutput().append(output);
+		}
+		return true;
+	}
+
+	/**
+	 * Begins capturing the output of a subtree
+	 * @param context
+	 * @param key
+	 */
+	protected void beginFragment(DuelContext context, String key) {
+		if (key == null) {
+			return;
+		}
+
+		context.beginCapture();
+	}
+
+	/**
+	 * Stores and writes the captured output of a subtree
+	 * @param context
+	 * @param key
+	 * @param ttl lifetime in seconds, non-positive if kept until evicted
+	 * @throws IOException
+	 */
+	protected void endFragment(DuelContext context, String key, double ttl)
+		throws IOException {
+
+		if (key == null) {
+			return;
+		}
+
+		Fragment fragment = context.endCapture();
+		context.getOutput().append(fragment.getOutput());
+		if (fragment.isCacheable()) {
+			context.getFragmentCache().put(key, fragment, (long)(ttl * 1000.0));
+		}
+	}
 	
 	/**
 	 * Ensures the value is properly encoded as HTML text
@@ -256,7 +442,7 @@ public abstract class DuelView {
 			return;
 		}
 
-		DataEncoder encoder = context.getEncoder();
+		DataEncoder encoder = context.getExtrasEncoder();
 		Appendable output = context.getOutput();
 		if (needsTags) {
 			formatter.writeOpenElementBeginTag(output, "script");
@@ -400,6 +586,30 @@ public abstract class DuelView {
 		}
 	}
 
+	/**
+	 * Retrieves the data object as an instance of the declared view model
+	 * @param data
+	 * @param modelType
+	 * @return the model or null if the data is not of the model type
+	 */
+	protected <T> T asModel(Object data, Class<T> modelType) {
+		if (data instanceof ProxyMap) {
+			data = ((ProxyMap)data).getValue();
+		}
+
+		return modelType.isInstance(data) ? modelType.cast(data) : null;
+	}
+
+	/**
+	 * Wraps a value read directly from a view model
+	 * to match the result of getProperty
+	 * @param value
+	 * @return
+	 */
+	protected Object asProxy(Object value) {
+		return DuelData.asProxy(value, true);
+	}
+
 	/**
 	 * Performs equality test
 	 * @param a
@@ -0,0 +1,133 @@
+package org.duelengine.duel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rendered output of a cacheable view subtree along with its side effects
+ * upon the context (client IDs issued and extras put), so that replaying it
+ * leaves the context as rendering the subtree would have.
+ * Inherently thread-safe as contains no mutable instance data.
+ */
+public final class Fragment {
+
+	private static final String[] NO_IDS = new String[0];
+
+	private final String output;
+	private final byte[] utf8;
+	private final String[] clientIDs;
+	private final Map<String, Object> extras;
+	private final boolean cacheable;
+
+	Fragment(String output) {
+		this(output, null, null, true);
+	}
+
+	Fragment(String output, List<String> clientIDs, Map<String, Object> extras, boolean cacheable) {
+		if (output == null) {
+			throw new NullPointerException("output");
+		}
+
+		this.output = output;
+		// encoded once so that each replay may copy bytes rather than encode again
+		this.utf8 = cacheable ? output.getBytes(StandardCharsets.UTF_8) : null;
+		this.clientIDs = (clientIDs == null || clientIDs.isEmpty()) ? NO_IDS : clientIDs.toArray(new String[clientIDs.size()]);
+		this.extras = (extras == null || extras.isEmpty()) ?
+			Collections.<String, Object>emptyMap() :
+			Collections.unmodifiableMap(new LinkedHashMap<String, Object>(extras));
+		this.cacheable = cacheable;
+	}
+
+	/**
+	 * @return the output as rendered
+	 */
+	public String getOutput() {
+		return output;
+	}
+
+	/**
+	 * @return the output encoded as UTF-8, or null if not cacheable
+	 */
+	byte[] getUTF8() {
+		return utf8;
+	}
+
+	/**
+	 * @return the size of the output in UTF-8 bytes
+	 */
+	long getByteSize() {
+		return (utf8 != null) ? utf8.length : output.length();
+	}
+
+	/**
+	 * @return the client IDs issued while rendering, in order
+	 */
+	String[] getClientIDs() {
+		return clientIDs;
+	}
+
+	/**
+	 * @return the extras put while rendering
+	 */
+	Map<String, Object> getExtras() {
+		return extras;
+	}
+
+	/**
+	 * @return false if the output depends upon the request (e.g., emitted extras)
+	 */
+	boolean isCacheable() {
+		return cacheable;
+	}
+
+	/**
+	 * Substitutes client IDs within the output
+	 * @param replacements the IDs to use in place of {@link #getClientIDs()}
+	 * @return the output with each whole occurrence of an ID replaced
+	 */
+	String replaceClientIDs(String[] replacements) {
+		Map<String, String> map = null;
+		for (int i=0; i<clientIDs.length; i++) {
+			if (!clientIDs[i].equals(replacements[i])) {
+				if (map == null) {
+					map = new LinkedHashMap<String, String>();
+				}
+				map.put(clientIDs[i], replacements[i]);
+			}
+		}
+		if (map == null) {
+			// issued in the same sequence
+			return output;
+		}
+
+		StringBuilder buffer = new StringBuilder(output.length()+16);
+		int length = output.length();
+		for (int i=0; i<length; ) {
+			String match = null;
+			if (i == 0 || !isIDChar(output.charAt(i-1))) {
+				for (String id : map.keySet()) {
+					int end = i+id.length();
+					if (output.startsWith(id, i) && (end == length || !isIDChar(output.charAt(end)))) {
+						match = id;
+						break;
+					}
+				}
+			}
+
+			if (match == null) {
+				buffer.append(output.charAt(i++));
+			} else {
+				buffer.append(map.get(match));
+				i += match.length();
+			}
+		}
+		return buffer.toString();
+	}
+
+	private static boolean isIDChar(char ch) {
+		return Character.isLetterOrDigit(ch) || ch == '_' || ch == '$' || ch == '-';
+	}
+}
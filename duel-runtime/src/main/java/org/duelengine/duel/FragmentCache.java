@@ -0,0 +1,23 @@
+package org.duelengine.duel;
+
+/**
+ * Stores rendered output of cacheable view subtrees (e.g., cache-key="...").
+ * Implementations are shared across requests so must be thread-safe.
+ */
+public interface FragmentCache {
+
+	/**
+	 * Gets previously rendered output
+	 * @param key
+	 * @return the fragment or null if missing or expired
+	 */
+	public Fragment get(String key);
+
+	/**
+	 * Stores rendered output
+	 * @param key
+	 * @param fragment
+	 * @param ttl lifetime in milliseconds, non-positive if it should be kept until evicted
+	 */
+	public void put(String key, Fragment fragment, long ttl);
+}
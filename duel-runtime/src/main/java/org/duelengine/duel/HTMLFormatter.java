@@ -8,6 +8,52 @@ import java.io.IOException;
  */
 public class HTMLFormatter {
 
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	/**
+	 * Lookup tables cover Latin-1 as every char requiring escaping is at or below,
+	 * aside from a few named symbols and non-characters which are tested directly.
+	 */
+	private static final int TABLE_SIZE = 0x100;
+	private static final String[] TEXT_ENTITIES = new String[TABLE_SIZE];
+	private static final String[] ATTR_ENTITIES = new String[TABLE_SIZE];
+
+	/**
+	 * Char refs for the upper half of Latin-1 when all non-ASCII is encoded
+	 */
+	private static final String[] LATIN1_REFS = new String[TABLE_SIZE-0x80];
+
+	static {
+		for (int ch=0; ch<TABLE_SIZE; ch++) {
+			// encode control chars
+			if (ch < ' ' || (ch >= 0x7F && ch <= 0x84) || (ch >= 0x86 && ch <= 0x9F)) {
+				TEXT_ENTITIES[ch] = toHexRef(ch);
+			}
+			if (ch >= 0x80) {
+				LATIN1_REFS[ch-0x80] = toHexRef(ch);
+			}
+		}
+
+		TEXT_ENTITIES['\t'] = null;
+		TEXT_ENTITIES['\n'] = null;
+		TEXT_ENTITIES['\r'] = null;
+		TEXT_ENTITIES['&'] = "&amp;";
+		TEXT_ENTITIES['<'] = "&lt;";
+		TEXT_ENTITIES['>'] = "&gt;";
+		TEXT_ENTITIES['\u00A0'] = "&nbsp;";
+		TEXT_ENTITIES['\u00A9'] = "&copy;";
+		TEXT_ENTITIES['\u00AE'] = "&reg;";
+		TEXT_ENTITIES['\u00E9'] = "&eacute;";
+		TEXT_ENTITIES['\u00AD'] = "&shy;";
+		TEXT_ENTITIES['\u00B7'] = "&middot;";
+
+		System.arraycopy(TEXT_ENTITIES, 0, ATTR_ENTITIES, 0, TABLE_SIZE);
+		ATTR_ENTITIES['\t'] = toHexRef('\t');
+		ATTR_ENTITIES['\n'] = toHexRef('\n');
+		ATTR_ENTITIES['\r'] = toHexRef('\r');
+		ATTR_ENTITIES['"'] = "&quot;";
+	}
+
 	public HTMLFormatter writeComment(Appendable output, String value)
 		throws IOException {
 
@@ -130,93 +176,80 @@ public class HTMLFormatter {
 			return this;
 		}
 
+		final String[] entities = isAttribute ? ATTR_ENTITIES : TEXT_ENTITIES;
+
 		int start = 0,
 			length = value.length();
 
 		for (int i=start; i<length; i++) {
-			String entity;
-
-			// TODO: evaluate other common symbols OR expand to include all HTML 4 entities?
 			char ch = value.charAt(i);
-			switch (ch) {
-				case '\t':
-				case '\n':
-				case '\r':
-					if (!isAttribute) {
-						// no need to encode
-						continue;
-					}
-	
-					entity = String.format("&#x%04X", value.codePointAt(i));
-					break;
-				case '&':
-					entity = "&amp;";
-					break;
-				case '<':
-					entity = "&lt;";
-					break;
-				case '>':
-					entity = "&gt;";
+
+			// scan ahead over the common case of safe ASCII
+			while (ch < 0x80 && entities[ch] == null) {
+				if (++i >= length) {
 					break;
-				case '"':
-					if (!isAttribute) {
+				}
+				ch = value.charAt(i);
+			}
+			if (i >= length) {
+				break;
+			}
+
+			int codePoint = ch;
+			String entity;
+			if (ch < TABLE_SIZE) {
+				entity = entities[ch];
+				if (entity == null) {
+					if (!encodeNonASCII) {
 						// no need to encode
 						continue;
 					}
+					entity = LATIN1_REFS[ch - 0x80];
+				}
 
-				    entity = "&quot;";
-				    break;
-				case '\u00A0':
-					entity = "&nbsp;";
-					break;
-				case '\u00A9':
-					entity = "&copy;";
-					break;
-				case '\u2122':
-					entity = "&trade;";
-					break;
-				case '\u00AE':
-					entity = "&reg;";
-					break;
-				case '\u00E9':
-					entity = "&eacute;";
-					break;
-				case '\u2026':
-					entity = "&hellip;";
-					break;
-				case '\u00AD':
-					entity = "&shy;";
-					break;
-				case '\u00B7':
-					entity = "&middot;";
-					break;
-				case '\u2022':
-					entity = "&bull;";
-					break;
-				default:
-					// encode control chars and optionally all non-ASCII
-					if ((ch < ' ') ||
-						(ch >= '\u007F' && (encodeNonASCII || ch <= '\u0084')) ||
-						(ch >= '\u0086' && ch <= '\u009F') ||
-						(ch >= '\uFDD0' && ch <= '\uFDEF')) {
-
-						// encode chars as hex char refs
-						entity = String.format("&#x%04X;", value.codePointAt(i));
+			} else {
+				// TODO: evaluate other common symbols OR expand to include all HTML 4 entities?
+				switch (ch) {
+					case '\u2122':
+						entity = "&trade;";
 						break;
-					}
-
-					// no need to encode
-					continue;
+					case '\u2026':
+						entity = "&hellip;";
+						break;
+					case '\u2022':
+						entity = "&bull;";
+						break;
+					default:
+						entity = null;
+						if (!encodeNonASCII && (ch < '\uFDD0' || ch > '\uFDEF')) {
+							// no need to encode
+							continue;
+						}
+						if (Character.isHighSurrogate(ch) && i+1 < length && Character.isLowSurrogate(value.charAt(i+1))) {
+							// encode the entire surrogate pair as a single reference
+							codePoint = Character.toCodePoint(ch, value.charAt(i+1));
+						}
+						break;
+				}
 			}
 
 			if (i > start) {
 				// emit any leading unescaped chunk
 				output.append(value, start, i);
 			}
-			start = i+1;
 
-			// emit character reference
-			output.append(entity);
+			if (entity != null) {
+				// emit character reference
+				output.append(entity);
+
+			} else {
+				// encode chars as hex char refs
+				writeHexRef(output, codePoint);
+				if (codePoint > 0xFFFF) {
+					i++;
+				}
+			}
+			start = i+1;
 		}
 
 		if (length > start) {
@@ -232,4 +265,36 @@ public class HTMLFormatter {
 
 		return this;
 	}
+
+	/**
+	 * Writes a hex char ref (minimum of 4 digits) without intermediate allocation
+	 * @param output
+	 * @param codePoint
+	 * @throws IOException
+	 */
+	private static void writeHexRef(Appendable output, int codePoint)
+		throws IOException {
+
+		output.append("&#x");
+
+		int shift = 12;
+		while (shift < 28 && (codePoint >>> (shift+4)) != 0) {
+			shift += 4;
+		}
+		for (; shift >= 0; shift -= 4) {
+			output.append(HEX_DIGITS[(codePoint >>> shift) & 0xF]);
+		}
+
+		output.append(';');
+	}
+
+	private static String toHexRef(int codePoint) {
+		StringBuilder buffer = new StringBuilder(8);
+		try {
+			writeHexRef(buffer, codePoint);
+		} catch (IOException ex) {
+			// StringBuilder does not throw
+		}
+		return buffer.toString();
+	}
 }
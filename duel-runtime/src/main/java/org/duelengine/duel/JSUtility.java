@@ -27,7 +27,7 @@ public final class JSUtility {
 	private static Set<String> globals;
 	private static Set<String> properties;
 	private static Set<String> browser;
-	private static boolean inited;
+	private static volatile boolean inited;
 
 	// static class
 	private JSUtility() {}
@@ -105,7 +105,11 @@ public final class JSUtility {
 		return properties.contains(ident);
 	}
 	
-	private static void initLookups() {
+	private static synchronized void initLookups() {
+		if (inited) {
+			// initialized by another thread
+			return;
+		}
 
 		String[] tags;
 		Set<String> set;
@@ -155,5 +159,8 @@ public final class JSUtility {
 			set.add(value);
 		}
 		browser = set;
+
+		// published only once all lookups are assigned
+		inited = true;
 	}
 }
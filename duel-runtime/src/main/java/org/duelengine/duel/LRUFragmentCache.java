@@ -0,0 +1,137 @@
+package org.duelengine.duel;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded in-memory FragmentCache which evicts the least recently used entries.
+ * Bounded both by entry count and by the total encoded bytes of the fragments held.
+ * Thread-safe via synchronization as the access order is mutated on every read.
+ */
+public class LRUFragmentCache implements FragmentCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 1024;
+	public static final long DEFAULT_MAX_BYTES = 16L << 20;
+
+	private static class Entry {
+		final Fragment fragment;
+		final long expires;
+
+		Entry(Fragment fragment, long expires) {
+			this.fragment = fragment;
+			this.expires = expires;
+		}
+	}
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private final long maxFragmentBytes;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long bytes;
+
+	public LRUFragmentCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+	}
+
+	public LRUFragmentCache(int maxEntries) {
+		this(maxEntries, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * @param maxEntries maximum number of fragments held
+	 * @param maxBytes budget for the encoded bytes of all fragments held
+	 */
+	public LRUFragmentCache(int maxEntries, long maxBytes) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be positive");
+		}
+		if (maxBytes < 1L) {
+			throw new IllegalArgumentException("maxBytes must be positive");
+		}
+
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+
+		// no single fragment may take over the cache
+		maxFragmentBytes = Math.max(maxBytes / 4L, 1L);
+	}
+
+	@Override
+	public Fragment get(String key) {
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry == null) {
+				return null;
+			}
+
+			if (entry.expires > 0L && entry.expires <= System.currentTimeMillis()) {
+				remove(key);
+				return null;
+			}
+
+			return entry.fragment;
+		}
+	}
+
+	@Override
+	public void put(String key, Fragment fragment, long ttl) {
+		if (key == null) {
+			throw new NullPointerException("key");
+		}
+		if (fragment == null) {
+			throw new NullPointerException("fragment");
+		}
+
+		long size = fragment.getByteSize();
+		Entry entry = new Entry(fragment, (ttl > 0L) ? System.currentTimeMillis()+ttl : 0L);
+		synchronized (entries) {
+			if (size > maxFragmentBytes) {
+				// too large to cache but any older version is now stale
+				remove(key);
+				return;
+			}
+
+			Entry old = entries.put(key, entry);
+			if (old != null) {
+				bytes -= old.fragment.getByteSize();
+			}
+			bytes += size;
+
+			Iterator<Entry> eldest = entries.values().iterator();
+			while (eldest.hasNext() && (entries.size() > maxEntries || bytes > maxBytes)) {
+				bytes -= eldest.next().fragment.getByteSize();
+				eldest.remove();
+			}
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return the encoded bytes of all fragments currently held
+	 */
+	public long bytes() {
+		synchronized (entries) {
+			return bytes;
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+			bytes = 0L;
+		}
+	}
+
+	private void remove(String key) {
+		Entry entry = entries.remove(key);
+		if (entry != null) {
+			bytes -= entry.fragment.getByteSize();
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package org.duelengine.duel;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The bean property accessors for a single class.
+ * Built once per class and shared by every ProxyMap wrapping an instance of it.
+ * Inherently thread-safe as contains no mutable instance data.
+ */
+final class ProxyAccessors {
+
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	/**
+	 * ClassValue stores each entry on the Class it describes, so the accessors
+	 * (whose MethodHandles reference that class) are only reachable through it
+	 * and are collected along with its class loader on redeploy.
+	 * This holds as long as ProxyAccessors never references the ClassValue itself
+	 * or any class other than the bean type and its supertypes.
+	 * The trade-off is that a class stays introspected for its whole lifetime.
+	 */
+	private static final ClassValue<ProxyAccessors> cache = new ClassValue<ProxyAccessors>() {
+		@Override
+		protected ProxyAccessors computeValue(Class<?> type) {
+			return new ProxyAccessors(type);
+		}
+	};
+
+	private final Map<String, MethodHandle> getters;
+	private final Map<String, MethodHandle> setters;
+
+	private ProxyAccessors(Class<?> type) {
+		Map<String, MethodHandle> readers = new LinkedHashMap<String, MethodHandle>();
+		Map<String, MethodHandle> writers = new LinkedHashMap<String, MethodHandle>();
+
+		try {
+			BeanInfo info = Introspector.getBeanInfo(type);
+
+			PropertyDescriptor[] properties = info.getPropertyDescriptors();
+			if (properties != null) {
+				for (PropertyDescriptor property : properties) {
+					if (property == null) {
+						continue;
+					}
+
+					String name = property.getName();
+					if ("class".equals(name)) {
+						continue;
+					}
+
+					MethodHandle reader = unreflect(property.getReadMethod(), GETTER_TYPE);
+					if (reader != null) {
+						readers.put(name, reader);
+					}
+
+					MethodHandle writer = unreflect(property.getWriteMethod(), SETTER_TYPE);
+					if (writer != null) {
+						writers.put(name, writer);
+					}
+				}
+			}
+
+		} catch (IntrospectionException ex) {
+			ex.printStackTrace();
+		}
+
+		getters = Collections.unmodifiableMap(readers);
+		setters = Collections.unmodifiableMap(writers);
+	}
+
+	/**
+	 * Gets the shared accessors for the given class
+	 * @param type
+	 * @return
+	 */
+	public static ProxyAccessors forClass(Class<?> type) {
+		return cache.get(type);
+	}
+
+	/**
+	 * Converts a bean method into a MethodHandle with an erased signature
+	 * @param method
+	 * @param type
+	 * @return the adapted handle or null if not accessible
+	 */
+	private static MethodHandle unreflect(Method method, MethodType type) {
+		if (method == null) {
+			return null;
+		}
+
+		try {
+			return MethodHandles.publicLookup().unreflect(method).asType(type);
+
+		} catch (IllegalAccessException ex) {
+			// public method declared on a non-public class
+		}
+
+		try {
+			method.setAccessible(true);
+			return MethodHandles.lookup().unreflect(method).asType(type);
+
+		} catch (IllegalAccessException ex) {
+			ex.printStackTrace();
+		} catch (RuntimeException ex) {
+			ex.printStackTrace();
+		}
+
+		return null;
+	}
+
+	public Map<String, MethodHandle> getGetters() {
+		return getters;
+	}
+
+	public boolean hasGetter(Object name) {
+		return getters.containsKey(name);
+	}
+
+	public boolean hasSetter(Object name) {
+		return setters.containsKey(name);
+	}
+
+	/**
+	 * Reads the named property from the bean
+	 * @param bean
+	 * @param name
+	 * @return property value or null if not readable
+	 */
+	public Object get(Object bean, Object name) {
+		return invokeGetter(getters.get(name), bean);
+	}
+
+	/**
+	 * Writes the named property to the bean
+	 * @param bean
+	 * @param name
+	 * @param value
+	 * @return true if a setter was found
+	 */
+	public boolean set(Object bean, Object name, Object value) {
+		MethodHandle setter = setters.get(name);
+		if (setter == null) {
+			return false;
+		}
+
+		try {
+			setter.invokeExact(bean, value);
+
+		} catch (RuntimeException ex) {
+			ex.printStackTrace();
+		} catch (Error ex) {
+			throw ex;
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+		}
+
+		return true;
+	}
+
+	static Object invokeGetter(MethodHandle getter, Object bean) {
+		if (getter == null) {
+			return null;
+		}
+
+		try {
+			return (Object)getter.invokeExact(bean);
+
+		} catch (RuntimeException ex) {
+			ex.printStackTrace();
+		} catch (Error ex) {
+			throw ex;
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+		}
+
+		return null;
+	}
+}
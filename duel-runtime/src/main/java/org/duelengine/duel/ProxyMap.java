@@ -1,31 +1,26 @@
 package org.duelengine.duel;
 
-import java.beans.BeanInfo;
-import java.beans.IntrospectionException;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandle;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
  * A proxy for arbitrary classes.
  * Allows bean-like property access via a Map interface,
- * and allows expando properties to be dynamically added
+ * and allows expando properties to be dynamically added.
+ * Property accessors are shared per class via {@link ProxyAccessors}.
  */
 class ProxyMap extends AbstractMap<String, Object> {
 
 	private final Object value;
-	private final Map<String, Method> getters;
-	private final Map<String, Method> setters;
+	private final ProxyAccessors accessors;
+	private final boolean readonly;
 	private Map<String, Object> expando;
-	private boolean inited;
 
 	public ProxyMap(Object proxyValue, boolean readonly) {
 		if (proxyValue == null) {
@@ -33,140 +28,95 @@ class ProxyMap extends AbstractMap<String, Object> {
 		}
 
 		value = proxyValue;
-		getters = new HashMap<String, Method>();
-		setters = readonly ? null : new HashMap<String, Method>();
+		accessors = ProxyAccessors.forClass(proxyValue.getClass());
+		this.readonly = readonly;
 	}
 
-	/**
-	 * Initializes all property getters/setters
-	 */
-	private void ensureProperties() {
-		if (inited) {
-			return;
-		}
-
-		try {
-			BeanInfo info = Introspector.getBeanInfo(value.getClass());
-
-			PropertyDescriptor[] properties = info.getPropertyDescriptors();
-			if (properties != null) {
-
-				boolean processSetters = !isReadonly();
-				for (PropertyDescriptor property : properties) {
-	                if (property == null) {
-	                	continue;
-	                }
-
-	                String name = property.getName();
-	                if ("class".equals(name)) {
-	                	continue;
-	                }
-
-	                Method readMethod = property.getReadMethod();
-	                if (readMethod != null) {
-	                	getters.put(name, readMethod);
-	                }
-
-	                if (processSetters) {
-		                Method writeMethod = property.getWriteMethod();
-		                if (writeMethod != null) {
-		                    setters.put(name, writeMethod);
-		                }
-	                }
-	            }
-	        }
-
-		} catch (IntrospectionException ex) {
-			ex.printStackTrace();
-
-		} finally {
-			inited = true;
-		}
+	Object getValue() {
+		return value;
 	}
 
 	public boolean isReadonly() {
-		return (setters == null);
+		return readonly;
 	}
 
 	@Override
 	public boolean isEmpty() {
-		ensureProperties();
-
-		return getters.isEmpty() && (expando == null || expando.isEmpty());
+		return accessors.getGetters().isEmpty() && (expando == null || expando.isEmpty());
 	}
 
 	@Override
-	public Object get(Object key) {
-		ensureProperties();
+	public int size() {
+		return accessors.getGetters().size() + expandoSize(accessors.getGetters(), expando);
+	}
 
-		Method method = getters.get(key);
-		if (method == null) {
-			if (expando == null) {
-				return null;
+	/**
+	 * Counts the expando properties not shadowed by a bean property
+	 * @param getters
+	 * @param expando
+	 * @return
+	 */
+	static int expandoSize(Map<String, MethodHandle> getters, Map<String, Object> expando) {
+		if (expando == null) {
+			return 0;
+		}
+
+		int size = 0;
+		for (String key : expando.keySet()) {
+			if (!getters.containsKey(key)) {
+				size++;
 			}
-			return expando.get(key); 
 		}
+		return size;
+	}
 
-		try {
-			return method.invoke(value);
+	@Override
+	public boolean containsKey(Object key) {
+		return accessors.hasGetter(key) || (expando != null && expando.containsKey(key));
+	}
 
-		} catch (InvocationTargetException ex) {
-			ex.printStackTrace();
-		} catch (IllegalArgumentException ex) {
-			ex.printStackTrace();
-		} catch (IllegalAccessException ex) {
-			ex.printStackTrace();
+	@Override
+	public Object get(Object key) {
+		if (!accessors.hasGetter(key)) {
+			if (expando == null) {
+				return null;
+			}
+			return expando.get(key);
 		}
 
-		return null;
+		return accessors.get(value, key);
 	}
 
 	@Override
-	public Object put(String key, Object value) {
+	public Object put(String key, Object newValue) {
 		if (isReadonly()) {
 			throw new IllegalStateException("The ProxyMap is readonly");
 		}
 
-		ensureProperties();
-
-		Method method = setters.get(key);
-		if (method == null) {
+		if (!accessors.hasSetter(key)) {
 			if (expando == null) {
 				expando = new LinkedHashMap<String, Object>();
 			}
-			return expando.put(key, value);
+			return expando.put(key, newValue);
 		}
 
-		try {
-			Object old = get(key);
-			method.invoke(value, value);
-			return old;
-
-		} catch (InvocationTargetException ex) {
-			ex.printStackTrace();
-		} catch (IllegalArgumentException ex) {
-			ex.printStackTrace();
-		} catch (IllegalAccessException ex) {
-			ex.printStackTrace();
-		}
-
-		return null;
+		Object old = get(key);
+		accessors.set(value, key, newValue);
+		return old;
 	}
 
 	@Override
 	public Set<Map.Entry<String, Object>> entrySet() {
-		ensureProperties();
-
-		return new ProxyEntrySet(value, getters, expando);
+		return new ProxyEntrySet(value, accessors.getGetters(), expando);
 	}
 
 	static class ProxyEntrySet extends AbstractSet<Map.Entry<String, Object>> {
 
 		private final Object value;
-		private final Map<String, Method> getters;
+		private final Map<String, MethodHandle> getters;
 		private final Map<String, Object> expando;
 
-		public ProxyEntrySet(Object value, Map<String, Method> getters, Map<String, Object> expando) {
+		public ProxyEntrySet(Object value, Map<String, MethodHandle> getters, Map<String, Object> expando) {
 			this.value = value;
 			this.getters = getters;
 			this.expando = expando;
@@ -184,52 +134,64 @@ class ProxyMap extends AbstractMap<String, Object> {
 
 		@Override
 		public int size() {
-			return getters.size() + (expando == null ? 0 : expando.size());
+			return getters.size() + expandoSize(getters, expando);
 		}
 	}
 
 	static class ProxyIterator implements Iterator<Map.Entry<String, Object>> {
 
 		private final Object value;
-		private final Map<String, Method> getters;
+		private final Map<String, MethodHandle> getters;
 		private final Map<String, Object> expando;
-		private final Iterator<String> getterIterator;
+		private final Iterator<Map.Entry<String, MethodHandle>> getterIterator;
 		private final Iterator<String> expandoIterator;
+		private String nextExpando;
 
-		public ProxyIterator(Object value, Map<String, Method> getters, Map<String, Object> expando) {
+		public ProxyIterator(Object value, Map<String, MethodHandle> getters, Map<String, Object> expando) {
 			this.value = value;
 			this.getters = getters;
 			this.expando = expando;
-			getterIterator = getters.keySet().iterator(); 
-			expandoIterator = (expando != null) ? expando.keySet().iterator() : null; 
+			getterIterator = getters.entrySet().iterator();
+			expandoIterator = (expando != null) ? expando.keySet().iterator() : null;
 		}
 
 		@Override
 		public boolean hasNext() {
-			return getterIterator.hasNext() || (expando != null && expandoIterator.hasNext());
+			if (getterIterator.hasNext() || nextExpando != null) {
+				return true;
+			}
+			if (expandoIterator == null) {
+				return false;
+			}
+
+			// skip expando properties shadowed by a bean property
+			while (expandoIterator.hasNext()) {
+				String key = expandoIterator.next();
+				if (!getters.containsKey(key)) {
+					nextExpando = key;
+					return true;
+				}
+			}
+			return false;
 		}
 
 		@Override
 		public Map.Entry<String, Object> next() {
-			String key = null;
-			Object val = null;
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			String key;
+			Object val;
 			if (getterIterator.hasNext()) {
-				key = getterIterator.next();
-				Method method = getters.get(key);
-	
-				try {
-					val = method.invoke(value);
-	
-				} catch (InvocationTargetException ex) {
-					ex.printStackTrace();
-				} catch (IllegalArgumentException ex) {
-					ex.printStackTrace();
-				} catch (IllegalAccessException ex) {
-					ex.printStackTrace();
-				}
-			} else if (expando != null){
-				key = expandoIterator.next();
+				Map.Entry<String, MethodHandle> getter = getterIterator.next();
+				key = getter.getKey();
+				val = ProxyAccessors.invokeGetter(getter.getValue(), value);
+
+			} else {
+				key = nextExpando;
 				val = expando.get(key);
+				nextExpando = null;
 			}
 
 			return new AbstractMap.SimpleImmutableEntry<String, Object>(key, val);
@@ -0,0 +1,95 @@
+package org.duelengine.duel;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Maps view names to view constructors.
+ * A subclass is generated alongside the compiled views so that
+ * views may be created without reflective class lookup.
+ * Inherently thread-safe as registration only occurs during construction.
+ */
+public abstract class ViewRegistry {
+
+	/**
+	 * The simple name of the generated registry within the server prefix namespace
+	 */
+	public static final String GENERATED_NAME = "DuelViewRegistry";
+
+	private final Map<String, Supplier<? extends DuelView>> views = new LinkedHashMap<String, Supplier<? extends DuelView>>();
+
+	/**
+	 * Adds a view constructor
+	 * @param viewName the view name without the server prefix
+	 * @param ctor
+	 */
+	protected void register(String viewName, Supplier<? extends DuelView> ctor) {
+		if (viewName == null) {
+			throw new NullPointerException("viewName");
+		}
+		if (ctor == null) {
+			throw new NullPointerException("ctor");
+		}
+
+		views.put(viewName, ctor);
+	}
+
+	/**
+	 * Gets the names of all registered views
+	 * @return
+	 */
+	public Set<String> getViewNames() {
+		return Collections.unmodifiableSet(views.keySet());
+	}
+
+	public boolean hasView(String viewName) {
+		return views.containsKey(viewName);
+	}
+
+	/**
+	 * Creates a new instance of the named view
+	 * @param viewName the view name without the server prefix
+	 * @return the view or null if not registered
+	 */
+	public DuelView create(String viewName) {
+		Supplier<? extends DuelView> ctor = views.get(viewName);
+		return (ctor != null) ? ctor.get() : null;
+	}
+
+	/**
+	 * Loads the generated registry for the given server prefix
+	 * @param serverPrefix
+	 * @param classLoader
+	 * @return the registry or null if views were compiled without one
+	 */
+	public static ViewRegistry load(String serverPrefix, ClassLoader classLoader) {
+		String type = GENERATED_NAME;
+		if (serverPrefix != null && !serverPrefix.isEmpty()) {
+			if (serverPrefix.endsWith(".")) {
+				type = serverPrefix + type;
+			} else {
+				type = serverPrefix + '.' + type;
+			}
+		}
+
+		try {
+			return Class.forName(type, true, classLoader).asSubclass(ViewRegistry.class).getDeclaredConstructor().newInstance();
+
+		} catch (ClassNotFoundException ex) {
+			return null;
+
+		} catch (InvocationTargetException ex) {
+			// report what the registry itself threw rather than the reflective wrapper
+			ex.getCause().printStackTrace();
+			return null;
+
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			return null;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package org.duelengine.duel;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class ByteOutputTest {
+
+	@Test
+	public void appendASCIITest() throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		ByteOutput output = new ByteOutput(stream);
+
+		output.append("<div class=\"foo\">").append('x').append("</div>", 0, 6);
+		output.flush();
+
+		assertEquals("<div class=\"foo\">x</div>", new String(stream.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void appendNonASCIITest() throws IOException {
+		String expected = "café ☃ 😀";
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		ByteOutput output = new ByteOutput(stream);
+
+		output.append(expected);
+		output.flush();
+
+		assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), stream.toByteArray());
+	}
+
+	@Test
+	public void appendSplitSurrogateTest() throws IOException {
+		String expected = "a😀b";
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		ByteOutput output = new ByteOutput(stream);
+
+		output.append(expected, 0, 2);
+		output.append(expected.charAt(2));
+		output.append(expected, 3, 4);
+		output.flush();
+
+		assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), stream.toByteArray());
+	}
+
+	@Test
+	public void writeBytesTest() throws IOException {
+		StringBuilder large = new StringBuilder();
+		for (int i=0; i<1000; i++) {
+			large.append("<p>élément</p>");
+		}
+		String expected = "<ul>"+large+"</ul>";
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		ByteOutput output = new ByteOutput(stream);
+
+		output.write("<ul>".getBytes(StandardCharsets.UTF_8));
+		output.append(large);
+		output.write("</ul>".getBytes(StandardCharsets.UTF_8));
+		output.flush();
+
+		assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), stream.toByteArray());
+	}
+
+	@Test
+	public void nonUTF8Test() throws IOException {
+		String expected = "café";
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		ByteOutput output = new ByteOutput(stream, "ISO-8859-1");
+
+		output.append(expected);
+		output.flush();
+
+		assertFalse(output.isUTF8());
+		assertArrayEquals(expected.getBytes(StandardCharsets.ISO_8859_1), stream.toByteArray());
+	}
+}
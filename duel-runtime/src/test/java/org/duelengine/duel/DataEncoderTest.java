@@ -652,4 +652,62 @@ public class DataEncoderTest {
 
 		assertEquals(expected, actual);
 	}
+
+	@Test
+	public void writeStringSurrogatePairTest() throws IOException {
+		Object input = "a\uD83D\uDE00b\u007F";
+
+		String expected = "'a\\uD83D\\uDE00b\\u007F'";
+
+		StringBuilder output = new StringBuilder();
+		new DataEncoder().write(output, input);
+		String actual = output.toString();
+
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void writeStringCacheTest() throws IOException {
+		DataEncoder.StringCache cache = new DataEncoder.StringCache(10, 4);
+		Object input = DuelData.asMap(
+				"a", "caf\u00E9 'quoted'",
+				"b", "abc"
+			);
+
+		String expected = "{a:'caf\\u00E9 \\'quoted\\'',b:'abc'}";
+		String expectedJSON = "{\"a\":\"caf\\u00E9 'quoted'\",\"b\":\"abc\"}";
+
+		DataEncoder encoder = new DataEncoder(null, null, cache);
+		assertEquals(expected, encoder.encode(input));
+		assertEquals(1, cache.size());
+		assertEquals(expected, encoder.encode(input));
+		assertEquals(expectedJSON, encoder.encodeJSON(input));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void writeStringCacheEvictionTest() throws IOException {
+		// room for three 8-char strings and their 10-char literals
+		DataEncoder.StringCache cache = new DataEncoder.StringCache(10, 4, 54);
+		DataEncoder encoder = new DataEncoder(null, null, cache);
+
+		encoder.encode("config-1");
+		encoder.encode("request1");
+		encoder.encode("request2");
+		assertEquals(3, cache.size());
+		assertEquals(54, cache.chars());
+
+		// the frequently used value stays while one-off values are evicted
+		encoder.encode("config-1");
+		encoder.encode("request3");
+		assertEquals(3, cache.size());
+		assertEquals(54, cache.chars());
+		encoder.encode("request4");
+		assertEquals("'config-1'", encoder.encode("config-1"));
+		assertEquals(3, cache.size());
+
+		// strings over a quarter of the budget are not admitted
+		encoder.encode("a long one-off value");
+		assertEquals(3, cache.size());
+	}
 }
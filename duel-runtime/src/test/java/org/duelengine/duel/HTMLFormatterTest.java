@@ -0,0 +1,64 @@
+package org.duelengine.duel;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class HTMLFormatterTest {
+
+	@Test
+	public void writeLiteralSafeTest() throws IOException {
+		String input = "Nothing to see here.\n\tMove along.";
+
+		StringBuilder output = new StringBuilder();
+		new HTMLFormatter().writeLiteral(output, input);
+
+		assertEquals(input, output.toString());
+	}
+
+	@Test
+	public void writeLiteralEntitiesTest() throws IOException {
+		String input = "<a href=\"#\">Fish & Chips\u00A0©™…</a>\u0001\u007F\uFDD0";
+		String expected = "&lt;a href=\"#\"&gt;Fish &amp; Chips&nbsp;&copy;&trade;&hellip;&lt;/a&gt;&#x0001;&#x007F;&#xFDD0;";
+
+		StringBuilder output = new StringBuilder();
+		new HTMLFormatter().writeLiteral(output, input);
+
+		assertEquals(expected, output.toString());
+	}
+
+	@Test
+	public void writeLiteralNonASCIITest() throws IOException {
+		String input = "café üж中 😀!";
+		String expected = "caf&eacute; &#x00FC;&#x0436;&#x4E2D; &#x1F600;!";
+
+		StringBuilder output = new StringBuilder();
+		new HTMLFormatter().writeLiteral(output, input, true);
+
+		assertEquals(expected, output.toString());
+	}
+
+	@Test
+	public void writeLiteralNonASCIIUnencodedTest() throws IOException {
+		String input = "café üж中 😀!";
+		String expected = "caf&eacute; üж中 😀!";
+
+		StringBuilder output = new StringBuilder();
+		new HTMLFormatter().writeLiteral(output, input, false);
+
+		assertEquals(expected, output.toString());
+	}
+
+	@Test
+	public void writeAttributeTest() throws IOException {
+		String input = "line one\r\n\t\"quoted\" & <tagged>";
+		String expected = " title=\"line one&#x000D;&#x000A;&#x0009;&quot;quoted&quot; &amp; &lt;tagged&gt;\"";
+
+		StringBuilder output = new StringBuilder();
+		new HTMLFormatter().writeAttribute(output, "title", input);
+
+		assertEquals(expected, output.toString());
+	}
+}
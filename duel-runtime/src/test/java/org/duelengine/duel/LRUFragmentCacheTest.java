@@ -0,0 +1,256 @@
+package org.duelengine.duel;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class LRUFragmentCacheTest {
+
+	static class CachedView extends DuelView {
+		int renderCount;
+
+		@Override
+		protected void render(DuelContext context, Object data, int index, int count, String key)
+			throws IOException {
+
+			this.write(context, "<nav>");
+			String frag_1 = this.fragmentKey(context, "CachedView#1", data);
+			if (!this.writeFragment(context, frag_1)) {
+				this.beginFragment(context, frag_1);
+				renderCount++;
+				this.write(context, "<ul><li>");
+				this.htmlEncode(context, data);
+				this.write(context, "</li></ul>");
+				this.endFragment(context, frag_1, 0.0);
+			}
+			this.write(context, "</nav>");
+		}
+	}
+
+	static class SideEffectView extends DuelView {
+		int renderCount;
+
+		@Override
+		protected void render(DuelContext context, Object data, int index, int count, String key)
+			throws IOException {
+
+			String id_1 = this.nextID(context);
+			this.write(context, "<p id=\"");
+			this.write(context, id_1);
+			this.write(context, "\"></p>");
+			String frag_1 = this.fragmentKey(context, "SideEffectView#1", "static");
+			if (!this.writeFragment(context, frag_1)) {
+				this.beginFragment(context, frag_1);
+				renderCount++;
+				String id_2 = this.nextID(context);
+				this.putExtra(context, "menu", id_2);
+				this.write(context, "<ul id=\"");
+				this.write(context, id_2);
+				this.write(context, "\"></ul>");
+				if (Boolean.TRUE.equals(data)) {
+					this.writeExtras(context, true);
+				}
+				this.endFragment(context, frag_1, 0.0);
+			}
+		}
+	}
+
+	static class FailingView extends DuelView {
+		@Override
+		protected void render(DuelContext context, Object data, int index, int count, String key)
+			throws IOException {
+
+			String frag_1 = this.fragmentKey(context, "FailingView#1", data);
+			if (!this.writeFragment(context, frag_1)) {
+				this.beginFragment(context, frag_1);
+				this.write(context, "<b>partial");
+				throw new IllegalStateException("failed");
+			}
+		}
+	}
+
+	@Test
+	public void evictLeastRecentlyUsedTest() {
+		LRUFragmentCache cache = new LRUFragmentCache(2);
+		cache.put("a", new Fragment("A"), 0L);
+		cache.put("b", new Fragment("B"), 0L);
+
+		// touch a so b becomes eldest
+		assertEquals("A", cache.get("a").getOutput());
+		cache.put("c", new Fragment("C"), 0L);
+
+		assertEquals(2, cache.size());
+		assertEquals("A", cache.get("a").getOutput());
+		assertNull(cache.get("b"));
+		assertEquals("C", cache.get("c").getOutput());
+	}
+
+	@Test
+	public void evictOverByteBudgetTest() {
+		// 12 bytes in all, no fragment over a quarter
+		LRUFragmentCache cache = new LRUFragmentCache(100, 12L);
+		cache.put("a", new Fragment("AAA"), 0L);
+		cache.put("b", new Fragment("BBB"), 0L);
+		cache.put("c", new Fragment("\u00e9C"), 0L);
+		cache.put("d", new Fragment("DDD"), 0L);
+		assertEquals(4, cache.size());
+		assertEquals(12L, cache.bytes());
+
+		cache.put("e", new Fragment("EE"), 0L);
+
+		assertNull(cache.get("a"));
+		assertEquals(4, cache.size());
+		assertEquals(11L, cache.bytes());
+
+		// replacing an entry releases its old bytes
+		cache.put("e", new Fragment("E"), 0L);
+		assertEquals(10L, cache.bytes());
+	}
+
+	@Test
+	public void oversizeNotCachedTest() {
+		LRUFragmentCache cache = new LRUFragmentCache(100, 12L);
+		cache.put("a", new Fragment("AAA"), 0L);
+		cache.put("a", new Fragment("AAAA"), 0L);
+
+		// the stale version is dropped too
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.size());
+		assertEquals(0L, cache.bytes());
+	}
+
+	@Test
+	public void renderFragmentBytesTest() throws IOException {
+		CachedView view = new CachedView();
+		FragmentCache cache = new LRUFragmentCache();
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		for (int i=0; i<2; i++) {
+			ByteOutput output = new ByteOutput(stream);
+			view.render(new DuelContext().setFragmentCache(cache).setOutput(output).setData("caf\u00e9"));
+			output.flush();
+		}
+
+		assertEquals(
+			"<nav><ul><li>caf&eacute;</li></ul></nav>"+
+			"<nav><ul><li>caf&eacute;</li></ul></nav>",
+			new String(stream.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals(1, view.renderCount);
+	}
+
+	@Test
+	public void expiredTest() throws InterruptedException {
+		LRUFragmentCache cache = new LRUFragmentCache();
+		cache.put("a", new Fragment("A"), 1L);
+		cache.put("b", new Fragment("B"), 60000L);
+
+		Thread.sleep(5L);
+
+		assertNull(cache.get("a"));
+		assertEquals("B", cache.get("b").getOutput());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void renderFragmentTest() throws IOException {
+		CachedView view = new CachedView();
+		FragmentCache cache = new LRUFragmentCache();
+
+		StringBuilder output = new StringBuilder();
+		view.render(new DuelContext().setFragmentCache(cache).setOutput(output).setData("One"));
+		view.render(new DuelContext().setFragmentCache(cache).setOutput(output).setData("One"));
+		view.render(new DuelContext().setFragmentCache(cache).setOutput(output).setData("Two"));
+
+		assertEquals(
+			"<nav><ul><li>One</li></ul></nav>"+
+			"<nav><ul><li>One</li></ul></nav>"+
+			"<nav><ul><li>Two</li></ul></nav>",
+			output.toString());
+		assertEquals(2, view.renderCount);
+	}
+
+	@Test
+	public void renderNullKeyTest() throws IOException {
+		CachedView view = new CachedView();
+		LRUFragmentCache cache = new LRUFragmentCache();
+
+		StringBuilder output = new StringBuilder();
+		view.render(new DuelContext().setFragmentCache(cache).setOutput(output).setData(null));
+		view.render(new DuelContext().setFragmentCache(cache).setOutput(output).setData(JSUtility.UNDEFINED));
+
+		assertEquals(0, cache.size());
+		assertEquals(2, view.renderCount);
+	}
+
+	@Test
+	public void replaySideEffectsTest() throws IOException {
+		SideEffectView view = new SideEffectView();
+		FragmentCache cache = new LRUFragmentCache();
+
+		// first render captures _0 within the fragment
+		DuelContext first = new DuelContext().setFragmentCache(cache).setOutput(new StringBuilder());
+		view.render(first);
+		assertEquals("<p id=\"_0\"></p><ul id=\"_1\"></ul>", first.getOutput().toString());
+
+		// replay issues its own IDs and restores the extras
+		DuelContext second = new DuelContext().setFragmentCache(cache).setOutput(new StringBuilder());
+		second.nextID();
+		second.nextID();
+		view.render(second);
+		assertEquals("<p id=\"_2\"></p><ul id=\"_3\"></ul>", second.getOutput().toString());
+		assertEquals("_3", second.getExtra("menu"));
+		assertEquals("_4", second.nextID());
+
+		assertEquals(1, view.renderCount);
+	}
+
+	@Test
+	public void emittedExtrasNotCachedTest() throws IOException {
+		SideEffectView view = new SideEffectView();
+		LRUFragmentCache cache = new LRUFragmentCache();
+
+		view.render(new DuelContext().setFragmentCache(cache).setData(true));
+		view.render(new DuelContext().setFragmentCache(cache).setData(true));
+
+		assertEquals(0, cache.size());
+		assertEquals(2, view.renderCount);
+	}
+
+	@Test
+	public void renderExceptionTest() throws IOException {
+		FailingView view = new FailingView();
+		LRUFragmentCache cache = new LRUFragmentCache();
+
+		StringBuilder output = new StringBuilder();
+		DuelContext context = new DuelContext().setFragmentCache(cache).setOutput(output).setData("One");
+		try {
+			view.render(context);
+			fail("expected IllegalStateException");
+		} catch (IllegalStateException ex) {
+			// expected
+		}
+
+		assertSame(output, context.getOutput());
+		assertEquals("<b>partial", output.toString());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void renderWithoutCacheTest() throws IOException {
+		CachedView view = new CachedView();
+
+		StringBuilder output = new StringBuilder();
+		view.render(new DuelContext().setOutput(output).setData("One"));
+		view.render(new DuelContext().setOutput(output).setData("One"));
+
+		assertEquals(
+			"<nav><ul><li>One</li></ul></nav>"+
+			"<nav><ul><li>One</li></ul></nav>",
+			output.toString());
+		assertEquals(2, view.renderCount);
+	}
+}
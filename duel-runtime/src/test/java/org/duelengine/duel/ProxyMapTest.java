@@ -0,0 +1,125 @@
+package org.duelengine.duel;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ProxyMapTest {
+
+	public static class Bean {
+		private String name;
+		private int count;
+
+		public Bean(String name, int count) {
+			this.name = name;
+			this.count = count;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String value) {
+			name = value;
+		}
+
+		public int getCount() {
+			return count;
+		}
+	}
+
+	@Test
+	public void getPropertyTest() {
+		Map<String, Object> actual = new ProxyMap(new Bean("foo", 42), true);
+
+		assertEquals("foo", actual.get("name"));
+		assertEquals(42, actual.get("count"));
+		assertNull(actual.get("missing"));
+	}
+
+	@Test
+	public void containsKeyTest() {
+		Map<String, Object> actual = new ProxyMap(new Bean("foo", 42), true);
+
+		assertTrue(actual.containsKey("name"));
+		assertTrue(actual.containsKey("count"));
+		assertFalse(actual.containsKey("class"));
+		assertFalse(actual.containsKey("missing"));
+		assertEquals(2, actual.size());
+	}
+
+	@Test
+	public void putSetterTest() {
+		Bean input = new Bean("foo", 42);
+		Map<String, Object> actual = new ProxyMap(input, false);
+
+		assertEquals("foo", actual.put("name", "bar"));
+		assertEquals("bar", input.getName());
+		assertEquals("bar", actual.get("name"));
+	}
+
+	@Test
+	public void putExpandoTest() {
+		Map<String, Object> actual = new ProxyMap(new Bean("foo", 42), false);
+
+		assertNull(actual.put("extra", true));
+		assertEquals(true, actual.get("extra"));
+		assertTrue(actual.containsKey("extra"));
+		assertEquals(3, actual.size());
+	}
+
+	@Test
+	public void putShadowedExpandoTest() {
+		Map<String, Object> actual = new ProxyMap(new Bean("foo", 42), false);
+
+		// count is read-only so lands in expando behind the getter
+		actual.put("count", 7);
+		assertEquals(42, actual.get("count"));
+		assertEquals(2, actual.size());
+		assertEquals(2, actual.entrySet().size());
+
+		int count = 0;
+		for (Map.Entry<String, Object> entry : actual.entrySet()) {
+			if ("count".equals(entry.getKey())) {
+				assertEquals(42, entry.getValue());
+			}
+			count++;
+		}
+		assertEquals(2, count);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void putReadonlyTest() {
+		Map<String, Object> actual = new ProxyMap(new Bean("foo", 42), true);
+
+		actual.put("name", "bar");
+	}
+
+	@Test
+	public void entrySetTest() {
+		Map<String, Object> actual = new ProxyMap(new Bean("foo", 42), true);
+
+		int count = 0;
+		for (Map.Entry<String, Object> entry : actual.entrySet()) {
+			if ("name".equals(entry.getKey())) {
+				assertEquals("foo", entry.getValue());
+			} else {
+				assertEquals("count", entry.getKey());
+				assertEquals(42, entry.getValue());
+			}
+			count++;
+		}
+		assertEquals(2, count);
+	}
+
+	@Test
+	public void sharedAccessorsTest() {
+		ProxyAccessors expected = ProxyAccessors.forClass(Bean.class);
+
+		ProxyAccessors actual = ProxyAccessors.forClass(new Bean("bar", 0).getClass());
+
+		assertSame(expected, actual);
+	}
+}
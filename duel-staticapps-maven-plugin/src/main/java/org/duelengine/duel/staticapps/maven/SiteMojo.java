@@ -96,6 +96,9 @@ public abstract class SiteMojo extends AbstractMojo {
 		if (config.targetDir() != null) {
 			config.targetDir(new File(configFile.getParentFile(), config.targetDir()).getPath());
 		}
+		if (config.workDir() != null) {
+			config.workDir(new File(configFile.getParentFile(), config.workDir()).getPath());
+		}
 
 		return config;
 	}
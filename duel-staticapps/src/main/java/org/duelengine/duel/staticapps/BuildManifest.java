@@ -0,0 +1,166 @@
+package org.duelengine.duel.staticapps;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.duelengine.duel.utils.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Records the inputs of each generated page and the content of each copied resource
+ * so that a later build may skip any output whose inputs are unchanged.
+ */
+@JsonIgnoreProperties(ignoreUnknown=true)
+public class BuildManifest {
+
+	private static final Logger log = LoggerFactory.getLogger(BuildManifest.class);
+
+	/**
+	 * The manifest file name within the work directory
+	 */
+	public static final String FILE_NAME = ".duel-build.json";
+
+	/**
+	 * A generated page
+	 */
+	@JsonIgnoreProperties(ignoreUnknown=true)
+	public static class Page {
+		private String inputs;
+		private Map<String, String> links;
+		private Map<String, String> fingerprints;
+
+		/**
+		 * @return the hash of all inputs used to generate the page
+		 */
+		@JsonProperty
+		public String inputs() {
+			return inputs;
+		}
+
+		/**
+		 * @value the hash of all inputs used to generate the page
+		 */
+		@JsonProperty
+		public Page inputs(String value) {
+			inputs = value;
+			return this;
+		}
+
+		/**
+		 * @return the links referenced by the page
+		 */
+		@JsonProperty
+		public Map<String, String> links() {
+			return links;
+		}
+
+		/**
+		 * @value the links referenced by the page
+		 */
+		@JsonProperty
+		public Page links(Map<String, String> value) {
+			links = value;
+			return this;
+		}
+
+		/**
+		 * @return the fingerprinted URLs referenced by the page
+		 */
+		@JsonProperty
+		public Map<String, String> fingerprints() {
+			return fingerprints;
+		}
+
+		/**
+		 * @value the fingerprinted URLs referenced by the page
+		 */
+		@JsonProperty
+		public Page fingerprints(Map<String, String> value) {
+			fingerprints = value;
+			return this;
+		}
+	}
+
+	private Map<String, Page> pages = new ConcurrentHashMap<String, Page>();
+	private Map<String, String> resources = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @return the generated pages by target path
+	 */
+	@JsonProperty
+	public Map<String, Page> pages() {
+		return pages;
+	}
+
+	/**
+	 * @value the generated pages by target path
+	 */
+	@JsonProperty
+	public BuildManifest pages(Map<String, Page> value) {
+		pages = new ConcurrentHashMap<String, Page>();
+		if (value != null) {
+			pages.putAll(value);
+		}
+		return this;
+	}
+
+	/**
+	 * @return the content hash of copied resources by target path
+	 */
+	@JsonProperty
+	public Map<String, String> resources() {
+		return resources;
+	}
+
+	/**
+	 * @value the content hash of copied resources by target path
+	 */
+	@JsonProperty
+	public BuildManifest resources(Map<String, String> value) {
+		resources = new ConcurrentHashMap<String, String>();
+		if (value != null) {
+			resources.putAll(value);
+		}
+		return this;
+	}
+
+	/**
+	 * Reads the manifest of the previous build
+	 * @param workDir
+	 * @return the manifest or an empty one if missing or unreadable
+	 */
+	public static BuildManifest read(File workDir) {
+		File manifestFile = new File(workDir, FILE_NAME);
+		if (manifestFile.isFile()) {
+			try {
+				return DataFileCache.MAPPER.readerFor(BuildManifest.class).readValue(manifestFile);
+
+			} catch (IOException ex) {
+				log.warn("Ignoring unreadable build manifest: "+manifestFile, ex);
+			}
+		}
+		return new BuildManifest();
+	}
+
+	/**
+	 * Writes the manifest for the next build
+	 * @param workDir
+	 */
+	public void write(File workDir) {
+		File manifestFile = new File(workDir, FILE_NAME);
+		FileUtil.prepSavePath(manifestFile);
+
+		try {
+			DataFileCache.MAPPER.writeValue(manifestFile, this);
+
+		} catch (IOException ex) {
+			log.error(ex.getMessage(), ex);
+		}
+	}
+}
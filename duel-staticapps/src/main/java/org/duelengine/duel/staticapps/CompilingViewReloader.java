@@ -0,0 +1,29 @@
+package org.duelengine.duel.staticapps;
+
+import java.io.File;
+
+import org.duelengine.duel.ViewRegistry;
+import org.duelengine.duel.compiler.RuntimeViewCompiler;
+
+/**
+ * Compiles edited templates straight into memory.
+ * The only class referencing duel-compiler, so must not be linked unless it is present.
+ */
+class CompilingViewReloader implements ViewReloader {
+
+	private final RuntimeViewCompiler compiler;
+
+	CompilingViewReloader(File viewsDir, String serverPrefix, ClassLoader classLoader) {
+		compiler = new RuntimeViewCompiler(viewsDir, serverPrefix, classLoader);
+	}
+
+	@Override
+	public boolean isStale() {
+		return compiler.isStale();
+	}
+
+	@Override
+	public ViewRegistry refresh() {
+		return compiler.refresh();
+	}
+}
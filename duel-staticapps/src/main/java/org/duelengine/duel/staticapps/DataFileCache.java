@@ -0,0 +1,122 @@
+package org.duelengine.duel.staticapps;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Holds one parsed tree per JSON data file, re-parsing only when the file changes.
+ * Each caller gets its own copy of the tree since views may assign into their data.
+ */
+public class DataFileCache {
+
+	/**
+	 * Shared mapper as ObjectMapper is thread-safe once configured
+	 */
+	public static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static class Entry {
+		final Object data;
+		final long modified;
+		final long length;
+
+		Entry(Object data, long modified, long length) {
+			this.data = data;
+			this.modified = modified;
+			this.length = length;
+		}
+	}
+
+	private final ObjectReader reader;
+	private final ConcurrentMap<File, Entry> entries = new ConcurrentHashMap<File, Entry>();
+
+	public DataFileCache() {
+		this(MAPPER);
+	}
+
+	public DataFileCache(ObjectMapper mapper) {
+		if (mapper == null) {
+			throw new NullPointerException("mapper");
+		}
+
+		reader = mapper.readerFor(Object.class);
+	}
+
+	/**
+	 * Gets the parsed contents of the data file
+	 * @param dataFile canonical file path
+	 * @return a copy which the caller is free to modify
+	 * @throws IOException
+	 */
+	public Object get(File dataFile)
+			throws IOException {
+
+		if (dataFile == null) {
+			throw new NullPointerException("dataFile");
+		}
+
+		// cheap freshness check: a modified time of zero means missing
+		long modified = dataFile.lastModified();
+		long length = dataFile.length();
+		if (modified == 0L) {
+			entries.remove(dataFile);
+			throw new FileNotFoundException(dataFile.toString());
+		}
+
+		Entry entry = entries.get(dataFile);
+		if (entry == null || entry.modified != modified || entry.length != length) {
+			// parse outside of any lock then swap in the new tree
+			// concurrent parses of the same version are equivalent so last one wins
+			entry = new Entry(reader.readValue(dataFile), modified, length);
+			entries.put(dataFile, entry);
+		}
+
+		// the cached tree itself is never handed out
+		return copy(entry.data);
+	}
+
+	/**
+	 * Copies the containers of a parsed tree, sharing the immutable leaf values
+	 * @param data
+	 * @return
+	 */
+	static Object copy(Object data) {
+		if (data instanceof Map<?, ?>) {
+			Map<?, ?> map = (Map<?, ?>)data;
+			Map<Object, Object> copy = new LinkedHashMap<Object, Object>((int)(map.size()/0.75f)+1);
+			for (Map.Entry<?, ?> property : map.entrySet()) {
+				copy.put(property.getKey(), copy(property.getValue()));
+			}
+			return copy;
+		}
+
+		if (data instanceof List<?>) {
+			List<?> list = (List<?>)data;
+			List<Object> copy = new ArrayList<Object>(list.size());
+			for (Object item : list) {
+				copy.add(copy(item));
+			}
+			return copy;
+		}
+
+		// strings, numbers, booleans and null
+		return data;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+}
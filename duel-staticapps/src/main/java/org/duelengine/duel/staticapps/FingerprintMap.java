@@ -0,0 +1,171 @@
+package org.duelengine.duel.staticapps;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.duelengine.duel.utils.DigestCache;
+import org.duelengine.duel.utils.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Assigns content-addressed names to static resources so they may be cached indefinitely,
+ * e.g., "/cdn/app.min.js" => "/cdn/app.min.0123456789abcdef.js"
+ * Documents keep their names as they are entry points with stable URLs.
+ * Thread-safe so may be shared across workers.
+ */
+public class FingerprintMap {
+
+	private static final Logger log = LoggerFactory.getLogger(FingerprintMap.class);
+
+	/**
+	 * The generated map file name within the work directory
+	 */
+	public static final String FILE_NAME = "cdn-fingerprints.properties";
+	private static final int HASH_LENGTH = 16;
+
+	private final File sourceDir;
+	private final DigestCache digests;
+	private final ConcurrentMap<String, String> names = new ConcurrentHashMap<String, String>();
+	private final ConcurrentMap<String, String> sources = new ConcurrentHashMap<String, String>();
+
+	public FingerprintMap(File sourceDir, DigestCache digests) {
+		if (sourceDir == null) {
+			throw new NullPointerException("sourceDir");
+		}
+		if (digests == null) {
+			throw new NullPointerException("digests");
+		}
+
+		this.sourceDir = sourceDir;
+		this.digests = digests;
+	}
+
+	/**
+	 * Gets the content-addressed path for a resource
+	 * @param path the resource path relative to the source directory
+	 * @return the fingerprinted path or the original if not a fingerprinted resource
+	 */
+	public String fingerprint(String path) {
+		if (path == null || path.isEmpty() || isDocument(path)) {
+			return path;
+		}
+
+		File source = new File(sourceDir, path);
+		if (!source.isFile()) {
+			return path;
+		}
+
+		String hash;
+		try {
+			hash = digests.calcHash(source, FileUtil.SHA1, FileUtil.HashEncoding.HEX);
+
+		} catch (FileNotFoundException ex) {
+			return path;
+		}
+		if (hash == null) {
+			return path;
+		}
+
+		int dot = path.length()-FileUtil.getExtension(path).length();
+		String name = path.substring(0, dot)+'.'+hash.substring(0, HASH_LENGTH)+path.substring(dot);
+
+		String existing = names.put(path, name);
+		if (existing != null && !existing.equals(name)) {
+			sources.remove(existing, path);
+		}
+		sources.put(name, path);
+		return name;
+	}
+
+	/**
+	 * Gets the resource path from which a fingerprinted path was named
+	 * @param path
+	 * @return the original path or the same path if not fingerprinted
+	 */
+	public String sourcePath(String path) {
+		String source = sources.get(path);
+		return (source != null) ? source : path;
+	}
+
+	/**
+	 * @return the resource paths mapped to their fingerprinted paths
+	 */
+	public Map<String, String> getMap() {
+		return names;
+	}
+
+	/**
+	 * Writes a map in the form of a cdnMap ResourceBundle
+	 * @param file
+	 * @param links URLs mapped to their resource paths
+	 */
+	public void write(File file, Map<String, String> links) {
+		FileUtil.prepSavePath(file);
+
+		// sorted so the file only changes when values do
+		Map<String, String> sorted = new TreeMap<String, String>(links);
+
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.ISO_8859_1);
+			for (Map.Entry<String, String> link : sorted.entrySet()) {
+				writer.append(escape(link.getKey(), true)).append('=').append(escape(link.getValue(), false)).append('\n');
+			}
+
+		} catch (IOException ex) {
+			log.error(ex.getMessage(), ex);
+
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException ex) {}
+			}
+		}
+	}
+
+	private static boolean isDocument(String path) {
+		String ext = FileUtil.getExtension(path);
+		return ".html".equals(ext) || ".htm".equals(ext);
+	}
+
+	private static String escape(String value, boolean isKey) {
+		StringBuilder buffer = new StringBuilder(value.length());
+		for (int i=0, length=value.length(); i<length; i++) {
+			char ch = value.charAt(i);
+			switch (ch) {
+				case '\\':
+				case '=':
+				case ':':
+				case '#':
+				case '!':
+					buffer.append('\\').append(ch);
+					break;
+				case ' ':
+					if (isKey || i == 0) {
+						buffer.append('\\');
+					}
+					buffer.append(ch);
+					break;
+				default:
+					if (ch < 0x20 || ch > 0x7E) {
+						buffer.append(String.format("\\u%04X", (int)ch));
+					} else {
+						buffer.append(ch);
+					}
+					break;
+			}
+		}
+		return buffer.toString();
+	}
+}
@@ -43,7 +43,8 @@ public class NeverExpireFilter implements Filter {
 
 			// add cache control response headers
 			httpResponse.setDateHeader("Expires", expiryDate);
-			httpResponse.setHeader("Cache-Control", "public, max-age="+ONE_YEAR_SEC);
+			// immutable avoids revalidation on reload as the content cannot change under the same name
+			httpResponse.setHeader("Cache-Control", "public, max-age="+ONE_YEAR_SEC+", immutable");
 
 			// add header to encourage CDN to vary cache on compression
 			httpResponse.setHeader("Vary", "Accept-Encoding");
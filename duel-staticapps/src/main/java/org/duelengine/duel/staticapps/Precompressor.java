@@ -0,0 +1,137 @@
+package org.duelengine.duel.staticapps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.duelengine.duel.utils.FileUtil;
+
+/**
+ * Gzip compression of text output, performed ahead of time rather than per request.
+ * Files which do not shrink enough are left uncompressed.
+ */
+public class Precompressor {
+
+	public static final String GZIP_EXT = ".gz";
+	public static final String GZIP_ENCODING = "gzip";
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final int MIN_LENGTH = 256;
+
+	// only worthwhile if saves at least 10%
+	private static final double MAX_RATIO = 0.9;
+
+	private static final Set<String> COMPRESSIBLE = new HashSet<String>(Arrays.asList(
+		".html", ".htm", ".css", ".js", ".json", ".map", ".svg", ".txt", ".xml", ".appcache", ".ico", ".eot", ".ttf", ".otf"));
+
+	private Precompressor() {}
+
+	/**
+	 * @return true if the file type is typically compressible
+	 */
+	public static boolean isCompressible(String path) {
+		return COMPRESSIBLE.contains(FileUtil.getExtension(path));
+	}
+
+	/**
+	 * Compresses the bytes if worthwhile
+	 * @param bytes
+	 * @return the compressed bytes or null if compression does not pay off
+	 */
+	public static byte[] gzip(byte[] bytes) {
+		if (bytes == null || bytes.length < MIN_LENGTH) {
+			return null;
+		}
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length/2);
+		try {
+			OutputStream stream = new MaxGZIPOutputStream(buffer);
+			stream.write(bytes);
+			stream.close();
+
+		} catch (IOException ex) {
+			// not expected for in-memory streams
+			return null;
+		}
+
+		return (buffer.size() <= bytes.length * MAX_RATIO) ? buffer.toByteArray() : null;
+	}
+
+	/**
+	 * Writes a gzip copy alongside the file if compressible and worthwhile.
+	 * Removes any out-of-date copy which is no longer worthwhile.
+	 * @param file
+	 * @return true if a compressed copy was written
+	 * @throws IOException
+	 */
+	public static boolean precompress(File file)
+			throws IOException {
+
+		File gzipFile = new File(file.getPath()+GZIP_EXT);
+		if (!file.isFile() || !isCompressible(file.getName())) {
+			return false;
+		}
+
+		// compressed copies carry the modified time of their source
+		if (gzipFile.isFile() && gzipFile.lastModified() == file.lastModified()) {
+			return false;
+		}
+
+		byte[] gzipped = gzip(readAll(file));
+		if (gzipped == null) {
+			if (gzipFile.exists()) {
+				gzipFile.delete();
+			}
+			return false;
+		}
+
+		OutputStream stream = new FileOutputStream(gzipFile);
+		try {
+			stream.write(gzipped);
+
+		} finally {
+			stream.close();
+		}
+		gzipFile.setLastModified(file.lastModified());
+		return true;
+	}
+
+	private static byte[] readAll(File file)
+			throws IOException {
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream((int)Math.min(file.length(), Integer.MAX_VALUE));
+		InputStream stream = new FileInputStream(file);
+		try {
+			byte[] bytes = new byte[BUFFER_SIZE];
+			int count;
+			while ((count = stream.read(bytes)) > 0) {
+				buffer.write(bytes, 0, count);
+			}
+
+		} finally {
+			stream.close();
+		}
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Spends more CPU at build time for smaller output
+	 */
+	private static class MaxGZIPOutputStream extends GZIPOutputStream {
+		MaxGZIPOutputStream(OutputStream out)
+				throws IOException {
+
+			super(out, BUFFER_SIZE);
+			def.setLevel(Deflater.BEST_COMPRESSION);
+		}
+	}
+}
@@ -0,0 +1,310 @@
+package org.duelengine.duel.staticapps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.duelengine.duel.utils.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Route table compiled once from SiteConfig.views() into a path-segment trie.
+ * Supports exact paths, parameter segments (e.g., "products/{id}" or "products/{id}.html"),
+ * default documents and extension catch-alls (e.g., "*.html").
+ * Immutable once built so is safe to share across requests.
+ */
+public class RouteTable {
+
+	private static final Logger log = LoggerFactory.getLogger(RouteTable.class);
+
+	public static final String DEFAULT_DOC = "index.html";
+	private static final String CATCH_ALL = "*";
+	private static final char PATH_DELIM = '/';
+	private static final char PARAM_BEGIN = '{';
+	private static final char PARAM_END = '}';
+
+	/**
+	 * The result of routing a request path
+	 */
+	public static class Match {
+		private final String route;
+		private final SiteViewPage page;
+		private final Map<String, String> params;
+
+		Match(String route, SiteViewPage page, Map<String, String> params) {
+			this.route = route;
+			this.page = page;
+			this.params = params;
+		}
+
+		/**
+		 * @return the route key as declared in config
+		 */
+		public String route() {
+			return route;
+		}
+
+		/**
+		 * @return the routed page
+		 */
+		public SiteViewPage page() {
+			return page;
+		}
+
+		/**
+		 * @return the captured parameter values, empty if none
+		 */
+		public Map<String, String> params() {
+			return params;
+		}
+	}
+
+	private static class Node {
+		// parameter segment
+		final String prefix;
+		final String name;
+		final String suffix;
+
+		Map<String, Node> literals;
+		List<Node> params;
+		String route;
+		SiteViewPage page;
+
+		Node() {
+			this(null, null, null);
+		}
+
+		Node(String prefix, String name, String suffix) {
+			this.prefix = prefix;
+			this.name = name;
+			this.suffix = suffix;
+		}
+
+		boolean isParam(String prefix, String name, String suffix) {
+			return this.prefix.equals(prefix) && this.name.equals(name) && this.suffix.equals(suffix);
+		}
+
+		int fixedLength() {
+			return prefix.length()+suffix.length();
+		}
+
+		/**
+		 * @return the captured value or null if the segment does not match
+		 */
+		String capture(String segment) {
+			int end = segment.length()-suffix.length();
+			if (end <= prefix.length() || !segment.startsWith(prefix) || !segment.endsWith(suffix)) {
+				return null;
+			}
+			return segment.substring(prefix.length(), end);
+		}
+	}
+
+	private final Node root = new Node();
+	private final Map<String, Match> catchAlls = new HashMap<String, Match>();
+	private int size;
+
+	public RouteTable(Map<String, SiteViewPage> views) {
+		if (views == null) {
+			return;
+		}
+
+		for (Map.Entry<String, SiteViewPage> view : views.entrySet()) {
+			String route = view.getKey();
+			SiteViewPage page = view.getValue();
+			if (route == null || page == null) {
+				continue;
+			}
+
+			if (route.startsWith(CATCH_ALL)) {
+				catchAlls.put(route.substring(CATCH_ALL.length()), new Match(route, page, Collections.<String, String>emptyMap()));
+
+			} else {
+				add(route, page);
+			}
+			size++;
+		}
+	}
+
+	/**
+	 * @return true if the route key captures parameters and so cannot be generated as a single file
+	 */
+	public static boolean isParameterized(String route) {
+		if (route == null) {
+			return false;
+		}
+
+		int start = 0;
+		while (true) {
+			int end = route.indexOf(PATH_DELIM, start);
+			if (isParamSegment(route.substring(start, (end < 0) ? route.length() : end))) {
+				return true;
+			}
+			if (end < 0) {
+				return false;
+			}
+			start = end+1;
+		}
+	}
+
+	/**
+	 * Shared by building and generation so both agree which segments are literal
+	 * @return true if the segment names a non-empty parameter (e.g., "{id}" but not "{}")
+	 */
+	private static boolean isParamSegment(String segment) {
+		int begin = segment.indexOf(PARAM_BEGIN);
+		return begin >= 0 && segment.lastIndexOf(PARAM_END) > begin+1;
+	}
+
+	/**
+	 * @return the number of declared routes
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void add(String route, SiteViewPage page) {
+		Node node = root;
+
+		int start = 0;
+		while (true) {
+			int end = route.indexOf(PATH_DELIM, start);
+			String segment = route.substring(start, (end < 0) ? route.length() : end);
+
+			node = child(node, segment);
+			if (end < 0) {
+				break;
+			}
+			start = end+1;
+		}
+
+		if (node.page != null) {
+			log.warn("routing: "+route+" conflicts with "+node.route);
+			return;
+		}
+		node.route = route;
+		node.page = page;
+	}
+
+	private static Node child(Node node, String segment) {
+		if (!isParamSegment(segment)) {
+			if (node.literals == null) {
+				node.literals = new HashMap<String, Node>();
+			}
+			Node child = node.literals.get(segment);
+			if (child == null) {
+				child = new Node();
+				node.literals.put(segment, child);
+			}
+			return child;
+		}
+
+		int begin = segment.indexOf(PARAM_BEGIN);
+		int end = segment.lastIndexOf(PARAM_END);
+		String prefix = segment.substring(0, begin);
+		String name = segment.substring(begin+1, end);
+		String suffix = segment.substring(end+1);
+
+		if (node.params == null) {
+			node.params = new ArrayList<Node>(1);
+		}
+		for (Node child : node.params) {
+			if (child.isParam(prefix, name, suffix)) {
+				return child;
+			}
+		}
+
+		// most specific first so "{id}.html" is tried before "{id}"
+		Node child = new Node(prefix, name, suffix);
+		int index = 0;
+		while (index < node.params.size() && node.params.get(index).fixedLength() >= child.fixedLength()) {
+			index++;
+		}
+		node.params.add(index, child);
+		return child;
+	}
+
+	/**
+	 * Routes the request path to a page.
+	 * Tries an exact or parameterized match, then the default document, then the extension catch-all.
+	 * @param servletPath
+	 * @return the match or null if not routed
+	 */
+	public Match route(String servletPath) {
+		if (servletPath == null) {
+			return null;
+		}
+
+		String path = (servletPath.length() > 0 && servletPath.charAt(0) == PATH_DELIM) ? servletPath.substring(1) : servletPath;
+
+		Match match = match(path);
+		if (match != null) {
+			return match;
+		}
+
+		if (FileUtil.getExtension(path).isEmpty()) {
+			// attempt to resolve with default document
+			path = (path.isEmpty() || path.charAt(path.length()-1) == PATH_DELIM) ? path+DEFAULT_DOC : path+PATH_DELIM+DEFAULT_DOC;
+
+			match = match(path);
+			if (match != null) {
+				return match;
+			}
+		}
+
+		// attempt to resolve with catch-all
+		return catchAlls.get(FileUtil.getExtension(path));
+	}
+
+	private Match match(String path) {
+		Map<String, String> params = new LinkedHashMap<String, String>();
+
+		Node node = match(root, path, 0, params);
+		if (node == null) {
+			return null;
+		}
+
+		return new Match(node.route, node.page, params.isEmpty() ? Collections.<String, String>emptyMap() : params);
+	}
+
+	/**
+	 * Walks one segment at a time, preferring literal segments over parameters
+	 */
+	private static Node match(Node node, String path, int start, Map<String, String> params) {
+		int end = path.indexOf(PATH_DELIM, start);
+		boolean isLast = (end < 0);
+		String segment = path.substring(start, isLast ? path.length() : end);
+
+		if (node.literals != null) {
+			Node child = node.literals.get(segment);
+			if (child != null) {
+				Node found = isLast ? (child.page != null ? child : null) : match(child, path, end+1, params);
+				if (found != null) {
+					return found;
+				}
+			}
+		}
+
+		if (node.params != null) {
+			for (Node child : node.params) {
+				String value = child.capture(segment);
+				if (value == null) {
+					continue;
+				}
+
+				params.put(child.name, value);
+				Node found = isLast ? (child.page != null ? child : null) : match(child, path, end+1, params);
+				if (found != null) {
+					return found;
+				}
+				params.remove(child.name);
+			}
+		}
+
+		return null;
+	}
+}
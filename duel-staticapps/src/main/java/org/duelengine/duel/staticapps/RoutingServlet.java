@@ -1,12 +1,22 @@
 package org.duelengine.duel.staticapps;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -14,13 +24,16 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
+import org.duelengine.duel.ByteOutput;
 import org.duelengine.duel.CDNLinkInterceptor;
+import org.duelengine.duel.DataEncoder;
 import org.duelengine.duel.DuelContext;
 import org.duelengine.duel.DuelView;
+import org.duelengine.duel.FragmentCache;
 import org.duelengine.duel.FormatPrefs;
+import org.duelengine.duel.LRUFragmentCache;
 import org.duelengine.duel.LinkInterceptor;
+import org.duelengine.duel.ViewRegistry;
 import org.duelengine.duel.utils.FileUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,11 +42,71 @@ public class RoutingServlet extends HttpServlet {
 	private static final Logger log = LoggerFactory.getLogger(RoutingServlet.class);
 
 	private static final long serialVersionUID = 8465487004837241467L;
-	private final static String DEFAULT_DOC = "index.html";
+	private final static String ETAG = "ETag";
+	private final static String IF_NONE_MATCH = "If-None-Match";
+	private final static String IF_MODIFIED_SINCE = "If-Modified-Since";
+	private final static String LAST_MODIFIED = "Last-Modified";
+	private final static String ACCEPT_ENCODING = "Accept-Encoding";
+	private final static String CONTENT_ENCODING = "Content-Encoding";
+	private final static String VARY = "Vary";
+	private final static String COMPILER_CLASS = "org.duelengine.duel.compiler.RuntimeViewCompiler";
+	private final static String RELOADER_CLASS = "org.duelengine.duel.staticapps.CompilingViewReloader";
+
+	/**
+	 * Fully rendered page along with the data version it was rendered from
+	 */
+	private static class CachedPage {
+		final byte[] body;
+		final byte[] gzip;
+		final String etag;
+		final String gzipEtag;
+		final long lastModified;
+		final long dataModified;
+		final long dataLength;
+
+		/**
+		 * @param body
+		 * @param gzip
+		 * @param dataModified the data file modification time as read before rendering
+		 * @param dataLength the data file length as read before rendering
+		 * @param lastModified
+		 */
+		CachedPage(byte[] body, byte[] gzip, long dataModified, long dataLength, long lastModified) {
+			this.body = body;
+			this.gzip = gzip;
+
+			// each encoding is a distinct representation so needs its own validator
+			String hash = FileUtil.calcHash(body, FileUtil.SHA1, FileUtil.HashEncoding.BASE64);
+			this.etag = '"'+hash+'"';
+			this.gzipEtag = (gzip != null) ? '"'+hash+'-'+Precompressor.GZIP_ENCODING+'"' : null;
+			this.dataModified = dataModified;
+			this.dataLength = dataLength;
+
+			// HTTP dates have one second resolution
+			this.lastModified = (Math.max(lastModified, this.dataModified) / 1000L) * 1000L;
+		}
+
+		boolean isCurrent(File dataFile) {
+			if (dataFile == null) {
+				return (dataModified == 0L);
+			}
+			return (dataFile.lastModified() == dataModified) && (dataFile.length() == dataLength);
+		}
+	}
 
 	private SiteConfig config;
 	private FormatPrefs format;
 	private LinkInterceptor linkInterceptor;
+	private DataEncoder.StringCache stringCache;
+	private FragmentCache fragmentCache;
+	private volatile ViewRegistry registry;
+	private RouteTable routes;
+	private volatile ConcurrentMap<SiteViewPage, DuelView> views;
+	private ViewReloader viewReloader;
+	private ConcurrentMap<SiteViewPage, CachedPage> pages;
+	private ConcurrentMap<SiteViewPage, File> dataFiles;
+	private DataFileCache dataCache;
+	private long startTime;
 
 	@Override
 	public void init(ServletConfig servletConfig)
@@ -56,7 +129,7 @@ public class RoutingServlet extends HttpServlet {
 				File configFile = new File(configPath);
 				if (configFile.exists()) {
 					log.info("Loading config from file path: "+configFile.getCanonicalPath());
-					config = new ObjectMapper().reader(SiteConfig.class).readValue(configFile);
+					config = DataFileCache.MAPPER.readerFor(SiteConfig.class).readValue(configFile);
 					config.configFile(configFile);
 
 				} else {
@@ -79,7 +152,7 @@ public class RoutingServlet extends HttpServlet {
 				}
 				log.info("Loading config from resource: "+configPath);
 				InputStream stream = getClass().getResourceAsStream(configPath);
-				config = new ObjectMapper().reader(SiteConfig.class).readValue(stream);
+				config = DataFileCache.MAPPER.readerFor(SiteConfig.class).readValue(stream);
 				config.configFile(null);
 
 			} catch (Throwable ex) {
@@ -98,6 +171,20 @@ public class RoutingServlet extends HttpServlet {
 			.setIndent(config.isDevMode() ? "\t" : "")
 			.setNewline(config.isDevMode() ? "\n" : "");
 
+		// extras are encoded on every request
+		stringCache = new DataEncoder.StringCache();
+
+		// cached fragments would hide edits while developing
+		fragmentCache = config.isDevMode() ? null : new LRUFragmentCache();
+
+		// opt-in as pages are only rendered from the route's data and extras
+		pages = (config.pageCache() && !config.isDevMode()) ? new ConcurrentHashMap<SiteViewPage, CachedPage>() : null;
+		startTime = System.currentTimeMillis();
+
+		// data files are parsed once and re-parsed only when changed
+		dataFiles = new ConcurrentHashMap<SiteViewPage, File>();
+		dataCache = new DataFileCache();
+
 		try {
 			String bundleName = config.cdnMap();
 			ResourceBundle cdnBundle =
@@ -119,72 +206,197 @@ public class RoutingServlet extends HttpServlet {
 				}
 			};
 		}
+
+		routes = new RouteTable(config.views());
+		log.info("Compiled "+routes.size()+" routes");
+
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		if (config.isDevMode() && config.viewsDirFile() != null) {
+			// edited templates are recompiled in memory rather than rebuilt
+			viewReloader = createReloader(classLoader);
+		}
+
+		initViews((viewReloader != null) ? viewReloader.refresh() : ViewRegistry.load(config.serverPrefix(), classLoader));
 	}
 
 	/**
-	 * Service the request
+	 * Loads the template compiler by name since duel-compiler is an optional dependency
+	 * @param classLoader
+	 * @return the reloader or null if duel-compiler is not present
 	 */
-	public void doGet(HttpServletRequest request, HttpServletResponse response) {
+	private ViewReloader createReloader(ClassLoader classLoader) {
 		try {
-			String servletPath = request.getServletPath();
-			SiteViewPage sitePage = route(servletPath);
-			if (sitePage == null) {
-				log.debug("routing: "+servletPath+" (static)");
-				defaultServlet(request, response);
-				return;
-			}
+			ClassLoader ownLoader = RoutingServlet.class.getClassLoader();
+			Class.forName(COMPILER_CLASS, false, ownLoader);
 
-			DuelContext context = new DuelContext()
-				.setFormat(format)
-				.setLinkInterceptor(linkInterceptor)
-				.setOutput(response.getWriter());
+			ViewReloader reloader = Class.forName(RELOADER_CLASS, true, ownLoader)
+				.asSubclass(ViewReloader.class)
+				.getDeclaredConstructor(File.class, String.class, ClassLoader.class)
+				.newInstance(config.viewsDirFile(), config.serverPrefix(), classLoader);
 
-			// ensure paths are relative from config
-			if (sitePage.dataFile() != null) {
-				File dataFile = (config.configFile() == null) ?
-					new File(sitePage.dataFile()).getCanonicalFile() :
-					new File(config.configFile().getParentFile(), sitePage.dataFile()).getCanonicalFile();
-				if (dataFile.exists()) {
-					Object data = new ObjectMapper().readValue(dataFile, Object.class);
-					context.setData(data);
+			log.info("Reloading views from: "+config.viewsDirFile());
+			return reloader;
 
-				} else {
-					log.error("Data file missing: "+dataFile);
+		} catch (ClassNotFoundException ex) {
+			log.warn("duel-compiler not found, views will not be reloaded");
+			return null;
+
+		} catch (Exception ex) {
+			log.error("Unable to create view compiler, views will not be reloaded", ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Resolves each routed view once so instances are shared across requests.
+	 * DuelView instances are thread-safe so a single instance per view is sufficient.
+	 * The instances are swapped in as a whole so requests never mix registries.
+	 * @param registry
+	 */
+	private void initViews(ViewRegistry registry) {
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		ConcurrentMap<SiteViewPage, DuelView> views = new ConcurrentHashMap<SiteViewPage, DuelView>();
+
+		try {
+			createViews(registry, views, classLoader);
+
+		} finally {
+			this.views = views;
+			this.registry = registry;
+		}
+	}
+
+	private void createViews(ViewRegistry registry, ConcurrentMap<SiteViewPage, DuelView> views, ClassLoader classLoader) {
+		Map<String, SiteViewPage> pages = config.views();
+		if (pages == null) {
+			return;
+		}
+
+		// routes which share a view also share the instance
+		Map<String, DuelView> byName = new HashMap<String, DuelView>();
+		for (Map.Entry<String, SiteViewPage> route : pages.entrySet()) {
+			SiteViewPage page = route.getValue();
+			if (page == null || page.view() == null || views.containsKey(page)) {
+				continue;
+			}
+
+			DuelView view = byName.get(page.view());
+			if (view == null) {
+				try {
+					view = page.viewInstance(registry, config.serverPrefix(), classLoader);
+
+				} catch (Exception ex) {
+					log.error("routing: "+route.getKey()+" view could not be created: "+page.view(), ex);
+					continue;
 				}
+				if (view == null) {
+					continue;
+				}
+				byName.put(page.view(), view);
+			}
+			views.put(page, view);
+		}
 
-			} else {
-				context.setData(sitePage.data());
+		if (registry != null) {
+			log.info("Loaded "+registry.getViewNames().size()+" views from generated registry");
+		}
+	}
+
+	/**
+	 * Gets the shared view instance for the page
+	 * @param sitePage
+	 * @return
+	 * @throws ClassNotFoundException
+	 * @throws InstantiationException
+	 * @throws IllegalAccessException
+	 */
+	private DuelView viewInstance(SiteViewPage sitePage)
+			throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+
+		if (viewReloader != null) {
+			reloadViews();
+		}
+
+		ConcurrentMap<SiteViewPage, DuelView> views = this.views;
+		ViewRegistry registry = this.registry;
+		DuelView view = views.get(sitePage);
+		if (view == null) {
+			// not resolvable at startup so attempt again
+			view = sitePage.viewInstance(registry, config.serverPrefix(), Thread.currentThread().getContextClassLoader());
+			if (view != null) {
+				DuelView existing = views.putIfAbsent(sitePage, view);
+				if (existing != null) {
+					view = existing;
+				}
 			}
+		}
+		return view;
+	}
 
-			Map<String, Object> extras = config.extras();
-			if (extras != null) {
-				// global ambient client-side data
-				context.putExtras(extras);
+	/**
+	 * Swaps in new view instances if any templates have changed.
+	 * Requests only contend for the lock once a template has actually changed.
+	 */
+	private void reloadViews() {
+		if (!viewReloader.isStale()) {
+			return;
+		}
+
+		synchronized (this) {
+			// a refresh is a no-op if another request already reloaded
+			ViewRegistry latest = viewReloader.refresh();
+			if (latest != null && latest != registry) {
+				initViews(latest);
 			}
+		}
+	}
 
-			extras = sitePage.extras();
-			if (extras != null) {
-				// page-level ambient client-side data
-				context.putExtras(extras);
+	/**
+	 * Service the request
+	 */
+	public void doGet(HttpServletRequest request, HttpServletResponse response) {
+		try {
+			String servletPath = request.getServletPath();
+			RouteTable.Match match = routes.route(servletPath);
+			if (match == null) {
+				log.debug("routing: "+servletPath+" (static)");
+				// precompressed files are build output so are not trusted while developing
+				if (config.precompress() && !config.isDevMode() && serveGzip(request, response)) {
+					return;
+				}
+				defaultServlet(request, response);
+				return;
 			}
+			log.info("routing: "+servletPath+" [as "+match.route()+"]");
 
-			DuelView view = sitePage.viewInstance(config.serverPrefix(), Thread.currentThread().getContextClassLoader());
+			SiteViewPage sitePage = match.page();
+
+			DuelView view = viewInstance(sitePage);
 			if (view == null) {
 				log.error("routing: "+servletPath+" view instance missing");
 				defaultServlet(request, response);
 				return;
 			}
 
+			File dataFile = dataFile(sitePage);
+			if (pages != null && match.params().isEmpty()) {
+				// parameterized routes are not cached as each value would be a new entry
+				servePage(request, response, cachedPage(sitePage, view, dataFile));
+				return;
+			}
+
 			// response headers
 			response.setContentType(config.contentType());
 			response.setCharacterEncoding(config.encoding());
 
-			// response body
-			view.render(context);
+			// response body: literals are copied as pre-encoded bytes
+			ByteOutput output = new ByteOutput(response.getOutputStream(), config.encoding());
+			view.render(buildContext(sitePage, dataFile, match.params()).setOutput(output));
+			output.flush();
 
 		} catch (Exception ex) {
 			try {
-				ex.printStackTrace(response.getWriter());
+				ex.printStackTrace(new PrintStream(response.getOutputStream(), true, config.encoding()));
 				response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 
 			} catch (IOException ex2) {
@@ -194,47 +406,331 @@ public class RoutingServlet extends HttpServlet {
 	}
 
 	/**
-	 * Use the config to statically route the request to the view.
-	 * @param servletPath
-	 * @return
+	 * Resolves the page data file relative to the config
+	 * @param sitePage
+	 * @return the data file or null if page data is inline
+	 * @throws IOException
 	 */
-	private SiteViewPage route(String servletPath) {
-		if (config.views() == null) {
+	private File dataFile(SiteViewPage sitePage)
+			throws IOException {
+
+		if (sitePage.dataFile() == null) {
 			return null;
 		}
 
-		// TODO: expand routing capabilities beyond exact match, default-doc and catch-all
+		File dataFile = dataFiles.get(sitePage);
+		if (dataFile == null) {
+			// ensure paths are relative from config
+			dataFile = (config.configFile() == null) ?
+				new File(sitePage.dataFile()).getCanonicalFile() :
+				new File(config.configFile().getParentFile(), sitePage.dataFile()).getCanonicalFile();
+			dataFiles.putIfAbsent(sitePage, dataFile);
+		}
+		return dataFile;
+	}
+
+	/**
+	 * Builds the render context for the page
+	 * @param sitePage
+	 * @param dataFile
+	 * @param params captured route parameters
+	 * @return
+	 * @throws IOException
+	 */
+	private DuelContext buildContext(SiteViewPage sitePage, File dataFile, Map<String, String> params)
+			throws IOException {
 
-		SiteViewPage page = config.views().get(servletPath.substring(1));
-		if (page != null) {
-			log.info("routing: "+servletPath);
+		DuelContext context = new DuelContext()
+			.setFormat(format)
+			.setLinkInterceptor(linkInterceptor)
+			.setStringCache(stringCache)
+			.setFragmentCache(fragmentCache);
+
+		if (dataFile != null) {
+			try {
+				context.setData(dataCache.get(dataFile));
+
+			} catch (FileNotFoundException ex) {
+				log.error("Data file missing: "+dataFile);
+			}
 
 		} else {
-			String aliasedPath = servletPath;
+			// inline data is shared by every request for the route
+			context.setData(DataFileCache.copy(sitePage.data()));
+		}
 
-			if ("".equals(FileUtil.getExtension(aliasedPath))) {
-				// continue to attempt to resolve with default document
-				if (!aliasedPath.endsWith("/")) {
-					aliasedPath += '/';
-				}
-				aliasedPath += DEFAULT_DOC;
-				page = config.views().get(aliasedPath.substring(1));
+		if (params != null && !params.isEmpty()) {
+			context.setData(withParams(context.getData(), params));
+		}
+
+		Map<String, Object> extras = config.extras();
+		if (extras != null) {
+			// global ambient client-side data
+			context.putExtras(extras);
+		}
+
+		extras = sitePage.extras();
+		if (extras != null) {
+			// page-level ambient client-side data
+			context.putExtras(extras);
+		}
+
+		return context;
+	}
+
+	/**
+	 * Gets the rendered page, rendering again only if the data file has changed
+	 * @param sitePage
+	 * @param view
+	 * @param dataFile
+	 * @return
+	 * @throws IOException
+	 */
+	private CachedPage cachedPage(SiteViewPage sitePage, DuelView view, File dataFile)
+			throws IOException {
+
+		CachedPage page = pages.get(sitePage);
+		if (page != null && page.isCurrent(dataFile)) {
+			return page;
+		}
+
+		// versioned before rendering so an edit made meanwhile is seen as a change next request
+		long dataModified = (dataFile != null) ? dataFile.lastModified() : 0L;
+		long dataLength = (dataFile != null) ? dataFile.length() : 0L;
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		ByteOutput output = new ByteOutput(stream, config.encoding());
+		view.render(buildContext(sitePage, dataFile, null).setOutput(output));
+		output.flush();
+
+		// concurrent renders of the same version are equivalent so last one wins
+		byte[] body = stream.toByteArray();
+		page = new CachedPage(body, config.precompress() ? Precompressor.gzip(body) : null, dataModified, dataLength, startTime);
+		pages.put(sitePage, page);
+		return page;
+	}
+
+	/**
+	 * Writes the cached page or a 304 if the client copy is still valid
+	 * @param request
+	 * @param response
+	 * @param page
+	 * @throws IOException
+	 */
+	private void servePage(HttpServletRequest request, HttpServletResponse response, CachedPage page)
+			throws IOException {
+
+		boolean isGzip = (page.gzip != null) && acceptsGzip(request);
+		String etag = isGzip ? page.gzipEtag : page.etag;
+
+		// response headers
+		response.setHeader(ETAG, etag);
+		response.setDateHeader(LAST_MODIFIED, page.lastModified);
+		if (page.gzip != null) {
+			response.setHeader(VARY, ACCEPT_ENCODING);
+		}
+
+		if (isNotModified(request, etag, page.lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		byte[] body = isGzip ? page.gzip : page.body;
+		response.setContentType(config.contentType());
+		response.setCharacterEncoding(config.encoding());
+		if (isGzip) {
+			response.setHeader(CONTENT_ENCODING, Precompressor.GZIP_ENCODING);
+		}
+		response.setContentLength(body.length);
+
+		// response body
+		response.getOutputStream().write(body);
+	}
+
+	/**
+	 * Serves the precompressed copy of a static resource if one exists and the client accepts it,
+	 * or a 304 if the client copy is still valid
+	 * @param request
+	 * @param response
+	 * @return true if the response was served
+	 * @throws IOException
+	 */
+	private boolean serveGzip(HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+
+		String path = request.getServletPath();
+		if (!Precompressor.isCompressible(path)) {
+			return false;
+		}
+
+		URL gzipURL = getServletContext().getResource(path+Precompressor.GZIP_EXT);
+		if (gzipURL == null) {
+			return false;
+		}
+
+		response.setHeader(VARY, ACCEPT_ENCODING);
+		if (!acceptsGzip(request)) {
+			return false;
+		}
+
+		// validators follow the source so they change exactly when it does
+		URL sourceURL = getServletContext().getResource(path);
+		URLConnection source = ((sourceURL != null) ? sourceURL : gzipURL).openConnection();
+		long lastModified, sourceLength;
+		try {
+			// HTTP dates have one second resolution
+			lastModified = (source.getLastModified() / 1000L) * 1000L;
+			sourceLength = source.getContentLengthLong();
+
+		} finally {
+			source.getInputStream().close();
+		}
+
+		// distinct from the validator the default servlet gives the uncompressed resource
+		String etag = '"'+Long.toHexString(lastModified)+'-'+Long.toHexString(sourceLength)+'-'+Precompressor.GZIP_ENCODING+'"';
+		response.setHeader(ETAG, etag);
+		if (lastModified > 0L) {
+			response.setDateHeader(LAST_MODIFIED, lastModified);
+		}
+
+		if (isNotModified(request, etag, lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return true;
+		}
+
+		URLConnection connection = gzipURL.openConnection();
+		String mimeType = getServletContext().getMimeType(path);
+		if (mimeType != null) {
+			response.setContentType(mimeType);
+		}
+		response.setHeader(CONTENT_ENCODING, Precompressor.GZIP_ENCODING);
+		int length = connection.getContentLength();
+		if (length >= 0) {
+			response.setContentLength(length);
+		}
+
+		InputStream input = connection.getInputStream();
+		try {
+			OutputStream output = response.getOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = input.read(buffer)) > 0) {
+				output.write(buffer, 0, count);
 			}
 
-			if (page != null) {
-				log.info("routing: "+servletPath+" [as "+aliasedPath+"]");
+		} finally {
+			input.close();
+		}
+		return true;
+	}
 
-			} else {
-				// continue to attempt to resolve with catch-all
-				String ext = FileUtil.getExtension(aliasedPath);
-				page = config.views().get("*"+ext);
-				if (page != null) {
-					log.info("routing: "+servletPath+" [as *"+ext+"]");
+	/**
+	 * Determines if the client accepts gzip content encoding
+	 * @param request
+	 * @return true if gzip is acceptable with a non-zero quality
+	 */
+	private static boolean acceptsGzip(HttpServletRequest request) {
+		return acceptsGzip(request.getHeader(ACCEPT_ENCODING));
+	}
+
+	/**
+	 * Determines if an Accept-Encoding header allows gzip.
+	 * An explicit gzip entry takes precedence over the wildcard, wherever each appears.
+	 * @param acceptEncoding
+	 * @return true if the effective quality of gzip is greater than zero
+	 */
+	static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+
+		double gzipQ = -1.0;
+		double anyQ = -1.0;
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.split(";");
+			String name = parts[0].trim();
+			if (Precompressor.GZIP_ENCODING.equalsIgnoreCase(name)) {
+				gzipQ = Math.max(gzipQ, quality(parts));
+
+			} else if ("*".equals(name)) {
+				anyQ = Math.max(anyQ, quality(parts));
+			}
+		}
+
+		double q = (gzipQ >= 0.0) ? gzipQ : anyQ;
+		return q > 0.0;
+	}
+
+	/**
+	 * @param parts a coding split on its parameters
+	 * @return the q-value, defaulting to 1 when absent and 0 when malformed
+	 */
+	private static double quality(String[] parts) {
+		for (int i=1; i<parts.length; i++) {
+			String param = parts[i].trim();
+			if (param.length() > 1 && Character.toLowerCase(param.charAt(0)) == 'q' && param.charAt(1) == '=') {
+				try {
+					double q = Double.parseDouble(param.substring(2).trim());
+					return (q > 0.0) ? Math.min(q, 1.0) : 0.0;
+
+				} catch (NumberFormatException ex) {
+					return 0.0;
 				}
 			}
 		}
+		return 1.0;
+	}
 
-		return page;
+	/**
+	 * Evaluates conditional GET headers against the representation being served
+	 * @param request
+	 * @param etag the validator of the representation being served
+	 * @param lastModified zero if unknown
+	 * @return true if the client copy is still valid
+	 */
+	private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader(IF_NONE_MATCH);
+		if (ifNoneMatch != null) {
+			// If-None-Match takes precedence over If-Modified-Since
+			for (String match : ifNoneMatch.split(",")) {
+				match = match.trim();
+				if ("*".equals(match) || etag.equals(match)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = request.getDateHeader(IF_MODIFIED_SINCE);
+
+		} catch (IllegalArgumentException ex) {
+			return false;
+		}
+		return (ifModifiedSince >= 0L) && (lastModified > 0L) && (lastModified <= ifModifiedSince);
+	}
+
+	/**
+	 * Exposes captured route parameters as view data without mutating shared data
+	 * @param data
+	 * @param params
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private static Object withParams(Object data, Map<String, String> params) {
+		if (data == null) {
+			return params;
+		}
+
+		if (!(data instanceof Map<?, ?>)) {
+			log.warn("routing: parameters cannot be merged into non-object data");
+			return data;
+		}
+
+		Map<String, Object> merged = new LinkedHashMap<String, Object>((Map<String, Object>)data);
+		merged.putAll(params);
+		return merged;
 	}
 
 	/**
@@ -2,22 +2,42 @@ package org.duelengine.duel.staticapps;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
-
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.codec.binary.Base64;
+import org.duelengine.duel.ByteOutput;
+import org.duelengine.duel.DataEncoder;
 import org.duelengine.duel.DuelContext;
 import org.duelengine.duel.DuelView;
 import org.duelengine.duel.FormatPrefs;
+import org.duelengine.duel.ViewRegistry;
+import org.duelengine.duel.utils.DigestCache;
 import org.duelengine.duel.utils.FileUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 public class SiteBuilder {
 
@@ -34,7 +54,19 @@ public class SiteBuilder {
 	};
 
 	private static final int BUFFER_SIZE = 1024*1024;//1MB
-	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private static final String DIGEST_CACHE = ".duel-digests";
+
+	// stable key order so hashes only change when values do
+	private static final ObjectWriter INPUTS_WRITER = DataFileCache.MAPPER.writer()
+		.with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+	// one hashing buffer per worker
+	private final ThreadLocal<byte[]> buffer = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
 	private final ClassLoader classLoader;
 
 	public SiteBuilder() {
@@ -45,7 +77,7 @@ public class SiteBuilder {
 		this.classLoader = classLoader;
 	}
 
-	public void build(SiteConfig config)
+	public void build(final SiteConfig config)
 			throws FileNotFoundException {
 
 		if (config == null) {
@@ -53,7 +85,7 @@ public class SiteBuilder {
 		}
 
 		File sourceDir = config.sourceDirFile();
-		File targetDir = config.targetDirFile();
+		final File targetDir = config.targetDirFile();
 
 		if (sourceDir == null) {
 			throw new NullPointerException("sourceDir");
@@ -68,8 +100,22 @@ public class SiteBuilder {
 		log.info("webapp source: "+sourceDir);
 		log.info("static target: "+targetDir);
 
+		// build state is kept outside of the target so it is never published
+		final File workDir = config.workDirFile();
+		if (workDir.toPath().startsWith(targetDir.toPath())) {
+			throw new IllegalArgumentException("workDir must be outside of targetDir: "+workDir);
+		}
+
+		// inputs of the previous build are only trusted if building incrementally
+		final BuildManifest previous = config.incremental() ? BuildManifest.read(workDir) : new BuildManifest();
+		final BuildManifest manifest = new BuildManifest();
+
+		// digests of unchanged files are only reused across builds which depend upon them
+		final DigestCache digests = (config.incremental() || config.fingerprint()) ?
+			new DigestCache(new File(workDir, DIGEST_CACHE)) : new DigestCache();
+
 		File cdnDir = new File(targetDir, "cdn");
-		if (cdnDir.isDirectory() && cdnDir.exists()) {
+		if (!config.incremental() && cdnDir.isDirectory() && cdnDir.exists()) {
 			log.info("Emptying existing CDN dir: "+cdnDir.getAbsolutePath());
 			for (File child : cdnDir.listFiles()) {
 				try {
@@ -82,126 +128,285 @@ public class SiteBuilder {
 			}
 		}
 
+		// resources are named by content so may be cached indefinitely
+		FingerprintMap fingerprints = (config.fingerprint() && !config.isDevMode()) ? new FingerprintMap(sourceDir, digests) : null;
+
 		// link transformer which also caches list of URLs
-		StaticLinkInterceptor linkInterceptor = createInterceptor(config);
+		final StaticLinkInterceptor linkInterceptor = createInterceptor(config, fingerprints);
 
-		FormatPrefs formatPrefs = new FormatPrefs()
+		final FormatPrefs formatPrefs = new FormatPrefs()
 			.setEncoding(config.encoding())
 			.setIndent(config.isDevMode() ? "\t" : "")
 			.setNewline(config.isDevMode() ? "\n" : "");
 
-		Map<String, String> linkCache = null;
+		// global extras are encoded once for every page
+		final DataEncoder.StringCache stringCache = new DataEncoder.StringCache();
+
+		// pages which share a data file only parse it once
+		final DataFileCache dataCache = new DataFileCache();
+
+		final ViewRegistry registry = ViewRegistry.load(config.serverPrefix(), classLoader);
 
-		Map<String, SiteViewPage> views = config.views();
-		if (views != null) {
-			for (String targetPage : views.keySet()) {
-				SiteViewPage sitePage = views.get(targetPage);
-				log.info("Generating: "+sitePage.view()+" => "+targetPage);
+		// inputs shared by every page
+		final String siteInputs = siteInputs(config, registry);
 
-				if (sitePage.appCache() != null) {
-					if (linkCache == null) {
-						linkCache = new HashMap<String, String>();
+		int threads = config.buildThreads();
+		ExecutorService pool = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+		List<Future<?>> pending = new ArrayList<Future<?>>();
+		try {
+			Map<String, SiteViewPage> views = config.views();
+			if (views != null) {
+				for (final String targetPage : views.keySet()) {
+					final SiteViewPage sitePage = views.get(targetPage);
+					if (RouteTable.isParameterized(targetPage)) {
+						log.warn("Skipping parameterized route: "+targetPage);
+						continue;
 					}
 
-					// aggregate and reset so manifest only contains this page's resources
-					linkCache.putAll(linkInterceptor.getLinkCache());
-					linkInterceptor.getLinkCache().clear();
+					execute(pool, pending, new Runnable() {
+						@Override
+						public void run() {
+							String inputs = pageInputs(config, siteInputs, sitePage, digests);
+
+							BuildManifest.Page last = previous.pages().get(targetPage);
+							if (inputs != null && last != null && inputs.equals(last.inputs()) &&
+								last.links() != null && new File(targetDir, targetPage).isFile() &&
+								(last.fingerprints() == null || linkInterceptor.isCurrent(last.fingerprints()))) {
+
+								log.info("Unchanged: "+targetPage);
+								linkInterceptor.getLinkCache().putAll(last.links());
+								manifest.pages().put(targetPage, last);
+								return;
+							}
+
+							// each page collects its own links so manifests only contain that page's resources
+							StaticLinkInterceptor pageLinks = linkInterceptor.fork();
+
+							DuelContext context = new DuelContext()
+								.setFormat(formatPrefs)
+								.setLinkInterceptor(pageLinks)
+								.setStringCache(stringCache);
+
+							boolean built = buildPage(config, registry, dataCache, targetPage, sitePage, context, pageLinks);
+
+							linkInterceptor.getLinkCache().putAll(pageLinks.getLinkCache());
+
+							// failed pages are left out of the manifest so they are retried next build
+							if (built && inputs != null) {
+								manifest.pages().put(targetPage, new BuildManifest.Page()
+									.inputs(inputs)
+									.links(new HashMap<String, String>(pageLinks.getLinkCache()))
+									.fingerprints(new HashMap<String, String>(pageLinks.getFingerprints())));
+							}
+						}
+					});
 				}
+				await(pending);
+			}
 
-				FileWriter writer = null;
-				try {
-					File targetFile = new File(targetDir, targetPage);
-					FileUtil.prepSavePath(targetFile);
-
-					writer = new FileWriter(targetFile);
-
-					DuelContext context = new DuelContext()
-						.setFormat(formatPrefs)
-						.setLinkInterceptor(linkInterceptor)
-						.setOutput(writer);
-
-					// ensure paths are relative from config
-					if (sitePage.dataFile() != null) {
-						File dataFile = (config.configFile() == null) ?
-							new File(sitePage.dataFile()).getCanonicalFile() :
-							new File(config.configFile().getParentFile(), sitePage.dataFile()).getCanonicalFile();
-						if (dataFile.exists()) {
-							log.info("Loading data file: "+dataFile);
-							Object data = new ObjectMapper().readValue(dataFile, Object.class);
-							context.setData(data);
-
-						} else {
-							log.error("Data file missing: "+dataFile);
-						}
+			ResourceCopier copier = new ResourceCopier(previous, manifest, digests, linkInterceptor, config.hardLinks(), sourceDir, targetDir);
 
-					} else {
-						context.setData(sitePage.data());
-					}
+			// copy static resources which are blindly requested by userAgents (e.g., "robots.txt", "favicon.ico")
+			String[] staticFiles = config.files();
+			if (staticFiles != null) {
+				for (String staticFile : staticFiles) {
+					copier.schedule(pool, pending, staticFile, staticFile);
+				}
+			}
 
-					Map<String, Object> extras = config.extras();
-					if (extras != null) {
-						// global ambient client-side data
-						context.putExtras(extras);
+			// ensure that all referenced files are copied
+			Map<String, String> linkCache = linkInterceptor.getLinkCache();
+			for (String key : linkCache.keySet()) {
+				copier.schedule(pool, pending, key, linkCache.get(key));
+			}
+			await(pending);
+
+			if (config.precompress()) {
+				// compressed once here rather than by the web server on every request
+				Set<String> outputs = new HashSet<String>(copier.copied);
+				if (views != null) {
+					for (String targetPage : views.keySet()) {
+						if (!RouteTable.isParameterized(targetPage)) {
+							outputs.add(targetPage);
+						}
 					}
+				}
+				for (String path : outputs) {
+					precompress(pool, pending, new File(targetDir, path));
+				}
+				await(pending);
+			}
 
-					extras = sitePage.extras();
-					if (extras != null) {
-						// page-level ambient client-side data
-						context.putExtras(extras);
-					}
+			if (fingerprints != null) {
+				// generated equivalent of a hand-maintained cdnMap, for deploy tooling rather than clients
+				fingerprints.write(new File(workDir, FingerprintMap.FILE_NAME), linkInterceptor.getFingerprintedLinks());
+			}
 
-					DuelView view = sitePage.viewInstance(config.serverPrefix(), classLoader);
-					if (view != null) {
-						view.render(context);
-					}
+			if (config.incremental()) {
+				removeStale(targetDir, previous, views != null ? views.keySet() : Collections.<String>emptySet(), copier.copied);
+			}
+			manifest.write(workDir);
+			digests.write();
 
-					CacheManifest cacheManifest = sitePage.appCache();
-					if (cacheManifest != null) {
-						cacheManifest.addCachePaths(linkInterceptor.getLinkCache().values());
-						new CacheManifestWriter().write(targetDir, cacheManifest);
-					}
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+	}
 
-				} catch (Exception ex) {
-					log.error(ex.getMessage(), ex);
+	/**
+	 * Renders a single page to its target file
+	 * @return true if the page was generated, false if it failed and any partial output was removed
+	 */
+	private boolean buildPage(SiteConfig config, ViewRegistry registry, DataFileCache dataCache,
+			String targetPage, SiteViewPage sitePage, DuelContext context, StaticLinkInterceptor linkInterceptor) {
+
+		log.info("Generating: "+sitePage.view()+" => "+targetPage);
 
-				} finally {
-					if (writer != null) {
-						try {
-							writer.flush();
-							writer.close();
-						} catch (IOException ex) {}
+		File targetDir = config.targetDirFile();
+		File targetFile = new File(targetDir, targetPage);
+
+		boolean built = false;
+		FileOutputStream stream = null;
+		ByteOutput output = null;
+		try {
+			FileUtil.prepSavePath(targetFile);
+
+			stream = new FileOutputStream(targetFile);
+			output = new ByteOutput(stream, config.encoding());
+			context.setOutput(output);
+
+			// ensure paths are relative from config
+			if (sitePage.dataFile() != null) {
+				File dataFile = (config.configFile() == null) ?
+					new File(sitePage.dataFile()).getCanonicalFile() :
+					new File(config.configFile().getParentFile(), sitePage.dataFile()).getCanonicalFile();
+				if (dataFile.exists()) {
+					log.info("Loading data file: "+dataFile);
+					context.setData(dataCache.get(dataFile));
+
+				} else {
+					log.error("Data file missing: "+dataFile);
+				}
+
+			} else {
+				// pages may be built in parallel so each gets its own data
+				context.setData(DataFileCache.copy(sitePage.data()));
+			}
+
+			Map<String, Object> extras = config.extras();
+			if (extras != null) {
+				// global ambient client-side data, shared by every page
+				context.putExtras(isolate(extras));
+			}
+
+			extras = sitePage.extras();
+			if (extras != null) {
+				// page-level ambient client-side data
+				context.putExtras(isolate(extras));
+			}
+
+			DuelView view = sitePage.viewInstance(registry, config.serverPrefix(), classLoader);
+			if (view != null) {
+				view.render(context);
+			}
+
+			CacheManifest cacheManifest = sitePage.appCache();
+			if (cacheManifest != null) {
+				cacheManifest.addCachePaths(linkInterceptor.getLinkCache().values());
+				new CacheManifestWriter().write(targetDir, cacheManifest);
+			}
+			built = true;
+
+		} catch (Exception ex) {
+			log.error(ex.getMessage(), ex);
+
+		} finally {
+			if (stream != null) {
+				try {
+					if (output != null) {
+						output.flush();
 					}
+					stream.close();
+				} catch (IOException ex) {
+					log.error(ex.getMessage(), ex);
+					built = false;
 				}
 			}
 		}
 
-		if ((linkCache != null) && !linkCache.isEmpty()) {
-			// restore any previously stored values
-			linkInterceptor.getLinkCache().putAll(linkCache);
+		if (!built) {
+			// never leave a half-written page or a stale compressed copy behind
+			File gzipFile = new File(targetFile.getPath()+Precompressor.GZIP_EXT);
+			for (File file : new File[] { targetFile, gzipFile }) {
+				if (file.isFile() && !file.delete()) {
+					log.warn("Unable to remove failed output: "+file);
+				}
+			}
 		}
-		linkCache = linkInterceptor.getLinkCache();
+		return built;
+	}
 
-		// copy static resources which are blindly requested by userAgents (e.g., "robots.txt", "favicon.ico")
-		String[] staticFiles = config.files();
-		if (staticFiles != null) {
-			for (String staticFile : staticFiles) {
+	/**
+	 * Copies extras so that a view modifying one cannot affect concurrently built pages
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> isolate(Map<String, Object> extras) {
+		return (Map<String, Object>)DataFileCache.copy(extras);
+	}
+
+	/**
+	 * Runs the task on the pool or immediately if building sequentially
+	 */
+	private static void execute(ExecutorService pool, List<Future<?>> pending, Runnable task) {
+		if (pool == null) {
+			task.run();
+
+		} else {
+			pending.add(pool.submit(task));
+		}
+	}
+
+	/**
+	 * Writes a gzipped copy of the output alongside it if worthwhile
+	 */
+	private static void precompress(ExecutorService pool, List<Future<?>> pending, final File target) {
+		execute(pool, pending, new Runnable() {
+			@Override
+			public void run() {
 				try {
-					copyResource(sourceDir, targetDir, staticFile, staticFile);
+					if (Precompressor.precompress(target)) {
+						log.debug("Compressed: "+target.getPath()+Precompressor.GZIP_EXT);
+					}
 
 				} catch (IOException ex) {
 					log.error(ex.getMessage(), ex);
 				}
 			}
-		}
+		});
+	}
 
-		// ensure that all referenced files are copied
-		for (String key : linkCache.keySet()) {
-			try {
-				copyResource(sourceDir, targetDir, key, linkCache.get(key));
+	/**
+	 * Waits for all pending tasks to complete
+	 */
+	private static void await(List<Future<?>> pending) {
+		try {
+			for (Future<?> task : pending) {
+				try {
+					task.get();
 
-			} catch (IOException ex) {
-				log.error(ex.getMessage(), ex);
+				} catch (ExecutionException ex) {
+					log.error(ex.getCause().getMessage(), ex.getCause());
+				}
 			}
+
+		} catch (InterruptedException ex) {
+			log.error("Build interrupted", ex);
+			Thread.currentThread().interrupt();
+
+		} finally {
+			pending.clear();
 		}
 	}
 
@@ -213,6 +418,7 @@ public class SiteBuilder {
 		}
 
 		StaticLinkInterceptor linkInterceptor = null;
+		ViewRegistry registry = ViewRegistry.load(config.serverPrefix(), classLoader);
 
 		for (SiteViewPage sitePage : config.views().values()) {
 			if (sitePage.appCache() == null) {
@@ -221,7 +427,7 @@ public class SiteBuilder {
 			}
 
 			if (linkInterceptor == null) {
-				linkInterceptor = createInterceptor(config);
+				linkInterceptor = createInterceptor(config, null);
 
 			} else if (!linkInterceptor.getLinkCache().isEmpty()) {
 				linkInterceptor.getLinkCache().clear();
@@ -245,7 +451,7 @@ public class SiteBuilder {
 					context.putExtras(extras);
 				}
 
-				DuelView view = sitePage.viewInstance(config.serverPrefix(), classLoader);
+				DuelView view = sitePage.viewInstance(registry, config.serverPrefix(), classLoader);
 				if (view != null) {
 					view.render(context);
 				}
@@ -258,7 +464,160 @@ public class SiteBuilder {
 		}
 	}
 
-	private StaticLinkInterceptor createInterceptor(SiteConfig config) {
+	/**
+	 * Hashes the inputs shared by every page: settings, global extras, CDN maps and views.
+	 * As views may call other views, any view change regenerates every page.
+	 * @return the hash or null if it could not be determined
+	 */
+	private String siteInputs(SiteConfig config, ViewRegistry registry) {
+		try {
+			Map<String, Object> inputs = new TreeMap<String, Object>();
+			inputs.put("encoding", config.encoding());
+			inputs.put("isDevMode", config.isDevMode());
+			inputs.put("serverPrefix", config.serverPrefix());
+			inputs.put("cdnHost", config.cdnHost());
+			inputs.put("cdnMap", bundleInputs(config.cdnMap()));
+			inputs.put("cdnLinksMap", bundleInputs(config.cdnLinksMap()));
+			inputs.put("fingerprint", config.fingerprint());
+			inputs.put("extras", config.extras());
+
+			MessageDigest hash = MessageDigest.getInstance(FileUtil.SHA1);
+			hash.update(INPUTS_WRITER.writeValueAsBytes(inputs));
+
+			if (registry != null) {
+				// registered views include any called from routed views
+				for (String viewName : new TreeSet<String>(registry.getViewNames())) {
+					DuelView view = registry.create(viewName);
+					if (view != null) {
+						classInputs(view.getClass(), hash);
+					}
+				}
+			}
+
+			return Base64.encodeBase64URLSafeString(hash.digest());
+
+		} catch (Exception ex) {
+			log.warn("Unable to determine site inputs: "+ex.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Hashes the inputs of a single page: site inputs, page config, view class and data file.
+	 * @return the hash or null if it could not be determined
+	 */
+	private String pageInputs(SiteConfig config, String siteInputs, SiteViewPage sitePage, DigestCache digests) {
+		if (siteInputs == null) {
+			return null;
+		}
+
+		try {
+			MessageDigest hash = MessageDigest.getInstance(FileUtil.SHA1);
+			hash.update(siteInputs.getBytes(StandardCharsets.UTF_8));
+
+			// view name, inline data, page extras and app cache settings
+			hash.update(INPUTS_WRITER.writeValueAsBytes(sitePage));
+
+			Class<? extends DuelView> viewClass = sitePage.viewClass(config.serverPrefix(), classLoader);
+			if (viewClass != null) {
+				classInputs(viewClass, hash);
+			}
+
+			if (sitePage.dataFile() != null) {
+				File dataFile = (config.configFile() == null) ?
+					new File(sitePage.dataFile()).getCanonicalFile() :
+					new File(config.configFile().getParentFile(), sitePage.dataFile()).getCanonicalFile();
+				if (dataFile.exists()) {
+					String dataHash = digests.calcHash(dataFile, FileUtil.SHA1, FileUtil.HashEncoding.BASE64, buffer.get());
+					if (dataHash == null) {
+						return null;
+					}
+					hash.update(dataHash.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+
+			return Base64.encodeBase64URLSafeString(hash.digest());
+
+		} catch (Exception ex) {
+			log.warn("Unable to determine page inputs: "+ex.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Hashes the class bytes including nested part classes
+	 */
+	private void classInputs(Class<?> type, MessageDigest hash)
+			throws IOException {
+
+		ClassLoader loader = (type.getClassLoader() != null) ? type.getClassLoader() : classLoader;
+		InputStream stream = loader.getResourceAsStream(type.getName().replace('.', '/')+".class");
+		if (stream == null) {
+			throw new FileNotFoundException(type.getName());
+		}
+
+		try {
+			byte[] bytes = buffer.get();
+			int count;
+			while ((count = stream.read(bytes)) > 0) {
+				hash.update(bytes, 0, count);
+			}
+
+		} finally {
+			stream.close();
+		}
+
+		for (Class<?> nested : type.getDeclaredClasses()) {
+			classInputs(nested, hash);
+		}
+	}
+
+	private Map<String, String> bundleInputs(String bundleName) {
+		if (bundleName == null || bundleName.isEmpty()) {
+			return null;
+		}
+
+		ResourceBundle bundle = ResourceBundle.getBundle(bundleName, Locale.ROOT, classLoader);
+		Map<String, String> inputs = new TreeMap<String, String>();
+		for (String key : bundle.keySet()) {
+			inputs.put(key, bundle.getString(key));
+		}
+		return inputs;
+	}
+
+	/**
+	 * Removes outputs of the previous build which are no longer generated
+	 */
+	private void removeStale(File targetDir, BuildManifest previous, Set<String> pages, Set<String> resources) {
+		for (String path : previous.pages().keySet()) {
+			if (!pages.contains(path)) {
+				deleteStale(new File(targetDir, path));
+			}
+		}
+		for (String path : previous.resources().keySet()) {
+			if (!resources.contains(path)) {
+				deleteStale(new File(targetDir, path));
+			}
+		}
+	}
+
+	private void deleteStale(File target) {
+		try {
+			if (target.isFile() && target.delete()) {
+				log.info("Deleted stale: "+target.getAbsolutePath());
+			}
+
+			// along with any precompressed copy
+			File gzipTarget = new File(target.getPath()+Precompressor.GZIP_EXT);
+			if (gzipTarget.isFile() && gzipTarget.delete()) {
+				log.info("Deleted stale: "+gzipTarget.getAbsolutePath());
+			}
+		} catch (Exception ex) {
+			log.warn(ex.getMessage(), ex);
+		}
+	}
+
+	private StaticLinkInterceptor createInterceptor(SiteConfig config, FingerprintMap fingerprints) {
 		StaticLinkInterceptor linkInterceptor = null;
 		try {
 			String bundleName = config.cdnMap();
@@ -271,7 +630,7 @@ public class SiteBuilder {
 				(bundleName == null) || bundleName.isEmpty() ? null :
 				ResourceBundle.getBundle(bundleName, Locale.ROOT, classLoader);
 
-			linkInterceptor = new StaticLinkInterceptor(config.cdnHost(), cdnBundle, cdnLinkBundle, config.isDevMode());
+			linkInterceptor = new StaticLinkInterceptor(config.cdnHost(), cdnBundle, cdnLinkBundle, config.isDevMode(), fingerprints);
 
 		} catch (URISyntaxException ex) {
 			log.error(ex.getMessage(), ex);
@@ -279,46 +638,110 @@ public class SiteBuilder {
 		return linkInterceptor;
 	}
 
-	private void copyResource(File sourceDir, File targetDir, String path, String cdnPath)
-			throws IOException {
+	/**
+	 * Copies referenced resources, each target at most once per build
+	 */
+	private class ResourceCopier {
+		final BuildManifest previous;
+		final BuildManifest manifest;
+		final DigestCache digests;
+		final StaticLinkInterceptor linkInterceptor;
+		final boolean hardLink;
+		final File sourceDir;
+		final File targetDir;
+		final Set<String> copied = new HashSet<String>();
+
+		ResourceCopier(BuildManifest previous, BuildManifest manifest, DigestCache digests,
+				StaticLinkInterceptor linkInterceptor, boolean hardLink, File sourceDir, File targetDir) {
+
+			this.previous = previous;
+			this.manifest = manifest;
+			this.digests = digests;
+			this.linkInterceptor = linkInterceptor;
+			this.hardLink = hardLink;
+			this.sourceDir = sourceDir;
+			this.targetDir = targetDir;
+		}
 
-		int query = cdnPath.indexOf('?');
-		if (query >= 0) {
-			cdnPath = cdnPath.substring(0, query);
+		void schedule(ExecutorService pool, List<Future<?>> pending, String path, String cdnPath) {
+			int query = cdnPath.indexOf('?');
+			if (query >= 0) {
+				cdnPath = cdnPath.substring(0, query);
+			}
+			int hash = cdnPath.indexOf('#');
+			if (hash >= 0) {
+				cdnPath = cdnPath.substring(0, hash);
+			}
+
+			String sourcePath = linkInterceptor.sourceURL(cdnPath);
+			schedule(pool, pending, path, sourcePath, cdnPath);
+			if (!sourcePath.equals(cdnPath)) {
+				// also copied by name as fingerprinted resources may be referenced from other resources
+				schedule(pool, pending, path, sourcePath, sourcePath);
+			}
 		}
-		int hash = cdnPath.indexOf('#');
-		if (hash >= 0) {
-			cdnPath = cdnPath.substring(0, hash);
+
+		private void schedule(ExecutorService pool, List<Future<?>> pending, final String path, final String sourcePath, final String cdnPath) {
+			if (!copied.add(cdnPath)) {
+				return;
+			}
+
+			execute(pool, pending, new Runnable() {
+				@Override
+				public void run() {
+					try {
+						copy(path, sourcePath, cdnPath);
+
+					} catch (IOException ex) {
+						log.error(ex.getMessage(), ex);
+					}
+				}
+			});
 		}
 
-		File source = new File(sourceDir, cdnPath);
-		File target = new File(targetDir, cdnPath);
-		if (!source.exists()) {
-			// report but still copy the rest
-			log.warn("Resource not found: "+source.getAbsolutePath());
-			try {
-				if (target.isFile() && target.exists() && target.delete()) {
-					log.info("Deleted existing: "+target.getAbsolutePath());
+		private void copy(String path, String sourcePath, String cdnPath)
+				throws IOException {
+
+			File source = new File(sourceDir, sourcePath);
+			File target = new File(targetDir, cdnPath);
+			if (!source.exists()) {
+				// report but still copy the rest
+				log.warn("Resource not found: "+source.getAbsolutePath());
+				try {
+					if (target.isFile() && target.exists() && target.delete()) {
+						log.info("Deleted existing: "+target.getAbsolutePath());
+					}
+				} catch (Exception ex) {
+					log.warn(ex.getMessage(), ex);
 				}
-			} catch (Exception ex) {
-				log.warn(ex.getMessage(), ex);
+				return;
 			}
-			return;
-		}
-		if (!source.isFile()) {
-			// report but still copy the rest
-			log.debug("Resource not a file: "+source.getPath());
-			try {
-				if (target.isFile() && target.exists() && target.delete()) {
-					log.info("Deleted existing: "+target.getAbsolutePath());
+			if (!source.isFile()) {
+				// report but still copy the rest
+				log.debug("Resource not a file: "+source.getPath());
+				try {
+					if (target.isFile() && target.exists() && target.delete()) {
+						log.info("Deleted existing: "+target.getAbsolutePath());
+					}
+				} catch (Exception ex) {
+					log.warn(ex.getMessage(), ex);
 				}
-			} catch (Exception ex) {
-				log.warn(ex.getMessage(), ex);
+				return;
 			}
-			return;
-		}
 
-		log.info("Copying "+path+" as "+cdnPath);
-		FileUtil.copy(source, target, true, buffer);
+			String hash = digests.calcHash(source, FileUtil.SHA1, FileUtil.HashEncoding.HEX, buffer.get());
+			if (hash != null) {
+				manifest.resources().put(cdnPath, hash);
+
+				if (hash.equals(previous.resources().get(cdnPath)) && target.isFile()) {
+					log.debug("Unchanged: "+cdnPath);
+					return;
+				}
+			}
+
+			if (FileUtil.copyIfChanged(source, target, hardLink, digests)) {
+				log.info("Copying "+path+" as "+cdnPath);
+			}
+		}
 	}
 }
@@ -17,12 +17,20 @@ public class SiteConfig {
 	private String contentType;
 	private String encoding;
 	private String targetDir;
+	private String workDir;
 	private String sourceDir;
 	private String serverPrefix;
+	private String viewsDir;
 	private String cdnHost;
 	private String cdnMap;
 	private String cdnLinksMap;
 	private boolean isDevMode;
+	private boolean pageCache;
+	private int buildThreads;
+	private boolean incremental;
+	private boolean hardLinks;
+	private boolean fingerprint;
+	private boolean precompress;
 	private Map<String, Object> extras;
 	private Map<String, SiteViewPage> views;
 	private String[] files;
@@ -31,7 +39,9 @@ public class SiteConfig {
 
 	private File configFile;
 	private File sourceDirFile;
+	private File viewsDirFile;
 	private File targetDirFile;
+	private File workDirFile;
 
 	public String contentType() {
 		if (contentType == null || contentType.isEmpty()) {
@@ -81,6 +91,30 @@ public class SiteConfig {
 		return this;
 	}
 
+	/**
+	 * Gets the directory for state kept between builds
+	 */
+	@JsonProperty
+	public String workDir() {
+		return workDir;
+	}
+
+	/**
+	 * Sets the directory for state kept between builds, must not be within the target directory
+	 */
+	@JsonProperty
+	public SiteConfig workDir(String value) {
+		workDir = value;
+
+		if (value == null || value.isEmpty()) {
+			workDirFile = null;
+
+		} else {
+			workDirFile = FileUtil.getCanonicalFile(workDir);
+		}
+		return this;
+	}
+
 	/**
 	 * Gets the web app directory
 	 */
@@ -122,6 +156,30 @@ public class SiteConfig {
 		return this;
 	}
 
+	/**
+	 * @return the template source directory, compiled in memory while in dev mode
+	 */
+	@JsonProperty
+	public String viewsDir() {
+		return viewsDir;
+	}
+
+	/**
+	 * @value the template source directory, compiled in memory while in dev mode
+	 */
+	@JsonProperty
+	public SiteConfig viewsDir(String value) {
+		viewsDir = value;
+
+		if (value == null || value.isEmpty()) {
+			viewsDirFile = null;
+
+		} else {
+			viewsDirFile = FileUtil.getCanonicalFile(viewsDir);
+		}
+		return this;
+	}
+
 	/**
 	 * @return the CDN host name
 	 */
@@ -190,6 +248,108 @@ public class SiteConfig {
 		return this;
 	}
 
+	/**
+	 * @return if rendered pages should be cached and revalidated with ETags
+	 */
+	@JsonProperty
+	public boolean pageCache() {
+		return pageCache;
+	}
+
+	/**
+	 * @value if rendered pages should be cached and revalidated with ETags
+	 */
+	@JsonProperty
+	public SiteConfig pageCache(boolean value) {
+		pageCache = value;
+		return this;
+	}
+
+	/**
+	 * @return the number of workers used to generate pages and copy resources
+	 */
+	@JsonProperty
+	public int buildThreads() {
+		return (buildThreads > 0) ? buildThreads : 1;
+	}
+
+	/**
+	 * @value the number of workers used to generate pages and copy resources
+	 */
+	@JsonProperty
+	public SiteConfig buildThreads(int value) {
+		buildThreads = value;
+		return this;
+	}
+
+	/**
+	 * @return if unchanged pages and resources should be skipped based upon the previous build
+	 */
+	@JsonProperty
+	public boolean incremental() {
+		return incremental;
+	}
+
+	/**
+	 * @value if unchanged pages and resources should be skipped based upon the previous build
+	 */
+	@JsonProperty
+	public SiteConfig incremental(boolean value) {
+		incremental = value;
+		return this;
+	}
+
+	/**
+	 * @return if resources should be hard linked rather than copied where the filesystem allows
+	 */
+	@JsonProperty
+	public boolean hardLinks() {
+		return hardLinks;
+	}
+
+	/**
+	 * @value if resources should be hard linked rather than copied where the filesystem allows
+	 */
+	@JsonProperty
+	public SiteConfig hardLinks(boolean value) {
+		hardLinks = value;
+		return this;
+	}
+
+	/**
+	 * @return if links to resources should be rewritten to content-addressed names
+	 */
+	@JsonProperty
+	public boolean fingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * @value if links to resources should be rewritten to content-addressed names
+	 */
+	@JsonProperty
+	public SiteConfig fingerprint(boolean value) {
+		fingerprint = value;
+		return this;
+	}
+
+	/**
+	 * @return if compressible output should also be written gzipped alongside the original
+	 */
+	@JsonProperty
+	public boolean precompress() {
+		return precompress;
+	}
+
+	/**
+	 * @value if compressible output should also be written gzipped alongside the original
+	 */
+	@JsonProperty
+	public SiteConfig precompress(boolean value) {
+		precompress = value;
+		return this;
+	}
+
 	/**
 	 * Gets the global ambient data extras
 	 */
@@ -250,6 +410,13 @@ public class SiteConfig {
 		return sourceDirFile;
 	}
 
+	/**
+	 * @return the template source directory
+	 */
+	public File viewsDirFile() {
+		return viewsDirFile;
+	}
+
 	/**
 	 * @return the target output directory
 	 */
@@ -257,6 +424,16 @@ public class SiteConfig {
 		return targetDirFile;
 	}
 
+	/**
+	 * @return the build state directory, defaults to a sibling of the target so it is never published
+	 */
+	public File workDirFile() {
+		if (workDirFile == null && targetDirFile != null) {
+			return new File(targetDirFile.getParentFile(), targetDirFile.getName()+".duel-work");
+		}
+		return workDirFile;
+	}
+
 	/**
 	 * Gets the config location
 	 */
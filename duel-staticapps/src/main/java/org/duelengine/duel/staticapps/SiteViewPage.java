@@ -3,6 +3,7 @@ package org.duelengine.duel.staticapps;
 import java.util.Map;
 
 import org.duelengine.duel.DuelView;
+import org.duelengine.duel.ViewRegistry;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -128,4 +129,20 @@ public class SiteViewPage {
 
 		return (viewClass != null) ? viewClass.newInstance() : null;
 	}
+
+	/**
+	 * @return the view instance, preferring the generated registry over reflection
+	 * @throws ClassNotFoundException 
+	 * @throws IllegalAccessException 
+	 * @throws InstantiationException 
+	 */
+	protected DuelView viewInstance(ViewRegistry registry, String serverPrefix, ClassLoader classLoader)
+			throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+
+		if (registry != null && registry.hasView(view)) {
+			return registry.create(view);
+		}
+
+		return viewInstance(serverPrefix, classLoader);
+	}
 }
@@ -1,39 +1,140 @@
 package org.duelengine.duel.staticapps;
 
 import java.net.URISyntaxException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.duelengine.duel.CDNLinkInterceptor;
 
 class StaticLinkInterceptor extends CDNLinkInterceptor {
 
-	private final Map<String, String> cache = new HashMap<String, String>();
+	private final Map<String, String> cache = new ConcurrentHashMap<String, String>();
+	private final Map<String, String> fingerprintCache = new ConcurrentHashMap<String, String>();
 	private final Map<String, String> linksBundle;
 	private final int cdnHostPrefix;
+	private final FingerprintMap fingerprints;
 
 	public StaticLinkInterceptor(String cdnHost, ResourceBundle cdnBundle, ResourceBundle linksBundle, boolean isDevMode)
 			throws URISyntaxException {
 
-		this(cdnHost, bundleAsMap(cdnBundle, isDevMode), bundleAsMap(linksBundle, isDevMode), isDevMode);
+		this(cdnHost, bundleAsMap(cdnBundle, isDevMode), bundleAsMap(linksBundle, isDevMode), isDevMode, null);
+	}
+
+	public StaticLinkInterceptor(String cdnHost, ResourceBundle cdnBundle, ResourceBundle linksBundle, boolean isDevMode, FingerprintMap fingerprints)
+			throws URISyntaxException {
+
+		this(cdnHost, bundleAsMap(cdnBundle, isDevMode), bundleAsMap(linksBundle, isDevMode), isDevMode, fingerprints);
 	}
 
 	public StaticLinkInterceptor(String cdnHost, Map<String, String> cdnBundle, Map<String, String> linksBundle, boolean isDevMode)
 			throws URISyntaxException {
 
+		this(cdnHost, cdnBundle, linksBundle, isDevMode, null);
+	}
+
+	/**
+	 * @param fingerprints if non-null, links to resources are rewritten to content-addressed names (ignored in dev mode)
+	 */
+	public StaticLinkInterceptor(String cdnHost, Map<String, String> cdnBundle, Map<String, String> linksBundle, boolean isDevMode, FingerprintMap fingerprints)
+			throws URISyntaxException {
+
 		super(cdnHost, cdnBundle, isDevMode);
 
-		this.linksBundle = linksBundle;
+		this.linksBundle = (linksBundle != null) ? linksBundle : Collections.<String, String>emptyMap();
 		this.cdnHostPrefix = (cdnHost == null) ? 0 : cdnHost.length();
+		this.fingerprints = isDevMode ? null : fingerprints;
+	}
+
+	private StaticLinkInterceptor(StaticLinkInterceptor prototype) {
+		super(prototype);
+
+		this.linksBundle = prototype.linksBundle;
+		this.cdnHostPrefix = prototype.cdnHostPrefix;
+		this.fingerprints = prototype.fingerprints;
+	}
+
+	/**
+	 * Creates an interceptor sharing this configuration which collects its own links
+	 * (e.g., the resources referenced by a single page)
+	 */
+	public StaticLinkInterceptor fork() {
+		return new StaticLinkInterceptor(this);
 	}
 
 	public Map<String, String> getLinkCache() {
 		return cache;
 	}
 
+	/**
+	 * @return the CDN URLs which were rewritten mapped to their fingerprinted URLs
+	 */
+	public Map<String, String> getFingerprints() {
+		return fingerprintCache;
+	}
+
+	/**
+	 * Gets the CDN URL from which a fingerprinted URL was named
+	 * @param cdnURL
+	 * @return the original URL or the same URL if not fingerprinted
+	 */
+	public String sourceURL(String cdnURL) {
+		if (fingerprints == null) {
+			return cdnURL;
+		}
+
+		String path = trimHost(cdnURL);
+		return cdnURL.substring(0, cdnURL.length()-path.length())+fingerprints.sourcePath(path);
+	}
+
+	/**
+	 * Checks that previously fingerprinted URLs would still be named the same
+	 * @param previous CDN URLs mapped to their fingerprinted URLs
+	 * @return true if all names are unchanged
+	 */
+	public boolean isCurrent(Map<String, String> previous) {
+		for (Map.Entry<String, String> entry : previous.entrySet()) {
+			if (!entry.getValue().equals(fingerprint(entry.getKey()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return each link which was fingerprinted mapped to its fingerprinted path, in the form of a cdnMap
+	 */
+	public Map<String, String> getFingerprintedLinks() {
+		Map<String, String> links = new HashMap<String, String>();
+		for (Map.Entry<String, String> link : cache.entrySet()) {
+			String cdnURL = link.getValue();
+			int query = cdnURL.indexOf('?');
+			if (query >= 0) {
+				cdnURL = cdnURL.substring(0, query);
+			}
+			int hash = cdnURL.indexOf('#');
+			if (hash >= 0) {
+				cdnURL = cdnURL.substring(0, hash);
+			}
+
+			if (!cdnURL.equals(sourceURL(cdnURL))) {
+				links.put(link.getKey(), trimHost(cdnURL));
+			}
+		}
+		return links;
+	}
+
 	@Override
 	public String transformURL(String url) {
+		return transformURL(url, true);
+	}
+
+	/**
+	 * @param isFingerprint false for child links which are referenced by their original names
+	 */
+	private String transformURL(String url, boolean isFingerprint) {
 		if (url.indexOf("://") > 0 || url.indexOf("//") == 0) {
 			// skip absolute URLs
 			return url;
@@ -58,6 +159,9 @@ class StaticLinkInterceptor extends CDNLinkInterceptor {
 
 		// intercept requests for transformation
 		String cdnURL = super.transformURL(url);
+		if (isFingerprint && fingerprints != null) {
+			cdnURL = fingerprint(cdnURL);
+		}
 
 		// collect an accumulated list
 		cache.put(url, cdnURL+suffix);
@@ -72,7 +176,7 @@ class StaticLinkInterceptor extends CDNLinkInterceptor {
 					}
 
 					// ignore result, we only care about caching
-					this.transformURL(child);
+					this.transformURL(child, false);
 				}
 			}
 		}
@@ -87,11 +191,31 @@ class StaticLinkInterceptor extends CDNLinkInterceptor {
 					}
 
 					// ignore result, we only care about caching
-					this.transformURL(child);
+					this.transformURL(child, false);
 				}
 			}
 		}
 
 		return cdnURL+suffix;
 	}
+
+	private String fingerprint(String cdnURL) {
+		if (fingerprints == null) {
+			return cdnURL;
+		}
+
+		String path = trimHost(cdnURL);
+		String name = fingerprints.fingerprint(path);
+		if (name.equals(path)) {
+			return cdnURL;
+		}
+
+		String fingerprintURL = cdnURL.substring(0, cdnURL.length()-path.length())+name;
+		fingerprintCache.put(cdnURL, fingerprintURL);
+		return fingerprintURL;
+	}
+
+	private String trimHost(String cdnURL) {
+		return (!cdnHost.isEmpty() && cdnURL.startsWith(cdnHost)) ? cdnURL.substring(cdnHost.length()) : cdnURL;
+	}
 }
@@ -0,0 +1,22 @@
+package org.duelengine.duel.staticapps;
+
+import org.duelengine.duel.ViewRegistry;
+
+/**
+ * Reloads views from their templates while developing.
+ * Implementations depend upon the optional duel-compiler so are only ever loaded by name.
+ */
+interface ViewReloader {
+
+	/**
+	 * Checks for template changes without blocking
+	 * @return true if {@link #refresh()} would produce a new registry
+	 */
+	boolean isStale();
+
+	/**
+	 * Recompiles any changed templates
+	 * @return the current registry
+	 */
+	ViewRegistry refresh();
+}
@@ -0,0 +1,195 @@
+package org.duelengine.duel.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memoizes file digests keyed by path, size and last modified time so that
+ * unchanged files are only read once across builds.
+ * Thread-safe so may be shared across workers.
+ */
+public class DigestCache {
+
+	private static final Logger log = LoggerFactory.getLogger(DigestCache.class);
+	private static final char DELIM = '\t';
+
+	private static class Entry {
+		final long length;
+		final long modified;
+		final String hash;
+
+		Entry(long length, long modified, String hash) {
+			this.length = length;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final File cacheFile;
+
+	/**
+	 * Creates an in-memory cache
+	 */
+	public DigestCache() {
+		this(null);
+	}
+
+	/**
+	 * Creates a cache persisted to the given file
+	 * @param cacheFile
+	 */
+	public DigestCache(File cacheFile) {
+		this.cacheFile = cacheFile;
+
+		if (cacheFile != null && cacheFile.isFile()) {
+			read();
+		}
+	}
+
+	/**
+	 * Gets the digest of the file contents, only reading the file if it has changed
+	 * @param file
+	 * @param algorithm
+	 * @param encoding
+	 * @return the digest or null if it could not be calculated
+	 * @throws FileNotFoundException
+	 */
+	public String calcHash(File file, String algorithm, FileUtil.HashEncoding encoding)
+			throws FileNotFoundException {
+
+		return calcHash(file, algorithm, encoding, null);
+	}
+
+	/**
+	 * Gets the digest of the file contents, only reading the file if it has changed
+	 * @param file
+	 * @param algorithm
+	 * @param encoding
+	 * @param buffer
+	 * @return the digest or null if it could not be calculated
+	 * @throws FileNotFoundException
+	 */
+	public String calcHash(File file, String algorithm, FileUtil.HashEncoding encoding, byte[] buffer)
+			throws FileNotFoundException {
+
+		if (file == null) {
+			throw new NullPointerException("file");
+		}
+
+		long length = file.length();
+		long modified = file.lastModified();
+		if (modified == 0L) {
+			throw new FileNotFoundException(file.toString());
+		}
+
+		String key = key(file, algorithm, encoding);
+		Entry entry = entries.get(key);
+		if (entry != null && entry.length == length && entry.modified == modified) {
+			return entry.hash;
+		}
+
+		String hash = FileUtil.calcHash(file, algorithm, encoding, buffer);
+		if (hash != null) {
+			entries.put(key, new Entry(length, modified, hash));
+		}
+		return hash;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Persists the cache if created with a cache file
+	 */
+	public void write() {
+		if (cacheFile == null) {
+			return;
+		}
+
+		FileUtil.prepSavePath(cacheFile);
+
+		BufferedWriter writer = null;
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cacheFile), StandardCharsets.UTF_8));
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				Entry value = entry.getValue();
+				writer.append(Long.toString(value.length)).append(DELIM)
+					.append(Long.toString(value.modified)).append(DELIM)
+					.append(value.hash).append(DELIM)
+					.append(entry.getKey()).append('\n');
+			}
+
+		} catch (IOException ex) {
+			log.error(ex.getMessage(), ex);
+
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException ex) {}
+			}
+		}
+	}
+
+	private void read() {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), StandardCharsets.UTF_8));
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// length, modified and hash never contain the delimiter but the key might
+				int end1 = line.indexOf(DELIM);
+				int end2 = line.indexOf(DELIM, end1+1);
+				int end3 = line.indexOf(DELIM, end2+1);
+				if (end1 < 0 || end2 < 0 || end3 < 0) {
+					continue;
+				}
+
+				try {
+					entries.put(line.substring(end3+1), new Entry(
+						Long.parseLong(line.substring(0, end1)),
+						Long.parseLong(line.substring(end1+1, end2)),
+						line.substring(end2+1, end3)));
+
+				} catch (NumberFormatException ex) {
+					continue;
+				}
+			}
+
+		} catch (IOException ex) {
+			log.warn("Ignoring unreadable digest cache: "+cacheFile, ex);
+			entries.clear();
+
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException ex) {}
+			}
+		}
+	}
+
+	private static String key(File file, String algorithm, FileUtil.HashEncoding encoding) {
+		return algorithm+':'+encoding+':'+FileUtil.getCanonicalFile(file).getPath();
+	}
+}
@@ -5,6 +5,8 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -72,6 +74,9 @@ public class FileUtil {
 		copy(source, target, overwrite, null);
 	}
 
+	/**
+	 * @param buffer no longer used as contents are transferred between channels
+	 */
 	public static void copy(File source, File target, boolean overwrite, byte[] buffer)
 			throws IOException {
 
@@ -90,21 +95,113 @@ public class FileUtil {
 		if (!overwrite && target.exists()) {
 			return;
 		}
-		if (buffer == null) {
-			buffer = new byte[DEFAULT_BUFFER_SIZE];
+
+		prepSavePath(target);
+		transfer(source, target);
+	}
+
+	/**
+	 * Copies the file only if the target differs, comparing size, modified time and then digests.
+	 * @param source
+	 * @param target
+	 * @param hardLink link rather than copy where the filesystem allows
+	 * @param digests optional digest cache used when modified times differ
+	 * @return true if the target was written
+	 * @throws IOException
+	 */
+	public static boolean copyIfChanged(File source, File target, boolean hardLink, DigestCache digests)
+			throws IOException {
+
+		if (target == null) {
+			throw new NullPointerException("target");
+		}
+		if (source == null) {
+			throw new NullPointerException("source");
+		}
+		if (!source.exists()) {
+			throw new FileNotFoundException(source.toString());
+		}
+		if (!source.isFile()) {
+			return false;
+		}
+		if (isSame(source, target, digests)) {
+			return false;
 		}
 
 		prepSavePath(target);
-		
+
+		if (hardLink) {
+			try {
+				Files.deleteIfExists(target.toPath());
+				Files.createLink(target.toPath(), source.toPath());
+				return true;
+
+			} catch (IOException ex) {
+				// e.g., across devices
+				log.debug("Hard link failed, copying instead: "+ex.getMessage());
+
+			} catch (UnsupportedOperationException ex) {
+				log.debug("Hard link not supported, copying instead: "+ex.getMessage());
+			}
+		}
+
+		transfer(source, target);
+
+		// allows metadata-only comparison next time
+		target.setLastModified(source.lastModified());
+		return true;
+	}
+
+	/**
+	 * Compares file size, modified time and finally contents
+	 * @param source
+	 * @param target
+	 * @param digests optional digest cache, if null differing modified times are treated as changed
+	 * @return true if the files are the same
+	 */
+	public static boolean isSame(File source, File target, DigestCache digests) {
+		if (!target.isFile() || target.length() != source.length()) {
+			return false;
+		}
+		if (target.lastModified() == source.lastModified()) {
+			return true;
+		}
+		if (digests == null) {
+			return false;
+		}
+
+		try {
+			String sourceHash = digests.calcHash(source, SHA1, HashEncoding.HEX);
+			return (sourceHash != null) && sourceHash.equals(digests.calcHash(target, SHA1, HashEncoding.HEX));
+
+		} catch (FileNotFoundException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Transfers between channels allowing the OS to avoid copying through user space
+	 */
+	private static void transfer(File source, File target)
+			throws IOException {
+
 		FileInputStream sourceStream = null;
 		FileOutputStream targetStream = null;
 		try {
 			sourceStream = new FileInputStream(source);
 			targetStream = new FileOutputStream(target);
 
-			int count;
-			while ((count = sourceStream.read(buffer)) > 0) {
-				targetStream.write(buffer, 0, count);
+			FileChannel sourceChannel = sourceStream.getChannel();
+			FileChannel targetChannel = targetStream.getChannel();
+
+			long size = sourceChannel.size();
+			long position = 0L;
+			while (position < size) {
+				long count = sourceChannel.transferTo(position, size-position, targetChannel);
+				if (count <= 0L) {
+					break;
+				}
+				position += count;
 			}
 
 		} finally {
@@ -292,6 +389,27 @@ public class FileUtil {
 		}
 	}
 
+	public static String calcHash(byte[] bytes, String algorithm, HashEncoding encoding) {
+		if (bytes == null) {
+			throw new NullPointerException("bytes");
+		}
+
+		try {
+			byte[] digest = MessageDigest.getInstance(algorithm).digest(bytes);
+			switch (encoding) {
+				case BASE64:
+					return encodeBytesBase64(digest);
+				default:
+				case HEX:
+					return encodeBytesHex(digest);
+			}
+
+		} catch (Exception ex) {
+			log.error(algorithm+" Error", ex);
+			return null;
+		}
+	}
+
 	public static boolean isSHA1(String signature) {
 		// validate signature length and content
 		if (signature == null) {
@@ -0,0 +1,60 @@
+package org.duelengine.duel.staticapps;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DataFileCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void getIsolatesCallersTest() throws IOException {
+		File dataFile = write("data.json", "{\"title\":\"Home\",\"items\":[{\"name\":\"a\"}]}");
+		DataFileCache cache = new DataFileCache();
+
+		Map<String, Object> first = (Map<String, Object>)cache.get(dataFile);
+		first.put("title", "Changed");
+		((Map<String, Object>)((List<Object>)first.get("items")).get(0)).put("name", "b");
+
+		Map<String, Object> second = (Map<String, Object>)cache.get(dataFile);
+		assertNotSame(first, second);
+		assertEquals("Home", second.get("title"));
+		assertEquals("a", ((Map<String, Object>)((List<Object>)second.get("items")).get(0)).get("name"));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void getReparsesChangedFileTest() throws IOException {
+		File dataFile = write("data.json", "{\"title\":\"Home\"}");
+		DataFileCache cache = new DataFileCache();
+		assertEquals("Home", ((Map<String, Object>)cache.get(dataFile)).get("title"));
+
+		write("data.json", "{\"title\":\"Updated\"}");
+		assertEquals("Updated", ((Map<String, Object>)cache.get(dataFile)).get("title"));
+	}
+
+	@Test(expected=FileNotFoundException.class)
+	public void getMissingFileTest() throws IOException {
+		new DataFileCache().get(new File(folder.getRoot(), "missing.json"));
+	}
+
+	private File write(String name, String json) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
@@ -0,0 +1,114 @@
+package org.duelengine.duel.staticapps;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class RouteTableTest {
+
+	@Test
+	public void literalBeforeParamTest() {
+		RouteTable routes = routes("products/{id}", "products/new");
+
+		RouteTable.Match match = routes.route("/products/new");
+		assertEquals("products/new", match.route());
+		assertTrue(match.params().isEmpty());
+
+		match = routes.route("/products/42");
+		assertEquals("products/{id}", match.route());
+		assertEquals(Collections.singletonMap("id", "42"), match.params());
+	}
+
+	@Test
+	public void suffixBeforeBareParamTest() {
+		// declared least specific first
+		RouteTable routes = routes("items/{id}", "items/{id}.html");
+
+		RouteTable.Match match = routes.route("/items/5.html");
+		assertEquals("items/{id}.html", match.route());
+		assertEquals("5", match.params().get("id"));
+
+		match = routes.route("/items/5");
+		assertEquals("items/{id}", match.route());
+		assertEquals("5", match.params().get("id"));
+	}
+
+	@Test
+	public void emptyCaptureTest() {
+		RouteTable routes = routes("items/{id}.html");
+
+		assertNull(routes.route("/items/.html"));
+	}
+
+	@Test
+	public void backtrackTest() {
+		RouteTable routes = routes("a/b/view", "a/{x}/edit");
+
+		RouteTable.Match match = routes.route("/a/b/edit");
+		assertEquals("a/{x}/edit", match.route());
+		assertEquals(Collections.singletonMap("x", "b"), match.params());
+
+		match = routes.route("/a/b/view");
+		assertEquals("a/b/view", match.route());
+
+		// a failed branch leaves no captured params behind
+		routes = routes("{x}/{y}/z", "{a}/b");
+		match = routes.route("/q/b");
+		assertEquals("{a}/b", match.route());
+		assertEquals(Collections.singletonMap("a", "q"), match.params());
+	}
+
+	@Test
+	public void defaultDocTest() {
+		RouteTable routes = routes("index.html", "docs/index.html");
+
+		assertEquals("index.html", routes.route("/").route());
+		assertEquals("index.html", routes.route("").route());
+		assertEquals("docs/index.html", routes.route("/docs").route());
+		assertEquals("docs/index.html", routes.route("/docs/").route());
+		assertNull(routes.route("/docs/missing.html"));
+	}
+
+	@Test
+	public void catchAllTest() {
+		RouteTable routes = routes("*.html", "about.html");
+
+		assertEquals("about.html", routes.route("/about.html").route());
+		assertEquals("*.html", routes.route("/any/path.html").route());
+		assertEquals("*.html", routes.route("/any/path").route());
+		assertNull(routes.route("/style.css"));
+		assertEquals(2, routes.size());
+	}
+
+	@Test
+	public void isParameterizedTest() {
+		assertTrue(RouteTable.isParameterized("products/{id}"));
+		assertTrue(RouteTable.isParameterized("{id}.html"));
+		assertFalse(RouteTable.isParameterized("products/new"));
+		assertFalse(RouteTable.isParameterized("{}"));
+		assertFalse(RouteTable.isParameterized("a/{}/b"));
+		assertFalse(RouteTable.isParameterized("a}/{b"));
+		assertFalse(RouteTable.isParameterized(null));
+	}
+
+	@Test
+	public void emptyBracesLiteralTest() {
+		// not parameterized so generated as a file and routed literally
+		RouteTable routes = routes("{}");
+
+		assertEquals("{}", routes.route("/{}").route());
+		assertNull(routes.route("/x"));
+	}
+
+	private static RouteTable routes(String... keys) {
+		Map<String, SiteViewPage> views = new LinkedHashMap<String, SiteViewPage>();
+		for (String key : keys) {
+			views.put(key, new SiteViewPage().view("foo.View"));
+		}
+		return new RouteTable(views);
+	}
+}
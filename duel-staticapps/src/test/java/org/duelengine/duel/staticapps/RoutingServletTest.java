@@ -0,0 +1,30 @@
+package org.duelengine.duel.staticapps;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class RoutingServletTest {
+
+	@Test
+	public void acceptsGzipTest() {
+		assertTrue(RoutingServlet.acceptsGzip("gzip"));
+		assertTrue(RoutingServlet.acceptsGzip("deflate, GZIP;q=0.5"));
+		assertTrue(RoutingServlet.acceptsGzip("*"));
+
+		assertFalse(RoutingServlet.acceptsGzip(null));
+		assertFalse(RoutingServlet.acceptsGzip(""));
+		assertFalse(RoutingServlet.acceptsGzip("deflate, br"));
+		assertFalse(RoutingServlet.acceptsGzip("gzip;q=0"));
+		assertFalse(RoutingServlet.acceptsGzip("gzip;q=bad"));
+	}
+
+	@Test
+	public void acceptsGzipOverridesWildcardTest() {
+		assertTrue(RoutingServlet.acceptsGzip("*;q=0, gzip"));
+		assertTrue(RoutingServlet.acceptsGzip("gzip;q=0.1, *;q=0"));
+
+		assertFalse(RoutingServlet.acceptsGzip("*, gzip;q=0"));
+		assertFalse(RoutingServlet.acceptsGzip("gzip;q=0.0, *;q=1"));
+	}
+}